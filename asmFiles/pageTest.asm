@@ -0,0 +1,52 @@
+; Data pages
+; Fills the first 16 words of pages 1 to 15 with page + word, then gathers
+; one word of each page back into page 0. With a one-page memory every page
+; is page 0.
+
+	mov	r1		x01		; r1 = page
+
+fill:
+	page	r1
+	mov	r2		x00		; r2 = word
+
+word:
+	mov	r3		r2
+	add	r3		r1			; r3 = page + word
+	st		r2		r3			; MEM(page:word) = r3
+	add	r2		x01
+	comp	r2		x10
+	brnz	word
+
+	add	r1		x01
+	comp	r1		x10
+	brnz	fill
+
+; Sum word 5 of every page into r4
+	mov	r1		x0F
+	mov	r4		x00
+
+sum:
+	page	r1
+	ld		r3		x05		; r3 = MEM(page:5)
+	add	r4		r3
+	sub	r1		x01
+	brnz	sum
+
+	page	x00
+	st		x20	r4			; MEM(0:x20) = sum
+
+; Page selected by a loaded value, straight after the load
+	page	x02
+	ld		r6		x04		; r6 = MEM(2:4) = 6
+	page	r6
+	ld		r7		x01		; r7 = MEM(6:1) = 7
+	page	x00
+	st		x21	r7
+
+; Page numbers beyond the memory wrap
+	page	x12
+	st		x08	r7			; MEM(x12:8) or MEM(2:8) = 7
+	page	x00
+
+end:
+	jmp	end
@@ -0,0 +1,567 @@
+// Microprocessor Simulator
+
+package sim;
+
+import sim.jit.*;
+import sim.trace.*;
+
+import java.io.*;
+
+/**
+ * Headless runner. Assembles a program, runs it until it halts or the cycle
+ * budget runs out, then prints the final register file, data memory and
+ * simulation throughput. No AWT or Swing classes are loaded.
+ *
+ * The engine is the cycle-accurate pipeline (the default), the functional,
+ * instruction-level model, or the functional model translated to JVM code.
+ * With -profile, the pipeline's per-address cycle profile is printed as well,
+ * most expensive address first. With -trace, every pipeline cycle is recorded
+ * to the given file, see sim.trace.TraceWriter.
+ *
+ * With -predictor, the pipeline fetches down the path predicted by the given
+ * BranchPredictor scheme, with targets from a BTB of -btb entries if given,
+ * and the prediction accuracy is printed.
+ *
+ * With -dcache, data accesses go through a Cache of the given size, ways and
+ * line size in words, LRU and write-back unless -dcachePolicy and
+ * -writeThrough say otherwise, with hit and miss latencies from
+ * -dcacheLatency (1,10 by default). Misses stall the pipeline, and the hit
+ * rate and stall cycles are printed. -icache, -icachePolicy and
+ * -icacheLatency do the same for fetch, which -prefetch has fetch the next
+ * line on each miss; with -profile, misses and fetch stalls are also given
+ * per address.
+ *
+ * With -engine staged, the program runs on a StagedProcessor, by default
+ * laid out as the Processor pipeline. -stages gives another PipelineModel,
+ * a preset name or a stage list such as fe,de,ex,ex,ma,wb, and the model's
+ * relative cycle time is printed with the time the run would take, to weigh
+ * its CPI against its clock. -width 2 makes it dual-issue, printing how many
+ * instructions issued in pairs and why the others could not.
+ *
+ * With -engine ooo, the program runs on an OutOfOrderProcessor, with the
+ * width, reorder buffer, reservation stations and load/store queue sizes
+ * given by -window (2,32,8,8 by default) and a bimodal predictor unless
+ * -predictor names another. Its IPC, reorder buffer occupancy and issue
+ * stalls are printed against the program's dataflow limit.
+ *
+ * With -memory, every engine has a data memory of the given number of words,
+ * up to 65536, that programs reach a page of 256 words at a time through the
+ * page instruction. Only the pages written to are allocated, and printed.
+ *
+ * With -incremental, the pipeline's combinatorial logic is evaluated
+ * incrementally, only re-evaluating the nodes whose inputs changed, and how
+ * often each node was evaluated is printed.
+ *
+ * With -netlist, the pipeline's combinatorial logic is the datapath
+ * described by the given Netlist file, compiled to JVM code, such as
+ * netlists/classic.net, which is the pipeline's own.
+ *
+ * With -save, the pipeline's state at the end of the run is written to a
+ * checkpoint file, and -resume carries on from one in place of assembling a
+ * program, see CheckpointFile. The -cycles budget counts from the checkpoint.
+ *
+ * Usage: java sim.Batch [-engine pipeline|functional|translated|staged|ooo] [-stages model] [-width 1|2] [-cycles N] [-memory N] [-noMem]
+ *                       [-window width,rob,stations,queue] [-incremental] [-netlist file] [-profile] [-trace file]
+ *                       [-predictor not_taken|backward_taken|bimodal|gshare] [-btb N]
+ *                       [-dcache size,ways,line] [-dcachePolicy lru|fifo|random] [-writeThrough] [-dcacheLatency hit,miss]
+ *                       [-icache size,ways,line] [-icachePolicy lru|fifo|random] [-icacheLatency hit,miss] [-prefetch]
+ *                       [-save file] (file.asm | -resume file)
+ */
+public class Batch
+{
+	private static final long DEFAULT_CYCLES = 10000000;
+
+	private static PrintStream log = System.out;
+
+	public static void main(String[] args)
+	{
+		long maxCycles = DEFAULT_CYCLES;
+		int memorySize = 0;
+		boolean dumpMemory = true;
+		boolean profile = false;
+		boolean incremental = false;
+		String netlistFilename = null;
+		String traceFilename = null;
+		String saveFilename = null;
+		String resumeFilename = null;
+		String predictorName = null;
+		int btbEntries = 0;
+		String dcacheGeometry = null;
+		String dcachePolicy = "lru";
+		boolean writeThrough = false;
+		String dcacheLatency = "1,10";
+		String icacheGeometry = null;
+		String icachePolicy = "lru";
+		String icacheLatency = "1,10";
+		boolean prefetch = false;
+		String engineName = "pipeline";
+		String stagesSpec = null;
+		int issueWidth = 1;
+		String window = null;
+		String asmFilename = null;
+
+		for (int a=0 ; a<args.length ; a++)
+		{
+			if (args[a].equals("-cycles") && a+1 < args.length) maxCycles = Long.parseLong(args[++a]);
+			else if (args[a].equals("-engine") && a+1 < args.length) engineName = args[++a];
+			else if (args[a].equals("-stages") && a+1 < args.length) stagesSpec = args[++a];
+			else if (args[a].equals("-width") && a+1 < args.length) issueWidth = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-window") && a+1 < args.length) window = args[++a];
+			else if (args[a].equals("-memory") && a+1 < args.length) memorySize = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-noMem")) dumpMemory = false;
+			else if (args[a].equals("-profile")) profile = true;
+			else if (args[a].equals("-incremental")) incremental = true;
+			else if (args[a].equals("-netlist") && a+1 < args.length) netlistFilename = args[++a];
+			else if (args[a].equals("-trace") && a+1 < args.length) traceFilename = args[++a];
+			else if (args[a].equals("-save") && a+1 < args.length) saveFilename = args[++a];
+			else if (args[a].equals("-resume") && a+1 < args.length) resumeFilename = args[++a];
+			else if (args[a].equals("-predictor") && a+1 < args.length) predictorName = args[++a];
+			else if (args[a].equals("-btb") && a+1 < args.length) btbEntries = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-dcache") && a+1 < args.length) dcacheGeometry = args[++a];
+			else if (args[a].equals("-dcachePolicy") && a+1 < args.length) dcachePolicy = args[++a];
+			else if (args[a].equals("-writeThrough")) writeThrough = true;
+			else if (args[a].equals("-dcacheLatency") && a+1 < args.length) dcacheLatency = args[++a];
+			else if (args[a].equals("-icache") && a+1 < args.length) icacheGeometry = args[++a];
+			else if (args[a].equals("-icachePolicy") && a+1 < args.length) icachePolicy = args[++a];
+			else if (args[a].equals("-icacheLatency") && a+1 < args.length) icacheLatency = args[++a];
+			else if (args[a].equals("-prefetch")) prefetch = true;
+			else if (asmFilename == null) asmFilename = args[a];
+			else usage();
+		}
+
+		if ((asmFilename == null) == (resumeFilename == null)) usage();
+
+		// A resumed run keeps the memory size it was saved with
+		if (memorySize == 0) memorySize = DataMemory.PAGE_WORDS;
+		else if (resumeFilename != null || !DataMemory.isValidSize(memorySize)) usage();
+
+		Instruction[] program = null;
+		Engine engine = null;
+
+		if (resumeFilename != null)
+		{
+			if (!engineName.equals("pipeline")) usage();
+
+			try
+			{
+				Processor processor = CheckpointFile.load(new File(resumeFilename));
+				processor.enableDoubleBuffer = true;
+				program = processor.program;
+				engine = processor;
+			}
+			catch (IOException ioE)
+			{
+				log.println("ERR: Batch: Could not load checkpoint " + resumeFilename + " (" + ioE.getMessage() + ")");
+				System.exit(1);
+			}
+		}
+		else
+		{
+			program = Assembler.assemble(new File(asmFilename), log, false);
+			if (program == null)
+			{
+				log.println("ERR: Batch: Could not create program");
+				System.exit(1);
+			}
+
+			engine = createEngine(engineName, program, memorySize);
+			if (engine == null) usage();
+		}
+
+		if (stagesSpec != null || issueWidth != 1)
+		{
+			if (!(engine instanceof StagedProcessor)) usage();
+
+			try
+			{
+				PipelineModel model = (stagesSpec != null) ? PipelineModel.parse(stagesSpec) : PipelineModel.CLASSIC;
+				engine = createStaged(program, memorySize, model, issueWidth);
+			}
+			catch (IllegalArgumentException iaE)
+			{
+				log.println("ERR: Batch: " + iaE.getMessage());
+				System.exit(1);
+			}
+		}
+
+		if (window != null)
+		{
+			if (!(engine instanceof OutOfOrderProcessor) || !setWindow((OutOfOrderProcessor) engine, window)) usage();
+		}
+
+		// Only the pipeline has cycles to profile or trace, memory timing, or state to checkpoint
+		if ((profile || incremental || netlistFilename != null || traceFilename != null || dcacheGeometry != null || icacheGeometry != null || saveFilename != null) && !(engine instanceof Processor)) usage();
+
+		if (predictorName != null)
+		{
+			BranchPredictor.Scheme scheme = BranchPredictor.parseScheme(predictorName);
+			if (scheme == null || btbEntries < 0) usage();
+
+			BranchPredictor predictor = new BranchPredictor(scheme, BranchPredictor.DEFAULT_TABLE_BITS, BranchPredictor.DEFAULT_HISTORY_BITS, btbEntries);
+
+			if (engine instanceof OutOfOrderProcessor) ((OutOfOrderProcessor) engine).predictor = predictor;
+			else if (engine instanceof Processor)
+			{
+				// A resumed predictor of the same configuration keeps its tables
+				Processor processor = (Processor) engine;
+				if (predictor.hasSameConfiguration(processor.predictor)) predictor.copy(processor.predictor);
+				processor.predictor = predictor;
+			}
+			else usage();
+		}
+		if (dcacheGeometry != null)
+		{
+			Cache dataCache = createCache(dcacheGeometry, dcachePolicy, !writeThrough, dcacheLatency);
+			if (dataCache == null) usage();
+
+			// A resumed cache of the same configuration keeps its contents
+			Processor processor = (Processor) engine;
+			if (dataCache.hasSameConfiguration(processor.dataCache)) dataCache.copy(processor.dataCache);
+			processor.dataCache = dataCache;
+		}
+		if (icacheGeometry != null)
+		{
+			Cache instructionCache = createCache(icacheGeometry, icachePolicy, true, icacheLatency);
+			if (instructionCache == null) usage();
+
+			Processor processor = (Processor) engine;
+			if (instructionCache.hasSameConfiguration(processor.instructionCache)) instructionCache.copy(processor.instructionCache);
+			processor.instructionCache = instructionCache;
+			processor.enableNextLinePrefetch = prefetch;
+		}
+		if (profile) ((Processor) engine).setProfiling(true);
+		if (incremental) ((Processor) engine).setIncremental(true);
+		if (netlistFilename != null)
+		{
+			// A netlist replaces the nodes incremental evaluation tracks
+			if (incremental) usage();
+
+			try
+			{
+				((Processor) engine).setDatapath(Netlist.load(new File(netlistFilename)), false);
+			}
+			catch (IOException ioE)
+			{
+				log.println("ERR: Batch: Could not read netlist " + netlistFilename);
+				System.exit(1);
+			}
+			catch (IllegalArgumentException iaE)
+			{
+				log.println("ERR: Batch: " + iaE.getMessage());
+				System.exit(1);
+			}
+		}
+
+		TraceWriter tracer = null;
+		if (traceFilename != null)
+		{
+			try
+			{
+				tracer = new TraceWriter(new File(traceFilename), (Processor) engine);
+			}
+			catch (IOException ioE)
+			{
+				log.println("ERR: Batch: Could not create trace file " + traceFilename);
+				System.exit(1);
+			}
+			((Processor) engine).tracer = tracer;
+		}
+
+		long startCycles = engine.getCycleCount();
+		long startTime = System.nanoTime();
+		boolean halted = engine.run(maxCycles);
+		long wallTime = System.nanoTime() - startTime;
+
+		if (tracer != null)
+		{
+			try
+			{
+				tracer.close();
+			}
+			catch (IOException ioE)
+			{
+				log.println("ERR: Batch: Could not write trace file " + traceFilename);
+				System.exit(1);
+			}
+		}
+
+		if (saveFilename != null)
+		{
+			try
+			{
+				CheckpointFile.save(new File(saveFilename), (Processor) engine);
+			}
+			catch (IOException ioE)
+			{
+				log.println("ERR: Batch: Could not write checkpoint " + saveFilename);
+				System.exit(1);
+			}
+		}
+
+		printRegisters(engine.getRegisterFile());
+		if (dumpMemory) printMemory(log, engine.getMemory());
+
+		double seconds = wallTime / 1e9;
+		log.println();
+		log.println("Engine:       " + engineName + ((engine instanceof Processor && ((Processor) engine).datapath != null) ? " (" + ((Processor) engine).datapath + ")" : "")
+			+ ((engine instanceof StagedProcessor) ? " (" + ((StagedProcessor) engine).model
+			+ ((((StagedProcessor) engine).width > 1) ? ", " + ((StagedProcessor) engine).width + "-wide" : "") + ")" : ""));
+		log.println("Status:       " + (halted ? "halted" : "cycle limit reached"));
+		log.println("Cycles:       " + engine.getCycleCount());
+		log.println("Instructions: " + engine.getInstructionCount());
+		log.printf("Wall time:    %.3f s%n", seconds);
+		log.printf("Cycles/sec:   %.0f%n", (seconds > 0) ? (engine.getCycleCount() - startCycles) / seconds : 0.0);
+
+		if (engine instanceof Processor) printCounters(((Processor) engine).getCounters());
+		if (engine instanceof StagedProcessor) printStaged((StagedProcessor) engine);
+		if (engine instanceof OutOfOrderProcessor) printOutOfOrder((OutOfOrderProcessor) engine);
+		if (engine instanceof Processor && ((Processor) engine).isIncremental()) printNodes((Processor) engine);
+		if (engine instanceof Processor && ((Processor) engine).predictor != null) printPredictor(((Processor) engine).predictor);
+		if (engine instanceof Processor && ((Processor) engine).dataCache != null) printCache("D-cache:", ((Processor) engine).dataCache);
+		if (engine instanceof Processor && ((Processor) engine).instructionCache != null) printCache("I-cache:", ((Processor) engine).instructionCache);
+
+		if (profile)
+		{
+			log.println();
+			((Processor) engine).profiler.writeReport(log, program);
+		}
+	}
+
+	// Returns the named engine, or null if the name is not recognised
+	public static Engine createEngine(String name, Instruction[] program)
+	{
+		return createEngine(name, program, DataMemory.PAGE_WORDS);
+	}
+
+	public static Engine createEngine(String name, Instruction[] program, int memorySize)
+	{
+		if (name.equals("functional"))
+		{
+			FunctionalEngine functional = new FunctionalEngine(program);
+			functional.memorySize = memorySize;
+			functional.reset();
+			return functional;
+		}
+
+		if (name.equals("translated")) return new TranslatingEngine(program, memorySize);
+
+		if (name.equals("pipeline"))
+		{
+			Processor processor = new Processor(program);
+			processor.enableDoubleBuffer = true;
+			processor.memorySize = memorySize;
+			processor.reset();
+			return processor;
+		}
+
+		if (name.equals("staged")) return createStaged(program, memorySize, PipelineModel.CLASSIC, 1);
+
+		if (name.equals("ooo"))
+		{
+			OutOfOrderProcessor ooo = new OutOfOrderProcessor(program);
+			ooo.memorySize = memorySize;
+			ooo.reset();
+			return ooo;
+		}
+
+		return null;
+	}
+
+	public static StagedProcessor createStaged(Instruction[] program, int memorySize, PipelineModel model, int issueWidth)
+	{
+		StagedProcessor staged = new StagedProcessor(program, model, issueWidth);
+		staged.memorySize = memorySize;
+		staged.reset();
+		return staged;
+	}
+
+	// Cache from the command line's "size,ways,line" and "hit,miss" lists, or
+	// null if they do not describe one
+	public static Cache createCache(String geometry, String policy, boolean writeBack, String latency)
+	{
+		String[] sizes = geometry.split(",");
+		String[] latencies = latency.split(",");
+		Cache.Replacement replacement = Cache.parseReplacement(policy);
+		if (sizes.length != 3 || latencies.length != 2 || replacement == null) return null;
+
+		try
+		{
+			return new Cache(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]), Integer.parseInt(sizes[2]),
+				replacement, writeBack, Integer.parseInt(latencies[0]), Integer.parseInt(latencies[1]));
+		}
+		catch (IllegalArgumentException iaE)
+		{
+			return null;
+		}
+	}
+
+	// Sets the width and window sizes from "width,rob,stations,queue" and
+	// resets, returning false if they are not four positive numbers
+	public static boolean setWindow(OutOfOrderProcessor ooo, String window)
+	{
+		String[] sizes = window.split(",");
+		if (sizes.length != 4) return false;
+
+		try
+		{
+			ooo.width = Integer.parseInt(sizes[0]);
+			ooo.robEntries = Integer.parseInt(sizes[1]);
+			ooo.stations = Integer.parseInt(sizes[2]);
+			ooo.queueEntries = Integer.parseInt(sizes[3]);
+			ooo.aluUnits = ooo.width;
+			ooo.reset();
+			return true;
+		}
+		catch (IllegalArgumentException iaE)
+		{
+			return false;
+		}
+	}
+
+	private static void printRegisters(int[] registerFile)
+	{
+		log.println("Register File:");
+		for (int i=0 ; i<8 ; i++)
+		{
+			log.printf("  r%-2d x%02X %03d      r%-2d x%02X %03d%n", i, registerFile[i], registerFile[i], i+8, registerFile[i+8], registerFile[i+8]);
+		}
+	}
+
+	// Prints page 0, then the rows of other pages holding a non-zero word
+	public static void printMemory(PrintStream out, DataMemory memory)
+	{
+		out.println("Data Memory:");
+		for (int p=0 ; p<memory.getPageCount() ; p++)
+		{
+			int[] page = memory.getPage(p);
+			if (page == null) continue;
+
+			for (int row=0 ; row<page.length ; row+=16)
+			{
+				if (p > 0 && isZero(page, row, row+16)) continue;
+
+				int address = (p << DataMemory.PAGE_SHIFT) | row;
+				StringBuilder line = new StringBuilder(String.format((p == 0) ? "  x%02X:" : "  x%04X:", address));
+				for (int i=row ; i<row+16 ; i++) line.append(String.format(" %02X", page[i]));
+				out.println(line);
+			}
+		}
+	}
+
+	private static boolean isZero(int[] words, int from, int to)
+	{
+		for (int i=from ; i<to ; i++) if (words[i] != 0) return false;
+		return true;
+	}
+
+	private static void printCounters(PerfCounters counters)
+	{
+		log.println();
+		log.printf("CPI:          %.3f%n", counters.getCPI());
+		log.println("Load stalls:  " + counters.loadStallCycles);
+		log.println("Cache stalls: " + counters.dataCacheStallCycles);
+		log.println("Fetch stalls: " + counters.fetchStallCycles);
+		log.println("Flushed:      " + counters.flushedInstructions);
+		log.println("Forwards:     A from MA " + counters.forwardAFromMA + ", A from WB " + counters.forwardAFromWB
+			+ ", B from MA " + counters.forwardBFromMA + ", B from WB " + counters.forwardBFromWB);
+		log.println("Branches:     " + counters.branchesTaken + " taken, " + counters.branchesNotTaken + " not taken");
+		log.println("Memory:       " + counters.memoryReads + " reads, " + counters.memoryWrites + " writes");
+	}
+
+	// Evaluations of each combinatorial node, against evaluating them all
+	// every cycle
+	private static void printNodes(Processor processor)
+	{
+		long evaluations = 0;
+		StringBuilder nodes = new StringBuilder();
+		for (int n=0 ; n<Processor.NODE_COUNT ; n++)
+		{
+			evaluations += processor.nodeEvaluations[n];
+			nodes.append((n == 0) ? " " : ", ").append(Processor.NODE_NAMES[n]).append(' ').append(processor.nodeEvaluations[n]);
+		}
+
+		long full = processor.evaluationPasses * Processor.NODE_COUNT;
+		log.printf("Evaluated:    %d of %d node evaluations, %.1f%%%n", evaluations, full, (full > 0) ? 100.0 * evaluations / full : 0.0);
+		log.println("Nodes:       " + nodes);
+	}
+
+	private static void printStaged(StagedProcessor staged)
+	{
+		PipelineModel model = staged.model;
+		PerfCounters counters = staged.getCounters();
+
+		StringBuilder stages = new StringBuilder();
+		StringBuilder forwards = new StringBuilder();
+		for (int s=0 ; s<model.getStageCount() ; s++)
+		{
+			stages.append(' ').append(model.stageNames[s]);
+			if (s > model.resolveStage) forwards.append((forwards.length() == 0) ? " from " : ", from ").append(model.stageNames[s]).append(' ').append(staged.forwards[s]);
+		}
+
+		log.println();
+		log.println("Stages:      " + stages);
+		log.printf("CPI:          %.3f%n", counters.getCPI());
+		if (staged.width > 1)
+		{
+			long issued = 2 * staged.pairsIssued + staged.singlesIssued;
+			log.printf("Issue:        %d pairs, %d single, %.1f%% of instructions paired%n",
+				staged.pairsIssued, staged.singlesIssued, (issued > 0) ? 100.0 * 2 * staged.pairsIssued / issued : 0.0);
+			log.println("Splits:       " + staged.splits[StagedProcessor.PAIR_RAW] + " RAW, " + staged.splits[StagedProcessor.PAIR_MEMORY]
+				+ " memory, " + staged.splits[StagedProcessor.PAIR_BRANCH] + " branch");
+		}
+		log.println("Load stalls:  " + counters.loadStallCycles);
+		log.println("Other stalls: " + staged.operandStallCycles);
+		log.println("Flushed:      " + counters.flushedInstructions);
+		log.println("Forwards:    " + ((forwards.length() == 0) ? " none" : forwards));
+		log.println("Branches:     " + counters.branchesTaken + " taken, " + counters.branchesNotTaken + " not taken");
+		log.println("Memory:       " + counters.memoryReads + " reads, " + counters.memoryWrites + " writes");
+		log.printf("Cycle time:   %.2f relative, %.1f for the run%n", model.getCycleTime(), model.getCycleTime() * staged.clockCount);
+	}
+
+	private static void printOutOfOrder(OutOfOrderProcessor ooo)
+	{
+		PerfCounters counters = ooo.getCounters();
+		long[] stalls = ooo.stallCycles;
+
+		log.println();
+		log.println("Window:       " + ooo.width + "-wide, " + ooo.robEntries + " ROB entries, " + ooo.stations + " stations, "
+			+ ooo.queueEntries + " queue entries, " + ooo.aluUnits + " ALUs");
+		log.printf("IPC:          %.3f%n", ooo.getIPC());
+		log.printf("ROB:          %.1f entries on average, %d at peak%n", ooo.getAverageOccupancy(), ooo.robPeak);
+		log.println("Issue stalls: " + stalls[OutOfOrderProcessor.Stall.FETCH_EMPTY.ordinal()] + " fetch empty, "
+			+ stalls[OutOfOrderProcessor.Stall.ROB_FULL.ordinal()] + " ROB full, "
+			+ stalls[OutOfOrderProcessor.Stall.STATIONS_FULL.ordinal()] + " stations full, "
+			+ stalls[OutOfOrderProcessor.Stall.QUEUE_FULL.ordinal()] + " queue full");
+		log.println("Flushed:      " + counters.flushedInstructions + " after " + ooo.mispredictions + " mispredictions");
+		log.println("Branches:     " + counters.branchesTaken + " taken, " + counters.branchesNotTaken + " not taken");
+		log.println("Memory:       " + counters.memoryReads + " reads, " + counters.memoryWrites + " writes, " + ooo.storeForwards + " loads forwarded");
+		log.printf("Dataflow:     %d cycles, IPC %.3f, %.1f%% reached%n", ooo.dataflowCycles, ooo.getDataflowIPC(),
+			(ooo.clockCount > 0) ? 100.0 * ooo.dataflowCycles / ooo.clockCount : 0.0);
+		if (ooo.predictor != null) log.printf("Predictor:    %s, %.2f%% accurate%n", ooo.predictor.scheme.name().toLowerCase(), 100 * ooo.predictor.getAccuracy());
+	}
+
+	private static void printPredictor(BranchPredictor predictor)
+	{
+		log.printf("Predictor:    %s%s, %.2f%% accurate, %d mispredicted, %d cycles lost%n",
+			predictor.scheme.name().toLowerCase(), (predictor.btbEntries > 0) ? " with " + predictor.btbEntries + "-entry BTB" : "",
+			100 * predictor.getAccuracy(), predictor.mispredictions, 2 * predictor.mispredictions);
+	}
+
+	private static void printCache(String name, Cache cache)
+	{
+		log.printf("%-14s%d words, %d-way, %d-word lines, %s, %s, %.2f%% hits, %d read and %d write misses, %d write backs, %d prefetches%n",
+			name, cache.sizeWords, cache.ways, cache.lineWords, cache.replacement.name().toLowerCase(),
+			cache.writeBack ? "write-back" : "write-through", 100 * cache.getHitRate(), cache.readMisses, cache.writeMisses, cache.writeBacks, cache.prefetches);
+	}
+
+	private static void usage()
+	{
+		log.println("Usage: java sim.Batch [-engine pipeline|functional|translated|staged|ooo] [-stages model] [-width 1|2] [-cycles N] [-memory N] [-noMem]");
+		log.println("                      [-window width,rob,stations,queue] [-incremental] [-netlist file] [-profile] [-trace file]");
+		log.println("                      [-predictor not_taken|backward_taken|bimodal|gshare] [-btb N]");
+		log.println("                      [-dcache size,ways,line] [-dcachePolicy lru|fifo|random] [-writeThrough] [-dcacheLatency hit,miss]");
+		log.println("                      [-icache size,ways,line] [-icachePolicy lru|fifo|random] [-icacheLatency hit,miss] [-prefetch]");
+		log.println("                      [-save file] (file.asm | -resume file)");
+		System.exit(1);
+	}
+}
@@ -5,20 +5,209 @@
 
 package sim;
 
+/**
+ * Predicts the next fetch address from the address being fetched. Processor
+ * fetches down the predicted path and checks each prediction when its
+ * instruction reaches EX, where the jump resolves; only a wrong prediction
+ * is redirected and flushed, through the same FE and DE flushes a taken jump
+ * uses without a predictor.
+ *
+ * Schemes:
+ *   NOT_TAKEN       Every jump predicted not taken, the timing of the pipeline
+ *                   without a predictor
+ *   BACKWARD_TAKEN  jmp taken, branches taken when their target is backwards
+ *   BIMODAL         jmp taken, branches by a 2-bit counter indexed by address
+ *   GSHARE          jmp taken, branches by a 2-bit counter indexed by address
+ *                   xor the global history of branch outcomes
+ *
+ * Targets come from a direct-mapped branch target buffer, which also has to
+ * hit for a jump to be recognised at fetch, or with no buffer from decoding
+ * the fetched instruction. Tables are updated non-speculatively as branches
+ * leave EX, each branch training the counter its prediction was read from:
+ * the counter index is taken at fetch and carried down the pipeline, as the
+ * history may have moved on by the time the branch resolves.
+ */
 public class BranchPredictor
 {
-	public BranchPredictor()
+	public enum Scheme {NOT_TAKEN, BACKWARD_TAKEN, BIMODAL, GSHARE}
+
+	public static final int DEFAULT_TABLE_BITS = 10;
+	public static final int DEFAULT_HISTORY_BITS = 8;
+
+	private static final int JMP = Instruction.InstructionType.JMPi.ordinal();
+	private static final int BRZ = Instruction.InstructionType.BRZi.ordinal();
+	private static final int BRNZ = Instruction.InstructionType.BRNZi.ordinal();
+
+	public final Scheme scheme;
+	public final int tableBits;			// Counter table of 2^tableBits entries
+	public final int historyBits;		// Global history length, GSHARE only
+	public final int btbEntries;		// Zero to decode targets from the fetched instruction
+
+	// State, all of it copied by copy() and saved by CheckpointFile
+	int[] counters;						// 2-bit saturating, taken from 2
+	int history;
+	int[] btbTag;						// Address held in each entry, -1 when empty
+	int[] btbTarget;
+	int[] btbType;						// InstructionType ordinal of the jump
+
+	// Statistics
+	public long predictions;			// Instructions leaving EX
+	public long branches;				// Jumps and branches leaving EX
+	public long mispredictions;
+
+	public BranchPredictor(Scheme scheme, int tableBits, int historyBits, int btbEntries)
+	{
+		this.scheme = scheme;
+		this.tableBits = tableBits;
+		this.historyBits = historyBits;
+		this.btbEntries = btbEntries;
+
+		counters = new int[1 << tableBits];
+		btbTag = new int[btbEntries];
+		btbTarget = new int[btbEntries];
+		btbType = new int[btbEntries];
+
+		reset();
+	}
+
+	public BranchPredictor(Scheme scheme)
+	{
+		this(scheme, DEFAULT_TABLE_BITS, DEFAULT_HISTORY_BITS, 0);
+	}
+
+	public void reset()
 	{
-		
+		// Weakly not taken
+		for (int i=0 ; i<counters.length ; i++) counters[i] = 1;
+		history = 0;
+
+		for (int i=0 ; i<btbEntries ; i++) btbTag[i] = -1;
+
+		predictions = 0;
+		branches = 0;
+		mispredictions = 0;
 	}
 
-	public int update(Processor processor)
+	// Copies the tables and statistics of a predictor with the same configuration
+	public void copy(BranchPredictor src)
 	{
-		return 0;
+		System.arraycopy(src.counters, 0, counters, 0, counters.length);
+		history = src.history;
+
+		System.arraycopy(src.btbTag, 0, btbTag, 0, btbEntries);
+		System.arraycopy(src.btbTarget, 0, btbTarget, 0, btbEntries);
+		System.arraycopy(src.btbType, 0, btbType, 0, btbEntries);
+
+		predictions = src.predictions;
+		branches = src.branches;
+		mispredictions = src.mispredictions;
 	}
 
-	public int getPrediction()
+	// Scheme named as on the command line, the enum name in lower case, or
+	// null if not recognised
+	public static Scheme parseScheme(String name)
 	{
-		return 0;
+		for (Scheme scheme : Scheme.values()) if (scheme.name().toLowerCase().equals(name)) return scheme;
+		return null;
+	}
+
+	public boolean hasSameConfiguration(BranchPredictor other)
+	{
+		return other != null && other.scheme == scheme && other.tableBits == tableBits
+			&& other.historyBits == historyBits && other.btbEntries == btbEntries;
+	}
+
+	public BranchPredictor snapshot()
+	{
+		BranchPredictor snapshot = new BranchPredictor(scheme, tableBits, historyBits, btbEntries);
+		snapshot.copy(this);
+		return snapshot;
+	}
+
+	// Fraction of jumps and branches whose next address was predicted
+	public double getAccuracy()
+	{
+		return (branches == 0) ? 1.0 : 1.0 - (double) mispredictions / branches;
+	}
+
+	// Next fetch address after the given one
+	public int predict(DecodedProgram decoded, int pc)
+	{
+		int fallThrough = (pc + 1) & 0xFFF;
+		if (scheme == Scheme.NOT_TAKEN) return fallThrough;
+
+		int type;
+		int target;
+
+		if (btbEntries > 0)
+		{
+			int slot = pc % btbEntries;
+			if (btbTag[slot] != pc) return fallThrough;
+
+			type = btbType[slot];
+			target = btbTarget[slot];
+		}
+		else
+		{
+			if (pc >= decoded.length) return fallThrough;
+
+			type = decoded.type[pc];
+			target = decoded.imm[pc];
+		}
+
+		if (type == JMP) return target;
+		if (type != BRZ && type != BRNZ) return fallThrough;
+
+		switch (scheme)
+		{
+			case BACKWARD_TAKEN :	return (target <= pc) ? target : fallThrough;
+			default :					return (counters[index(pc)] >= 2) ? target : fallThrough;
+		}
+	}
+
+	// Counter index for the branch at pc, with the current history
+	int index(int pc)
+	{
+		if (scheme == Scheme.GSHARE) pc ^= history;
+		return pc & ((1 << tableBits) - 1);
+	}
+
+	// Called by Processor before the registers are clocked, while signals
+	// still hold the instruction leaving EX and its outcome
+	void update(Processor.Controls controls, Processor.Signals signals)
+	{
+		if (controls.deexEn == 0 || signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return;
+
+		update(signals.ex_opCode, signals.ex_pc, signals.ex_predIndex, controls.muxCS == 2, signals.ex_pcJmp, signals.ex_mispredict == 1);
+	}
+
+	// Records the outcome of an instruction of the given type at pc, in
+	// program order, and whether its next address was mispredicted. The
+	// index is the counter index given when it was fetched.
+	void update(int type, int pc, int index, boolean taken, int target, boolean mispredicted)
+	{
+		predictions ++;
+		if (mispredicted) mispredictions ++;
+
+		if (type != JMP && type != BRZ && type != BRNZ) return;
+
+		branches ++;
+
+		if (type != JMP)
+		{
+			if (taken && counters[index] < 3) counters[index] ++;
+			else if (!taken && counters[index] > 0) counters[index] --;
+
+			history = ((history << 1) | (taken ? 1 : 0)) & ((1 << historyBits) - 1);
+		}
+
+		// Allocate on taken, so the buffer only holds jumps worth redirecting to
+		if (taken && btbEntries > 0)
+		{
+			int slot = pc % btbEntries;
+			btbTag[slot] = pc;
+			btbTarget[slot] = target;
+			btbType[slot] = type;
+		}
 	}
 }
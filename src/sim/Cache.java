@@ -0,0 +1,262 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Timing model of a set-associative cache in front of a word-addressed
+ * memory. Only tags, replacement state and dirty bits are kept: the data
+ * itself always lives in the backing array, so a cache can be attached to or
+ * removed from a run without changing what it computes, only how long it
+ * takes.
+ *
+ * probe() gives the cycles an access would take without changing anything,
+ * which the pipeline uses to decide how long to hold the accessing stage;
+ * access() then commits the access once that stage moves on. A miss costs
+ * missLatency on top of hitLatency to fill the line, and again to write back
+ * a dirty victim. Write-through caches send every store straight on, through
+ * a write buffer that never fills, and do not allocate on a store miss.
+ * prefetch() fills a line without it counting as an access, and without
+ * taking any time of its own.
+ *
+ * Sizes are in words and must be powers of two.
+ */
+public class Cache
+{
+	public enum Replacement {LRU, FIFO, RANDOM}
+
+	public final int sizeWords;
+	public final int ways;
+	public final int lineWords;
+	public final Replacement replacement;
+	public final boolean writeBack;
+	public final int hitLatency;		// Cycles for a hit, 1 to take no longer than a flat memory
+	public final int missLatency;		// Further cycles per line moved to or from memory
+
+	private final int sets;
+	private final int lineShift;
+
+	// State, all of it copied by copy() and saved by CheckpointFile
+	int[] tags;						// Line address held in each way, set by set, -1 when empty
+	int[] dirty;
+	long[] stamps;					// Access (LRU) or fill (FIFO) time of each way
+	long time;
+	int seed;						// Random replacement, advanced on each fill
+
+	// Statistics
+	public long reads;
+	public long writes;
+	public long readMisses;
+	public long writeMisses;
+	public long writeBacks;
+	public long prefetches;			// Lines filled by prefetch()
+
+	public Cache(int sizeWords, int ways, int lineWords, Replacement replacement, boolean writeBack, int hitLatency, int missLatency)
+	{
+		if (Integer.bitCount(sizeWords) != 1 || Integer.bitCount(ways) != 1 || Integer.bitCount(lineWords) != 1)
+		{
+			throw new IllegalArgumentException("Cache: Size, ways and line size must be powers of two");
+		}
+		if (ways * lineWords > sizeWords) throw new IllegalArgumentException("Cache: Fewer than one set");
+		if (hitLatency < 1 || missLatency < 0) throw new IllegalArgumentException("Cache: Invalid latency");
+
+		this.sizeWords = sizeWords;
+		this.ways = ways;
+		this.lineWords = lineWords;
+		this.replacement = replacement;
+		this.writeBack = writeBack;
+		this.hitLatency = hitLatency;
+		this.missLatency = missLatency;
+
+		sets = sizeWords / (ways * lineWords);
+		lineShift = Integer.numberOfTrailingZeros(lineWords);
+
+		tags = new int[sets * ways];
+		dirty = new int[sets * ways];
+		stamps = new long[sets * ways];
+
+		reset();
+	}
+
+	public void reset()
+	{
+		for (int i=0 ; i<tags.length ; i++)
+		{
+			tags[i] = -1;
+			dirty[i] = 0;
+			stamps[i] = 0;
+		}
+
+		time = 0;
+		seed = 1;
+
+		reads = 0;
+		writes = 0;
+		readMisses = 0;
+		writeMisses = 0;
+		writeBacks = 0;
+		prefetches = 0;
+	}
+
+	// Copies the state and statistics of a cache with the same configuration
+	public void copy(Cache src)
+	{
+		System.arraycopy(src.tags, 0, tags, 0, tags.length);
+		System.arraycopy(src.dirty, 0, dirty, 0, dirty.length);
+		System.arraycopy(src.stamps, 0, stamps, 0, stamps.length);
+		time = src.time;
+		seed = src.seed;
+
+		reads = src.reads;
+		writes = src.writes;
+		readMisses = src.readMisses;
+		writeMisses = src.writeMisses;
+		writeBacks = src.writeBacks;
+		prefetches = src.prefetches;
+	}
+
+	// Replacement policy named as on the command line, the enum name in lower
+	// case, or null if not recognised
+	public static Replacement parseReplacement(String name)
+	{
+		for (Replacement replacement : Replacement.values()) if (replacement.name().toLowerCase().equals(name)) return replacement;
+		return null;
+	}
+
+	public boolean hasSameConfiguration(Cache other)
+	{
+		return other != null && other.sizeWords == sizeWords && other.ways == ways && other.lineWords == lineWords
+			&& other.replacement == replacement && other.writeBack == writeBack
+			&& other.hitLatency == hitLatency && other.missLatency == missLatency;
+	}
+
+	public Cache snapshot()
+	{
+		Cache snapshot = new Cache(sizeWords, ways, lineWords, replacement, writeBack, hitLatency, missLatency);
+		snapshot.copy(this);
+		return snapshot;
+	}
+
+	public long getMisses()
+	{
+		return readMisses + writeMisses;
+	}
+
+	public double getHitRate()
+	{
+		long accesses = reads + writes;
+		return (accesses == 0) ? 1.0 : 1.0 - (double) getMisses() / accesses;
+	}
+
+	// Cycles the access would take, leaving the cache unchanged
+	public int probe(int address, boolean write)
+	{
+		int line = address >> lineShift;
+		int base = (line & (sets - 1)) * ways;
+
+		if (find(base, line) >= 0) return hitLatency;
+		if (write && !writeBack) return hitLatency;
+
+		int victim = victim(base);
+		return hitLatency + missLatency + ((dirty[victim] == 1) ? missLatency : 0);
+	}
+
+	// Makes the access, filling the line on a miss. Returns whether it hit.
+	public boolean access(int address, boolean write)
+	{
+		int line = address >> lineShift;
+		int base = (line & (sets - 1)) * ways;
+		int way = find(base, line);
+
+		time ++;
+
+		if (write) writes ++;
+		else reads ++;
+
+		if (way >= 0)
+		{
+			if (replacement == Replacement.LRU) stamps[way] = time;
+			if (write && writeBack) dirty[way] = 1;
+			return true;
+		}
+
+		if (write) writeMisses ++;
+		else readMisses ++;
+
+		// No allocation on a write-through store miss
+		if (write && !writeBack) return false;
+
+		way = fill(base, line);
+		if (write) dirty[way] = 1;
+		return false;
+	}
+
+	// Fills the line holding the address if it is not already present
+	public void prefetch(int address)
+	{
+		int line = address >> lineShift;
+		int base = (line & (sets - 1)) * ways;
+		if (find(base, line) >= 0) return;
+
+		time ++;
+		prefetches ++;
+		fill(base, line);
+	}
+
+	// Way holding the address, or -1
+	int lookup(int address)
+	{
+		int line = address >> lineShift;
+		return find((line & (sets - 1)) * ways, line);
+	}
+
+	void invalidate(int way)
+	{
+		tags[way] = -1;
+		dirty[way] = 0;
+	}
+
+	void clean(int way)
+	{
+		dirty[way] = 0;
+	}
+
+	private int fill(int base, int line)
+	{
+		int way = victim(base);
+		if (dirty[way] == 1) writeBacks ++;
+
+		if (replacement == Replacement.RANDOM) seed = nextSeed(seed);
+
+		tags[way] = line;
+		dirty[way] = 0;
+		stamps[way] = time;
+		return way;
+	}
+
+	private int find(int base, int line)
+	{
+		for (int w=base ; w<base+ways ; w++) if (tags[w] == line) return w;
+		return -1;
+	}
+
+	// Way to fill in the set, an empty one if there is one
+	private int victim(int base)
+	{
+		for (int w=base ; w<base+ways ; w++) if (tags[w] == -1) return w;
+
+		if (replacement == Replacement.RANDOM) return base + (nextSeed(seed) >>> 8) % ways;
+
+		int victim = base;
+		for (int w=base+1 ; w<base+ways ; w++) if (stamps[w] < stamps[victim]) victim = w;
+		return victim;
+	}
+
+	// Xorshift, kept in the cache state so runs repeat exactly
+	private static int nextSeed(int seed)
+	{
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+}
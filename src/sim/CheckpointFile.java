@@ -0,0 +1,632 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Saves the complete state of a Processor to a binary file, and loads it back
+ * into a new Processor that carries on from the same clock edge. The file
+ * holds the program with its source map, so no assembly file is needed to
+ * resume, and the option flags the run was made with.
+ *
+ * Loading maps the file into memory and copies each section straight into the
+ * new Processor. A checkpoint taken once can be loaded by any number of runs,
+ * see the -save and -resume options of Batch and -from of Sweep.
+ *
+ * The format is little-endian. All sections before the program have a fixed
+ * size for a given version.
+ *
+ * Header:   magic, version, option flags, program length, register count,
+ *           memory size, reserved (ints), clock count, instruction count
+ *           (longs), stage addresses FE to WB (ints), reserved (int)
+ * Counters: PerfCounters fields in declaration order, then the opcode tallies (longs)
+ * Signals:  Processor.Signals fields in declaration order (ints)
+ * Controls: Processor.Controls fields in declaration order, aluOp as its
+ *           ordinal or -1 (ints)
+ * Memories: register file, data memory page 0 (ints)
+ * Program:  per instruction, type ordinal, encoding, source line, argument
+ *           count, arguments (ints), source string length and UTF-8 bytes
+ *           padded to a whole int
+ * Predictor, if the predictor option flag is set: scheme ordinal, table
+ *           bits, history bits, BTB entries, history (ints), predictions,
+ *           branches, mispredictions (longs), counters, BTB tags, targets
+ *           and types (ints)
+ * Caches, data then instruction, each if its option flag is set: size,
+ *           ways, line size, replacement ordinal, write-back, hit latency,
+ *           miss latency, seed (ints), time, reads, writes, read misses,
+ *           write misses, write backs, prefetches (longs), tags, dirty bits
+ *           (ints), stamps (longs)
+ * Pages:    count of the other data memory pages written to, then for each
+ *           its page number and words (ints)
+ */
+public class CheckpointFile
+{
+	public static final int MAGIC = 0x43535056;		// "VPSC"
+	public static final int VERSION = 7;
+	public static final int HEADER_SIZE = 72;
+
+	private static final int SIGNAL_COUNT = 62;
+	private static final int CONTROL_COUNT = 15;
+	private static final int COUNTER_COUNT = 14 + PerfCounters.OPCODES;
+
+	// Option flags
+	private static final int REG_FORWARDING = 1 << 0;
+	private static final int JUMP_FLUSH = 1 << 1;
+	private static final int LOAD_STALL = 1 << 2;
+	private static final int DOUBLE_BUFFER = 1 << 3;
+	private static final int PREDICTOR = 1 << 4;
+	private static final int DATA_CACHE = 1 << 5;
+	private static final int INSTRUCTION_CACHE = 1 << 6;
+	private static final int NEXT_LINE_PREFETCH = 1 << 7;
+
+	private static final Processor.AluOp[] ALU_OPS = Processor.AluOp.values();
+	private static final Instruction.InstructionType[] TYPES = Instruction.InstructionType.values();
+	private static final BranchPredictor.Scheme[] SCHEMES = BranchPredictor.Scheme.values();
+	private static final Cache.Replacement[] REPLACEMENTS = Cache.Replacement.values();
+
+	public static void save(File file, Processor processor) throws IOException
+	{
+		Instruction[] program = processor.program;
+
+		byte[][] srcStrings = new byte[program.length][];
+		int programSize = 0;
+		for (int i=0 ; i<program.length ; i++)
+		{
+			srcStrings[i] = (program[i].srcString == null) ? new byte[0] : program[i].srcString.getBytes(StandardCharsets.UTF_8);
+			programSize += 4 * (5 + program[i].argValArray.length) + pad(srcStrings[i].length);
+		}
+
+		BranchPredictor predictor = processor.predictor;
+		int predictorSize = (predictor == null) ? 0 : 4 * 5 + 8 * 3 + 4 * (predictor.counters.length + 3 * predictor.btbEntries);
+
+		Cache dataCache = processor.dataCache;
+		Cache instructionCache = processor.instructionCache;
+		int cacheSize = cacheSize(dataCache) + cacheSize(instructionCache);
+
+		DataMemory memory = processor.memory;
+		int pagesSize = 4 + (memory.getAllocatedPages() - 1) * 4 * (1 + DataMemory.PAGE_WORDS);
+
+		int size = HEADER_SIZE + 8 * COUNTER_COUNT + 4 * (SIGNAL_COUNT + CONTROL_COUNT)
+			+ 4 * (processor.registerFile.length + DataMemory.PAGE_WORDS) + programSize + predictorSize + cacheSize + pagesSize;
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+		int options = 0;
+		if (processor.enableRegForwarding) options |= REG_FORWARDING;
+		if (processor.enableJumpFlush) options |= JUMP_FLUSH;
+		if (processor.enableLoadStall) options |= LOAD_STALL;
+		if (processor.enableDoubleBuffer) options |= DOUBLE_BUFFER;
+		if (predictor != null) options |= PREDICTOR;
+		if (dataCache != null) options |= DATA_CACHE;
+		if (instructionCache != null) options |= INSTRUCTION_CACHE;
+		if (processor.enableNextLinePrefetch) options |= NEXT_LINE_PREFETCH;
+
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(options);
+		buffer.putInt(program.length);
+		buffer.putInt(processor.registerFile.length);
+		buffer.putInt(memory.size);
+		buffer.putInt(0);
+		buffer.putInt(0);
+		buffer.putLong(processor.clockCount);
+		buffer.putLong(processor.instructionCount);
+		buffer.putInt(processor.feInsnAdd);
+		buffer.putInt(processor.deInsnAdd);
+		buffer.putInt(processor.exInsnAdd);
+		buffer.putInt(processor.maInsnAdd);
+		buffer.putInt(processor.wbInsnAdd);
+		buffer.putInt(0);
+
+		writeCounters(buffer, processor.counters);
+		writeSignals(buffer, processor.signals);
+		writeControls(buffer, processor.controls);
+
+		for (int value : processor.registerFile) buffer.putInt(value);
+		for (int value : processor.dataMemory) buffer.putInt(value);
+
+		for (int i=0 ; i<program.length ; i++)
+		{
+			Instruction insn = program[i];
+
+			buffer.putInt(insn.insnType.ordinal());
+			buffer.putInt(insn.encoding);
+			buffer.putInt(insn.srcLine);
+			buffer.putInt(insn.argValArray.length);
+			for (int arg : insn.argValArray) buffer.putInt(arg);
+
+			buffer.putInt(srcStrings[i].length);
+			buffer.put(srcStrings[i]);
+			for (int p=srcStrings[i].length ; p<pad(srcStrings[i].length) - 4 ; p++) buffer.put((byte) 0);
+		}
+
+		if (predictor != null) writePredictor(buffer, predictor);
+		if (dataCache != null) writeCache(buffer, dataCache);
+		if (instructionCache != null) writeCache(buffer, instructionCache);
+
+		writePages(buffer, memory);
+
+		buffer.flip();
+
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			FileChannel channel = out.getChannel();
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	public static Processor load(File file) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+
+		try
+		{
+			FileChannel channel = in.getChannel();
+			if (channel.size() < HEADER_SIZE) throw new IOException("CheckpointFile: Truncated header");
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (buffer.getInt() != MAGIC) throw new IOException("CheckpointFile: Not a checkpoint file");
+
+			int version = buffer.getInt();
+			if (version != VERSION) throw new IOException("CheckpointFile: Unsupported version (" + version + ")");
+
+			int options = buffer.getInt();
+			int programLength = buffer.getInt();
+			int registerCount = buffer.getInt();
+			int memorySize = buffer.getInt();
+			buffer.getInt();
+			buffer.getInt();
+
+			try
+			{
+				// Memories and counters are filled in below, so the program is read first
+				int programStart = HEADER_SIZE + 8 * COUNTER_COUNT + 4 * (SIGNAL_COUNT + CONTROL_COUNT + registerCount + DataMemory.PAGE_WORDS);
+				if (programLength < 0 || programStart > buffer.limit()) throw new IOException("CheckpointFile: Truncated file");
+
+				ByteBuffer programBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				programBuffer.position(programStart);
+
+				Processor processor = new Processor(readProgram(programBuffer, programLength));
+
+				if (processor.registerFile.length != registerCount || !DataMemory.isValidSize(memorySize))
+				{
+					throw new IOException("CheckpointFile: Unexpected memory size (" + registerCount + " registers, " + memorySize + " words)");
+				}
+
+				processor.memorySize = memorySize;
+				processor.reset();
+
+				processor.enableRegForwarding = (options & REG_FORWARDING) != 0;
+				processor.enableJumpFlush = (options & JUMP_FLUSH) != 0;
+				processor.enableLoadStall = (options & LOAD_STALL) != 0;
+				processor.enableDoubleBuffer = (options & DOUBLE_BUFFER) != 0;
+				processor.enableNextLinePrefetch = (options & NEXT_LINE_PREFETCH) != 0;
+				if ((options & PREDICTOR) != 0) processor.predictor = readPredictor(programBuffer);
+				if ((options & DATA_CACHE) != 0) processor.dataCache = readCache(programBuffer);
+				if ((options & INSTRUCTION_CACHE) != 0) processor.instructionCache = readCache(programBuffer);
+				readPages(programBuffer, processor.memory);
+
+				processor.clockCount = buffer.getLong();
+				processor.instructionCount = buffer.getLong();
+				processor.feInsnAdd = buffer.getInt();
+				processor.deInsnAdd = buffer.getInt();
+				processor.exInsnAdd = buffer.getInt();
+				processor.maInsnAdd = buffer.getInt();
+				processor.wbInsnAdd = buffer.getInt();
+				buffer.getInt();
+
+				readCounters(buffer, processor.counters);
+				readSignals(buffer, processor.signals);
+				readControls(buffer, processor.controls);
+
+				IntBuffer ints = buffer.asIntBuffer();
+				ints.get(processor.registerFile);
+				ints.get(processor.dataMemory);
+
+				return processor;
+			}
+			catch (BufferUnderflowException buE)
+			{
+				throw new IOException("CheckpointFile: Truncated file");
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	// Size of a string of the given length with its length prefix, padded to a whole int
+	private static int pad(int length)
+	{
+		return 4 + ((length + 3) & ~3);
+	}
+
+	private static Instruction[] readProgram(ByteBuffer buffer, int length) throws IOException
+	{
+		Instruction[] program = new Instruction[length];
+
+		for (int i=0 ; i<length ; i++)
+		{
+			int type = buffer.getInt();
+			if (type < 0 || type >= TYPES.length) throw new IOException("CheckpointFile: Unknown instruction type (" + type + ")");
+
+			int encoding = buffer.getInt();
+			int srcLine = buffer.getInt();
+
+			int[] args = new int[buffer.getInt()];
+			for (int a=0 ; a<args.length ; a++) args[a] = buffer.getInt();
+
+			byte[] srcBytes = new byte[buffer.getInt()];
+			buffer.get(srcBytes);
+			buffer.position(buffer.position() + pad(srcBytes.length) - 4 - srcBytes.length);
+
+			program[i] = new Instruction(TYPES[type], encoding, args, srcLine, new String(srcBytes, StandardCharsets.UTF_8));
+		}
+
+		return program;
+	}
+
+	private static void writePredictor(ByteBuffer buffer, BranchPredictor predictor)
+	{
+		buffer.putInt(predictor.scheme.ordinal());
+		buffer.putInt(predictor.tableBits);
+		buffer.putInt(predictor.historyBits);
+		buffer.putInt(predictor.btbEntries);
+		buffer.putInt(predictor.history);
+		buffer.putLong(predictor.predictions);
+		buffer.putLong(predictor.branches);
+		buffer.putLong(predictor.mispredictions);
+
+		for (int value : predictor.counters) buffer.putInt(value);
+		for (int value : predictor.btbTag) buffer.putInt(value);
+		for (int value : predictor.btbTarget) buffer.putInt(value);
+		for (int value : predictor.btbType) buffer.putInt(value);
+	}
+
+	private static BranchPredictor readPredictor(ByteBuffer buffer) throws IOException
+	{
+		int scheme = buffer.getInt();
+		int tableBits = buffer.getInt();
+		int historyBits = buffer.getInt();
+		int btbEntries = buffer.getInt();
+
+		if (scheme < 0 || scheme >= SCHEMES.length) throw new IOException("CheckpointFile: Unknown predictor scheme (" + scheme + ")");
+		if (tableBits < 0 || tableBits > 24 || historyBits < 0 || historyBits > 24 || btbEntries < 0 || btbEntries > buffer.remaining() / 12)
+		{
+			throw new IOException("CheckpointFile: Invalid predictor configuration");
+		}
+
+		BranchPredictor predictor = new BranchPredictor(SCHEMES[scheme], tableBits, historyBits, btbEntries);
+		predictor.history = buffer.getInt();
+		predictor.predictions = buffer.getLong();
+		predictor.branches = buffer.getLong();
+		predictor.mispredictions = buffer.getLong();
+
+		for (int i=0 ; i<predictor.counters.length ; i++) predictor.counters[i] = buffer.getInt();
+		for (int i=0 ; i<btbEntries ; i++) predictor.btbTag[i] = buffer.getInt();
+		for (int i=0 ; i<btbEntries ; i++) predictor.btbTarget[i] = buffer.getInt();
+		for (int i=0 ; i<btbEntries ; i++) predictor.btbType[i] = buffer.getInt();
+
+		return predictor;
+	}
+
+	private static int cacheSize(Cache cache)
+	{
+		return (cache == null) ? 0 : 4 * 8 + 8 * 7 + 16 * cache.tags.length;
+	}
+
+	private static void writeCache(ByteBuffer buffer, Cache cache)
+	{
+		buffer.putInt(cache.sizeWords);
+		buffer.putInt(cache.ways);
+		buffer.putInt(cache.lineWords);
+		buffer.putInt(cache.replacement.ordinal());
+		buffer.putInt(cache.writeBack ? 1 : 0);
+		buffer.putInt(cache.hitLatency);
+		buffer.putInt(cache.missLatency);
+		buffer.putInt(cache.seed);
+		buffer.putLong(cache.time);
+		buffer.putLong(cache.reads);
+		buffer.putLong(cache.writes);
+		buffer.putLong(cache.readMisses);
+		buffer.putLong(cache.writeMisses);
+		buffer.putLong(cache.writeBacks);
+		buffer.putLong(cache.prefetches);
+
+		for (int value : cache.tags) buffer.putInt(value);
+		for (int value : cache.dirty) buffer.putInt(value);
+		for (long value : cache.stamps) buffer.putLong(value);
+	}
+
+	private static Cache readCache(ByteBuffer buffer) throws IOException
+	{
+		int sizeWords = buffer.getInt();
+		int ways = buffer.getInt();
+		int lineWords = buffer.getInt();
+		int replacement = buffer.getInt();
+		int writeBack = buffer.getInt();
+		int hitLatency = buffer.getInt();
+		int missLatency = buffer.getInt();
+
+		if (replacement < 0 || replacement >= REPLACEMENTS.length) throw new IOException("CheckpointFile: Unknown cache replacement (" + replacement + ")");
+		if (sizeWords <= 0 || sizeWords > buffer.remaining()) throw new IOException("CheckpointFile: Invalid cache configuration");
+
+		Cache cache;
+		try
+		{
+			cache = new Cache(sizeWords, ways, lineWords, REPLACEMENTS[replacement], writeBack == 1, hitLatency, missLatency);
+		}
+		catch (IllegalArgumentException iaE)
+		{
+			throw new IOException("CheckpointFile: Invalid cache configuration");
+		}
+
+		cache.seed = buffer.getInt();
+		cache.time = buffer.getLong();
+		cache.reads = buffer.getLong();
+		cache.writes = buffer.getLong();
+		cache.readMisses = buffer.getLong();
+		cache.writeMisses = buffer.getLong();
+		cache.writeBacks = buffer.getLong();
+		cache.prefetches = buffer.getLong();
+
+		for (int i=0 ; i<cache.tags.length ; i++) cache.tags[i] = buffer.getInt();
+		for (int i=0 ; i<cache.dirty.length ; i++) cache.dirty[i] = buffer.getInt();
+		for (int i=0 ; i<cache.stamps.length ; i++) cache.stamps[i] = buffer.getLong();
+
+		return cache;
+	}
+
+	private static void writePages(ByteBuffer buffer, DataMemory memory)
+	{
+		buffer.putInt(memory.getAllocatedPages() - 1);
+
+		for (int p=1 ; p<memory.getPageCount() ; p++)
+		{
+			int[] page = memory.getPage(p);
+			if (page == null) continue;
+
+			buffer.putInt(p);
+			for (int value : page) buffer.putInt(value);
+		}
+	}
+
+	private static void readPages(ByteBuffer buffer, DataMemory memory) throws IOException
+	{
+		int count = buffer.getInt();
+		if (count < 0 || count >= memory.getPageCount()) throw new IOException("CheckpointFile: Invalid page count (" + count + ")");
+
+		for (int i=0 ; i<count ; i++)
+		{
+			int page = buffer.getInt();
+			if (page <= 0 || page >= memory.getPageCount()) throw new IOException("CheckpointFile: Invalid page (" + page + ")");
+
+			int[] words = memory.allocatePage(page);
+			for (int w=0 ; w<words.length ; w++) words[w] = buffer.getInt();
+		}
+	}
+
+	private static void writeCounters(ByteBuffer buffer, PerfCounters counters)
+	{
+		buffer.putLong(counters.cycles);
+		buffer.putLong(counters.retired);
+		buffer.putLong(counters.loadStallCycles);
+		buffer.putLong(counters.dataCacheStallCycles);
+		buffer.putLong(counters.fetchStallCycles);
+		buffer.putLong(counters.flushedInstructions);
+		buffer.putLong(counters.forwardAFromMA);
+		buffer.putLong(counters.forwardAFromWB);
+		buffer.putLong(counters.forwardBFromMA);
+		buffer.putLong(counters.forwardBFromWB);
+		buffer.putLong(counters.branchesTaken);
+		buffer.putLong(counters.branchesNotTaken);
+		buffer.putLong(counters.memoryReads);
+		buffer.putLong(counters.memoryWrites);
+		for (long count : counters.opcodeRetired) buffer.putLong(count);
+	}
+
+	private static void readCounters(ByteBuffer buffer, PerfCounters counters)
+	{
+		counters.cycles = buffer.getLong();
+		counters.retired = buffer.getLong();
+		counters.loadStallCycles = buffer.getLong();
+		counters.dataCacheStallCycles = buffer.getLong();
+		counters.fetchStallCycles = buffer.getLong();
+		counters.flushedInstructions = buffer.getLong();
+		counters.forwardAFromMA = buffer.getLong();
+		counters.forwardAFromWB = buffer.getLong();
+		counters.forwardBFromMA = buffer.getLong();
+		counters.forwardBFromWB = buffer.getLong();
+		counters.branchesTaken = buffer.getLong();
+		counters.branchesNotTaken = buffer.getLong();
+		counters.memoryReads = buffer.getLong();
+		counters.memoryWrites = buffer.getLong();
+		for (int i=0 ; i<PerfCounters.OPCODES ; i++) counters.opcodeRetired[i] = buffer.getLong();
+	}
+
+	private static void writeSignals(ByteBuffer buffer, Processor.Signals s)
+	{
+		buffer.putInt(s.fe_pc);
+		buffer.putInt(s.fe_icWait);
+		buffer.putInt(s.fe_pcPlus);
+		buffer.putInt(s.fe_predPC);
+		buffer.putInt(s.fe_predIndex);
+		buffer.putInt(s.fe_icMiss);
+		buffer.putInt(s.fe_icStall);
+		buffer.putInt(s.de_pc);
+		buffer.putInt(s.de_feFlush);
+		buffer.putInt(s.de_opCode);
+		buffer.putInt(s.de_rAddA);
+		buffer.putInt(s.de_rAddB);
+		buffer.putInt(s.de_imm);
+		buffer.putInt(s.de_insn);
+		buffer.putInt(s.de_predPC);
+		buffer.putInt(s.de_predIndex);
+		buffer.putInt(s.de_icBubble);
+		buffer.putInt(s.ex_pc);
+		buffer.putInt(s.ex_deFlush);
+		buffer.putInt(s.ex_feFlush);
+		buffer.putInt(s.ex_opCode);
+		buffer.putInt(s.ex_rAddA);
+		buffer.putInt(s.ex_rAddB);
+		buffer.putInt(s.ex_rDatA);
+		buffer.putInt(s.ex_rDatB);
+		buffer.putInt(s.ex_imm);
+		buffer.putInt(s.ex_predPC);
+		buffer.putInt(s.ex_predIndex);
+		buffer.putInt(s.ex_dcWait);
+		buffer.putInt(s.ex_icBubble);
+		buffer.putInt(s.ex_page);
+		buffer.putInt(s.ex_opASE);
+		buffer.putInt(s.ex_pcRel);
+		buffer.putInt(s.ex_pcJmp);
+		buffer.putInt(s.ex_nPC);
+		buffer.putInt(s.ex_opA);
+		buffer.putInt(s.ex_opB);
+		buffer.putInt(s.ex_aluOut);
+		buffer.putInt(s.ex_mAdd);
+		buffer.putInt(s.ex_flagZ);
+		buffer.putInt(s.ex_flagC);
+		buffer.putInt(s.ex_mispredict);
+		buffer.putInt(s.ex_dcStall);
+		buffer.putInt(s.ma_wrEn);
+		buffer.putInt(s.ma_wrAdd);
+		buffer.putInt(s.ma_muxDS);
+		buffer.putInt(s.ma_aluOut);
+		buffer.putInt(s.ma_mAdd);
+		buffer.putInt(s.ma_mEn);
+		buffer.putInt(s.ma_page);
+		buffer.putInt(s.ma_flagZ);
+		buffer.putInt(s.ma_flagC);
+		buffer.putInt(s.wb_wrEn);
+		buffer.putInt(s.wb_wrAdd);
+		buffer.putInt(s.wb_muxDS);
+		buffer.putInt(s.wb_aluOut);
+		buffer.putInt(s.wb_mD);
+		buffer.putInt(s.wb_data);
+		buffer.putInt(s.im_dOut);
+		buffer.putInt(s.rf_dOutA);
+		buffer.putInt(s.rf_dOutB);
+		buffer.putInt(s.dm_dOut);
+	}
+
+	private static void readSignals(ByteBuffer buffer, Processor.Signals s)
+	{
+		s.fe_pc = buffer.getInt();
+		s.fe_icWait = buffer.getInt();
+		s.fe_pcPlus = buffer.getInt();
+		s.fe_predPC = buffer.getInt();
+		s.fe_predIndex = buffer.getInt();
+		s.fe_icMiss = buffer.getInt();
+		s.fe_icStall = buffer.getInt();
+		s.de_pc = buffer.getInt();
+		s.de_feFlush = buffer.getInt();
+		s.de_opCode = buffer.getInt();
+		s.de_rAddA = buffer.getInt();
+		s.de_rAddB = buffer.getInt();
+		s.de_imm = buffer.getInt();
+		s.de_insn = buffer.getInt();
+		s.de_predPC = buffer.getInt();
+		s.de_predIndex = buffer.getInt();
+		s.de_icBubble = buffer.getInt();
+		s.ex_pc = buffer.getInt();
+		s.ex_deFlush = buffer.getInt();
+		s.ex_feFlush = buffer.getInt();
+		s.ex_opCode = buffer.getInt();
+		s.ex_rAddA = buffer.getInt();
+		s.ex_rAddB = buffer.getInt();
+		s.ex_rDatA = buffer.getInt();
+		s.ex_rDatB = buffer.getInt();
+		s.ex_imm = buffer.getInt();
+		s.ex_predPC = buffer.getInt();
+		s.ex_predIndex = buffer.getInt();
+		s.ex_dcWait = buffer.getInt();
+		s.ex_icBubble = buffer.getInt();
+		s.ex_page = buffer.getInt();
+		s.ex_opASE = buffer.getInt();
+		s.ex_pcRel = buffer.getInt();
+		s.ex_pcJmp = buffer.getInt();
+		s.ex_nPC = buffer.getInt();
+		s.ex_opA = buffer.getInt();
+		s.ex_opB = buffer.getInt();
+		s.ex_aluOut = buffer.getInt();
+		s.ex_mAdd = buffer.getInt();
+		s.ex_flagZ = buffer.getInt();
+		s.ex_flagC = buffer.getInt();
+		s.ex_mispredict = buffer.getInt();
+		s.ex_dcStall = buffer.getInt();
+		s.ma_wrEn = buffer.getInt();
+		s.ma_wrAdd = buffer.getInt();
+		s.ma_muxDS = buffer.getInt();
+		s.ma_aluOut = buffer.getInt();
+		s.ma_mAdd = buffer.getInt();
+		s.ma_mEn = buffer.getInt();
+		s.ma_page = buffer.getInt();
+		s.ma_flagZ = buffer.getInt();
+		s.ma_flagC = buffer.getInt();
+		s.wb_wrEn = buffer.getInt();
+		s.wb_wrAdd = buffer.getInt();
+		s.wb_muxDS = buffer.getInt();
+		s.wb_aluOut = buffer.getInt();
+		s.wb_mD = buffer.getInt();
+		s.wb_data = buffer.getInt();
+		s.im_dOut = buffer.getInt();
+		s.rf_dOutA = buffer.getInt();
+		s.rf_dOutB = buffer.getInt();
+		s.dm_dOut = buffer.getInt();
+	}
+
+	private static void writeControls(ByteBuffer buffer, Processor.Controls c)
+	{
+		buffer.putInt(c.pcEn);
+		buffer.putInt(c.feFlush);
+		buffer.putInt(c.deFlush);
+		buffer.putInt(c.fedeEn);
+		buffer.putInt(c.deexEn);
+		buffer.putInt(c.wrEn);
+		buffer.putInt(c.memEn);
+		buffer.putInt(c.pgEn);
+		buffer.putInt((c.aluOp == null) ? -1 : c.aluOp.ordinal());
+		buffer.putInt(c.muxFA);
+		buffer.putInt(c.muxFB);
+		buffer.putInt(c.muxAS);
+		buffer.putInt(c.muxJS);
+		buffer.putInt(c.muxDS);
+		buffer.putInt(c.muxCS);
+	}
+
+	private static void readControls(ByteBuffer buffer, Processor.Controls c) throws IOException
+	{
+		c.pcEn = buffer.getInt();
+		c.feFlush = buffer.getInt();
+		c.deFlush = buffer.getInt();
+		c.fedeEn = buffer.getInt();
+		c.deexEn = buffer.getInt();
+		c.wrEn = buffer.getInt();
+		c.memEn = buffer.getInt();
+		c.pgEn = buffer.getInt();
+
+		int aluOp = buffer.getInt();
+		if (aluOp >= ALU_OPS.length) throw new IOException("CheckpointFile: Unknown ALU operation (" + aluOp + ")");
+		c.aluOp = (aluOp < 0) ? null : ALU_OPS[aluOp];
+
+		c.muxFA = buffer.getInt();
+		c.muxFB = buffer.getInt();
+		c.muxAS = buffer.getInt();
+		c.muxJS = buffer.getInt();
+		c.muxDS = buffer.getInt();
+		c.muxCS = buffer.getInt();
+	}
+}
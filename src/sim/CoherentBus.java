@@ -0,0 +1,265 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Snooping bus keeping the private data caches of a MultiProcessor coherent,
+ * by the MSI or MESI protocol. Each cache line is Modified (dirty in its
+ * Cache), Exclusive (MESI only, clean and known to be the only copy), Shared
+ * (clean) or Invalid (not held).
+ *
+ * A read miss is a bus read: a Modified copy elsewhere is written back and
+ * supplies the line, and every other copy drops to Shared. Under MESI the
+ * line is filled Exclusive if no other cache holds it. A write miss is a bus
+ * read-exclusive and a write to a Shared line a bus upgrade, both of which
+ * invalidate every other copy. A write to an Exclusive line becomes Modified
+ * without using the bus.
+ *
+ * Each bus transaction holds the bus for arbitrationLatency cycles on top of
+ * the cache's own latency. Cores waiting for the bus are granted it one at a
+ * time, round-robin from the core after the last one granted, and each cycle
+ * a core waits for it adds a cycle to its access.
+ *
+ * probe() reads the caches and asks for the bus in the core's own slot, so
+ * cores may call it from their own threads while the bus is idle. request()
+ * records an access for commit() to make, in core order, between cycles.
+ * commit() then grants the bus to the cores that asked for it.
+ */
+public class CoherentBus
+{
+	public enum Protocol {MSI, MESI}
+
+	public final Protocol protocol;
+	public final int arbitrationLatency;
+
+	final Cache[] caches;
+	final int[][] exclusive;			// Per core and way, 1 for Exclusive
+
+	// Accesses waiting for commit(), per core
+	private final int[] requestAddress;
+	private final boolean[] requestWrite;
+
+	// Arbitration, per core: whether it asked for the bus at its last probe,
+	// whether its access has been granted the bus, and the cycles it waited
+	private final boolean[] asking;
+	private final boolean[] granted;
+	private final int[] waited;
+
+	private long cycle;					// Commits made
+	private long freeCycle;				// First commit at which the bus can be granted again
+	private int nextCore;				// First core considered at the next grant
+
+	// Statistics
+	public long busReads;
+	public long busReadExclusives;
+	public long busUpgrades;
+	public long invalidations;			// Copies invalidated by other cores' writes
+	public long interventions;			// Modified copies written back for another core
+	public long arbitrationStallCycles;	// Cycles cores waited for the bus
+
+	public CoherentBus(Protocol protocol, int arbitrationLatency, Cache[] caches)
+	{
+		for (Cache cache : caches)
+		{
+			if (!cache.writeBack) throw new IllegalArgumentException("CoherentBus: Caches must be write-back");
+			if (!cache.hasSameConfiguration(caches[0])) throw new IllegalArgumentException("CoherentBus: Caches must be configured alike");
+		}
+
+		this.protocol = protocol;
+		this.arbitrationLatency = arbitrationLatency;
+		this.caches = caches;
+
+		exclusive = new int[caches.length][caches[0].tags.length];
+		requestAddress = new int[caches.length];
+		requestWrite = new boolean[caches.length];
+		asking = new boolean[caches.length];
+		granted = new boolean[caches.length];
+		waited = new int[caches.length];
+
+		reset();
+	}
+
+	public void reset()
+	{
+		for (int c=0 ; c<caches.length ; c++)
+		{
+			for (int w=0 ; w<exclusive[c].length ; w++) exclusive[c][w] = 0;
+			requestAddress[c] = -1;
+			asking[c] = false;
+			granted[c] = false;
+			waited[c] = 0;
+		}
+
+		cycle = 0;
+		freeCycle = 0;
+		nextCore = 0;
+
+		busReads = 0;
+		busReadExclusives = 0;
+		busUpgrades = 0;
+		invalidations = 0;
+		interventions = 0;
+		arbitrationStallCycles = 0;
+	}
+
+	// Protocol named as on the command line, the enum name in lower case, or
+	// null if not recognised
+	public static Protocol parseProtocol(String name)
+	{
+		for (Protocol protocol : Protocol.values()) if (protocol.name().toLowerCase().equals(name)) return protocol;
+		return null;
+	}
+
+	public long getTransactions()
+	{
+		return busReads + busReadExclusives + busUpgrades;
+	}
+
+	// Cycles the core's access takes, counting those it has waited for the
+	// bus. Leaves every cache unchanged, but asks for the bus if the access
+	// needs a transaction it has not yet been granted.
+	public int probe(int core, int address, boolean write)
+	{
+		Cache cache = caches[core];
+		int way = cache.lookup(address);
+
+		if (way >= 0 && (!write || cache.dirty[way] == 1 || exclusive[core][way] == 1))
+		{
+			asking[core] = false;
+			return cache.hitLatency;
+		}
+
+		asking[core] = !granted[core];
+
+		int latency = (way >= 0) ? cache.hitLatency : cache.probe(address, write);
+		return latency + arbitrationLatency + waited[core];
+	}
+
+	// Records the core's access for the next commit(), ending its arbitration
+	public void request(int core, int address, boolean write)
+	{
+		requestAddress[core] = address;
+		requestWrite[core] = write;
+
+		asking[core] = false;
+		granted[core] = false;
+		waited[core] = 0;
+	}
+
+	// Makes the accesses recorded since the last commit, lowest core first,
+	// then grants the bus for the next cycle
+	public void commit()
+	{
+		for (int c=0 ; c<caches.length ; c++)
+		{
+			if (requestAddress[c] < 0) continue;
+
+			access(c, requestAddress[c], requestWrite[c]);
+			requestAddress[c] = -1;
+		}
+
+		arbitrate();
+		cycle ++;
+	}
+
+	// Advances the bus over cycles in which no core accessed or asked for it
+	void idle(int cycles)
+	{
+		cycle += cycles;
+	}
+
+	// Grants the bus, if free, to the first core asking for it from nextCore
+	// on. Every other core asking waits a cycle.
+	private void arbitrate()
+	{
+		int first = nextCore;
+
+		for (int i=0 ; i<caches.length ; i++)
+		{
+			int c = (first + i) % caches.length;
+			if (!asking[c]) continue;
+
+			asking[c] = false;
+
+			if (cycle >= freeCycle)
+			{
+				granted[c] = true;
+				freeCycle = cycle + arbitrationLatency;
+				nextCore = (c + 1) % caches.length;
+			}
+			else
+			{
+				waited[c] ++;
+				arbitrationStallCycles ++;
+			}
+		}
+	}
+
+	private void access(int core, int address, boolean write)
+	{
+		Cache cache = caches[core];
+		int way = cache.lookup(address);
+
+		if (way >= 0)
+		{
+			if (write && cache.dirty[way] == 0 && exclusive[core][way] == 0)
+			{
+				busUpgrades ++;
+				invalidateOthers(core, address);
+			}
+
+			if (write) exclusive[core][way] = 0;
+			cache.access(address, write);
+			return;
+		}
+
+		boolean shared;
+		if (write)
+		{
+			busReadExclusives ++;
+			invalidateOthers(core, address);
+			shared = false;
+		}
+		else
+		{
+			busReads ++;
+			shared = shareOthers(core, address);
+		}
+
+		cache.access(address, write);
+		exclusive[core][cache.lookup(address)] = (!write && !shared && protocol == Protocol.MESI) ? 1 : 0;
+	}
+
+	private void invalidateOthers(int core, int address)
+	{
+		for (int c=0 ; c<caches.length ; c++)
+		{
+			int way = (c == core) ? -1 : caches[c].lookup(address);
+			if (way < 0) continue;
+
+			if (caches[c].dirty[way] == 1) interventions ++;
+			caches[c].invalidate(way);
+			exclusive[c][way] = 0;
+			invalidations ++;
+		}
+	}
+
+	// Drops every other copy to Shared, returning whether there were any
+	private boolean shareOthers(int core, int address)
+	{
+		boolean shared = false;
+
+		for (int c=0 ; c<caches.length ; c++)
+		{
+			int way = (c == core) ? -1 : caches[c].lookup(address);
+			if (way < 0) continue;
+
+			if (caches[c].dirty[way] == 1) interventions ++;
+			caches[c].clean(way);
+			exclusive[c][way] = 0;
+			shared = true;
+		}
+
+		return shared;
+	}
+}
@@ -0,0 +1,201 @@
+// Microprocessor Simulator
+
+package sim;
+
+import sim.Instruction.InstructionType;
+import sim.Processor.AluOp;
+
+/**
+ * Table-driven control unit. Each InstructionType has a row giving its control
+ * signals, packed into an int control word. The table is indexed by opcode and
+ * the Z flag, so conditional branches resolve to a plain lookup. Hazard
+ * handling (forwarding, stalls, disabled flushes) is applied by Processor on
+ * top of the decoded word.
+ */
+public class ControlUnit
+{
+	// Control word layout
+	private static final int ALU_OP_MASK			= 0xF;
+	private static final int WR_EN_SHIFT		= 4;
+	private static final int MEM_EN_SHIFT		= 5;
+	private static final int FA_SHIFT			= 6;		// 2 bits
+	private static final int FB_SHIFT			= 8;		// 2 bits
+	private static final int AS_SHIFT			= 10;
+	private static final int DS_SHIFT			= 11;
+	private static final int JS_SHIFT			= 12;
+	private static final int CS_SHIFT			= 13;		// 2 bits
+	private static final int FE_FLUSH_SHIFT	= 15;
+	private static final int DE_FLUSH_SHIFT	= 16;
+	private static final int PG_EN_SHIFT		= 17;
+
+	// Row flags
+	private static final int WR_EN		= 1 << WR_EN_SHIFT;
+	private static final int MEM_EN	= 1 << MEM_EN_SHIFT;
+	private static final int FE_FLUSH	= 1 << FE_FLUSH_SHIFT;
+	private static final int DE_FLUSH	= 1 << DE_FLUSH_SHIFT;
+	private static final int PG_EN		= 1 << PG_EN_SHIFT;
+	private static final int FA_IMM	= 1 << FA_SHIFT;
+	private static final int FB_IMM	= 1 << FB_SHIFT;
+	private static final int AS_B		= 1 << AS_SHIFT;
+	private static final int DS_MEM	= 1 << DS_SHIFT;
+	private static final int JUMP		= (1 << JS_SHIFT) | (2 << CS_SHIFT) | FE_FLUSH | DE_FLUSH;
+
+	// Branch conditions, the jump fields only apply when the condition holds
+	private static final int ALWAYS	= 0;
+	private static final int IF_Z		= 1;
+	private static final int IF_NZ	= 2;
+
+	private static final AluOp[] ALU_OPS = AluOp.values();
+
+	// Control word for a flushed (or unknown) instruction
+	public static final int DEFAULT_WORD = AluOp.OPA.ordinal();
+
+	// Indexed by (opCode << 1) | flagZ
+	private static final int[] TABLE = new int[64 * 2];
+
+	static
+	{
+		for (int i=0 ; i<TABLE.length ; i++) TABLE[i] = DEFAULT_WORD;
+
+		// Arithmetic
+		row(InstructionType.ADDi,	AluOp.ADD,	WR_EN | FB_IMM);
+		row(InstructionType.ADDr,	AluOp.ADD,	WR_EN);
+		row(InstructionType.SUBi,	AluOp.SUB,	WR_EN | FB_IMM);
+		row(InstructionType.SUBr,	AluOp.SUB,	WR_EN);
+		row(InstructionType.COMPi,	AluOp.SUB,	FB_IMM);
+		row(InstructionType.COMPr,	AluOp.SUB,	0);
+
+		// Logic
+		row(InstructionType.ANDi,	AluOp.AND,	WR_EN | FB_IMM);
+		row(InstructionType.ANDr,	AluOp.AND,	WR_EN);
+		row(InstructionType.ORi,	AluOp.OR,	WR_EN | FB_IMM);
+		row(InstructionType.ORr,	AluOp.OR,	WR_EN);
+		row(InstructionType.XORi,	AluOp.XOR,	WR_EN | FB_IMM);
+		row(InstructionType.XORr,	AluOp.XOR,	WR_EN);
+		row(InstructionType.SHLi,	AluOp.SHL,	WR_EN | FB_IMM);
+		row(InstructionType.SHLr,	AluOp.SHL,	WR_EN);
+		row(InstructionType.SHRi,	AluOp.SHR,	WR_EN | FB_IMM);
+		row(InstructionType.SHRr,	AluOp.SHR,	WR_EN);
+
+		// Moves
+		row(InstructionType.MOVi,	AluOp.OPA,	WR_EN | FA_IMM);
+		row(InstructionType.MOVr,	AluOp.OPB,	WR_EN);
+
+		// Load / Store
+		row(InstructionType.LDi,	AluOp.OPB,	WR_EN | AS_B | FB_IMM | DS_MEM);
+		row(InstructionType.LDr,	AluOp.OPB,	WR_EN | AS_B | DS_MEM);
+		row(InstructionType.STi,	AluOp.OPB,	MEM_EN | FB_IMM);
+		row(InstructionType.STa,	AluOp.OPA,	MEM_EN | FB_IMM | AS_B);
+		row(InstructionType.STr,	AluOp.OPB,	MEM_EN);
+		row(InstructionType.PAGEi,	AluOp.OPB,	PG_EN | FB_IMM);
+		row(InstructionType.PAGEr,	AluOp.OPB,	PG_EN);
+
+		// Jumps / Branches
+		row(InstructionType.JMPi,	AluOp.OPA,	JUMP,	ALWAYS);
+		row(InstructionType.BRZi,	AluOp.OPA,	JUMP,	IF_Z);
+		row(InstructionType.BRNZi,	AluOp.OPA,	JUMP,	IF_NZ);
+	}
+
+	private static void row(InstructionType type, AluOp aluOp, int flags)
+	{
+		row(type, aluOp, flags, ALWAYS);
+	}
+
+	private static void row(InstructionType type, AluOp aluOp, int flags, int condition)
+	{
+		int word = aluOp.ordinal() | flags;
+		int index = type.ordinal() << 1;
+
+		TABLE[index]		= (condition == IF_Z) ? (word & ~JUMP) : word;		// Z = 0
+		TABLE[index | 1]	= (condition == IF_NZ) ? (word & ~JUMP) : word;		// Z = 1
+	}
+
+	public static int lookup(int opCode, int flagZ)
+	{
+		return TABLE[(opCode << 1) | flagZ];
+	}
+
+	// True for jumps and branches, whether or not the condition holds
+	public static boolean isBranch(int opCode)
+	{
+		return ((TABLE[opCode << 1] | TABLE[(opCode << 1) | 1]) & JUMP) != 0;
+	}
+
+	// True if the instruction jumps, given the Z flag it sees
+	public static boolean isTaken(int opCode, int flagZ)
+	{
+		return ((lookup(opCode, flagZ) >> CS_SHIFT) & 3) == 2;
+	}
+
+	// Register the instruction writes, rA, or -1 if it writes none
+	public static int getDestination(int opCode, int rAddA)
+	{
+		return (((TABLE[opCode << 1] >> WR_EN_SHIFT) & 1) == 1) ? rAddA : -1;
+	}
+
+	public static boolean isLoad(int opCode)
+	{
+		int word = TABLE[opCode << 1];
+		return (word & (WR_EN | DS_MEM)) == (WR_EN | DS_MEM);
+	}
+
+	public static boolean isStore(int opCode)
+	{
+		return (TABLE[opCode << 1] & MEM_EN) != 0;
+	}
+
+	// True for the instructions selecting the data memory page
+	public static boolean isPage(int opCode)
+	{
+		return (TABLE[opCode << 1] & PG_EN) != 0;
+	}
+
+	// Whether the instruction uses the value of its A or B register operand,
+	// rather than only being wired to read it: the operand must select the
+	// register, and feed a result, a flag or a memory address
+	public static boolean readsA(int opCode)
+	{
+		int word = TABLE[opCode << 1];
+		AluOp aluOp = ALU_OPS[word & ALU_OP_MASK];
+		if ((word & (3 << FA_SHIFT)) != 0) return false;
+
+		return (producesResult(word) && aluOp != AluOp.OPB) || (accessesMemory(word) && (word & AS_B) == 0);
+	}
+
+	public static boolean readsB(int opCode)
+	{
+		int word = TABLE[opCode << 1];
+		AluOp aluOp = ALU_OPS[word & ALU_OP_MASK];
+		if ((word & (3 << FB_SHIFT)) != 0) return false;
+
+		return (producesResult(word) && aluOp != AluOp.OPA) || (accessesMemory(word) && (word & AS_B) != 0);
+	}
+
+	private static boolean producesResult(int word)
+	{
+		AluOp aluOp = ALU_OPS[word & ALU_OP_MASK];
+		return (word & (WR_EN | MEM_EN | PG_EN)) != 0 || (aluOp != AluOp.OPA && aluOp != AluOp.OPB);
+	}
+
+	private static boolean accessesMemory(int word)
+	{
+		return (word & MEM_EN) != 0 || (word & (WR_EN | DS_MEM)) == (WR_EN | DS_MEM);
+	}
+
+	// Unpack a control word into the controls it sets
+	public static void apply(int word, Processor.Controls controls)
+	{
+		controls.aluOp	= ALU_OPS[word & ALU_OP_MASK];
+		controls.wrEn	= (word >> WR_EN_SHIFT) & 1;
+		controls.memEn	= (word >> MEM_EN_SHIFT) & 1;
+		controls.muxFA	= (word >> FA_SHIFT) & 3;
+		controls.muxFB	= (word >> FB_SHIFT) & 3;
+		controls.muxAS	= (word >> AS_SHIFT) & 1;
+		controls.muxDS	= (word >> DS_SHIFT) & 1;
+		controls.muxJS	= (word >> JS_SHIFT) & 1;
+		controls.muxCS	= (word >> CS_SHIFT) & 3;
+		controls.feFlush	= (word >> FE_FLUSH_SHIFT) & 1;
+		controls.deFlush	= (word >> DE_FLUSH_SHIFT) & 1;
+		controls.pgEn	= (word >> PG_EN_SHIFT) & 1;
+	}
+}
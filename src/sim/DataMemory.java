@@ -0,0 +1,137 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Word-addressed data memory of up to 64K words, held as 256-word pages
+ * allocated on first write. Pages never written read as zero, so a large
+ * memory costs only the pages a program touches.
+ *
+ * Page 0 is always allocated and is the array engines expose as their
+ * dataMemory: an 8-bit address reaches it directly, and only programs that
+ * select another page with the page instruction see the rest.
+ *
+ * Sizes are in words, a power of two from one page to MAX_WORDS.
+ */
+public class DataMemory
+{
+	public static final int PAGE_WORDS = 256;
+	public static final int PAGE_SHIFT = 8;
+	public static final int MAX_WORDS = 65536;
+
+	public final int size;
+
+	private final int[][] pages;
+
+	public DataMemory(int size)
+	{
+		if (!isValidSize(size))
+		{
+			throw new IllegalArgumentException("DataMemory: Size must be a power of two from " + PAGE_WORDS + " to " + MAX_WORDS + " words");
+		}
+
+		this.size = size;
+		pages = new int[size / PAGE_WORDS][];
+		pages[0] = new int[PAGE_WORDS];
+	}
+
+	public static boolean isValidSize(int size)
+	{
+		return Integer.bitCount(size) == 1 && size >= PAGE_WORDS && size <= MAX_WORDS;
+	}
+
+	// Zeroes page 0 in place, so arrays taken from it stay valid, and drops the rest
+	public void clear()
+	{
+		int[] first = pages[0];
+		for (int i=0 ; i<PAGE_WORDS ; i++) first[i] = 0;
+		for (int p=1 ; p<pages.length ; p++) pages[p] = null;
+	}
+
+	public int getPageCount()
+	{
+		return pages.length;
+	}
+
+	// Page contents, or null if it has never been written
+	public int[] getPage(int page)
+	{
+		return pages[page];
+	}
+
+	// Page contents, allocating the page if it has never been written
+	public int[] allocatePage(int page)
+	{
+		int[] words = pages[page];
+		if (words == null)
+		{
+			words = new int[PAGE_WORDS];
+			pages[page] = words;
+		}
+
+		return words;
+	}
+
+	public int getAllocatedPages()
+	{
+		int count = 0;
+		for (int[] page : pages) if (page != null) count ++;
+		return count;
+	}
+
+	public int read(int address)
+	{
+		int[] page = pages[address >>> PAGE_SHIFT];
+		return (page == null) ? 0 : page[address & (PAGE_WORDS - 1)];
+	}
+
+	public void write(int address, int value)
+	{
+		allocatePage(address >>> PAGE_SHIFT)[address & (PAGE_WORDS - 1)] = value;
+	}
+
+	// Copies the contents of a memory of the same size, keeping page 0's array
+	public void copy(DataMemory src)
+	{
+		if (src.size != size) throw new IllegalArgumentException("DataMemory: Cannot copy " + src.size + " words into " + size);
+
+		System.arraycopy(src.pages[0], 0, pages[0], 0, PAGE_WORDS);
+
+		for (int p=1 ; p<pages.length ; p++)
+		{
+			if (src.pages[p] == null) pages[p] = null;
+			else System.arraycopy(src.pages[p], 0, allocatePage(p), 0, PAGE_WORDS);
+		}
+	}
+
+	public DataMemory snapshot()
+	{
+		DataMemory snapshot = new DataMemory(size);
+		snapshot.copy(this);
+		return snapshot;
+	}
+
+	// Address of the first word differing between the two memories, taking
+	// pages never written as zero, or -1 if they hold the same words. A
+	// smaller memory is taken as zero above its size.
+	public int findDifference(DataMemory other)
+	{
+		int count = Math.max(pages.length, other.pages.length);
+
+		for (int p=0 ; p<count ; p++)
+		{
+			int[] a = (p < pages.length) ? pages[p] : null;
+			int[] b = (p < other.pages.length) ? other.pages[p] : null;
+			if (a == null && b == null) continue;
+
+			for (int i=0 ; i<PAGE_WORDS ; i++)
+			{
+				int valueA = (a == null) ? 0 : a[i];
+				int valueB = (b == null) ? 0 : b[i];
+				if (valueA != valueB) return (p << PAGE_SHIFT) | i;
+			}
+		}
+
+		return -1;
+	}
+}
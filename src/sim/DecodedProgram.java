@@ -0,0 +1,135 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.util.*;
+
+/**
+ * A program decoded once at load time into parallel primitive arrays, one
+ * entry per instruction address. Simulation engines read these rather than
+ * dereferencing Instruction objects on every fetch.
+ */
+public class DecodedProgram
+{
+	public final int length;
+
+	public final int[] encoding;
+	public final int[] opCode;
+	public final int[] rAddA;
+	public final int[] rAddB;
+	public final int[] imm;
+	public final int[] type;		// InstructionType ordinal
+
+	// Fewest instructions fetched from the address before one that loads or
+	// stores, or that is a jmp to itself, 0 at one. Addresses past the end
+	// count as both, as what they fetch is not in the program.
+	public final int[] memoryDistance;
+	public final int[] haltDistance;
+
+	private static final int NEVER = Integer.MAX_VALUE / 2;		// Distance when none is reachable
+
+	public DecodedProgram(Instruction[] program)
+	{
+		length = program.length;
+
+		encoding = new int[length];
+		opCode = new int[length];
+		rAddA = new int[length];
+		rAddB = new int[length];
+		imm = new int[length];
+		type = new int[length];
+
+		for (int i=0 ; i<length ; i++)
+		{
+			int insn = program[i].encoding;
+
+			// Same field extraction as the decode stage
+			encoding[i]	= insn;
+			opCode[i]	= (insn >> 12) & 0x3F;
+			rAddA[i]		= (insn >> 8) & 0xF;
+			rAddB[i]		= insn & 0xF;
+			imm[i]		= insn & 0xFFF;
+			type[i]		= program[i].insnType.ordinal();
+		}
+
+		boolean[] memory = new boolean[length];
+		boolean[] halt = new boolean[length];
+		for (int i=0 ; i<length ; i++)
+		{
+			memory[i] = ControlUnit.isLoad(opCode[i]) || ControlUnit.isStore(opCode[i]);
+			halt[i] = (program[i].insnType == Instruction.InstructionType.JMPi && imm[i] == i);
+		}
+
+		memoryDistance = getDistances(memory);
+		haltDistance = getDistances(halt);
+	}
+
+	// Address a fetch may go to after the given one, other than the next, or
+	// -1 if there is none
+	private int getTarget(int address)
+	{
+		return ControlUnit.isBranch(opCode[address]) ? imm[address] : -1;
+	}
+
+	// Breadth first back from the marked addresses over the fetch paths. Every
+	// jump may be fetched past as well as taken, as a predictor can do both.
+	private int[] getDistances(boolean[] marked)
+	{
+		int[] distance = new int[length];
+		Arrays.fill(distance, NEVER);
+
+		// Predecessors of each address, packed by address
+		int[] start = new int[length + 1];
+		for (int i=0 ; i<length ; i++)
+		{
+			if (i + 1 < length) start[i + 2] ++;
+			int target = getTarget(i);
+			if (target >= 0 && target < length) start[target + 1] ++;
+		}
+		for (int i=0 ; i<length ; i++) start[i + 1] += start[i];
+
+		int[] fill = Arrays.copyOf(start, length);
+		int[] predecessors = new int[start[length]];
+		for (int i=0 ; i<length ; i++)
+		{
+			if (i + 1 < length) predecessors[fill[i + 1] ++] = i;
+			int target = getTarget(i);
+			if (target >= 0 && target < length) predecessors[fill[target] ++] = i;
+		}
+
+		// Marked addresses, then those one fetch from past the end
+		int[] queue = new int[length];
+		int head = 0;
+		int tail = 0;
+		for (int i=0 ; i<length ; i++)
+		{
+			if (!marked[i]) continue;
+
+			distance[i] = 0;
+			queue[tail++] = i;
+		}
+
+		for (int i=0 ; i<length ; i++)
+		{
+			if (distance[i] != NEVER || (i + 1 < length && getTarget(i) < length)) continue;
+
+			distance[i] = 1;
+			queue[tail++] = i;
+		}
+
+		while (head < tail)
+		{
+			int address = queue[head++];
+			for (int p=start[address] ; p<start[address + 1] ; p++)
+			{
+				int predecessor = predecessors[p];
+				if (distance[predecessor] != NEVER) continue;
+
+				distance[predecessor] = distance[address] + 1;
+				queue[tail++] = predecessor;
+			}
+		}
+
+		return distance;
+	}
+}
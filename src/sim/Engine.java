@@ -0,0 +1,29 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * A simulation engine executing an assembled program. Engines differ in how
+ * much microarchitectural detail they model, but all produce the same
+ * architectural results: register file and data memory.
+ */
+public interface Engine
+{
+	public void reset();
+
+	// Advance by one step, a clock cycle or an instruction depending on the engine
+	public void step();
+
+	// Step until the program halts or maxSteps further steps have been taken.
+	// Returns true if the program halted.
+	public boolean run(long maxSteps);
+
+	public boolean isHalted();
+
+	public int[] getRegisterFile();
+	public int[] getDataMemory();		// Page 0 of getMemory()
+	public DataMemory getMemory();
+
+	public long getCycleCount();
+	public long getInstructionCount();
+}
@@ -0,0 +1,211 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Instruction-level simulation. Executes one instruction per step directly
+ * from the decoded program, with the same 8-bit ALU, flag and memory
+ * semantics as the Processor pipeline but without modelling its stages.
+ * Use it when only architectural results are needed.
+ *
+ * The page selected for loads and stores is allocated when the page
+ * instruction selects it, so memory operations address a plain array.
+ */
+public class FunctionalEngine implements Engine
+{
+	public int memorySize = DataMemory.PAGE_WORDS;	// Data memory words, taking effect on reset
+
+	public int[] registerFile;
+	public DataMemory memory;
+	public int[] dataMemory;			// Page 0 of memory
+
+	public int pc;
+	public int flagZ;
+	public int flagC;
+	public int page;					// Data page of loads and stores
+
+	public long instructionCount;
+
+	private DecodedProgram decoded;
+
+	public FunctionalEngine(Instruction[] program)
+	{
+		this(new DecodedProgram(program));
+	}
+
+	public FunctionalEngine(DecodedProgram decoded)
+	{
+		this.decoded = decoded;
+		reset();
+	}
+
+	public void reset()
+	{
+		registerFile = new int[16];
+		memory = new DataMemory(memorySize);
+		dataMemory = memory.getPage(0);
+
+		pc = 0;
+		flagZ = 0;
+		flagC = 0;
+		page = 0;
+
+		instructionCount = 0;
+	}
+
+	public void step()
+	{
+		run(1);
+	}
+
+	// Halted when the next instruction is a jmp to itself, or is past the end of the program
+	public boolean isHalted()
+	{
+		if (pc >= decoded.length) return true;
+		return (decoded.type[pc] == Instruction.InstructionType.JMPi.ordinal() && decoded.imm[pc] == pc);
+	}
+
+	public boolean run(long maxSteps)
+	{
+		final int[] type = decoded.type;
+		final int[] rAddA = decoded.rAddA;
+		final int[] rAddB = decoded.rAddB;
+		final int[] imm = decoded.imm;
+		final int[] reg = registerFile;
+		final int pageMask = memory.getPageCount() - 1;
+		final int length = decoded.length;
+
+		int pc = this.pc;
+		int flagZ = this.flagZ;
+		int flagC = this.flagC;
+		int page = this.page;
+		int[] mem = memory.allocatePage(page);
+		long count = 0;
+		boolean halted = false;
+
+		while (count < maxSteps)
+		{
+			if (pc >= length)
+			{
+				halted = true;
+				break;
+			}
+
+			int a = rAddA[pc];
+			int out = 0;
+			int nextPC = pc + 1;
+
+			switch (Instruction.getType(type[pc]))
+			{
+				// Arithmetic and logic, writing rA and setting flags
+				case ADDi :		out = reg[a] + (imm[pc] & 0xFF);			break;
+				case ADDr :		out = reg[a] + reg[rAddB[pc]];			break;
+				case SUBi :		out = reg[a] - (imm[pc] & 0xFF);			break;
+				case SUBr :		out = reg[a] - reg[rAddB[pc]];			break;
+				case ANDi :		out = reg[a] & (imm[pc] & 0xFF);			break;
+				case ANDr :		out = reg[a] & reg[rAddB[pc]];			break;
+				case ORi :		out = reg[a] | (imm[pc] & 0xFF);			break;
+				case ORr :		out = reg[a] | reg[rAddB[pc]];			break;
+				case XORi :		out = reg[a] ^ (imm[pc] & 0xFF);			break;
+				case XORr :		out = reg[a] ^ reg[rAddB[pc]];			break;
+				case SHLi :		out = reg[a] << (imm[pc] & 0xFF);		break;
+				case SHLr :		out = reg[a] << reg[rAddB[pc]];			break;
+				case SHRi :		out = reg[a] >> (imm[pc] & 0xFF);		break;
+				case SHRr :		out = reg[a] >> reg[rAddB[pc]];			break;
+
+				// Compare, setting flags only
+				case COMPi :
+					out = reg[a] - (imm[pc] & 0xFF);
+					flagZ = ((out & 0xFF) == 0) ? 1 : 0;
+					flagC = ((out & 0x100) == 0x100) ? 1 : 0;
+					pc = nextPC;
+					count ++;
+					continue;
+
+				case COMPr :
+					out = reg[a] - reg[rAddB[pc]];
+					flagZ = ((out & 0xFF) == 0) ? 1 : 0;
+					flagC = ((out & 0x100) == 0x100) ? 1 : 0;
+					pc = nextPC;
+					count ++;
+					continue;
+
+				// Moves and memory, no flags
+				case MOVi :		reg[a] = imm[pc] & 0xFF;							pc = nextPC; count ++; continue;
+				case MOVr :		reg[a] = reg[rAddB[pc]];							pc = nextPC; count ++; continue;
+				case LDi :		reg[a] = mem[imm[pc] & 0xFF];						pc = nextPC; count ++; continue;
+				case LDr :		reg[a] = mem[reg[rAddB[pc]]];						pc = nextPC; count ++; continue;
+				case STi :		mem[reg[a]] = imm[pc] & 0xFF;						pc = nextPC; count ++; continue;
+				case STa :		mem[imm[pc] & 0xFF] = reg[a];						pc = nextPC; count ++; continue;
+				case STr :		mem[reg[a]] = reg[rAddB[pc]];						pc = nextPC; count ++; continue;
+
+				// Data page, no flags
+				case PAGEi :	page = imm[pc] & 0xFF & pageMask;	mem = memory.allocatePage(page);	pc = nextPC; count ++; continue;
+				case PAGEr :	page = reg[rAddB[pc]] & pageMask;		mem = memory.allocatePage(page);	pc = nextPC; count ++; continue;
+
+				// Jumps / Branches
+				case JMPi :
+					if (imm[pc] == pc)
+					{
+						halted = true;
+						break;
+					}
+					pc = imm[pc];
+					count ++;
+					continue;
+
+				case BRZi :		pc = (flagZ == 1) ? imm[pc] : nextPC;	count ++; continue;
+				case BRNZi :	pc = (flagZ == 0) ? imm[pc] : nextPC;	count ++; continue;
+
+				default :
+					System.err.println("FunctionalEngine.run: Invalid instruction type (" + type[pc] + ")");
+					halted = true;
+					break;
+			}
+
+			if (halted) break;
+
+			// Flag setting ALU result
+			flagZ = ((out & 0xFF) == 0) ? 1 : 0;
+			flagC = ((out & 0x100) == 0x100) ? 1 : 0;
+			reg[a] = out & 0xFF;
+
+			pc = nextPC;
+			count ++;
+		}
+
+		this.pc = pc;
+		this.flagZ = flagZ;
+		this.flagC = flagC;
+		this.page = page;
+		instructionCount += count;
+
+		return halted || isHalted();
+	}
+
+	public int[] getRegisterFile()
+	{
+		return registerFile;
+	}
+
+	public int[] getDataMemory()
+	{
+		return dataMemory;
+	}
+
+	public DataMemory getMemory()
+	{
+		return memory;
+	}
+
+	// One instruction per cycle at this level of detail
+	public long getCycleCount()
+	{
+		return instructionCount;
+	}
+
+	public long getInstructionCount()
+	{
+		return instructionCount;
+	}
+}
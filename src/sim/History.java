@@ -0,0 +1,198 @@
+// Microprocessor Simulator
+
+package sim;
+
+import sim.trace.*;
+
+/**
+ * Execution history for reverse stepping. Every interval cycles the pipeline
+ * state is saved to a checkpoint, and every cycle the values about to be
+ * overwritten by the register file and data memory writes are pushed onto an
+ * undo journal, one long per cycle.
+ *
+ * Going back to a cycle undoes the journal down to the nearest earlier
+ * checkpoint, restores the pipeline state from it and clocks forward to the
+ * target, so the cost is bounded by the checkpoint interval rather than the
+ * cycle count. Checkpoints hold no copy of the register file or data memory,
+ * which the journal already rebuilds, so their size does not grow with the
+ * memory.
+ *
+ * Checkpoints and journal are fixed-size rings sized from a byte budget; once
+ * full, the oldest history is dropped. A checkpoint's size depends on the
+ * predictor, caches and profiler the processor carries, so the rings are
+ * resized whenever the history is cleared, which Processor.reset() does.
+ *
+ * Going back re-simulates with the current Processor options, without
+ * tracing the cycles again. The profile is restored with the counters, so
+ * it counts each cycle once however often it is stepped over.
+ *
+ * Journal entry: register write enable 63, address 48-51, old value 32-47,
+ *                memory write enable 31, address 8-23, old value 0-7
+ */
+public class History
+{
+	public static final int DEFAULT_INTERVAL = 1024;
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	// Rough heap size of the signals, controls and counters of a checkpoint
+	private static final int SNAPSHOT_BYTES = 1024;
+
+	private static final long REG_EN = 1L << 63;
+	private static final long MEM_EN = 1L << 31;
+
+	private Processor processor;
+	private int interval;
+	private long maxBytes;
+	private long checkpointBytes;
+
+	private Snapshot[] checkpoints;		// Indexed by (cycle / interval) % capacity
+	private long[] journal;				// Indexed by cycle % journal.length
+
+	private long start;					// Cycle of the oldest checkpoint, -1 before the first
+
+	public History(Processor processor, int interval, long maxBytes)
+	{
+		this.processor = processor;
+		this.interval = interval;
+		this.maxBytes = maxBytes;
+
+		clear();
+	}
+
+	public History(Processor processor)
+	{
+		this(processor, DEFAULT_INTERVAL, DEFAULT_MAX_BYTES);
+	}
+
+	// Also resizes the rings for the processor's current tables
+	public void clear()
+	{
+		start = -1;
+
+		checkpointBytes = getCheckpointBytes(processor);
+
+		int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE / interval, maxBytes / (checkpointBytes + 8L * interval)));
+		if (checkpoints != null && checkpoints.length == capacity) return;
+
+		checkpoints = new Snapshot[capacity];
+		journal = new long[capacity * interval];
+	}
+
+	// Heap size of a checkpoint of the processor without memories
+	static long getCheckpointBytes(Processor processor)
+	{
+		long bytes = SNAPSHOT_BYTES;
+
+		BranchPredictor predictor = processor.predictor;
+		if (predictor != null) bytes += 4L * (predictor.counters.length + 3 * predictor.btbEntries);
+
+		bytes += getCacheBytes(processor.dataCache) + getCacheBytes(processor.instructionCache);
+
+		// Six long arrays, one entry per instruction
+		if (processor.profiler != null) bytes += 6 * 8L * processor.profiler.length;
+
+		return bytes;
+	}
+
+	// Tags and dirty bits as ints and a long stamp per way
+	private static long getCacheBytes(Cache cache)
+	{
+		return (cache == null) ? 0 : 16L * cache.tags.length;
+	}
+
+	public int getInterval()
+	{
+		return interval;
+	}
+
+	// Oldest cycle that can be returned to, or -1 if nothing has been recorded
+	public long getOldestCycle()
+	{
+		return start;
+	}
+
+	public long getMemoryBytes()
+	{
+		return (long) checkpoints.length * checkpointBytes + journal.length * 8L;
+	}
+
+	// Called by Processor at the start of each clock, while signals still
+	// hold the writes about to be made
+	void record(Processor processor)
+	{
+		long cycle = processor.clockCount;
+
+		if (cycle % interval == 0)
+		{
+			int slot = (int) ((cycle / interval) % checkpoints.length);
+			if (checkpoints[slot] == null) checkpoints[slot] = new Snapshot(processor);
+			processor.save(checkpoints[slot], false);
+
+			if (start < 0) start = cycle;
+			else if (cycle - start >= (long) checkpoints.length * interval) start = cycle - (long) (checkpoints.length - 1) * interval;
+		}
+
+		// Nothing can be undone before the first checkpoint
+		if (start < 0) return;
+
+		Processor.Signals signals = processor.signals;
+		long entry = 0;
+
+		if (signals.wb_wrEn == 1)
+		{
+			entry |= REG_EN | ((long) signals.wb_wrAdd << 48) | ((long) (processor.registerFile[signals.wb_wrAdd] & 0xFFFF) << 32);
+		}
+
+		if (signals.ma_mEn == 1)
+		{
+			int address = Processor.getStoreAddress(signals);
+			entry |= MEM_EN | ((address & 0xFFFF) << 8) | (processor.memory.read(address) & 0xFF);
+		}
+
+		journal[(int) (cycle % journal.length)] = entry;
+	}
+
+	public boolean stepBack()
+	{
+		return goTo(processor.clockCount - 1);
+	}
+
+	// Moves the processor to the given cycle, backwards through the history or
+	// forwards by clocking. Returns false, leaving the processor unchanged, if
+	// the cycle is before the oldest checkpoint.
+	public boolean goTo(long target)
+	{
+		long current = processor.clockCount;
+
+		if (target >= current)
+		{
+			while (processor.clockCount < target) processor.clock();
+			return true;
+		}
+
+		if (start < 0 || target < start) return false;
+
+		long checkpoint = target - (target % interval);
+
+		// Undo the writes of each cycle, newest first
+		for (long cycle=current-1 ; cycle>=checkpoint ; cycle--)
+		{
+			long entry = journal[(int) (cycle % journal.length)];
+
+			if ((entry & MEM_EN) != 0) processor.memory.write((int) (entry >> 8) & 0xFFFF, (int) entry & 0xFF);
+			if ((entry & REG_EN) != 0) processor.registerFile[(int) (entry >> 48) & 0xF] = (int) (entry >> 32) & 0xFFFF;
+		}
+
+		processor.restore(checkpoints[(int) ((checkpoint / interval) % checkpoints.length)]);
+
+		// These cycles have been traced already
+		TraceWriter tracer = processor.tracer;
+		processor.tracer = null;
+
+		while (processor.clockCount < target) processor.clock();
+
+		processor.tracer = tracer;
+
+		return true;
+	}
+}
@@ -73,7 +73,12 @@ public class Instruction
 //		JMPRr	("jmpr",	3,	new ArgType[] {ArgType.REG},						new int[] {8},		new int[] {4}),
 
 		BRZi	("brz",	2,	new ArgType[] {ArgType.UADD},						new int[] {0},		new int[] {12}),
-		BRNZi	("brnz",	2, new ArgType[] {ArgType.UADD},						new int[] {0},		new int[] {12});
+		BRNZi	("brnz",	2, new ArgType[] {ArgType.UADD},						new int[] {0},		new int[] {12}),
+
+		// Data page of later loads and stores, see DataMemory. Last, so the
+		// opcodes above keep their encodings.
+		PAGEi	("page",	0,	new ArgType[] {ArgType.IMM},						new int[] {0},		new int[] {8}),
+		PAGEr	("page",	1,	new ArgType[] {ArgType.REG},						new int[] {0},		new int[] {4});
 
 		public String opCode;
 		public int format;
@@ -91,6 +96,9 @@ public class Instruction
 		}
 	}
 
+	// values() returns a fresh copy on every call, so keep one for lookups
+	private static final InstructionType[] TYPES = InstructionType.values();
+
 	public InstructionType insnType;
 	public int encoding;
 	public int[] argValArray;
@@ -113,6 +121,6 @@ public class Instruction
 
 	public static InstructionType getType(int opCode)
 	{
-		return InstructionType.values()[opCode];
+		return TYPES[opCode];
 	}
 }
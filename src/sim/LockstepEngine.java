@@ -0,0 +1,472 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.util.*;
+
+/**
+ * Instruction-level simulation of many independent instances, lanes, of one
+ * program in lockstep, for running the same program over many initial data
+ * memories. Each lane has the architectural results FunctionalEngine would
+ * give it on its own.
+ *
+ * Registers and memory are stored lane-wise, word w of every lane next to
+ * each other at w * lanes + lane, so an instruction is decoded once and then
+ * applied to all the lanes executing it in one pass over adjacent words, one
+ * pass per run of adjacent lanes once they have diverged.
+ *
+ * Lanes running at the same pc form a group, an instruction being issued to
+ * every lane of a group at once. A group splits where its lanes' branches go
+ * different ways, and the group with the lowest pc always issues next, so
+ * groups that parted at a branch meet again where their paths join and merge.
+ * Instruction counts and pc are kept per group while running and written back
+ * to the lanes when groups change or the run ends.
+ *
+ * Each lane has a data memory of one page, where page instructions have no
+ * effect, as with a FunctionalEngine of the default memory size.
+ */
+public class LockstepEngine
+{
+	// Average run length below which lanes are visited one by one
+	private static final int MIN_RUN_LENGTH = 8;
+
+	public final int lanes;
+
+	public int[] registerFile;		// Register r of lane l at r * lanes + l
+	public int[] dataMemory;		// Address a of lane l at a * lanes + l
+
+	// Per lane, up to date between runs
+	public int[] pc;
+	public int[] flagZ;
+	public int[] flagC;
+	public boolean[] halted;
+	public long[] instructionCount;
+
+	public long issueCount;			// Instructions issued, each to one or more lanes
+
+	private DecodedProgram decoded;
+
+	private long[] limit;			// Instruction count at which each lane stops this run
+	private ArrayList<Group> groups = new ArrayList<Group>();
+
+	// Running lanes at one pc, in lane order
+	private static class Group
+	{
+		int pc;
+		int[] lanes;
+		int size;
+
+		int[] runs;			// Start and end of each run of adjacent lanes
+		int runCount;
+
+		long issued;		// Instructions issued since the lanes' counts were written back
+		long budget;		// Instructions the group can issue before a lane reaches its limit
+
+		Group(int pc, int[] lanes, int size)
+		{
+			this.pc = pc;
+			this.lanes = lanes;
+			this.size = size;
+		}
+
+		// Finds the runs once the lanes are settled, executing an instruction
+		// then takes one pass over adjacent words per run
+		void findRuns()
+		{
+			runs = new int[2 * size];
+			runCount = 0;
+
+			for (int i=0 ; i<size ; i++)
+			{
+				if (runCount > 0 && runs[2*runCount-1] == lanes[i]) runs[2*runCount-1] ++;
+				else
+				{
+					runs[2*runCount] = lanes[i];
+					runs[2*runCount+1] = lanes[i] + 1;
+					runCount ++;
+				}
+			}
+		}
+	}
+
+	public LockstepEngine(Instruction[] program, int lanes)
+	{
+		this(new DecodedProgram(program), lanes);
+	}
+
+	public LockstepEngine(DecodedProgram decoded, int lanes)
+	{
+		this.decoded = decoded;
+		this.lanes = lanes;
+
+		limit = new long[lanes];
+
+		reset();
+	}
+
+	public void reset()
+	{
+		registerFile = new int[16 * lanes];
+		dataMemory = new int[256 * lanes];
+
+		pc = new int[lanes];
+		flagZ = new int[lanes];
+		flagC = new int[lanes];
+		halted = new boolean[lanes];
+
+		instructionCount = new long[lanes];
+		issueCount = 0;
+
+		for (int l=0 ; l<lanes ; l++) halted[l] = isHalted(0);
+	}
+
+	// Halted when the next instruction is a jmp to itself, or is past the end of the program
+	private boolean isHalted(int pc)
+	{
+		if (pc >= decoded.length) return true;
+		return (decoded.type[pc] == Instruction.InstructionType.JMPi.ordinal() && decoded.imm[pc] == pc);
+	}
+
+	public boolean isHalted()
+	{
+		for (int l=0 ; l<lanes ; l++) if (!halted[l]) return false;
+		return true;
+	}
+
+	public void setDataMemory(int lane, int[] memory)
+	{
+		for (int a=0 ; a<256 ; a++) dataMemory[a * lanes + lane] = memory[a];
+	}
+
+	public int[] getDataMemory(int lane)
+	{
+		int[] memory = new int[256];
+		for (int a=0 ; a<256 ; a++) memory[a] = dataMemory[a * lanes + lane];
+		return memory;
+	}
+
+	public int[] getRegisterFile(int lane)
+	{
+		int[] registers = new int[16];
+		for (int r=0 ; r<16 ; r++) registers[r] = registerFile[r * lanes + lane];
+		return registers;
+	}
+
+	// Runs until every lane has halted or taken maxSteps further instructions.
+	// Returns true if every lane halted.
+	public boolean run(long maxSteps)
+	{
+		if (maxSteps <= 0) return isHalted();
+
+		// Group the running lanes by pc
+		groups.clear();
+		for (int l=0 ; l<lanes ; l++)
+		{
+			if (halted[l]) continue;
+			limit[l] = instructionCount[l] + maxSteps;
+
+			Group group = find(pc[l]);
+			if (group == null)
+			{
+				group = new Group(pc[l], new int[lanes], 0);
+				groups.add(group);
+			}
+			group.lanes[group.size++] = l;
+		}
+
+		for (Group group : groups)
+		{
+			group.budget = maxSteps;
+			group.findRuns();
+		}
+
+		while (!groups.isEmpty())
+		{
+			// The lowest pc issues next
+			Group group = groups.get(0);
+			for (int g=1 ; g<groups.size() ; g++) if (groups.get(g).pc < group.pc) group = groups.get(g);
+
+			issue(group);
+		}
+
+		return isHalted();
+	}
+
+	private Group find(int pc)
+	{
+		for (int g=0 ; g<groups.size() ; g++) if (groups.get(g).pc == pc) return groups.get(g);
+		return null;
+	}
+
+	private Group findOther(Group group)
+	{
+		for (int g=0 ; g<groups.size() ; g++)
+		{
+			Group other = groups.get(g);
+			if (other.pc == group.pc && other != group) return other;
+		}
+		return null;
+	}
+
+	// Writes the group's pc and instruction count back to its lanes
+	private void writeBack(Group group)
+	{
+		for (int i=0 ; i<group.size ; i++)
+		{
+			int l = group.lanes[i];
+			pc[l] = group.pc;
+			instructionCount[l] += group.issued;
+		}
+		group.issued = 0;
+	}
+
+	private void issue(Group group)
+	{
+		final int issuePC = group.pc;
+		final int type = decoded.type[issuePC];
+		final int imm = decoded.imm[issuePC];
+
+		issueCount ++;
+		group.issued ++;
+		group.budget --;
+
+		// Jumps / Branches, the only instructions at which lanes can part
+		switch (Instruction.getType(type))
+		{
+			case JMPi :		moveTo(group, imm);			return;
+			case BRZi :		branch(group, 1, imm);		return;
+			case BRNZi :	branch(group, 0, imm);		return;
+			default :		break;
+		}
+
+		final int a = decoded.rAddA[issuePC] * lanes;
+		final int b = decoded.rAddB[issuePC] * lanes;
+
+		// Runs pay while they average several lanes
+		boolean valid = true;
+		if (group.runCount * MIN_RUN_LENGTH <= group.size)
+		{
+			for (int r=0 ; r<group.runCount && valid ; r++) valid = execute(type, a, b, imm & 0xFF, group.runs[2*r], group.runs[2*r+1]);
+		}
+		else
+		{
+			valid = executeLanes(type, a, b, imm & 0xFF, group.lanes, group.size);
+		}
+
+		if (!valid)
+		{
+			System.err.println("LockstepEngine.issue: Invalid instruction type (" + type + ")");
+			group.issued --;
+			writeBack(group);
+			for (int i=0 ; i<group.size ; i++) halted[group.lanes[i]] = true;
+			groups.remove(group);
+			return;
+		}
+
+		moveTo(group, issuePC + 1);
+	}
+
+	// Applies a non-branching instruction to the lanes from up to to, a run of
+	// adjacent lanes in one group. Returns false for an invalid type.
+	private boolean execute(int type, int a, int b, int imm8, int from, int to)
+	{
+		final int lanes = this.lanes;
+		final int[] reg = registerFile;
+		final int[] mem = dataMemory;
+		final int[] flagZ = this.flagZ;
+		final int[] flagC = this.flagC;
+		int l;
+
+		switch (Instruction.getType(type))
+		{
+			// Arithmetic and logic, writing rA and setting flags
+			case ADDi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] + imm8);			break;
+			case ADDr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] + reg[b + l]);		break;
+			case SUBi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] - imm8);			break;
+			case SUBr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] - reg[b + l]);		break;
+			case ANDi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] & imm8);			break;
+			case ANDr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] & reg[b + l]);		break;
+			case ORi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] | imm8);			break;
+			case ORr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] | reg[b + l]);		break;
+			case XORi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] ^ imm8);			break;
+			case XORr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] ^ reg[b + l]);		break;
+			case SHLi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] << imm8);			break;
+			case SHLr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] << reg[b + l]);	break;
+			case SHRi :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] >> imm8);			break;
+			case SHRr :		for (l=from ; l<to ; l++) alu(reg, flagZ, flagC, a, l, reg[a + l] >> reg[b + l]);	break;
+
+			// Compare, setting flags only
+			case COMPi :	for (l=from ; l<to ; l++) flags(flagZ, flagC, l, reg[a + l] - imm8);					break;
+			case COMPr :	for (l=from ; l<to ; l++) flags(flagZ, flagC, l, reg[a + l] - reg[b + l]);			break;
+
+			// Moves and memory, no flags
+			case MOVi :		for (l=from ; l<to ; l++) reg[a + l] = imm8;											break;
+			case MOVr :		for (l=from ; l<to ; l++) reg[a + l] = reg[b + l];									break;
+			case LDi :		for (l=from ; l<to ; l++) reg[a + l] = mem[imm8 * lanes + l];							break;
+			case LDr :		for (l=from ; l<to ; l++) reg[a + l] = mem[reg[b + l] * lanes + l];					break;
+			case STi :		for (l=from ; l<to ; l++) mem[reg[a + l] * lanes + l] = imm8;							break;
+			case STa :		for (l=from ; l<to ; l++) mem[imm8 * lanes + l] = reg[a + l];							break;
+			case STr :		for (l=from ; l<to ; l++) mem[reg[a + l] * lanes + l] = reg[b + l];					break;
+
+			// Lanes have one page of memory, so selecting a page has no effect
+			case PAGEi :
+			case PAGEr :	break;
+
+			default :		return false;
+		}
+
+		return true;
+	}
+
+	// As execute(), for lanes scattered too thinly for runs to pay
+	private boolean executeLanes(int type, int a, int b, int imm8, int[] lane, int n)
+	{
+		final int lanes = this.lanes;
+		final int[] reg = registerFile;
+		final int[] mem = dataMemory;
+		final int[] flagZ = this.flagZ;
+		final int[] flagC = this.flagC;
+		int i, l;
+
+		switch (Instruction.getType(type))
+		{
+			// Arithmetic and logic, writing rA and setting flags
+			case ADDi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] + imm8); }			break;
+			case ADDr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] + reg[b + l]); }		break;
+			case SUBi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] - imm8); }			break;
+			case SUBr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] - reg[b + l]); }		break;
+			case ANDi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] & imm8); }			break;
+			case ANDr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] & reg[b + l]); }		break;
+			case ORi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] | imm8); }			break;
+			case ORr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] | reg[b + l]); }		break;
+			case XORi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] ^ imm8); }			break;
+			case XORr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] ^ reg[b + l]); }		break;
+			case SHLi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] << imm8); }			break;
+			case SHLr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] << reg[b + l]); }	break;
+			case SHRi :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] >> imm8); }			break;
+			case SHRr :		for (i=0 ; i<n ; i++) { l = lane[i]; alu(reg, flagZ, flagC, a, l, reg[a + l] >> reg[b + l]); }	break;
+
+			// Compare, setting flags only
+			case COMPi :	for (i=0 ; i<n ; i++) { l = lane[i]; flags(flagZ, flagC, l, reg[a + l] - imm8); }					break;
+			case COMPr :	for (i=0 ; i<n ; i++) { l = lane[i]; flags(flagZ, flagC, l, reg[a + l] - reg[b + l]); }			break;
+
+			// Moves and memory, no flags
+			case MOVi :		for (i=0 ; i<n ; i++) { l = lane[i]; reg[a + l] = imm8; }											break;
+			case MOVr :		for (i=0 ; i<n ; i++) { l = lane[i]; reg[a + l] = reg[b + l]; }									break;
+			case LDi :		for (i=0 ; i<n ; i++) { l = lane[i]; reg[a + l] = mem[imm8 * lanes + l]; }							break;
+			case LDr :		for (i=0 ; i<n ; i++) { l = lane[i]; reg[a + l] = mem[reg[b + l] * lanes + l]; }					break;
+			case STi :		for (i=0 ; i<n ; i++) { l = lane[i]; mem[reg[a + l] * lanes + l] = imm8; }							break;
+			case STa :		for (i=0 ; i<n ; i++) { l = lane[i]; mem[imm8 * lanes + l] = reg[a + l]; }							break;
+			case STr :		for (i=0 ; i<n ; i++) { l = lane[i]; mem[reg[a + l] * lanes + l] = reg[b + l]; }					break;
+
+			case PAGEi :
+			case PAGEr :	break;
+
+			default :		return false;
+		}
+
+		return true;
+	}
+
+	private static void alu(int[] reg, int[] flagZ, int[] flagC, int a, int l, int out)
+	{
+		flags(flagZ, flagC, l, out);
+		reg[a + l] = out & 0xFF;
+	}
+
+	private static void flags(int[] flagZ, int[] flagC, int l, int out)
+	{
+		flagZ[l] = ((out & 0xFF) == 0) ? 1 : 0;
+		flagC[l] = (out >> 8) & 1;
+	}
+
+	// Sends the lanes with flagZ equal to takenZ to the target, the rest on to
+	// the next instruction, splitting the group if they disagree
+	private void branch(Group group, int takenZ, int target)
+	{
+		int taken = 0;
+		for (int i=0 ; i<group.size ; i++) if (flagZ[group.lanes[i]] == takenZ) taken ++;
+
+		if (taken == 0) moveTo(group, group.pc + 1);
+		else if (taken == group.size) moveTo(group, target);
+		else
+		{
+			writeBack(group);
+
+			Group takenGroup = new Group(target, new int[taken], 0);
+			Group notTakenGroup = new Group(group.pc + 1, new int[group.size - taken], 0);
+
+			for (int i=0 ; i<group.size ; i++)
+			{
+				int l = group.lanes[i];
+				if (flagZ[l] == takenZ) takenGroup.lanes[takenGroup.size++] = l;
+				else notTakenGroup.lanes[notTakenGroup.size++] = l;
+			}
+
+			groups.remove(group);
+			place(takenGroup);
+			place(notTakenGroup);
+		}
+	}
+
+	private void moveTo(Group group, int nextPC)
+	{
+		group.pc = nextPC;
+
+		// Leaving a group that joins another, halts or reaches its limit
+		if (isHalted(nextPC) || group.budget == 0 || findOther(group) != null)
+		{
+			groups.remove(group);
+			writeBack(group);
+			place(group);
+		}
+	}
+
+	// Adds a group whose counts are written back, dropping lanes that have
+	// halted or reached their limit and merging with any group at the same pc
+	private void place(Group group)
+	{
+		for (int i=0 ; i<group.size ; i++) pc[group.lanes[i]] = group.pc;
+
+		if (isHalted(group.pc))
+		{
+			for (int i=0 ; i<group.size ; i++) halted[group.lanes[i]] = true;
+			return;
+		}
+
+		int size = 0;
+		group.budget = Long.MAX_VALUE;
+		for (int i=0 ; i<group.size ; i++)
+		{
+			int l = group.lanes[i];
+			if (instructionCount[l] >= limit[l]) continue;
+
+			group.lanes[size++] = l;
+			group.budget = Math.min(group.budget, limit[l] - instructionCount[l]);
+		}
+		group.size = size;
+		if (size == 0) return;
+
+		Group other = find(group.pc);
+		if (other == null)
+		{
+			group.findRuns();
+			groups.add(group);
+			return;
+		}
+
+		// Merge, keeping lane order
+		writeBack(other);
+
+		int[] merged = new int[other.size + group.size];
+		int i = 0, j = 0, m = 0;
+		while (i < other.size && j < group.size) merged[m++] = (other.lanes[i] < group.lanes[j]) ? other.lanes[i++] : group.lanes[j++];
+		while (i < other.size) merged[m++] = other.lanes[i++];
+		while (j < group.size) merged[m++] = group.lanes[j++];
+
+		other.lanes = merged;
+		other.size = m;
+		other.budget = Math.min(other.budget, group.budget);
+		other.findRuns();
+	}
+}
@@ -0,0 +1,405 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs several pipelined cores, each with its own program, registers and
+ * pipeline, in cycle lockstep over one shared data memory. Given a data cache
+ * configuration, every core gets a private copy of it, kept coherent by a
+ * CoherentBus.
+ *
+ * Each cycle is split in two: every core clocks its registers, then the
+ * stores and cache accesses the cores made are applied in core order, then
+ * every core settles on the new state. So within a cycle all cores see the
+ * memory as it was at the clock edge, and the result of a run does not
+ * depend on how many host threads it is spread over. With more than one
+ * thread, cores are divided between threads that meet at a barrier on each
+ * side of the apply step. A cycle of a core is far shorter than it takes to
+ * park and wake a thread, so the barriers spin, yielding once they have spun
+ * for a while in case there are more threads than host cores.
+ *
+ * Cycles in which no core stores or accesses its data cache have nothing to
+ * apply, so the threads run as many of them as they can between barriers.
+ * How many is found from how far each core's pipeline and program are from
+ * the next load, store or halt, so results match a run on one thread. The
+ * command line runs on one thread unless given -threads, as a barrier still
+ * costs more than most batches of cycles save.
+ *
+ * Reverse stepping and checkpoints are per Processor and are not supported
+ * for the cores of a MultiProcessor.
+ *
+ * Usage: java sim.MultiProcessor [-cycles N] [-threads N] [-memory N] [-noMem] [-dcache size,ways,line]
+ *                                [-dcacheLatency hit,miss] [-protocol msi|mesi] [-busLatency N] file.asm ...
+ */
+public class MultiProcessor
+{
+	private static final long DEFAULT_CYCLES = 1000000;
+	private static final int MAX_BATCH = 64;		// Cycles run between barriers at most
+
+	private static PrintStream log = System.out;
+
+	public final Processor[] cores;
+	public final DataMemory memory;
+	public final int[] dataMemory;		// Page 0 of memory
+	public final CoherentBus bus;		// Null when the cores have no data caches
+
+	public long clockCount;
+	public long batches;				// Barrier rounds of run() on more than one thread
+
+	// Shared by the threads of run(), ordered by its barriers
+	private boolean stopping;
+	private RuntimeException failure;
+	private int batch;					// Cycles in the current barrier round
+
+	public MultiProcessor(Instruction[][] programs, int memorySize, Cache dataCache, CoherentBus.Protocol protocol, int arbitrationLatency)
+	{
+		memory = new DataMemory(memorySize);
+		dataMemory = memory.getPage(0);
+
+		cores = new Processor[programs.length];
+		Cache[] caches = new Cache[programs.length];
+
+		for (int c=0 ; c<programs.length ; c++)
+		{
+			cores[c] = new Processor(programs[c]);
+			cores[c].memorySize = memorySize;
+			cores[c].enableDoubleBuffer = true;
+			cores[c].deferStores = true;
+			cores[c].coreId = c;
+
+			if (dataCache != null)
+			{
+				caches[c] = dataCache.snapshot();
+				cores[c].dataCache = caches[c];
+			}
+		}
+
+		bus = (dataCache == null) ? null : new CoherentBus(protocol, arbitrationLatency, caches);
+		for (Processor core : cores) core.bus = bus;
+
+		reset();
+	}
+
+	public void reset()
+	{
+		memory.clear();
+
+		for (Processor core : cores)
+		{
+			core.reset();
+			core.memory = memory;
+			core.dataMemory = dataMemory;
+			core.storeAddress = -1;
+		}
+
+		if (bus != null) bus.reset();
+		clockCount = 0;
+		batches = 0;
+	}
+
+	public void clock()
+	{
+		for (Processor core : cores) core.clockEdge();
+		apply();
+		for (Processor core : cores) core.settle();
+	}
+
+	// Halted once every core has
+	public boolean isHalted()
+	{
+		for (Processor core : cores) if (!core.isHalted()) return false;
+		return true;
+	}
+
+	// Clocks until every core has halted or maxCycles further cycles have been
+	// run, on up to the given number of threads. Returns true if all halted.
+	public boolean run(long maxCycles, int threads)
+	{
+		threads = Math.max(1, Math.min(threads, cores.length));
+
+		if (threads == 1)
+		{
+			for (long c=0 ; c<maxCycles ; c++)
+			{
+				if (isHalted()) return true;
+				clock();
+			}
+
+			return isHalted();
+		}
+
+		final long endCycle = clockCount + maxCycles;
+		stopping = false;
+		failure = null;
+
+		final SpinBarrier start = new SpinBarrier(threads, new Runnable()
+		{
+			public void run()
+			{
+				stopping = (failure != null) || isHalted() || clockCount >= endCycle;
+				if (!stopping) batch = getBatch(endCycle - clockCount);
+			}
+		});
+
+		final SpinBarrier edge = new SpinBarrier(threads, new Runnable()
+		{
+			public void run()
+			{
+				// The cycles before the last had nothing to apply
+				clockCount += batch - 1;
+				if (bus != null) bus.idle(batch - 1);
+
+				apply();
+				batches ++;
+			}
+		});
+
+		Thread[] workers = new Thread[threads - 1];
+		for (int t=1 ; t<threads ; t++)
+		{
+			final int first = t * cores.length / threads;
+			final int last = (t + 1) * cores.length / threads;
+
+			workers[t-1] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					step(first, last, start, edge);
+				}
+			}, "MultiProcessor-" + t);
+			workers[t-1].start();
+		}
+
+		step(0, cores.length / threads, start, edge);
+
+		try
+		{
+			for (Thread worker : workers) worker.join();
+		}
+		catch (InterruptedException iE)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("MultiProcessor: Interrupted", iE);
+		}
+
+		if (failure != null) throw new IllegalStateException("MultiProcessor: Core thread failed", failure);
+
+		return isHalted();
+	}
+
+	// Cycles the threads can run before the next barrier: those before any
+	// core may store or access its data cache, or every core may be halted,
+	// and then one more
+	private int getBatch(long remaining)
+	{
+		int quiet = MAX_BATCH - 1;
+		int running = 0;
+
+		for (Processor core : cores)
+		{
+			quiet = Math.min(quiet, core.getQuietCycles());
+			running = Math.max(running, core.getRunningCycles());
+		}
+
+		return (int) Math.min(remaining, 1 + Math.min(quiet, running));
+	}
+
+	// Clocks cores first to last-1 until the start barrier says to stop, a
+	// batch of cycles between barriers. A thread whose cores fail keeps
+	// meeting the barriers, so the others are not left waiting, until the
+	// next start stops them all.
+	private void step(int first, int last, SpinBarrier start, SpinBarrier edge)
+	{
+		while (true)
+		{
+			start.await();
+			if (stopping) return;
+
+			try
+			{
+				for (int b=1 ; b<batch ; b++)
+				{
+					for (int c=first ; c<last ; c++)
+					{
+						cores[c].clockEdge();
+						cores[c].settle();
+					}
+				}
+
+				for (int c=first ; c<last ; c++) cores[c].clockEdge();
+			}
+			catch (RuntimeException rE)
+			{
+				fail(rE);
+			}
+
+			edge.await();
+
+			try
+			{
+				for (int c=first ; c<last ; c++) cores[c].settle();
+			}
+			catch (RuntimeException rE)
+			{
+				fail(rE);
+			}
+		}
+	}
+
+	private synchronized void fail(RuntimeException rE)
+	{
+		if (failure == null) failure = rE;
+	}
+
+	// Makes the stores and cache accesses of the last clock edge, lowest core first
+	private void apply()
+	{
+		for (Processor core : cores)
+		{
+			if (core.storeAddress < 0) continue;
+
+			memory.write(core.storeAddress, core.storeData);
+			core.storeAddress = -1;
+		}
+
+		if (bus != null) bus.commit();
+		clockCount ++;
+	}
+
+	// Barrier whose last thread to arrive runs the action before releasing the
+	// rest. Writes before await() are visible to every thread after it.
+	private static class SpinBarrier
+	{
+		private static final int SPINS = 1000;
+
+		private final int parties;
+		private final Runnable action;
+		private final AtomicInteger waiting = new AtomicInteger();
+		private volatile int generation;
+
+		SpinBarrier(int parties, Runnable action)
+		{
+			this.parties = parties;
+			this.action = action;
+		}
+
+		void await()
+		{
+			int arrived = generation;
+
+			if (waiting.incrementAndGet() == parties)
+			{
+				action.run();
+				waiting.set(0);
+				generation = arrived + 1;
+				return;
+			}
+
+			for (int spin=0 ; generation == arrived ; spin++)
+			{
+				if (spin >= SPINS) Thread.yield();
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		long maxCycles = DEFAULT_CYCLES;
+		int threads = 1;
+		int memorySize = DataMemory.PAGE_WORDS;
+		boolean dumpMemory = true;
+		String dcacheGeometry = null;
+		String dcacheLatency = "1,10";
+		String protocolName = "mesi";
+		int busLatency = 2;
+		ArrayList<String> asmFilenames = new ArrayList<String>();
+
+		for (int a=0 ; a<args.length ; a++)
+		{
+			if (args[a].equals("-cycles") && a+1 < args.length) maxCycles = Long.parseLong(args[++a]);
+			else if (args[a].equals("-threads") && a+1 < args.length) threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-memory") && a+1 < args.length) memorySize = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-noMem")) dumpMemory = false;
+			else if (args[a].equals("-dcache") && a+1 < args.length) dcacheGeometry = args[++a];
+			else if (args[a].equals("-dcacheLatency") && a+1 < args.length) dcacheLatency = args[++a];
+			else if (args[a].equals("-protocol") && a+1 < args.length) protocolName = args[++a];
+			else if (args[a].equals("-busLatency") && a+1 < args.length) busLatency = Integer.parseInt(args[++a]);
+			else if (args[a].startsWith("-")) usage();
+			else asmFilenames.add(args[a]);
+		}
+
+		CoherentBus.Protocol protocol = CoherentBus.parseProtocol(protocolName);
+		if (asmFilenames.isEmpty() || protocol == null || busLatency < 0 || threads <= 0 || !DataMemory.isValidSize(memorySize)) usage();
+
+		Cache dataCache = null;
+		if (dcacheGeometry != null)
+		{
+			dataCache = Batch.createCache(dcacheGeometry, "lru", true, dcacheLatency);
+			if (dataCache == null) usage();
+		}
+
+		Instruction[][] programs = new Instruction[asmFilenames.size()][];
+		for (int c=0 ; c<programs.length ; c++)
+		{
+			programs[c] = Assembler.assemble(new File(asmFilenames.get(c)), log, false);
+			if (programs[c] == null)
+			{
+				log.println("ERR: MultiProcessor: Could not create program " + asmFilenames.get(c));
+				System.exit(1);
+			}
+		}
+
+		MultiProcessor multi = new MultiProcessor(programs, memorySize, dataCache, protocol, busLatency);
+
+		long startTime = System.nanoTime();
+		boolean halted = multi.run(maxCycles, threads);
+		long wallTime = System.nanoTime() - startTime;
+
+		if (dumpMemory)
+		{
+			Batch.printMemory(log, multi.memory);
+			log.println();
+		}
+
+		double seconds = wallTime / 1e9;
+		log.println("Cores:        " + multi.cores.length + " on " + Math.min(threads, multi.cores.length) + " threads");
+		log.println("Status:       " + (halted ? "halted" : "cycle limit reached"));
+		log.println("Cycles:       " + multi.clockCount);
+		log.printf("Wall time:    %.3f s%n", seconds);
+		log.printf("Core cycles/sec: %.0f%n", (seconds > 0) ? multi.clockCount * multi.cores.length / seconds : 0.0);
+		if (multi.batches > 0) log.printf("Batching:     %.2f cycles per barrier round%n", (double) multi.clockCount / multi.batches);
+
+		log.println();
+		log.println("  Core  Instructions    CPI  Load stalls  Cache stalls  D-cache hits  Program");
+		for (int c=0 ; c<multi.cores.length ; c++)
+		{
+			Processor core = multi.cores[c];
+			PerfCounters counters = core.getCounters();
+
+			log.printf("  %4d %13d %6.3f %12d %13d  %11s  %s%n", c, core.instructionCount, counters.getCPI(),
+				counters.loadStallCycles, counters.dataCacheStallCycles,
+				(core.dataCache == null) ? "-" : String.format("%.2f%%", 100 * core.dataCache.getHitRate()), asmFilenames.get(c));
+		}
+
+		CoherentBus bus = multi.bus;
+		if (bus != null)
+		{
+			log.println();
+			log.printf("Bus:          %s, %d-cycle arbitration, %d transactions (%d reads, %d read-exclusives, %d upgrades)%n",
+				bus.protocol.name(), bus.arbitrationLatency, bus.getTransactions(), bus.busReads, bus.busReadExclusives, bus.busUpgrades);
+			log.println("Coherence:    " + bus.invalidations + " invalidations, " + bus.interventions + " interventions");
+			log.println("Arbitration:  " + bus.arbitrationStallCycles + " cycles waited for the bus");
+		}
+	}
+
+	private static void usage()
+	{
+		log.println("Usage: java sim.MultiProcessor [-cycles N] [-threads N] [-memory N] [-noMem] [-dcache size,ways,line]");
+		log.println("                               [-dcacheLatency hit,miss] [-protocol msi|mesi] [-busLatency N] file.asm ...");
+		System.exit(1);
+	}
+}
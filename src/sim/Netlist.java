@@ -0,0 +1,342 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Processor's combinatorial datapath as components joined by named wires,
+ * read from a text file and sorted so each component comes after those
+ * driving its inputs. sim.jit.NetlistCompiler turns it into the evaluator
+ * Processor.setDatapath runs in place of the hand-written logic, so a
+ * modified datapath needs only a new file. netlists/classic.net is the
+ * datapath of images/arch.svg.
+ *
+ * Each line is a binding or a component, and '#' starts a comment:
+ *
+ *   in wire[=field] ...        wires loaded from Signals fields
+ *   control wire[=field] ...   wires loaded from Controls fields
+ *   out wire[=field] ...       wires stored to Signals fields
+ *   wire[, wire] = type input, input ...
+ *
+ * A field defaults to the wire's name, and the aluOp control loads as its
+ * AluOp ordinal. An input is a wire or a number, decimal or x hex as in
+ * the assembler. Every wire is driven once, and components may come in any
+ * order, but not in a loop. The component types are:
+ *
+ *   add, sub, and, or, xor a, b        the int operation
+ *   shl, shr a, b                      a shifted by b, shr signed
+ *   eq a, b                            1 if equal, else 0
+ *   bit a, n                           bit n of a
+ *   sext a, from, to                   a with bits from to to-1 set if bit
+ *                                      from-1 is, from and to being numbers
+ *   mux select, in0, in1 ...           the input chosen, 0 if none is
+ *   result, flags = alu op, a, b       the AluOp's unmasked result, and 1
+ *                                      if it sets the flags
+ *   imem address                       program word, 0 past the end
+ *   dmem address                       data memory word
+ *   regfile address                    register, as written so far
+ */
+public class Netlist
+{
+	public static final int ADD = 0;
+	public static final int SUB = 1;
+	public static final int AND = 2;
+	public static final int OR = 3;
+	public static final int XOR = 4;
+	public static final int SHL = 5;
+	public static final int SHR = 6;
+	public static final int EQ = 7;
+	public static final int BIT = 8;
+	public static final int SEXT = 9;
+	public static final int MUX = 10;
+	public static final int ALU = 11;
+	public static final int IMEM = 12;
+	public static final int DMEM = 13;
+	public static final int REGFILE = 14;
+
+	// Binding kinds
+	private static final int IN = 0;
+	private static final int CONTROL = 1;
+	private static final int OUT = 2;
+	private static final List<String> BINDING_NAMES = Arrays.asList("in", "control", "out");
+
+	public static final String[] TYPE_NAMES = {"add", "sub", "and", "or", "xor", "shl", "shr", "eq", "bit", "sext", "mux", "alu", "imem", "dmem", "regfile"};
+	private static final int[] TYPE_INPUTS = {2, 2, 2, 2, 2, 2, 2, 2, 2, 3, -1, 3, 1, 1, 1};	// -1 for a select and two or more
+	private static final int[] TYPE_OUTPUTS = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 1, 1, 1};
+
+	// A component's inputs, each a wire or, where the wire is -1, a number
+	public static class Component
+	{
+		public final int type;
+		public final int[] outputs;
+		public final int[] inputWires;
+		public final int[] inputValues;
+
+		Component(int type, int[] outputs, int[] inputWires, int[] inputValues)
+		{
+			this.type = type;
+			this.outputs = outputs;
+			this.inputWires = inputWires;
+			this.inputValues = inputValues;
+		}
+	}
+
+	public final String name;
+	public final String[] wireNames;		// Indexed by wire, in the order they are driven in the file
+	public final Component[] components;	// In evaluation order
+
+	// Bindings, each a wire and its field
+	public final int[] inputWires;
+	public final String[] inputFields;
+	public final int[] controlWires;
+	public final String[] controlFields;
+	public final int[] outputWires;
+	public final String[] outputFields;
+
+	private HashMap<String, Integer> wireIndex;
+
+	private Netlist(String name, ArrayList<String> wires, HashMap<String, Integer> wireIndex, Component[] components,
+		ArrayList<int[]> bindings, ArrayList<String> bindingFields)
+	{
+		this.name = name;
+		this.wireNames = wires.toArray(new String[wires.size()]);
+		this.wireIndex = wireIndex;
+		this.components = components;
+
+		inputWires = getBindingWires(bindings, IN);
+		inputFields = getBindingFields(bindings, bindingFields, IN);
+		controlWires = getBindingWires(bindings, CONTROL);
+		controlFields = getBindingFields(bindings, bindingFields, CONTROL);
+		outputWires = getBindingWires(bindings, OUT);
+		outputFields = getBindingFields(bindings, bindingFields, OUT);
+	}
+
+	public static Netlist load(File file) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try
+		{
+			ArrayList<String> lines = new ArrayList<String>();
+			for (String line=reader.readLine() ; line!=null ; line=reader.readLine()) lines.add(line);
+			return parse(file.getName(), lines);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	// Netlist from the lines of a file, see the class comment. The name is
+	// used in error messages.
+	public static Netlist parse(String name, List<String> lines)
+	{
+		ArrayList<String> wires = new ArrayList<String>();
+		HashMap<String, Integer> wireIndex = new HashMap<String, Integer>();
+		ArrayList<int[]> bindings = new ArrayList<int[]>();		// {kind, wire}
+		ArrayList<String> bindingFields = new ArrayList<String>();
+		ArrayList<String[]> outputBindings = new ArrayList<String[]>();	// {wire, field, line}
+		ArrayList<String[]> componentLines = new ArrayList<String[]>();	// {line, outputs, type, inputs}
+
+		for (int l=0 ; l<lines.size() ; l++)
+		{
+			String line = lines.get(l);
+			int comment = line.indexOf('#');
+			if (comment >= 0) line = line.substring(0, comment);
+			line = line.trim();
+			if (line.length() == 0) continue;
+
+			String where = name + " line " + (l + 1);
+			String[] words = line.split("\\s+");
+			int kind = BINDING_NAMES.indexOf(words[0]);
+
+			if (kind < 0)
+			{
+				int equals = line.indexOf('=');
+				if (equals < 0) throw new IllegalArgumentException("Netlist: " + where + ": Expected a binding or a component");
+
+				String[] right = line.substring(equals + 1).trim().split("\\s+", 2);
+				componentLines.add(new String[] {Integer.toString(l + 1), line.substring(0, equals), right[0], (right.length > 1) ? right[1] : ""});
+
+				for (String output : line.substring(0, equals).split(",")) addWire(output.trim(), wires, wireIndex, where);
+				continue;
+			}
+
+			if (words.length < 2) throw new IllegalArgumentException("Netlist: " + where + ": No wires given");
+
+			for (int w=1 ; w<words.length ; w++)
+			{
+				String[] pair = words[w].split("=", -1);
+				String field = pair[pair.length - 1];
+				if (pair.length > 2) throw new IllegalArgumentException("Netlist: " + where + ": Bad binding \"" + words[w] + "\"");
+
+				if (kind == OUT)
+				{
+					outputBindings.add(new String[] {pair[0], field, where});
+					continue;
+				}
+
+				checkField(kind, field, where);
+				bindings.add(new int[] {kind, addWire(pair[0], wires, wireIndex, where)});
+				bindingFields.add(field);
+			}
+		}
+
+		// Components, now that every wire is known
+		ArrayList<Component> unsorted = new ArrayList<Component>();
+		for (String[] componentLine : componentLines) unsorted.add(parseComponent(componentLine, name + " line " + componentLine[0], wireIndex));
+
+		HashSet<String> outputFieldSet = new HashSet<String>();
+		for (String[] output : outputBindings)
+		{
+			Integer wire = wireIndex.get(output[0]);
+			if (wire == null) throw new IllegalArgumentException("Netlist: " + output[2] + ": Wire \"" + output[0] + "\" is not driven");
+			checkField(OUT, output[1], output[2]);
+			if (!outputFieldSet.add(output[1])) throw new IllegalArgumentException("Netlist: " + output[2] + ": Field " + output[1] + " is stored twice");
+
+			bindings.add(new int[] {OUT, wire});
+			bindingFields.add(output[1]);
+		}
+
+		return new Netlist(name, wires, wireIndex, sort(name, unsorted, wires, bindings), bindings, bindingFields);
+	}
+
+	public int getWireCount()
+	{
+		return wireNames.length;
+	}
+
+	// Index of the named wire in Processor.wires, or -1 if there is none
+	public int getWireIndex(String wire)
+	{
+		Integer index = wireIndex.get(wire);
+		return (index == null) ? -1 : index;
+	}
+
+	public String toString()
+	{
+		return name;
+	}
+
+	private static int addWire(String wire, ArrayList<String> wires, HashMap<String, Integer> wireIndex, String where)
+	{
+		if (!wire.matches("[A-Za-z_][A-Za-z0-9_]*") || wire.matches("x[0-9A-Fa-f]+") || BINDING_NAMES.contains(wire))
+		{
+			throw new IllegalArgumentException("Netlist: " + where + ": Bad wire name \"" + wire + "\"");
+		}
+		if (wireIndex.containsKey(wire)) throw new IllegalArgumentException("Netlist: " + where + ": Wire \"" + wire + "\" is driven twice");
+
+		wireIndex.put(wire, wires.size());
+		wires.add(wire);
+		return wires.size() - 1;
+	}
+
+	private static int[] getBindingWires(ArrayList<int[]> bindings, int kind)
+	{
+		int count = 0;
+		for (int[] binding : bindings) if (binding[0] == kind) count ++;
+
+		int[] wires = new int[count];
+		count = 0;
+		for (int[] binding : bindings) if (binding[0] == kind) wires[count ++] = binding[1];
+		return wires;
+	}
+
+	private static String[] getBindingFields(ArrayList<int[]> bindings, ArrayList<String> bindingFields, int kind)
+	{
+		ArrayList<String> fields = new ArrayList<String>();
+		for (int b=0 ; b<bindings.size() ; b++) if (bindings.get(b)[0] == kind) fields.add(bindingFields.get(b));
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	// Signals fields for in and out bindings, Controls fields for control
+	private static void checkField(int kind, String field, String where)
+	{
+		Class<?> fieldClass = (kind == CONTROL) ? Processor.Controls.class : Processor.Signals.class;
+
+		try
+		{
+			Field found = fieldClass.getField(field);
+			if (found.getType() == int.class || (kind == CONTROL && found.getType() == Processor.AluOp.class)) return;
+		}
+		catch (NoSuchFieldException nsfE) {}
+
+		throw new IllegalArgumentException("Netlist: " + where + ": No " + fieldClass.getSimpleName() + " field " + field);
+	}
+
+	// Component from {line, outputs, type, inputs}
+	private static Component parseComponent(String[] componentLine, String where, HashMap<String, Integer> wireIndex)
+	{
+		int type = Arrays.asList(TYPE_NAMES).indexOf(componentLine[2]);
+		if (type < 0) throw new IllegalArgumentException("Netlist: " + where + ": Unknown component \"" + componentLine[2] + "\"");
+
+		String[] outputNames = componentLine[1].split(",");
+		String[] inputNames = (componentLine[3].length() == 0) ? new String[0] : componentLine[3].split(",");
+
+		if (outputNames.length != TYPE_OUTPUTS[type]) throw new IllegalArgumentException("Netlist: " + where + ": " + componentLine[2] + " drives " + TYPE_OUTPUTS[type] + " wire(s)");
+		if ((TYPE_INPUTS[type] < 0) ? inputNames.length < 3 : inputNames.length != TYPE_INPUTS[type])
+		{
+			throw new IllegalArgumentException("Netlist: " + where + ": Wrong number of inputs to " + componentLine[2]);
+		}
+
+		int[] outputs = new int[outputNames.length];
+		for (int o=0 ; o<outputs.length ; o++) outputs[o] = wireIndex.get(outputNames[o].trim());
+
+		int[] inputWires = new int[inputNames.length];
+		int[] inputValues = new int[inputNames.length];
+
+		for (int i=0 ; i<inputNames.length ; i++)
+		{
+			String input = inputNames[i].trim();
+			inputWires[i] = -1;
+
+			if (input.matches("[0-9]+")) inputValues[i] = Integer.parseInt(input);
+			else if (input.matches("x[0-9A-Fa-f]+")) inputValues[i] = Integer.parseInt(input.substring(1), 16);
+			else if (wireIndex.containsKey(input)) inputWires[i] = wireIndex.get(input);
+			else throw new IllegalArgumentException("Netlist: " + where + ": Wire \"" + input + "\" is not driven");
+		}
+
+		if (type == SEXT && (inputWires[1] >= 0 || inputWires[2] >= 0 || inputValues[1] < 1 || inputValues[1] > inputValues[2] || inputValues[2] > 31))
+		{
+			throw new IllegalArgumentException("Netlist: " + where + ": sext takes numbers with 1 <= from <= to <= 31");
+		}
+
+		return new Component(type, outputs, inputWires, inputValues);
+	}
+
+	// Orders the components so each follows those driving its inputs, keeping
+	// the file's order where it can
+	private static Component[] sort(String name, ArrayList<Component> unsorted, ArrayList<String> wires, ArrayList<int[]> bindings)
+	{
+		boolean[] ready = new boolean[wires.size()];
+		for (int[] binding : bindings) if (binding[0] != OUT) ready[binding[1]] = true;
+
+		Component[] sorted = new Component[unsorted.size()];
+		int count = 0;
+
+		while (count < sorted.length)
+		{
+			int before = count;
+
+			for (Iterator<Component> it=unsorted.iterator() ; it.hasNext() ; )
+			{
+				Component component = it.next();
+
+				boolean inputsReady = true;
+				for (int wire : component.inputWires) if (wire >= 0 && !ready[wire]) inputsReady = false;
+				if (!inputsReady) continue;
+
+				for (int wire : component.outputs) ready[wire] = true;
+				sorted[count ++] = component;
+				it.remove();
+			}
+
+			if (count == before) throw new IllegalArgumentException("Netlist: " + name + ": Loop through wire \"" + wires.get(unsorted.get(0).outputs[0]) + "\"");
+		}
+
+		return sorted;
+	}
+}
@@ -0,0 +1,662 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.util.*;
+
+/**
+ * Out-of-order core in the style of Tomasulo's algorithm with a reorder
+ * buffer, running the same programs as Processor to the same architectural
+ * results. Each cycle, in order:
+ *
+ *   complete  Results whose latency has run out are broadcast to every
+ *             operand waiting on them, and their entries marked done.
+ *   commit    Up to width done instructions leave the head of the reorder
+ *             buffer in program order, updating the register file, flags,
+ *             data page and memory. A wrong next address found on execution
+ *             squashes every younger instruction here and refetches.
+ *   execute   The oldest reservation stations with every operand start on
+ *             the ALUs, one instruction per ALU a cycle. The load/store
+ *             queue computes each address once its operands are in; a load
+ *             then waits until every older store's address is known, taking
+ *             the data of the youngest matching one or otherwise reading
+ *             memory through a load port.
+ *   issue     Up to width fetched instructions are renamed and given a
+ *             reorder buffer entry and a station or queue entry, with each
+ *             operand taken from the register file, from a finished entry,
+ *             or left waiting on the entry producing it.
+ *   fetch     Up to width instructions are fetched down the path the branch
+ *             predictor gives, stopping after a predicted taken jump.
+ *
+ * Registers are renamed to the reorder buffer entries writing them, as are
+ * the flags and the data page, so the instructions reading those wait only
+ * on the one producing them. Fetch stops at a jmp to itself, and the core
+ * has halted once everything before it has committed.
+ *
+ * The dataflow limit is the critical path of the committed instructions
+ * through their register, flag, page and memory dependences with the same
+ * latencies, store data forwarded, as an unbounded machine with perfect
+ * prediction would take.
+ */
+public class OutOfOrderProcessor implements Engine
+{
+	// Renamed state beyond the 16 registers
+	private static final int PAGE = 16;			// Data page of loads and stores
+	private static final int FLAGS = 17;		// Z in bit 0, C in bit 1
+	private static final int REGISTERS = 18;
+
+	private static final int OPERANDS = 3;		// A, B, and the data page or flags
+
+	private static final long NOT_STARTED = Long.MAX_VALUE;
+
+	// Why issue stopped short of width instructions in a cycle
+	public enum Stall {FETCH_EMPTY, ROB_FULL, STATIONS_FULL, QUEUE_FULL}
+
+	// Configuration, taking effect on reset
+	public int width = 2;				// Instructions fetched, issued and committed per cycle
+	public int robEntries = 32;
+	public int stations = 8;			// Reservation stations, shared by the ALUs
+	public int queueEntries = 8;		// Load/store queue entries
+	public int aluUnits = 2;
+	public int loadPorts = 1;
+	public int aluLatency = 1;
+	public int loadLatency = 2;			// Cycles to read memory, one for data forwarded from a store
+	public int memorySize = DataMemory.PAGE_WORDS;	// Data memory words
+	public BranchPredictor predictor = new BranchPredictor(BranchPredictor.Scheme.BIMODAL);
+
+	// Architectural state, updated at commit
+	public int[] registerFile;
+	public DataMemory memory;
+	public int[] dataMemory;			// Page 0 of memory
+	public int page;
+	public int flagZ;
+	public int flagC;
+
+	public long clockCount;
+	public long instructionCount;		// Instructions committed
+
+	public PerfCounters counters = new PerfCounters();
+	public long robOccupancy;			// Reorder buffer entries in use, summed over cycles
+	public int robPeak;
+	public long[] stallCycles = new long[Stall.values().length];
+	public long mispredictions;
+	public long storeForwards;			// Loads given their data by an older store
+	public long dataflowCycles;			// Dataflow limit of the committed instructions
+
+	private final DecodedProgram decoded;
+
+	// Per address
+	private final int[][] sources;		// Registers read, by operand, -1 for none
+	private final int[] destination;	// Register or PAGE written, -1 for none
+	private final boolean[] writesFlags;
+	private final boolean[] load;
+	private final boolean[] store;
+
+	// Fetch queue, circular
+	private int[] fetchAddress;
+	private int[] fetchPredicted;
+	private int[] fetchPredIndex;		// Predictor counter the prediction was read from
+	private int fetchHead;
+	private int fetchCount;
+	private int fetchPC;
+	private boolean fetchStopped;		// At a jmp to itself or past the end
+
+	// Reorder buffer, circular, oldest at robHead
+	private int[] robPC;
+	private int[] robPredicted;			// Next address fetched after it
+	private int[] robPredIndex;
+	private int[] robNext;				// Next address found on execution
+	private int[] robValue;
+	private int[] robFlags;
+	private int[] robAddress;			// Loads and stores
+	private int[] robData;				// Stores
+	private int[] robSlot;				// Station or queue entry, -1 once a station has started
+	private long[] robReady;			// Cycle its result is ready, NOT_STARTED until executed
+	private boolean[] robDone;
+	private int robHead;
+	private int robCount;
+
+	// Reorder buffer entry each register is renamed to, -1 for the register file
+	private int[] rat;
+
+	// Reservation stations, then load/store queue entries, each with its
+	// reorder buffer entry, -1 when free, and operands: the register read,
+	// and the entry it waits on or, once that is -1, its value
+	private int[] slotRob;
+	private int[] operandRegister;
+	private int[] operandTag;
+	private int[] operandValue;
+
+	// Dataflow limit: cycle each register and memory word is ready
+	private long[] registerReady;
+	private long[] memoryReady;
+
+	public OutOfOrderProcessor(Instruction[] program)
+	{
+		decoded = new DecodedProgram(program);
+
+		int length = decoded.length;
+		sources = new int[length][OPERANDS];
+		destination = new int[length];
+		writesFlags = new boolean[length];
+		load = new boolean[length];
+		store = new boolean[length];
+
+		for (int pc=0 ; pc<length ; pc++)
+		{
+			int op = decoded.opCode[pc];
+			Instruction.InstructionType type = Instruction.getType(decoded.type[pc]);
+
+			load[pc] = ControlUnit.isLoad(op);
+			store[pc] = ControlUnit.isStore(op);
+			destination[pc] = ControlUnit.isPage(op) ? PAGE : ControlUnit.getDestination(op, decoded.rAddA[pc]);
+			writesFlags[pc] = setsFlags(type);
+
+			sources[pc][0] = ControlUnit.readsA(op) ? decoded.rAddA[pc] : -1;
+			sources[pc][1] = ControlUnit.readsB(op) ? decoded.rAddB[pc] : -1;
+			sources[pc][2] = (load[pc] || store[pc]) ? PAGE : (type == Instruction.InstructionType.BRZi || type == Instruction.InstructionType.BRNZi) ? FLAGS : -1;
+		}
+
+		reset();
+	}
+
+	private static boolean setsFlags(Instruction.InstructionType type)
+	{
+		switch (type)
+		{
+			case ADDi : case ADDr : case SUBi : case SUBr : case COMPi : case COMPr :
+			case ANDi : case ANDr : case ORi : case ORr : case XORi : case XORr :
+			case SHLi : case SHLr : case SHRi : case SHRr :
+				return true;
+
+			default :
+				return false;
+		}
+	}
+
+	public void reset()
+	{
+		if (width < 1 || robEntries < 1 || stations < 1 || queueEntries < 1 || aluUnits < 1 || loadPorts < 1 || aluLatency < 1 || loadLatency < 1)
+		{
+			throw new IllegalArgumentException("OutOfOrderProcessor: Widths, sizes and latencies must be at least 1");
+		}
+
+		registerFile = new int[16];
+		memory = new DataMemory(memorySize);
+		dataMemory = memory.getPage(0);
+		page = 0;
+		flagZ = 0;
+		flagC = 0;
+
+		fetchAddress = new int[2 * width];
+		fetchPredicted = new int[2 * width];
+		fetchPredIndex = new int[2 * width];
+		fetchHead = 0;
+		fetchCount = 0;
+		fetchPC = 0;
+		fetchStopped = isStop(0);
+
+		robPC = new int[robEntries];
+		robPredicted = new int[robEntries];
+		robPredIndex = new int[robEntries];
+		robNext = new int[robEntries];
+		robValue = new int[robEntries];
+		robFlags = new int[robEntries];
+		robAddress = new int[robEntries];
+		robData = new int[robEntries];
+		robSlot = new int[robEntries];
+		robReady = new long[robEntries];
+		robDone = new boolean[robEntries];
+		robHead = 0;
+		robCount = 0;
+
+		rat = new int[REGISTERS];
+		Arrays.fill(rat, -1);
+
+		int slots = stations + queueEntries;
+		slotRob = new int[slots];
+		Arrays.fill(slotRob, -1);
+		operandRegister = new int[slots * OPERANDS];
+		operandTag = new int[slots * OPERANDS];
+		operandValue = new int[slots * OPERANDS];
+
+		registerReady = new long[REGISTERS];
+		memoryReady = new long[memorySize];
+
+		if (predictor != null) predictor.reset();
+
+		clockCount = 0;
+		instructionCount = 0;
+		counters.clear();
+		robOccupancy = 0;
+		robPeak = 0;
+		stallCycles = new long[Stall.values().length];
+		mispredictions = 0;
+		storeForwards = 0;
+		dataflowCycles = 0;
+	}
+
+	public void clock()
+	{
+		complete();
+		commit();
+		execute();
+		issue();
+		fetch();
+
+		robOccupancy += robCount;
+		robPeak = Math.max(robPeak, robCount);
+
+		counters.cycles ++;
+		clockCount ++;
+	}
+
+	// Marks the entries whose results are ready and passes them to the
+	// operands waiting on them
+	private void complete()
+	{
+		for (int k=0 ; k<robCount ; k++)
+		{
+			int e = (robHead + k) % robEntries;
+			if (robDone[e] || robReady[e] > clockCount) continue;
+
+			robDone[e] = true;
+
+			for (int o=0 ; o<operandTag.length ; o++)
+			{
+				if (operandTag[o] != e || slotRob[o / OPERANDS] < 0) continue;
+
+				operandTag[o] = -1;
+				operandValue[o] = (operandRegister[o] == FLAGS) ? robFlags[e] : robValue[e];
+			}
+		}
+	}
+
+	private void commit()
+	{
+		for (int c=0 ; c<width && robCount > 0 && robDone[robHead] ; c++)
+		{
+			int e = robHead;
+			int pc = robPC[e];
+			int dest = destination[pc];
+
+			if (dest == PAGE) page = robValue[e];
+			else if (dest >= 0) registerFile[dest] = robValue[e];
+			if (dest >= 0 && rat[dest] == e) rat[dest] = -1;
+
+			if (writesFlags[pc])
+			{
+				flagZ = robFlags[e] & 1;
+				flagC = (robFlags[e] >> 1) & 1;
+				if (rat[FLAGS] == e) rat[FLAGS] = -1;
+			}
+
+			if (store[pc])
+			{
+				memory.write(robAddress[e], robData[e]);
+				counters.memoryWrites ++;
+			}
+			else if (load[pc]) counters.memoryReads ++;
+
+			if (robSlot[e] >= 0) slotRob[robSlot[e]] = -1;
+
+			int opCode = decoded.opCode[pc];
+			boolean mispredicted = (robNext[e] != robPredicted[e]);
+
+			boolean taken = (robNext[e] != ((pc + 1) & 0xFFF));
+
+			if (taken) counters.branchesTaken ++;
+			else if (ControlUnit.isBranch(opCode)) counters.branchesNotTaken ++;
+			if (predictor != null) predictor.update(decoded.type[pc], pc, robPredIndex[e], taken, robNext[e], mispredicted);
+
+			countDataflow(e, pc);
+
+			instructionCount ++;
+			counters.retired ++;
+			counters.opcodeRetired[opCode] ++;
+
+			robHead = (robHead + 1) % robEntries;
+			robCount --;
+
+			if (mispredicted)
+			{
+				mispredictions ++;
+				squash(robNext[e]);
+				return;
+			}
+		}
+	}
+
+	// Discards every instruction after the one just committed and fetches
+	// again from nextPC. Everything older has committed, so every register
+	// is back in the register file.
+	private void squash(int nextPC)
+	{
+		counters.flushedInstructions += robCount + fetchCount;
+
+		robCount = 0;
+		Arrays.fill(rat, -1);
+		Arrays.fill(slotRob, -1);
+
+		fetchCount = 0;
+		fetchPC = nextPC;
+		fetchStopped = isStop(nextPC);
+	}
+
+	private void countDataflow(int e, int pc)
+	{
+		long start = 0;
+		for (int o=0 ; o<OPERANDS ; o++)
+		{
+			int register = sources[pc][o];
+			if (register >= 0) start = Math.max(start, registerReady[register]);
+		}
+
+		// A store's word is there as soon as its operands are, and a load of
+		// a stored word takes it from the store, as forwarding would
+		long finish;
+		if (store[pc]) finish = memoryReady[robAddress[e]] = Math.max(start, 1);
+		else if (load[pc] && memoryReady[robAddress[e]] > 0) finish = Math.max(start, memoryReady[robAddress[e]]) + 1;
+		else finish = start + (load[pc] ? loadLatency : aluLatency);
+
+		dataflowCycles = Math.max(dataflowCycles, finish);
+
+		if (destination[pc] >= 0) registerReady[destination[pc]] = finish;
+		if (writesFlags[pc]) registerReady[FLAGS] = finish;
+	}
+
+	private void execute()
+	{
+		int alus = aluUnits;
+		int ports = loadPorts;
+
+		for (int k=0 ; k<robCount ; k++)
+		{
+			int e = (robHead + k) % robEntries;
+			int slot = robSlot[e];
+			if (slot < 0 || robReady[e] != NOT_STARTED || !hasOperands(slot)) continue;
+
+			int pc = robPC[e];
+			int base = slot * OPERANDS;
+			int a = operandValue[base];
+			int b = operandValue[base + 1];
+			int x = operandValue[base + 2];
+
+			if (slot < stations)
+			{
+				if (alus == 0) continue;
+				alus --;
+
+				evaluate(e, pc, a, b, x);
+				robReady[e] = clockCount + aluLatency;
+				slotRob[slot] = -1;
+				robSlot[e] = -1;
+				continue;
+			}
+
+			evaluate(e, pc, a, b, x);
+			if (store[pc])
+			{
+				robReady[e] = clockCount + 1;
+				continue;
+			}
+
+			// A load waits for the addresses of every older store
+			int forwarder = -1;
+			boolean blocked = false;
+			for (int j=0 ; j<k ; j++)
+			{
+				int older = (robHead + j) % robEntries;
+				if (!store[robPC[older]]) continue;
+
+				if (robReady[older] == NOT_STARTED) blocked = true;
+				else if (robAddress[older] == robAddress[e]) forwarder = older;
+			}
+			if (blocked) continue;
+
+			if (forwarder >= 0)
+			{
+				robValue[e] = robData[forwarder];
+				robReady[e] = clockCount + 1;
+				storeForwards ++;
+			}
+			else if (ports > 0)
+			{
+				ports --;
+				robValue[e] = memory.read(robAddress[e]);
+				robReady[e] = clockCount + loadLatency;
+			}
+		}
+	}
+
+	private boolean hasOperands(int slot)
+	{
+		for (int o=slot*OPERANDS ; o<(slot+1)*OPERANDS ; o++) if (operandTag[o] >= 0) return false;
+		return true;
+	}
+
+	// Works out the result, flags, next address and memory address and data
+	// of the instruction at pc, as FunctionalEngine would with the given
+	// operand values
+	private void evaluate(int e, int pc, int a, int b, int x)
+	{
+		int imm = decoded.imm[pc];
+		int out = 0;
+
+		robNext[e] = (pc + 1) & 0xFFF;
+
+		switch (Instruction.getType(decoded.type[pc]))
+		{
+			case ADDi :		out = a + (imm & 0xFF);		break;
+			case ADDr :		out = a + b;					break;
+			case SUBi :
+			case COMPi :		out = a - (imm & 0xFF);		break;
+			case SUBr :
+			case COMPr :		out = a - b;					break;
+			case ANDi :		out = a & (imm & 0xFF);		break;
+			case ANDr :		out = a & b;					break;
+			case ORi :		out = a | (imm & 0xFF);		break;
+			case ORr :		out = a | b;					break;
+			case XORi :		out = a ^ (imm & 0xFF);		break;
+			case XORr :		out = a ^ b;					break;
+			case SHLi :		out = a << (imm & 0xFF);		break;
+			case SHLr :		out = a << b;					break;
+			case SHRi :		out = a >> (imm & 0xFF);		break;
+			case SHRr :		out = a >> b;					break;
+
+			case MOVi :		robValue[e] = imm & 0xFF;		return;
+			case MOVr :		robValue[e] = b;				return;
+
+			case LDi :		robAddress[e] = (x << DataMemory.PAGE_SHIFT) | (imm & 0xFF);	return;
+			case LDr :		robAddress[e] = (x << DataMemory.PAGE_SHIFT) | (b & 0xFF);		return;
+
+			case STi :		robAddress[e] = (x << DataMemory.PAGE_SHIFT) | (a & 0xFF);		robData[e] = imm & 0xFF;	return;
+			case STa :		robAddress[e] = (x << DataMemory.PAGE_SHIFT) | (imm & 0xFF);	robData[e] = a;			return;
+			case STr :		robAddress[e] = (x << DataMemory.PAGE_SHIFT) | (a & 0xFF);		robData[e] = b;			return;
+
+			case PAGEi :		robValue[e] = imm & 0xFF & (memory.getPageCount() - 1);	return;
+			case PAGEr :		robValue[e] = b & (memory.getPageCount() - 1);			return;
+
+			case JMPi :		robNext[e] = imm;										return;
+			case BRZi :		if ((x & 1) == 1) robNext[e] = imm;					return;
+			case BRNZi :		if ((x & 1) == 0) robNext[e] = imm;					return;
+
+			default :
+				throw new IllegalStateException("OutOfOrderProcessor: Invalid instruction type at " + pc);
+		}
+
+		robValue[e] = out & 0xFF;
+		robFlags[e] = (((out & 0xFF) == 0) ? 1 : 0) | (((out & 0x100) == 0x100) ? 2 : 0);
+	}
+
+	private void issue()
+	{
+		for (int i=0 ; i<width ; i++)
+		{
+			Stall stall = null;
+			int pc = (fetchCount > 0) ? fetchAddress[fetchHead] : 0;
+			int slot = -1;
+
+			if (fetchCount == 0) stall = Stall.FETCH_EMPTY;
+			else if (robCount == robEntries) stall = Stall.ROB_FULL;
+			else if (load[pc] || store[pc])
+			{
+				slot = freeSlot(stations, stations + queueEntries);
+				if (slot < 0) stall = Stall.QUEUE_FULL;
+			}
+			else
+			{
+				slot = freeSlot(0, stations);
+				if (slot < 0) stall = Stall.STATIONS_FULL;
+			}
+
+			if (stall != null)
+			{
+				stallCycles[stall.ordinal()] ++;
+				return;
+			}
+
+			int e = (robHead + robCount) % robEntries;
+			robCount ++;
+
+			robPC[e] = pc;
+			robPredicted[e] = fetchPredicted[fetchHead];
+			robPredIndex[e] = fetchPredIndex[fetchHead];
+			robSlot[e] = slot;
+			robReady[e] = NOT_STARTED;
+			robDone[e] = false;
+			slotRob[slot] = e;
+
+			fetchHead = (fetchHead + 1) % fetchAddress.length;
+			fetchCount --;
+
+			for (int o=0 ; o<OPERANDS ; o++)
+			{
+				int register = sources[pc][o];
+				int index = slot * OPERANDS + o;
+				int producer = (register >= 0) ? rat[register] : -1;
+
+				operandRegister[index] = register;
+				operandTag[index] = -1;
+
+				if (producer < 0) operandValue[index] = (register >= 0) ? readRegister(register) : 0;
+				else if (robDone[producer]) operandValue[index] = (register == FLAGS) ? robFlags[producer] : robValue[producer];
+				else operandTag[index] = producer;
+			}
+
+			if (destination[pc] >= 0) rat[destination[pc]] = e;
+			if (writesFlags[pc]) rat[FLAGS] = e;
+		}
+	}
+
+	private int freeSlot(int from, int to)
+	{
+		for (int s=from ; s<to ; s++) if (slotRob[s] < 0) return s;
+		return -1;
+	}
+
+	// Committed value of a register, the data page or the flags
+	private int readRegister(int register)
+	{
+		if (register == PAGE) return page;
+		if (register == FLAGS) return flagZ | (flagC << 1);
+		return registerFile[register];
+	}
+
+	private void fetch()
+	{
+		for (int i=0 ; i<width && !fetchStopped && fetchCount < fetchAddress.length ; i++)
+		{
+			int pc = fetchPC;
+			int fallThrough = (pc + 1) & 0xFFF;
+			int predicted = (predictor != null) ? predictor.predict(decoded, pc) : fallThrough;
+
+			int tail = (fetchHead + fetchCount) % fetchAddress.length;
+			fetchAddress[tail] = pc;
+			fetchPredicted[tail] = predicted;
+			if (predictor != null) fetchPredIndex[tail] = predictor.index(pc);
+			fetchCount ++;
+
+			fetchPC = predicted;
+			fetchStopped = isStop(predicted);
+			if (predicted != fallThrough) return;
+		}
+	}
+
+	// Fetch goes no further at a jmp to itself or past the end
+	private boolean isStop(int pc)
+	{
+		if (pc >= decoded.length) return true;
+		return (decoded.type[pc] == Instruction.InstructionType.JMPi.ordinal() && decoded.imm[pc] == pc);
+	}
+
+	public void step()
+	{
+		clock();
+	}
+
+	public boolean run(long maxSteps)
+	{
+		for (long s=0 ; s<maxSteps ; s++)
+		{
+			if (isHalted()) return true;
+			clock();
+		}
+
+		return isHalted();
+	}
+
+	// Halted once fetch has stopped and everything fetched has committed
+	public boolean isHalted()
+	{
+		return fetchStopped && fetchCount == 0 && robCount == 0;
+	}
+
+	public int[] getRegisterFile()
+	{
+		return registerFile;
+	}
+
+	public int[] getDataMemory()
+	{
+		return dataMemory;
+	}
+
+	public DataMemory getMemory()
+	{
+		return memory;
+	}
+
+	public long getCycleCount()
+	{
+		return clockCount;
+	}
+
+	public long getInstructionCount()
+	{
+		return instructionCount;
+	}
+
+	// Copy of the performance counters, unaffected by later clocks
+	public PerfCounters getCounters()
+	{
+		return counters.snapshot();
+	}
+
+	// Committed instructions per cycle
+	public double getIPC()
+	{
+		return (clockCount == 0) ? 0.0 : (double) instructionCount / clockCount;
+	}
+
+	public double getAverageOccupancy()
+	{
+		return (clockCount == 0) ? 0.0 : (double) robOccupancy / clockCount;
+	}
+
+	// Instructions per cycle at the dataflow limit
+	public double getDataflowIPC()
+	{
+		return (dataflowCycles == 0) ? 0.0 : (double) instructionCount / dataflowCycles;
+	}
+}
@@ -0,0 +1,139 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Performance counters for the pipeline. Processor owns one instance and
+ * updates it from the controls and EX stage signals at each clock edge;
+ * snapshot() gives a copy that stays fixed while the simulation runs on.
+ *
+ * An instruction retires when it leaves EX without being flushed or held by a
+ * stall, the same point at which Processor.instructionCount is advanced.
+ */
+public class PerfCounters
+{
+	public static final int OPCODES = 64;
+
+	public long cycles;
+	public long retired;
+
+	public long loadStallCycles;		// Cycles EX was held by the load-use stall
+	public long dataCacheStallCycles;	// Cycles EX was held waiting on the data cache
+	public long fetchStallCycles;		// Cycles FE was held waiting on the instruction cache
+	public long flushedInstructions;	// Fetched instructions squashed by feFlush or deFlush
+
+	// Forwarding events, by operand and source stage
+	public long forwardAFromMA;		// muxFA = 3
+	public long forwardAFromWB;		// muxFA = 2
+	public long forwardBFromMA;		// muxFB = 3
+	public long forwardBFromWB;		// muxFB = 2
+
+	public long branchesTaken;
+	public long branchesNotTaken;
+
+	public long memoryReads;
+	public long memoryWrites;
+
+	public long[] opcodeRetired = new long[OPCODES];
+
+	public void clear()
+	{
+		cycles = 0;
+		retired = 0;
+		loadStallCycles = 0;
+		dataCacheStallCycles = 0;
+		fetchStallCycles = 0;
+		flushedInstructions = 0;
+		forwardAFromMA = 0;
+		forwardAFromWB = 0;
+		forwardBFromMA = 0;
+		forwardBFromWB = 0;
+		branchesTaken = 0;
+		branchesNotTaken = 0;
+		memoryReads = 0;
+		memoryWrites = 0;
+
+		for (int i=0 ; i<OPCODES ; i++) opcodeRetired[i] = 0;
+	}
+
+	public void copy(PerfCounters src)
+	{
+		cycles = src.cycles;
+		retired = src.retired;
+		loadStallCycles = src.loadStallCycles;
+		dataCacheStallCycles = src.dataCacheStallCycles;
+		fetchStallCycles = src.fetchStallCycles;
+		flushedInstructions = src.flushedInstructions;
+		forwardAFromMA = src.forwardAFromMA;
+		forwardAFromWB = src.forwardAFromWB;
+		forwardBFromMA = src.forwardBFromMA;
+		forwardBFromWB = src.forwardBFromWB;
+		branchesTaken = src.branchesTaken;
+		branchesNotTaken = src.branchesNotTaken;
+		memoryReads = src.memoryReads;
+		memoryWrites = src.memoryWrites;
+
+		System.arraycopy(src.opcodeRetired, 0, opcodeRetired, 0, OPCODES);
+	}
+
+	public PerfCounters snapshot()
+	{
+		PerfCounters snapshot = new PerfCounters();
+		snapshot.copy(this);
+		return snapshot;
+	}
+
+	// Called by Processor before the registers are clocked, while controls and
+	// signals still describe the cycle that is ending
+	void count(Processor.Controls controls, Processor.Signals signals)
+	{
+		cycles ++;
+		fetchStallCycles += signals.fe_icStall;
+
+		if (controls.deexEn == 0)
+		{
+			if (signals.ex_dcStall == 1) dataCacheStallCycles ++;
+			else loadStallCycles ++;
+			return;
+		}
+
+		// Only slots holding an instruction count. DE may hold a bubble left by
+		// an earlier flush or an instruction cache stall, and FE a fetch still
+		// missing in the instruction cache.
+		if (controls.deFlush == 1 && signals.de_feFlush == 0) flushedInstructions ++;
+		if (controls.feFlush == 1 && signals.fe_icMiss == 0) flushedInstructions ++;
+
+		// Flushed slot in EX, nothing retires
+		if (signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return;
+
+		retired ++;
+		opcodeRetired[signals.ex_opCode] ++;
+
+		if (controls.muxFA == 3) forwardAFromMA ++;
+		else if (controls.muxFA == 2) forwardAFromWB ++;
+
+		if (controls.muxFB == 3) forwardBFromMA ++;
+		else if (controls.muxFB == 2) forwardBFromWB ++;
+
+		if (controls.muxCS == 2) branchesTaken ++;
+		else if (ControlUnit.isBranch(signals.ex_opCode)) branchesNotTaken ++;
+
+		if (controls.memEn == 1) memoryWrites ++;
+		else if (controls.muxDS == 1 && controls.wrEn == 1) memoryReads ++;
+	}
+
+	public double getCPI()
+	{
+		return (retired == 0) ? 0.0 : (double) cycles / retired;
+	}
+
+	public long getForwards()
+	{
+		return forwardAFromMA + forwardAFromWB + forwardBFromMA + forwardBFromWB;
+	}
+
+	public long getBranches()
+	{
+		return branchesTaken + branchesNotTaken;
+	}
+}
@@ -0,0 +1,161 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.util.*;
+
+/**
+ * Stage layout of a StagedProcessor pipeline. Each stage does one or more of
+ * the five jobs of the Processor pipeline, which come in order: fetch, decode
+ * (register read), execute (ALU and branch resolution), memory access and
+ * writeback. A job may be spread over several stages, such as an ALU taking
+ * two cycles, and several jobs may share a stage.
+ *
+ * Every hazard follows from where the jobs fall. Operands are taken as an
+ * instruction enters the first execute stage. An ALU result can be forwarded
+ * once its instruction has left the last execute stage, a loaded word once
+ * it has left the last memory stage. Without forwarding, registers are read
+ * in the last decode stage, and a result is there to be read from its
+ * instruction's writeback stage on. A taken jump is resolved in the last
+ * execute stage and flushes every stage before it.
+ *
+ * A model is written as its stages separated by commas, each the jobs it
+ * does joined by '+', from fe, de, ex, ma and wb. "fe,de,ex,ma,wb" is the
+ * Processor pipeline, and PRESET_NAMES gives names for common variants.
+ *
+ * The cycle time is a rough relative estimate, for weighing a model's CPI
+ * against its clock: each job's logic delay is shared evenly between the
+ * stages doing it, and each stage adds a pipeline register's overhead.
+ */
+public class PipelineModel
+{
+	// Jobs, in pipeline order, as bits of a stage's job mask
+	public static final int FETCH = 1;
+	public static final int DECODE = 2;
+	public static final int EXECUTE = 4;
+	public static final int MEMORY = 8;
+	public static final int WRITEBACK = 16;
+
+	private static final String[] JOB_NAMES = {"fe", "de", "ex", "ma", "wb"};
+	private static final double[] JOB_DELAYS = {1.0, 1.0, 2.0, 2.0, 1.0};
+	private static final double REGISTER_DELAY = 0.2;
+
+	public static final String[] PRESET_NAMES = {"classic", "3stage", "splitEX", "splitMA", "deep"};
+	private static final String[] PRESET_SPECS = {"fe,de,ex,ma,wb", "fe,de,ex+ma+wb", "fe,de,ex,ex,ma,wb", "fe,de,ex,ma,ma,wb", "fe,de,ex,ex,ma,ma,wb"};
+
+	public static final PipelineModel CLASSIC = parse(PRESET_NAMES[0]);
+
+	public final String spec;
+	public final int[] stageJobs;
+	public final String[] stageNames;
+
+	// Derived from the stage jobs
+	public final int decodeStage;		// Last decode stage
+	public final int operandStage;		// First execute stage
+	public final int resolveStage;		// Last execute stage
+	public final int memoryStage;		// Last memory stage
+	public final int writebackStage;		// First writeback stage
+
+	private PipelineModel(String spec, int[] stageJobs)
+	{
+		this.spec = spec;
+		this.stageJobs = stageJobs;
+
+		stageNames = new String[stageJobs.length];
+		for (int s=0 ; s<stageJobs.length ; s++)
+		{
+			StringBuilder name = new StringBuilder();
+			for (int j=0 ; j<JOB_NAMES.length ; j++)
+			{
+				if ((stageJobs[s] & (1 << j)) == 0) continue;
+
+				if (name.length() > 0) name.append('/');
+				name.append(JOB_NAMES[j].toUpperCase());
+				if (countStages(1 << j) > 1) name.append(s - firstStage(1 << j) + 1);
+			}
+			stageNames[s] = name.toString();
+		}
+
+		decodeStage = lastStage(DECODE);
+		operandStage = firstStage(EXECUTE);
+		resolveStage = lastStage(EXECUTE);
+		memoryStage = lastStage(MEMORY);
+		writebackStage = firstStage(WRITEBACK);
+	}
+
+	// Model from a preset name or a stage list, see the class comment
+	public static PipelineModel parse(String text)
+	{
+		for (int p=0 ; p<PRESET_NAMES.length ; p++) if (PRESET_NAMES[p].equals(text)) text = PRESET_SPECS[p];
+
+		String[] stages = text.split(",", -1);
+		int[] stageJobs = new int[stages.length];
+		int lastJob = -1;
+
+		for (int s=0 ; s<stages.length ; s++)
+		{
+			for (String jobName : stages[s].split("\\+", -1))
+			{
+				int job = Arrays.asList(JOB_NAMES).indexOf(jobName.trim().toLowerCase());
+				if (job < 0) throw new IllegalArgumentException("PipelineModel: Unknown job \"" + jobName + "\" in " + text);
+
+				// Each job follows on from the one before, or carries the last
+				// stage's final job on into this one
+				boolean carried = (s > 0 && stageJobs[s] == 0 && job == lastJob);
+				if (job != lastJob + 1 && !carried) throw new IllegalArgumentException("PipelineModel: Jobs must run fe, de, ex, ma, wb in order in " + text);
+
+				stageJobs[s] |= 1 << job;
+				lastJob = job;
+			}
+		}
+
+		if (lastJob != JOB_NAMES.length - 1) throw new IllegalArgumentException("PipelineModel: Last stage must do wb in " + text);
+
+		return new PipelineModel(text, stageJobs);
+	}
+
+	public int getStageCount()
+	{
+		return stageJobs.length;
+	}
+
+	// Relative clock period, set by the slowest stage
+	public double getCycleTime()
+	{
+		double slowest = 0;
+
+		for (int s=0 ; s<stageJobs.length ; s++)
+		{
+			double delay = 0;
+			for (int j=0 ; j<JOB_NAMES.length ; j++)
+			{
+				if ((stageJobs[s] & (1 << j)) != 0) delay += JOB_DELAYS[j] / countStages(1 << j);
+			}
+			slowest = Math.max(slowest, delay);
+		}
+
+		return slowest + REGISTER_DELAY;
+	}
+
+	public String toString()
+	{
+		return spec;
+	}
+
+	private int firstStage(int job)
+	{
+		for (int s=0 ; s<stageJobs.length ; s++) if ((stageJobs[s] & job) != 0) return s;
+		return -1;
+	}
+
+	private int lastStage(int job)
+	{
+		for (int s=stageJobs.length-1 ; s>=0 ; s--) if ((stageJobs[s] & job) != 0) return s;
+		return -1;
+	}
+
+	private int countStages(int job)
+	{
+		return lastStage(job) - firstStage(job) + 1;
+	}
+}
@@ -5,7 +5,12 @@
 
 package sim;
 
-public class Processor
+import sim.jit.*;
+import sim.trace.*;
+
+import java.util.*;
+
+public class Processor implements Engine
 {
 	public enum AluOp {ADD, ADDC, SUB, SUBC, AND, XOR, OR, OPA, OPB, ROL, SHL, SHR}
 
@@ -14,11 +19,37 @@ public class Processor
 	public boolean enableJumpFlush = true;
 	public boolean enableLoadStall = true;
 
+	public boolean enableNextLinePrefetch = false;	// Instruction cache fetches the following line on a miss
+
+	public int memorySize = DataMemory.PAGE_WORDS;	// Data memory words, taking effect on reset
+
+	// Simulation Options
+	public boolean enableDoubleBuffer = false;		// Swap between two preallocated Signals banks, rather than cloning each clock
+
 	// Register File and Data Memory
 	public int[] registerFile;
-	public int[] dataMemory;
+	public DataMemory memory;
+	public int[] dataMemory;			// Page 0 of memory
 
 	public long clockCount;
+	public long instructionCount;		// Instructions that have left EX, not counting flushed or stalled
+
+	public PerfCounters counters = new PerfCounters();
+	public Profiler profiler;			// Per-address cycle profile, null when not profiling
+	public TraceWriter tracer;			// Per-cycle trace output, null when not tracing
+	public History history;				// Checkpoints and undo journal for reverse stepping, null when disabled
+	public BranchPredictor predictor;	// Fetch path prediction, null to fetch sequentially and flush taken jumps
+	public Cache dataCache;				// Data access timing, null for single-cycle access to memory
+	public Cache instructionCache;		// Fetch timing, null for single-cycle fetch
+
+	// Set by MultiProcessor. Stores are then left for it to make to the
+	// shared memory between cycles, and data cache accesses go through the
+	// coherent bus.
+	CoherentBus bus;
+	int coreId;
+	boolean deferStores;
+	int storeAddress = -1;
+	int storeData;
 
 	public int feInsnAdd;
 	public int deInsnAdd;
@@ -33,9 +64,14 @@ public class Processor
 
 		// reg
 		public int fe_pc;
+		public int fe_icWait;		// Cycles spent fetching from fe_pc
 
 		// comb
 		public int fe_pcPlus;
+		public int fe_predPC;		// Predicted next fetch address
+		public int fe_predIndex;	// Predictor counter it was read from
+		public int fe_icMiss;		// Fetch misses in the instruction cache
+		public int fe_icStall;		// Fetch held by the instruction cache, a bubble goes to DE
 
 		// DECODE
 		// ------
@@ -48,6 +84,9 @@ public class Processor
 		public int de_rAddB;
 		public int de_imm;
 		public int de_insn;
+		public int de_predPC;
+		public int de_predIndex;
+		public int de_icBubble;		// Slot left empty by an instruction cache stall
 
 		// EXECUTE
 		// -------
@@ -62,6 +101,11 @@ public class Processor
 		public int ex_rDatA;
 		public int ex_rDatB;
 		public int ex_imm;
+		public int ex_predPC;
+		public int ex_predIndex;
+		public int ex_dcWait;		// Cycles the load or store has waited on the data cache
+		public int ex_icBubble;
+		public int ex_page;			// Data page register, set by page as it leaves EX
 
 		// comb
 		public int ex_opASE;
@@ -76,6 +120,9 @@ public class Processor
 		public int ex_flagZ;
 		public int ex_flagC;
 
+		public int ex_mispredict;	// Instructions fetched after EX are not on its path
+		public int ex_dcStall;		// Held in EX by the data cache
+
 		// MEMORY ACCESS
 		// -------------
 
@@ -86,6 +133,7 @@ public class Processor
 		public int ma_aluOut;
 		public int ma_mAdd;
 		public int ma_mEn;
+		public int ma_page;			// Data page of the load or store
 
 		public int ma_flagZ;
 		public int ma_flagC;
@@ -110,6 +158,72 @@ public class Processor
 		public int rf_dOutB;
 		public int dm_dOut;
 
+		public void copy(Signals src)
+		{
+			fe_pc = src.fe_pc;
+			fe_pcPlus = src.fe_pcPlus;
+			fe_icWait = src.fe_icWait;
+			fe_predPC = src.fe_predPC;
+			fe_predIndex = src.fe_predIndex;
+			fe_icMiss = src.fe_icMiss;
+			fe_icStall = src.fe_icStall;
+			de_pc = src.de_pc;
+			de_feFlush = src.de_feFlush;
+			de_opCode = src.de_opCode;
+			de_rAddA = src.de_rAddA;
+			de_rAddB = src.de_rAddB;
+			de_imm = src.de_imm;
+			de_insn = src.de_insn;
+			de_predPC = src.de_predPC;
+			de_predIndex = src.de_predIndex;
+			de_icBubble = src.de_icBubble;
+			ex_pc = src.ex_pc;
+			ex_deFlush = src.ex_deFlush;
+			ex_feFlush = src.ex_feFlush;
+			ex_opCode = src.ex_opCode;
+			ex_rAddA = src.ex_rAddA;
+			ex_rAddB = src.ex_rAddB;
+			ex_rDatA = src.ex_rDatA;
+			ex_rDatB = src.ex_rDatB;
+			ex_imm = src.ex_imm;
+			ex_predPC = src.ex_predPC;
+			ex_predIndex = src.ex_predIndex;
+			ex_dcWait = src.ex_dcWait;
+			ex_icBubble = src.ex_icBubble;
+			ex_page = src.ex_page;
+			ex_opASE = src.ex_opASE;
+			ex_pcRel = src.ex_pcRel;
+			ex_pcJmp = src.ex_pcJmp;
+			ex_nPC = src.ex_nPC;
+			ex_opA = src.ex_opA;
+			ex_opB = src.ex_opB;
+			ex_aluOut = src.ex_aluOut;
+			ex_mAdd = src.ex_mAdd;
+			ex_flagZ = src.ex_flagZ;
+			ex_flagC = src.ex_flagC;
+			ex_mispredict = src.ex_mispredict;
+			ex_dcStall = src.ex_dcStall;
+			ma_wrEn = src.ma_wrEn;
+			ma_wrAdd = src.ma_wrAdd;
+			ma_muxDS = src.ma_muxDS;
+			ma_aluOut = src.ma_aluOut;
+			ma_mAdd = src.ma_mAdd;
+			ma_mEn = src.ma_mEn;
+			ma_page = src.ma_page;
+			ma_flagZ = src.ma_flagZ;
+			ma_flagC = src.ma_flagC;
+			wb_wrEn = src.wb_wrEn;
+			wb_wrAdd = src.wb_wrAdd;
+			wb_muxDS = src.wb_muxDS;
+			wb_aluOut = src.wb_aluOut;
+			wb_mD = src.wb_mD;
+			wb_data = src.wb_data;
+			im_dOut = src.im_dOut;
+			rf_dOutA = src.rf_dOutA;
+			rf_dOutB = src.rf_dOutB;
+			dm_dOut = src.dm_dOut;
+		}
+
 		public Object clone()
 		{
 			try
@@ -132,6 +246,7 @@ public class Processor
 		public int deexEn;
 		public int wrEn;
 		public int memEn;
+		public int pgEn;
 		public AluOp aluOp;
 
 		public int muxFA;
@@ -140,31 +255,114 @@ public class Processor
 		public int muxJS;
 		public int muxDS;
 		public int muxCS;
+
+		public void copy(Controls src)
+		{
+			pcEn = src.pcEn;
+			feFlush = src.feFlush;
+			deFlush = src.deFlush;
+			fedeEn = src.fedeEn;
+			deexEn = src.deexEn;
+			wrEn = src.wrEn;
+			memEn = src.memEn;
+			pgEn = src.pgEn;
+			aluOp = src.aluOp;
+			muxFA = src.muxFA;
+			muxFB = src.muxFB;
+			muxAS = src.muxAS;
+			muxJS = src.muxJS;
+			muxDS = src.muxDS;
+			muxCS = src.muxCS;
+		}
 	}
 
 	public Instruction[] program;
+	public DecodedProgram decoded;
 	public Signals signals;
 	public Controls controls;
 
+	private Signals[] signalBanks;
+
+	// Combinatorial nodes, in evaluation order, each a bit of a dirty mask
+	public static final String[] NODE_NAMES = {"pcPlus", "decode", "muxDS", "muxFA", "muxFB", "muxAS", "signExtend", "pcAdd",
+		"muxJS", "alu", "muxCS", "instructionMemory", "dataMemory", "registerFileA", "registerFileB"};
+	public static final int NODE_COUNT = NODE_NAMES.length;
+
+	private static final int PC_PLUS = 1 << 0;
+	private static final int DECODE = 1 << 1;
+	private static final int MUX_DS = 1 << 2;
+	private static final int MUX_FA = 1 << 3;
+	private static final int MUX_FB = 1 << 4;
+	private static final int MUX_AS = 1 << 5;
+	private static final int SIGN_EXTEND = 1 << 6;
+	private static final int PC_ADD = 1 << 7;
+	private static final int MUX_JS = 1 << 8;
+	private static final int ALU = 1 << 9;
+	private static final int MUX_CS = 1 << 10;
+	private static final int INSN_MEMORY = 1 << 11;
+	private static final int DATA_MEMORY = 1 << 12;
+	private static final int REG_FILE_A = 1 << 13;
+	private static final int REG_FILE_B = 1 << 14;
+	private static final int ALL_NODES = (1 << NODE_COUNT) - 1;
+
+	// Nodes reading each node's output. Register and control inputs are in
+	// changedRegisters and changedControls.
+	private static final int[] NODE_FANOUT =
+	{
+		MUX_CS,										// pcPlus: fe_pcPlus
+		REG_FILE_A | REG_FILE_B,					// decode: de_rAddA, de_rAddB
+		MUX_FA | MUX_FB | REG_FILE_A | REG_FILE_B,	// muxDS: wb_data
+		MUX_AS | SIGN_EXTEND | ALU,					// muxFA: ex_opA
+		MUX_AS | ALU,								// muxFB: ex_opB
+		0,											// muxAS: ex_mAdd
+		PC_ADD,										// signExtend: ex_opASE
+		MUX_JS,										// pcAdd: ex_pcRel
+		MUX_CS,										// muxJS: ex_pcJmp
+		0,											// alu: ex_aluOut, ex_flagZ, ex_flagC
+		0,											// muxCS: ex_nPC
+		0,											// instructionMemory: im_dOut
+		0,											// dataMemory: dm_dOut
+		0,											// registerFileA: rf_dOutA
+		0											// registerFileB: rf_dOutB
+	};
+
+	// Incremental evaluation, see setIncremental
+	private boolean incremental;
+	private int dirtyNodes = ALL_NODES;			// Nodes whose inputs the clock edge changed
+	private Controls evaluatedControls = new Controls();	// Controls at the last evaluation
+	private boolean predicted;					// A predictor was attached at the last evaluation
+
+	public long[] nodeEvaluations = new long[NODE_COUNT];	// Incremental evaluations of each node
+	public long evaluationPasses;				// Incremental evaluations of the whole datapath
+
+	// Datapath from a netlist, see setDatapath
+	public Netlist datapath;					// Null for the logic below
+	public int[] wires;							// Value of each of its wires at the last settle, if recorded
+	private CompiledDatapath compiledDatapath;
+
 
 	public Processor(Instruction[] program)
 	{
 		this.program = program;
+		this.decoded = new DecodedProgram(program);
 		reset();
 	}
 	
 	public void reset(Instruction[] program) {
 		this.program = program;
+		this.decoded = new DecodedProgram(program);
 		reset();
 	}
 
 	public void reset()
 	{
-		signals = new Signals();
+		signalBanks = new Signals[] {new Signals(), new Signals()};
+		signals = signalBanks[0];
 		controls = new Controls();
 
 		registerFile = new int[16];
-		dataMemory = new int[256];
+		memory = new DataMemory(memorySize);
+		dataMemory = memory.getPage(0);
 
 		wbInsnAdd = 0;
 		maInsnAdd = 0;
@@ -172,14 +370,41 @@ public class Processor
 		deInsnAdd = 0;
 		feInsnAdd = 0;
 
+		setIncremental(incremental);
 		updateControls();
 		updateCombinatorial();
 
 		clockCount = 0;
+		instructionCount = 0;
+		counters.clear();
+		if (profiler != null) profiler.reset(decoded.length);
+		if (history != null) history.clear();
+		if (predictor != null) predictor.reset();
+		if (dataCache != null) dataCache.reset();
+		if (instructionCache != null) instructionCache.reset();
 	}
 
 	public void clock()
 	{
+		clockEdge();
+		settle();
+	}
+
+	// First half of a clock: the count and hook updates, then the register
+	// transfers
+	void clockEdge()
+	{
+		// Recorded first, so a checkpoint holds the counts from before this cycle
+		if (history != null) history.record(this);
+
+		if (controls.deexEn == 1 && signals.ex_deFlush == 0 && signals.ex_feFlush == 0) instructionCount ++;
+		counters.count(controls, signals);
+		if (predictor != null) predictor.update(controls, signals);
+		if (dataCache != null) clockDataCache();
+		if (instructionCache != null && controls.pcEn == 1) clockInstructionCache();
+		if (profiler != null) profiler.count(this);
+		if (tracer != null) tracer.record(this);
+
 		clockReg();
 
 		wbInsnAdd = maInsnAdd;
@@ -187,29 +412,272 @@ public class Processor
 		if (controls.deexEn == 1) exInsnAdd = deInsnAdd;
 		if (controls.fedeEn == 1) deInsnAdd = feInsnAdd;
 		feInsnAdd = signals.fe_pc;
+	}
 
+	// Second half of a clock: the controls and combinatorial logic settle on
+	// the new register values
+	void settle()
+	{
 		updateControls();
 		updateCombinatorial();
 
 		clockCount ++;
 	}
 
+	public void step()
+	{
+		clock();
+	}
+
+	public boolean run(long maxSteps)
+	{
+		for (long s=0 ; s<maxSteps ; s++)
+		{
+			if (isHalted()) return true;
+			clock();
+		}
+
+		return isHalted();
+	}
+
+	public int[] getRegisterFile()
+	{
+		return registerFile;
+	}
+
+	public int[] getDataMemory()
+	{
+		return dataMemory;
+	}
+
+	public DataMemory getMemory()
+	{
+		return memory;
+	}
+
+	public long getCycleCount()
+	{
+		return clockCount;
+	}
+
+	public long getInstructionCount()
+	{
+		return instructionCount;
+	}
+
+	public void setProfiling(boolean enable)
+	{
+		if (!enable) profiler = null;
+		else if (profiler == null) profiler = new Profiler(decoded.length);
+	}
+
+	// Copies the processor state into a snapshot. The register file and data
+	// memory are only copied if includeMemories is set.
+	public void save(Snapshot snapshot, boolean includeMemories)
+	{
+		snapshot.signals.copy(signals);
+		snapshot.controls.copy(controls);
+
+		if (includeMemories)
+		{
+			if (snapshot.registerFile == null || snapshot.registerFile.length != registerFile.length) snapshot.registerFile = new int[registerFile.length];
+			System.arraycopy(registerFile, 0, snapshot.registerFile, 0, registerFile.length);
+
+			if (snapshot.memory == null || snapshot.memory.size != memory.size) snapshot.memory = memory.snapshot();
+			else snapshot.memory.copy(memory);
+		}
+		else
+		{
+			snapshot.registerFile = null;
+			snapshot.memory = null;
+		}
+
+		snapshot.feInsnAdd = feInsnAdd;
+		snapshot.deInsnAdd = deInsnAdd;
+		snapshot.exInsnAdd = exInsnAdd;
+		snapshot.maInsnAdd = maInsnAdd;
+		snapshot.wbInsnAdd = wbInsnAdd;
+
+		snapshot.clockCount = clockCount;
+		snapshot.instructionCount = instructionCount;
+		snapshot.counters.copy(counters);
+
+		if (profiler == null) snapshot.profiler = null;
+		else if (profiler.hasSameConfiguration(snapshot.profiler)) snapshot.profiler.copy(profiler);
+		else snapshot.profiler = profiler.snapshot();
+
+		if (predictor == null) snapshot.predictor = null;
+		else if (predictor.hasSameConfiguration(snapshot.predictor)) snapshot.predictor.copy(predictor);
+		else snapshot.predictor = predictor.snapshot();
+
+		if (dataCache == null) snapshot.dataCache = null;
+		else if (dataCache.hasSameConfiguration(snapshot.dataCache)) snapshot.dataCache.copy(dataCache);
+		else snapshot.dataCache = dataCache.snapshot();
+
+		if (instructionCache == null) snapshot.instructionCache = null;
+		else if (instructionCache.hasSameConfiguration(snapshot.instructionCache)) snapshot.instructionCache.copy(instructionCache);
+		else snapshot.instructionCache = instructionCache.snapshot();
+	}
+
+	// Restores the state saved in a snapshot. A snapshot saved without memories
+	// leaves the register file and data memory as they are, one saved with them
+	// must have the same memory size. The profile, predictor and caches are
+	// reset rather than restored if configured differently.
+	public void restore(Snapshot snapshot)
+	{
+		if (snapshot.hasMemories() && snapshot.memory.size != memory.size)
+		{
+			throw new IllegalArgumentException("Processor: Snapshot has " + snapshot.memory.size + " words of memory, not " + memory.size);
+		}
+
+		signals.copy(snapshot.signals);
+		controls.copy(snapshot.controls);
+		dirtyNodes = ALL_NODES;
+
+		if (snapshot.hasMemories())
+		{
+			System.arraycopy(snapshot.registerFile, 0, registerFile, 0, registerFile.length);
+			memory.copy(snapshot.memory);
+		}
+
+		feInsnAdd = snapshot.feInsnAdd;
+		deInsnAdd = snapshot.deInsnAdd;
+		exInsnAdd = snapshot.exInsnAdd;
+		maInsnAdd = snapshot.maInsnAdd;
+		wbInsnAdd = snapshot.wbInsnAdd;
+
+		clockCount = snapshot.clockCount;
+		instructionCount = snapshot.instructionCount;
+		counters.copy(snapshot.counters);
+
+		if (profiler != null)
+		{
+			if (profiler.hasSameConfiguration(snapshot.profiler)) profiler.copy(snapshot.profiler);
+			else profiler.reset(decoded.length);
+		}
+
+		if (predictor != null)
+		{
+			if (predictor.hasSameConfiguration(snapshot.predictor)) predictor.copy(snapshot.predictor);
+			else predictor.reset();
+		}
+
+		if (dataCache != null)
+		{
+			if (dataCache.hasSameConfiguration(snapshot.dataCache)) dataCache.copy(snapshot.dataCache);
+			else dataCache.reset();
+		}
+
+		if (instructionCache != null)
+		{
+			if (instructionCache.hasSameConfiguration(snapshot.instructionCache)) instructionCache.copy(snapshot.instructionCache);
+			else instructionCache.reset();
+		}
+	}
+
+	// Copy of the performance counters, unaffected by later clocks
+	public PerfCounters getCounters()
+	{
+		return counters.snapshot();
+	}
+
+	// Copies the register file and data memory into the given array and memory,
+	// of the same size, completing the writes of the instructions in MA and WB,
+	// which have already been counted as executed
+	public void getArchitecturalState(int[] registerFile, DataMemory memory)
+	{
+		System.arraycopy(this.registerFile, 0, registerFile, 0, registerFile.length);
+		memory.copy(this.memory);
+
+		if (signals.wb_wrEn == 1) registerFile[signals.wb_wrAdd] = signals.wb_data;
+
+		if (signals.ma_wrEn == 1) registerFile[signals.ma_wrAdd] = (signals.ma_muxDS == 1) ? signals.dm_dOut : signals.ma_aluOut;
+		if (signals.ma_mEn == 1) memory.write(getStoreAddress(signals), signals.ma_aluOut);
+	}
+
+	// Full address of the store in MA
+	public static int getStoreAddress(Signals signals)
+	{
+		return (signals.ma_page << DataMemory.PAGE_SHIFT) | signals.ma_mAdd;
+	}
+
+	// The program has halted once a jmp to its own address is executing with no
+	// register or memory writes left in MA or WB, or once every stage holds an
+	// address past the end of the program.
+	public boolean isHalted()
+	{
+		if (feInsnAdd >= decoded.length && deInsnAdd >= decoded.length && exInsnAdd >= decoded.length
+			&& maInsnAdd >= decoded.length && wbInsnAdd >= decoded.length) return true;
+
+		if (signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return false;
+		if (signals.ma_wrEn == 1 || signals.ma_mEn == 1 || signals.wb_wrEn == 1) return false;
+
+		return (Instruction.getType(signals.ex_opCode) == Instruction.InstructionType.JMPi && signals.ex_imm == signals.ex_pc);
+	}
+
+	// Cycles from the next that are sure to pass without a store or data cache
+	// access. A load or store must first reach EX, and one already there or
+	// in MA may make one at the next clock.
+	int getQuietCycles()
+	{
+		int[] distance = decoded.memoryDistance;
+
+		int quiet = Math.min(getDistance(distance, exInsnAdd), 1 + getDistance(distance, deInsnAdd));
+		quiet = Math.min(quiet, 2 + getDistance(distance, feInsnAdd));
+		if (getDistance(distance, maInsnAdd) == 0) quiet = 0;
+
+		return quiet;
+	}
+
+	// Cycles from the next that are sure to end with the core not halted, as
+	// a jmp to itself must first reach EX
+	int getRunningCycles()
+	{
+		int[] distance = decoded.haltDistance;
+
+		int running = Math.min(getDistance(distance, exInsnAdd), getDistance(distance, deInsnAdd));
+		return Math.min(running, 1 + getDistance(distance, feInsnAdd));
+	}
+
+	private int getDistance(int[] distance, int address)
+	{
+		return (address < decoded.length) ? distance[address] : 0;
+	}
+
 	private void clockReg()
 	{
 		Signals oldSignals = signals;
-		signals = (Signals) oldSignals.clone();		
+
+		if (enableDoubleBuffer)
+		{
+			// Write into whichever bank is not holding the current state
+			signals = (oldSignals == signalBanks[0]) ? signalBanks[1] : signalBanks[0];
+			signals.copy(oldSignals);
+		}
+		else
+		{
+			signals = (Signals) oldSignals.clone();
+		}
 
 		// Fetch
 		if (controls.pcEn == 1)
 		{
 			signals.fe_pc			= oldSignals.ex_nPC;
+			signals.fe_icWait		= 0;
+		}
+		else
+		{
+			signals.fe_icWait		++;
 		}
 
 		// Decode
 		if (controls.fedeEn == 1)
 		{
 			signals.de_pc			= oldSignals.fe_pc;
-			signals.de_feFlush	= controls.feFlush;
+			signals.de_feFlush	= controls.feFlush | oldSignals.fe_icStall;
+			signals.de_predPC		= oldSignals.fe_predPC;
+			signals.de_predIndex	= oldSignals.fe_predIndex;
+			signals.de_icBubble	= oldSignals.fe_icStall;
 
 			// Instruction Memory Latch
 			signals.de_insn = oldSignals.im_dOut;
@@ -225,11 +693,24 @@ public class Processor
 			signals.ex_rAddA		= oldSignals.de_rAddA;
 			signals.ex_rAddB		= oldSignals.de_rAddB;
 			signals.ex_imm			= oldSignals.de_imm;
+			signals.ex_predPC		= oldSignals.de_predPC;
+			signals.ex_predIndex	= oldSignals.de_predIndex;
+			signals.ex_dcWait		= 0;
+			signals.ex_icBubble	= oldSignals.de_icBubble;
 
 			// Register File Latch
 			signals.ex_rDatA = oldSignals.rf_dOutA;
 			signals.ex_rDatB = oldSignals.rf_dOutB;
 		}
+		else
+		{
+			signals.ex_dcWait		+= oldSignals.ex_dcStall;
+
+			// A hold can outlast the forwarding paths, so the latched operands
+			// see register writes too
+			if (oldSignals.wb_wrEn == 1 && oldSignals.wb_wrAdd == signals.ex_rAddA) signals.ex_rDatA = oldSignals.wb_data;
+			if (oldSignals.wb_wrEn == 1 && oldSignals.wb_wrAdd == signals.ex_rAddB) signals.ex_rDatB = oldSignals.wb_data;
+		}
 
 		// Memory Access
 		signals.ma_wrEn		= controls.wrEn;
@@ -238,6 +719,10 @@ public class Processor
 		signals.ma_aluOut		= oldSignals.ex_aluOut;
 		signals.ma_mAdd		= oldSignals.ex_mAdd;
 		signals.ma_mEn			= controls.memEn;
+		signals.ma_page		= oldSignals.ex_page;
+
+		// Data Page Register
+		if (controls.pgEn == 1) signals.ex_page = oldSignals.ex_aluOut & (memory.getPageCount() - 1);
 
 		signals.ma_flagZ		= oldSignals.ex_flagZ;
 		signals.ma_flagC		= oldSignals.ex_flagC;
@@ -250,229 +735,42 @@ public class Processor
 		signals.wb_mD			= oldSignals.dm_dOut;
 
 		// Data Memory Write
-		if (oldSignals.ma_mEn == 1) dataMemory[oldSignals.ma_mAdd] = oldSignals.ma_aluOut;
+		if (oldSignals.ma_mEn == 1)
+		{
+			if (deferStores)
+			{
+				storeAddress = getStoreAddress(oldSignals);
+				storeData = oldSignals.ma_aluOut;
+			}
+			else
+			{
+				memory.write(getStoreAddress(oldSignals), oldSignals.ma_aluOut);
+			}
+		}
 
 		// Register File Write
 		if (oldSignals.wb_wrEn == 1) registerFile[oldSignals.wb_wrAdd] = oldSignals.wb_data;
+
+		if (incremental) dirtyNodes |= changedRegisters(oldSignals);
 	}
 
 	private void updateControls()
 	{
 		// Defaults
-		controls.aluOp = AluOp.OPA;
-
 		controls.pcEn = 1;
 		controls.fedeEn = 1;
 		controls.deexEn = 1;
-		controls.wrEn = 0;
-		controls.memEn = 0;
-
-		controls.muxCS = 0;
-		controls.muxJS = 0;
-		controls.muxFA = 0;
-		controls.muxFB = 0;
-		controls.muxAS = 0;
-		controls.muxDS = 0;
-
-		controls.feFlush = 0;
-		controls.deFlush = 0;
 
 		// If instruction has been flushed, use defaults
-		if (signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return;
-
-		switch (Instruction.getType(signals.ex_opCode))
-		{
-			case ADDi :
-				controls.aluOp = AluOp.ADD;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case ADDr :
-				controls.aluOp = AluOp.ADD;
-				controls.wrEn = 1;
-				break;
-
-//			case ADDCi :
-//				controls.wrEn = 1;
-//				controls.muxFB = 1;
-//				break;
-//			case ADDCr :
-//				controls.wrEn = 1;
-//				break;
-
-			case SUBi :
-				controls.aluOp = AluOp.SUB;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case SUBr :
-				controls.aluOp = AluOp.SUB;
-				controls.wrEn = 1;
-				break;
-
-//			case SUBCi :
-//				controls.wrEn = 1;
-//				controls.muxFB = 1;
-//				break;
-//			case SUBCr :
-//				controls.wrEn = 1;
-//				break;
-
-			case COMPi :
-				controls.aluOp = AluOp.SUB;
-				controls.muxFB = 1;
-				break;
-			case COMPr :
-				controls.aluOp = AluOp.SUB;
-				break;
-
-//			case NEGr :
-//				controls.wrEn = 1;
-//				break;
-
-			case ANDi :
-				controls.aluOp = AluOp.AND;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case ANDr :
-				controls.aluOp = AluOp.AND;
-				controls.wrEn = 1;
-				break;
-
-			case ORi :
-				controls.aluOp = AluOp.OR;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case ORr :
-				controls.aluOp = AluOp.OR;
-				controls.wrEn = 1;
-				break;
-
-			case XORi :
-				controls.aluOp = AluOp.XOR;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case XORr :
-				controls.aluOp = AluOp.XOR;
-				controls.wrEn = 1;
-				break;
-
-//			case ROTi :
-//				controls.wrEn = 1;
-//				controls.muxFB = 1;
-//				break;
-//			case ROTr :
-//				controls.wrEn = 1;
-//				break;
-
-			case SHLi :
-				controls.aluOp = AluOp.SHL;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case SHLr :
-				controls.aluOp = AluOp.SHL;
-				controls.wrEn = 1;
-				break;
-
-			case SHRi :
-				controls.aluOp = AluOp.SHR;
-				controls.wrEn = 1;
-				controls.muxFB = 1;
-				break;
-			case SHRr :
-				controls.aluOp = AluOp.SHR;
-				controls.wrEn = 1;
-				break;
-
-			case MOVi :
-				controls.aluOp = AluOp.OPA;
-				controls.wrEn = 1;
-				controls.muxFA = 1;
-				break;
-			case MOVr :
-				controls.aluOp = AluOp.OPB;
-				controls.wrEn = 1;
-				break;
-
-			// LOAD / STORE
-			// ------------
-			case LDi :
-				controls.aluOp = AluOp.OPB;
-				controls.muxAS = 1;
-				controls.muxFB = 1;
-				controls.wrEn = 1;
-				controls.muxDS = 1;
-				break;
-
-			case LDr :
-				controls.aluOp = AluOp.OPB;
-				controls.muxAS = 1;
-				controls.wrEn = 1;
-				controls.muxDS = 1;
-				break;
-
-
-			case STi :
-				controls.aluOp = AluOp.OPB;
-				controls.muxFB = 1;
-				controls.memEn = 1;
-				break;
-
-			case STa :
-				controls.aluOp = AluOp.OPA;
-				controls.muxFB = 1;
-				controls.muxAS = 1;
-				controls.memEn = 1;
-				break;
-
-			case STr :
-				controls.aluOp = AluOp.OPB;
-				controls.memEn = 1;
-				break;
-
-			// JUMPS / BRANCHES
-			// ----------------
-			case JMPi :
-				controls.muxJS = 1;
-				controls.muxCS = 2;
-				controls.feFlush = 1;
-				controls.deFlush = 1;
-				break;
-
-//			case JMPRi :
-//				break;
-
-//			case JMPRr :
-//				break;
-
-
-			case BRZi :
-				if (signals.ma_flagZ == 1)
-				{
-					controls.muxJS = 1;
-					controls.muxCS = 2;
-					controls.feFlush = 1;
-					controls.deFlush = 1;
-				}
-				break;
-
-			case BRNZi :
-				if (signals.ma_flagZ == 0)
-				{
-					controls.muxJS = 1;
-					controls.muxCS = 2;
-					controls.feFlush = 1;
-					controls.deFlush = 1;
-				}
-				break;
-
-			default:
+		if (signals.ex_deFlush == 1 || signals.ex_feFlush == 1)
+		{
+			ControlUnit.apply(ControlUnit.DEFAULT_WORD, controls);
+			return;
 		}
 
+		// Decode
+		ControlUnit.apply(ControlUnit.lookup(signals.ex_opCode, signals.ma_flagZ), controls);
+
 		// If Jump Flush is disabled, clear flush controls
 		if (enableJumpFlush == false)
 		{
@@ -500,19 +798,219 @@ public class Processor
 			controls.fedeEn = 0;
 			controls.deexEn = 0;
 			controls.wrEn = 0;
+			controls.pgEn = 0;
 		}
 	}
 
+	// Full evaluation runs every node in order. Incremental evaluation runs
+	// only the dirty ones, see evaluateDirtyNodes, and a netlist datapath
+	// replaces them all. The hooks are stateful and run every cycle either
+	// way; none reads a data memory or register file output, so they can
+	// follow all the nodes.
 	private void updateCombinatorial()
 	{
+		if (compiledDatapath != null)
+		{
+			if (wires != null) compiledDatapath.evaluate(signals, controls, registerFile, decoded.encoding, memory, wires);
+			else compiledDatapath.evaluate(signals, controls, registerFile, decoded.encoding, memory);
+		}
+		else if (incremental) evaluateDirtyNodes();
+		else
+		{
+			evaluatePcPlus();
+			evaluateDecode();
+			evaluateMuxDS();
+			evaluateMuxFA();
+			evaluateMuxFB();
+			evaluateMuxAS();
+			evaluateSignExtend();
+			evaluatePcAdd();
+			evaluateMuxJS();
+			evaluateAlu();
+			evaluateMuxCS();
+			evaluateInstructionMemory();
+			evaluateDataMemory();
+			evaluateRegisterFileA();
+			evaluateRegisterFileB();
+		}
+
+		if (predictor != null) updatePrediction();
+		if (dataCache != null) updateDataCache();
+		if (instructionCache != null) updateInstructionCache();
+	}
+
+	// Evaluates the combinatorial logic with the datapath described by a
+	// netlist, compiled to JVM code, in place of the logic below, or goes
+	// back to it given null. Recording the value of every wire, for display,
+	// takes a good part of the time of the logic itself. Takes effect from
+	// the next settle().
+	public void setDatapath(Netlist netlist, boolean recordWires)
+	{
+		if (netlist == null)
+		{
+			datapath = null;
+			wires = null;
+			compiledDatapath = null;
+			return;
+		}
+
+		try
+		{
+			compiledDatapath = NetlistCompiler.compile(netlist);
+		}
+		catch (ReflectiveOperationException roE)
+		{
+			throw new IllegalArgumentException("Processor: Could not compile datapath " + netlist + " (" + roE + ")");
+		}
+		catch (LinkageError lE)
+		{
+			throw new IllegalArgumentException("Processor: Could not compile datapath " + netlist + " (" + lE + ")");
+		}
+
+		datapath = netlist;
+		wires = recordWires ? new int[netlist.getWireCount()] : null;
+	}
+
+	// Value of the named datapath wire at the last settle, when recording them
+	public int getWire(String name)
+	{
+		int index = (wires == null) ? -1 : datapath.getWireIndex(name);
+		if (index < 0) throw new IllegalArgumentException("Processor: No recorded datapath wire " + name);
+		return wires[index];
+	}
+
+	// Switches between full and incremental evaluation, taking effect from the
+	// next settle(). Every node starts dirty, and the counts start again.
+	public void setIncremental(boolean enable)
+	{
+		incremental = enable;
+		dirtyNodes = ALL_NODES;
+		evaluationPasses = 0;
+		Arrays.fill(nodeEvaluations, 0);
+	}
+
+	public boolean isIncremental()
+	{
+		return incremental;
+	}
+
+	// Runs the dirty nodes in order. A node whose output changes dirties the
+	// nodes reading it, which all come later. Outputs of nodes left alone are
+	// still in the signals, carried over by clockReg.
+	private void evaluateDirtyNodes()
+	{
+		int dirty = dirtyNodes | changedControls();
+
+		// The predictor overwrites the next fetch addresses, so with one
+		// attached, or just detached, they are worked out again
+		if (predictor != null || predicted) dirty |= PC_PLUS | MUX_CS;
+		predicted = (predictor != null);
+
+		for (int n=0 ; n<NODE_COUNT ; n++)
+		{
+			if ((dirty & (1 << n)) == 0) continue;
+
+			nodeEvaluations[n] ++;
+			if (evaluateNode(n)) dirty |= NODE_FANOUT[n];
+		}
+
+		dirtyNodes = 0;
+		evaluationPasses ++;
+	}
+
+	// Evaluates a node, returning whether its output changed
+	private boolean evaluateNode(int node)
+	{
+		switch (node)
+		{
+			case 0 :		return evaluatePcPlus();
+			case 1 :		return evaluateDecode();
+			case 2 :		return evaluateMuxDS();
+			case 3 :		return evaluateMuxFA();
+			case 4 :		return evaluateMuxFB();
+			case 5 :		return evaluateMuxAS();
+			case 6 :		return evaluateSignExtend();
+			case 7 :		return evaluatePcAdd();
+			case 8 :		return evaluateMuxJS();
+			case 9 :		return evaluateAlu();
+			case 10 :	return evaluateMuxCS();
+			case 11 :	return evaluateInstructionMemory();
+			case 12 :	return evaluateDataMemory();
+			case 13 :	return evaluateRegisterFileA();
+			case 14 :	return evaluateRegisterFileB();
+			default :	return false;
+		}
+	}
+
+	// Nodes reading the controls that changed since the last evaluation
+	private int changedControls()
+	{
+		int dirty = 0;
+
+		if (controls.muxFA != evaluatedControls.muxFA) dirty |= MUX_FA;
+		if (controls.muxFB != evaluatedControls.muxFB) dirty |= MUX_FB;
+		if (controls.muxAS != evaluatedControls.muxAS) dirty |= MUX_AS;
+		if (controls.muxJS != evaluatedControls.muxJS) dirty |= MUX_JS;
+		if (controls.aluOp != evaluatedControls.aluOp) dirty |= ALU;
+		if (controls.muxCS != evaluatedControls.muxCS) dirty |= MUX_CS;
+
+		evaluatedControls.copy(controls);
+		return dirty;
+	}
+
+	// Nodes reading the registers, register file or memory changed by the
+	// clock edge from the old signals
+	private int changedRegisters(Signals old)
+	{
+		int dirty = 0;
+
+		if (signals.fe_pc != old.fe_pc) dirty |= PC_PLUS | INSN_MEMORY;
+		if (signals.de_insn != old.de_insn) dirty |= DECODE;
+		if (signals.ex_pc != old.ex_pc) dirty |= PC_ADD;
+		if (signals.ex_rDatA != old.ex_rDatA) dirty |= MUX_FA;
+		if (signals.ex_rDatB != old.ex_rDatB) dirty |= MUX_FB;
+		if (signals.ex_imm != old.ex_imm) dirty |= MUX_FA | MUX_FB | MUX_JS;
+		if (signals.ma_aluOut != old.ma_aluOut) dirty |= MUX_FA | MUX_FB | DATA_MEMORY;
+		if (signals.ma_page != old.ma_page) dirty |= DATA_MEMORY;
+		if (signals.wb_muxDS != old.wb_muxDS || signals.wb_aluOut != old.wb_aluOut || signals.wb_mD != old.wb_mD) dirty |= MUX_DS;
+		if (signals.wb_wrEn != old.wb_wrEn || signals.wb_wrAdd != old.wb_wrAdd) dirty |= REG_FILE_A | REG_FILE_B;
+
+		// A store, or with MultiProcessor any core's store. A register write
+		// needs nothing more, as the read ports were bypassing it from WB and
+		// stop once wb_wrEn or wb_wrAdd changes.
+		if (old.ma_mEn == 1 || deferStores) dirty |= DATA_MEMORY;
+
+		return dirty;
+	}
+
+	private boolean evaluatePcPlus()
+	{
+		int old = signals.fe_pcPlus;
+
 		signals.fe_pcPlus = (signals.fe_pc + 1) & 0xFFF;
+		signals.fe_predPC = signals.fe_pcPlus;		// Overridden by updatePrediction
+
+		return signals.fe_pcPlus != old;
+	}
+
+	// Only the register addresses are read by other nodes
+	private boolean evaluateDecode()
+	{
+		int oldA = signals.de_rAddA;
+		int oldB = signals.de_rAddB;
 
 		signals.de_opCode		= (signals.de_insn >> 12) & 0x3F;
 		signals.de_rAddA		= (signals.de_insn >> 8) & 0xF;
 		signals.de_rAddB		= signals.de_insn & 0xF;
 		signals.de_imm			= signals.de_insn & 0xFFF;
 
-		// Mux DS
+		return signals.de_rAddA != oldA || signals.de_rAddB != oldB;
+	}
+
+	private boolean evaluateMuxDS()
+	{
+		int old = signals.wb_data;
+
 		switch (signals.wb_muxDS)
 		{
 			case 0 :	signals.wb_data = signals.wb_aluOut;	break;
@@ -520,7 +1018,13 @@ public class Processor
 			default : System.err.println("Processor.updateCombinatorial: Invalid controls.muxDS value (" + controls.muxDS + ")");
 		}
 
-		// Mux FA
+		return signals.wb_data != old;
+	}
+
+	private boolean evaluateMuxFA()
+	{
+		int old = signals.ex_opA;
+
 		switch (controls.muxFA)
 		{
 			case 0 :	signals.ex_opA = signals.ex_rDatA;				break;
@@ -530,7 +1034,13 @@ public class Processor
 			default : System.err.println("Processor.updateCombinatorial: Invalid controls.muxFA value (" + controls.muxFA + ")");
 		}
 
-		// Mux FB
+		return signals.ex_opA != old;
+	}
+
+	private boolean evaluateMuxFB()
+	{
+		int old = signals.ex_opB;
+
 		switch (controls.muxFB)
 		{
 			case 0 :	signals.ex_opB = signals.ex_rDatB;				break;
@@ -540,7 +1050,13 @@ public class Processor
 			default : System.err.println("Processor.updateCombinatorial: Invalid controls.muxFB value (" + controls.muxFB + ")");
 		}
 
-		// Mux AS
+		return signals.ex_opB != old;
+	}
+
+	private boolean evaluateMuxAS()
+	{
+		int old = signals.ex_mAdd;
+
 		switch (controls.muxAS)
 		{
 			case 0 :	signals.ex_mAdd = signals.ex_opA; break;
@@ -548,14 +1064,32 @@ public class Processor
 			default : System.err.println("Processor.updateCombinatorial: Invalid controls.muxAS value (" + controls.muxAS + ")");
 		}
 
-		// Sign Extend
+		return signals.ex_mAdd != old;
+	}
+
+	private boolean evaluateSignExtend()
+	{
+		int old = signals.ex_opASE;
+
 		signals.ex_opASE = signals.ex_opA;
 		if ((signals.ex_opA & 0x80) == 0x80) signals.ex_opASE |= 0xF00;
 
-		// PC Add
+		return signals.ex_opASE != old;
+	}
+
+	private boolean evaluatePcAdd()
+	{
+		int old = signals.ex_pcRel;
+
 		signals.ex_pcRel = (signals.ex_opASE + signals.ex_pc) & 0xFFF;
 
-		// Mux JS
+		return signals.ex_pcRel != old;
+	}
+
+	private boolean evaluateMuxJS()
+	{
+		int old = signals.ex_pcJmp;
+
 		switch (controls.muxJS)
 		{
 			case 0 :	signals.ex_pcJmp = signals.ex_pcRel;	break;
@@ -563,7 +1097,14 @@ public class Processor
 			default : System.err.println("Processor.updateCombinatorial: Invalid controls.muxJS value (" + controls.muxJS + ")");
 		}
 
-		// ALU
+		return signals.ex_pcJmp != old;
+	}
+
+	// The ALU output and flags are not read by other nodes, only latched
+	private boolean evaluateAlu()
+	{
+		int old = signals.ex_aluOut;
+
 		boolean setFlags = false;
 		switch (controls.aluOp)
 		{
@@ -605,7 +1146,13 @@ public class Processor
 		// Mask ALU Output
 		signals.ex_aluOut &= 0xFF;
 
-		// Mux CS
+		return signals.ex_aluOut != old;
+	}
+
+	private boolean evaluateMuxCS()
+	{
+		int old = signals.ex_nPC;
+
 		switch (controls.muxCS)
 		{
 			case 0 :	signals.ex_nPC = signals.fe_pcPlus;	break;
@@ -614,17 +1161,136 @@ public class Processor
 			default : System.err.println("Processor.updateCombinatorial: Invalid controls.muxCS value (" + controls.muxCS + ")");
 		}
 
-		// Instruction Memory (Internal Read)
-		signals.im_dOut = (signals.fe_pc >= program.length) ? 0 : program[signals.fe_pc].encoding;
+		return signals.ex_nPC != old;
+	}
+
+	// Instruction Memory (Internal Read)
+	private boolean evaluateInstructionMemory()
+	{
+		int old = signals.im_dOut;
+
+		signals.im_dOut = (signals.fe_pc >= decoded.length) ? 0 : decoded.encoding[signals.fe_pc];
+
+		return signals.im_dOut != old;
+	}
+
+	// Data Memory (Internal Read)
+	private boolean evaluateDataMemory()
+	{
+		int old = signals.dm_dOut;
 
-		// Data Memory (Internal Read)
-		signals.dm_dOut = dataMemory[signals.ma_aluOut];
+		signals.dm_dOut = memory.read((signals.ma_page << DataMemory.PAGE_SHIFT) | signals.ma_aluOut);
+
+		return signals.dm_dOut != old;
+	}
+
+	// Register File, port A
+	private boolean evaluateRegisterFileA()
+	{
+		int old = signals.rf_dOutA;
 
-		// Register File
 		if (signals.wb_wrAdd == signals.de_rAddA && signals.wb_wrEn == 1) signals.rf_dOutA = signals.wb_data;
 		else signals.rf_dOutA = registerFile[signals.de_rAddA];
 
+		return signals.rf_dOutA != old;
+	}
+
+	// Register File, port B
+	private boolean evaluateRegisterFileB()
+	{
+		int old = signals.rf_dOutB;
+
 		if (signals.wb_wrAdd == signals.de_rAddB && signals.wb_wrEn == 1) signals.rf_dOutB = signals.wb_data;
 		else signals.rf_dOutB = registerFile[signals.de_rAddB];
+
+		return signals.rf_dOutB != old;
+	}
+
+	// Fetch follows the predicted path, so the next address comes from the
+	// predictor unless the instruction in EX shows the path it was fetched
+	// with is wrong. Only then is fetch redirected and FE and DE flushed,
+	// overriding the flush the control unit gives every taken jump.
+	private void updatePrediction()
+	{
+		signals.fe_predPC = predictor.predict(decoded, signals.fe_pc);
+		signals.fe_predIndex = predictor.index(signals.fe_pc);
+		signals.ex_mispredict = 0;
+		signals.ex_nPC = signals.fe_predPC;
+
+		if (signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return;
+
+		int nextPC = (controls.muxCS == 2) ? signals.ex_pcJmp : (signals.ex_pc + 1) & 0xFFF;
+		int flush = 0;
+
+		if (nextPC != signals.ex_predPC)
+		{
+			signals.ex_mispredict = 1;
+			signals.ex_nPC = nextPC;
+			if (enableJumpFlush) flush = 1;
+		}
+
+		controls.feFlush = flush;
+		controls.deFlush = flush;
+	}
+
+	// A load or store waits in EX, holding the stages behind it and sending
+	// bubbles on to MA, until it has had the cycles its data cache access
+	// takes. The access itself is still made to memory in MA.
+	private void updateDataCache()
+	{
+		signals.ex_dcStall = 0;
+
+		if (controls.deexEn == 0 || signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return;
+
+		boolean write = (controls.memEn == 1);
+		if (!write && !(controls.muxDS == 1 && controls.wrEn == 1)) return;
+
+		int address = (signals.ex_page << DataMemory.PAGE_SHIFT) | (write ? signals.ex_mAdd : signals.ex_aluOut);
+		int latency = (bus == null) ? dataCache.probe(address, write) : bus.probe(coreId, address, write);
+		if (signals.ex_dcWait + 1 >= latency) return;
+
+		signals.ex_dcStall = 1;
+		controls.pcEn = 0;
+		controls.fedeEn = 0;
+		controls.deexEn = 0;
+		controls.wrEn = 0;
+		controls.memEn = 0;
+	}
+
+	// Commits the access of a load or store leaving EX
+	private void clockDataCache()
+	{
+		if (controls.deexEn == 0 || signals.ex_deFlush == 1 || signals.ex_feFlush == 1) return;
+
+		boolean write = (controls.memEn == 1);
+		if (!write && !(controls.muxDS == 1 && controls.wrEn == 1)) return;
+
+		int address = (signals.ex_page << DataMemory.PAGE_SHIFT) | (write ? signals.ex_mAdd : signals.ex_aluOut);
+		if (bus == null) dataCache.access(address, write);
+		else bus.request(coreId, address, write);
+	}
+
+	// Fetch waits on the instruction cache while its access takes longer than a
+	// cycle, holding the PC and sending bubbles on to DE. Cycles the stages
+	// behind are held for count towards the wait, and a redirect from EX ends
+	// it, as the fetch is no longer wanted.
+	private void updateInstructionCache()
+	{
+		int latency = instructionCache.probe(signals.fe_pc, false);
+		signals.fe_icMiss = (latency > instructionCache.hitLatency) ? 1 : 0;
+		signals.fe_icStall = 0;
+
+		if (controls.pcEn == 0 || controls.fedeEn == 0 || controls.feFlush == 1 || signals.ex_nPC != signals.fe_predPC) return;
+		if (signals.fe_icWait + 1 >= latency) return;
+
+		signals.fe_icStall = 1;
+		controls.pcEn = 0;
+	}
+
+	// Commits the fetch leaving FE
+	private void clockInstructionCache()
+	{
+		boolean hit = instructionCache.access(signals.fe_pc, false);
+		if (!hit && enableNextLinePrefetch) instructionCache.prefetch(signals.fe_pc + instructionCache.lineWords);
 	}
 }
@@ -0,0 +1,180 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Per-address cycle profile of a pipeline run. Every clock is charged to one
+ * instruction: the instruction in EX when it proceeds or waits on the data
+ * cache, the load in MA when the load-use stall holds EX, the jump that
+ * flushed the bubble now in EX, or the address whose fetch missed in the
+ * instruction cache and left it. Instruction cache misses and the cycles
+ * fetch waited on them are also kept by fetch address.
+ * Cycles that cannot be charged to a program address (pipeline fill, fetches
+ * past the end of the program) are counted in unattributedCycles.
+ */
+public class Profiler
+{
+	public int length;
+
+	public long[] cycles;			// All cycles charged to the address
+	public long[] stallCycles;		// Load-use and data cache stall cycles caused by a load or store at the address
+	public long[] flushCycles;		// Bubbles from instructions flushed by a jump at the address
+	public long[] retired;
+	public long[] fetchMisses;		// Fetches of the address that missed in the instruction cache
+	public long[] fetchStallCycles;	// Cycles fetch was held on the address
+
+	public long unattributedCycles;
+
+	// Address of the last jump to flush the pipeline, charged for its bubbles
+	private int flushPC;
+
+	public Profiler(int length)
+	{
+		reset(length);
+	}
+
+	public void reset(int length)
+	{
+		if (cycles == null || this.length != length)
+		{
+			this.length = length;
+			cycles = new long[length];
+			stallCycles = new long[length];
+			flushCycles = new long[length];
+			retired = new long[length];
+			fetchMisses = new long[length];
+			fetchStallCycles = new long[length];
+		}
+		else
+		{
+			Arrays.fill(cycles, 0);
+			Arrays.fill(stallCycles, 0);
+			Arrays.fill(flushCycles, 0);
+			Arrays.fill(retired, 0);
+			Arrays.fill(fetchMisses, 0);
+			Arrays.fill(fetchStallCycles, 0);
+		}
+
+		unattributedCycles = 0;
+		flushPC = -1;
+	}
+
+	// Called by Processor before the registers are clocked, while controls and
+	// signals still describe the cycle that is ending
+	void count(Processor processor)
+	{
+		Processor.Controls controls = processor.controls;
+		Processor.Signals signals = processor.signals;
+
+		int fetchPC = signals.fe_pc;
+		if (fetchPC < length)
+		{
+			if (signals.fe_icMiss == 1 && controls.pcEn == 1) fetchMisses[fetchPC] ++;
+			fetchStallCycles[fetchPC] += signals.fe_icStall;
+		}
+
+		int pc;
+
+		if (controls.deexEn == 0)
+		{
+			pc = (signals.ex_dcStall == 1) ? signals.ex_pc : processor.maInsnAdd;
+			if (pc < length) stallCycles[pc] ++;
+		}
+		else if (signals.ex_icBubble == 1 && signals.ex_deFlush == 0)
+		{
+			pc = signals.ex_pc;
+		}
+		else if (signals.ex_deFlush == 1 || signals.ex_feFlush == 1)
+		{
+			pc = flushPC;
+			if (pc >= 0) flushCycles[pc] ++;
+		}
+		else
+		{
+			pc = signals.ex_pc;
+			if (pc < length) retired[pc] ++;
+			if (controls.feFlush == 1 || controls.deFlush == 1) flushPC = pc;
+		}
+
+		if (pc >= 0 && pc < length) cycles[pc] ++;
+		else unattributedCycles ++;
+	}
+
+	public void copy(Profiler src)
+	{
+		System.arraycopy(src.cycles, 0, cycles, 0, length);
+		System.arraycopy(src.stallCycles, 0, stallCycles, 0, length);
+		System.arraycopy(src.flushCycles, 0, flushCycles, 0, length);
+		System.arraycopy(src.retired, 0, retired, 0, length);
+		System.arraycopy(src.fetchMisses, 0, fetchMisses, 0, length);
+		System.arraycopy(src.fetchStallCycles, 0, fetchStallCycles, 0, length);
+
+		unattributedCycles = src.unattributedCycles;
+		flushPC = src.flushPC;
+	}
+
+	public boolean hasSameConfiguration(Profiler other)
+	{
+		return other != null && other.length == length;
+	}
+
+	public Profiler snapshot()
+	{
+		Profiler snapshot = new Profiler(length);
+		snapshot.copy(this);
+		return snapshot;
+	}
+
+	public long getTotalCycles()
+	{
+		long total = unattributedCycles;
+		for (int pc=0 ; pc<length ; pc++) total += cycles[pc];
+		return total;
+	}
+
+	public long getMaxCycles()
+	{
+		long max = 0;
+		for (int pc=0 ; pc<length ; pc++) max = Math.max(max, cycles[pc]);
+		return max;
+	}
+
+	// Writes one line per executed address, most expensive first
+	public void writeReport(PrintStream out, Instruction[] program)
+	{
+		Integer[] order = new Integer[length];
+		for (int pc=0 ; pc<length ; pc++) order[pc] = pc;
+
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				if (cycles[a] != cycles[b]) return (cycles[a] > cycles[b]) ? -1 : 1;
+				return a - b;
+			}
+		});
+
+		long total = getTotalCycles();
+
+		out.println("Profile:");
+		out.println("  Addr  Line      Cycles      %     Retired      Stalls     Flushes    IMisses    IStalls  Source");
+
+		for (int pc : order)
+		{
+			if (cycles[pc] == 0) break;
+
+			out.printf(Locale.ROOT, "  x%03X %5d %11d %6.2f %11d %11d %11d %10d %10d  %s%n", pc, program[pc].srcLine,
+				cycles[pc], 100.0 * cycles[pc] / total, retired[pc], stallCycles[pc], flushCycles[pc],
+				fetchMisses[pc], fetchStallCycles[pc], program[pc].srcString.trim());
+		}
+
+		if (unattributedCycles != 0)
+		{
+			out.printf(Locale.ROOT, "  ----     - %11d %6.2f           -           -           -          -          -  (pipeline fill / past end)%n",
+				unattributedCycles, 100.0 * unattributedCycles / total);
+		}
+	}
+}
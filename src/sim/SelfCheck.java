@@ -0,0 +1,1771 @@
+// Microprocessor Simulator
+
+package sim;
+
+import sim.jit.*;
+import sim.trace.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Regression checks for the simulator. Each check runs the assembled sample
+ * programs through two implementations that must agree, and reports the first
+ * point at which they diverge.
+ *
+ * Usage: java sim.SelfCheck [-cycles N] [file.asm ...]
+ * With no files, every .asm file in asmFiles/ is checked.
+ */
+public class SelfCheck
+{
+	private static final long DEFAULT_CYCLES = 100000;
+
+	private static PrintStream log = System.out;
+
+	public static void main(String[] args)
+	{
+		long cycles = DEFAULT_CYCLES;
+		ArrayList<File> fileList = new ArrayList<File>();
+
+		for (int a=0 ; a<args.length ; a++)
+		{
+			if (args[a].equals("-cycles") && a+1 < args.length) cycles = Long.parseLong(args[++a]);
+			else fileList.add(new File(args[a]));
+		}
+
+		if (fileList.size() == 0)
+		{
+			File[] asmFiles = new File("asmFiles").listFiles();
+			if (asmFiles != null)
+			{
+				Arrays.sort(asmFiles);
+				for (File file : asmFiles) if (file.getName().endsWith(".asm")) fileList.add(file);
+			}
+		}
+
+		int failures = 0;
+
+		if (!report("controlTable", null, checkControlTable())) failures ++;
+		if (!report("netlistErrors", null, checkNetlistErrors())) failures ++;
+		if (!report("heldOperands", null, checkHeldOperands())) failures ++;
+
+		for (File file : fileList)
+		{
+			Instruction[] program = Assembler.assemble(file, log, false);
+			if (program == null)
+			{
+				log.println("FAIL " + file.getName() + ": could not assemble");
+				failures ++;
+				continue;
+			}
+
+			if (!report("doubleBuffer", file, checkDoubleBuffer(program, cycles))) failures ++;
+			if (!report("functional", file, checkFunctional(program, cycles))) failures ++;
+			if (!report("counters", file, checkCounters(program, cycles))) failures ++;
+			if (!report("trace", file, checkTrace(program, cycles))) failures ++;
+			if (!report("history", file, checkHistory(program, cycles))) failures ++;
+			if (!report("checkpoint", file, checkCheckpoint(program, cycles))) failures ++;
+			if (!report("translated", file, checkTranslated(program, cycles))) failures ++;
+			if (!report("lockstep", file, checkLockstep(program, cycles))) failures ++;
+			if (!report("predictor", file, checkPredictor(program, cycles))) failures ++;
+			if (!report("dataCache", file, checkDataCache(program, cycles))) failures ++;
+			if (!report("instructionCache", file, checkInstructionCache(program, cycles))) failures ++;
+			if (!report("multiProcessor", file, checkMultiProcessor(program, cycles))) failures ++;
+			if (!report("pagedMemory", file, checkPagedMemory(program, cycles))) failures ++;
+			if (!report("staged", file, checkStaged(program, cycles))) failures ++;
+			if (!report("outOfOrder", file, checkOutOfOrder(program, cycles))) failures ++;
+			if (!report("incremental", file, checkIncremental(program, cycles))) failures ++;
+			if (!report("netlist", file, checkNetlist(program, cycles))) failures ++;
+		}
+
+		log.println((failures == 0) ? "All checks passed" : (failures + " check(s) failed"));
+		System.exit((failures == 0) ? 0 : 1);
+	}
+
+	private static boolean report(String check, File file, String error)
+	{
+		String name = (file == null) ? check : check + " " + file.getName();
+
+		if (error == null) log.println("PASS " + name);
+		else log.println("FAIL " + name + ": " + error);
+		return (error == null);
+	}
+
+	// Runs the cloning and double-buffered clock paths in lockstep, comparing
+	// the full processor state every cycle. Also checks the double-buffered
+	// path does not allocate once running, where the JVM can measure it.
+	private static String checkDoubleBuffer(Instruction[] program, long cycles)
+	{
+		Processor cloning = new Processor(program);
+		Processor buffered = new Processor(program);
+		buffered.enableDoubleBuffer = true;
+
+		for (long c=0 ; c<cycles ; c++)
+		{
+			cloning.clock();
+			buffered.clock();
+
+			String diff = compareProcessors(cloning, buffered);
+			if (diff != null) return "cycle " + c + ": " + diff;
+		}
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean) threadBean;
+			long threadId = Thread.currentThread().getId();
+
+			long before = allocBean.getThreadAllocatedBytes(threadId);
+			for (long c=0 ; c<cycles ; c++) buffered.clock();
+			long allocated = allocBean.getThreadAllocatedBytes(threadId) - before;
+
+			// Allow for the measurement calls themselves
+			if (allocated > 1024) return allocated + " bytes allocated in " + cycles + " double-buffered cycles";
+		}
+
+		return null;
+	}
+
+	// Compares the control unit table against the original switch decoder for
+	// every instruction type and Z flag value
+	private static String checkControlTable()
+	{
+		Processor processor = new Processor(new Instruction[0]);
+
+		for (Instruction.InstructionType type : Instruction.InstructionType.values())
+		{
+			for (int flagZ=0 ; flagZ<=1 ; flagZ++)
+			{
+				Processor.Controls reference = processor.new Controls();
+				reference.aluOp = Processor.AluOp.OPA;
+				decodeSwitch(type.ordinal(), flagZ, reference);
+
+				Processor.Controls table = processor.new Controls();
+				ControlUnit.apply(ControlUnit.lookup(type.ordinal(), flagZ), table);
+
+				String diff = compareFields(reference, table);
+				if (diff != null) return type + " (Z=" + flagZ + "): " + diff;
+			}
+		}
+
+		return null;
+	}
+
+	// The original hand-written decoder, kept as the reference the control
+	// unit table is checked against. Expects controls to hold the defaults on
+	// entry.
+	private static void decodeSwitch(int opCode, int flagZ, Processor.Controls controls)
+	{
+		switch (Instruction.getType(opCode))
+		{
+			case ADDi :
+				controls.aluOp = Processor.AluOp.ADD;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case ADDr :
+				controls.aluOp = Processor.AluOp.ADD;
+				controls.wrEn = 1;
+				break;
+
+//			case ADDCi :
+//				controls.wrEn = 1;
+//				controls.muxFB = 1;
+//				break;
+//			case ADDCr :
+//				controls.wrEn = 1;
+//				break;
+
+			case SUBi :
+				controls.aluOp = Processor.AluOp.SUB;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case SUBr :
+				controls.aluOp = Processor.AluOp.SUB;
+				controls.wrEn = 1;
+				break;
+
+//			case SUBCi :
+//				controls.wrEn = 1;
+//				controls.muxFB = 1;
+//				break;
+//			case SUBCr :
+//				controls.wrEn = 1;
+//				break;
+
+			case COMPi :
+				controls.aluOp = Processor.AluOp.SUB;
+				controls.muxFB = 1;
+				break;
+			case COMPr :
+				controls.aluOp = Processor.AluOp.SUB;
+				break;
+
+//			case NEGr :
+//				controls.wrEn = 1;
+//				break;
+
+			case ANDi :
+				controls.aluOp = Processor.AluOp.AND;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case ANDr :
+				controls.aluOp = Processor.AluOp.AND;
+				controls.wrEn = 1;
+				break;
+
+			case ORi :
+				controls.aluOp = Processor.AluOp.OR;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case ORr :
+				controls.aluOp = Processor.AluOp.OR;
+				controls.wrEn = 1;
+				break;
+
+			case XORi :
+				controls.aluOp = Processor.AluOp.XOR;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case XORr :
+				controls.aluOp = Processor.AluOp.XOR;
+				controls.wrEn = 1;
+				break;
+
+//			case ROTi :
+//				controls.wrEn = 1;
+//				controls.muxFB = 1;
+//				break;
+//			case ROTr :
+//				controls.wrEn = 1;
+//				break;
+
+			case SHLi :
+				controls.aluOp = Processor.AluOp.SHL;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case SHLr :
+				controls.aluOp = Processor.AluOp.SHL;
+				controls.wrEn = 1;
+				break;
+
+			case SHRi :
+				controls.aluOp = Processor.AluOp.SHR;
+				controls.wrEn = 1;
+				controls.muxFB = 1;
+				break;
+			case SHRr :
+				controls.aluOp = Processor.AluOp.SHR;
+				controls.wrEn = 1;
+				break;
+
+			case MOVi :
+				controls.aluOp = Processor.AluOp.OPA;
+				controls.wrEn = 1;
+				controls.muxFA = 1;
+				break;
+			case MOVr :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.wrEn = 1;
+				break;
+
+			// LOAD / STORE
+			// ------------
+			case LDi :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.muxAS = 1;
+				controls.muxFB = 1;
+				controls.wrEn = 1;
+				controls.muxDS = 1;
+				break;
+
+			case LDr :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.muxAS = 1;
+				controls.wrEn = 1;
+				controls.muxDS = 1;
+				break;
+
+
+			case STi :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.muxFB = 1;
+				controls.memEn = 1;
+				break;
+
+			case STa :
+				controls.aluOp = Processor.AluOp.OPA;
+				controls.muxFB = 1;
+				controls.muxAS = 1;
+				controls.memEn = 1;
+				break;
+
+			case STr :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.memEn = 1;
+				break;
+
+			case PAGEi :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.muxFB = 1;
+				controls.pgEn = 1;
+				break;
+
+			case PAGEr :
+				controls.aluOp = Processor.AluOp.OPB;
+				controls.pgEn = 1;
+				break;
+
+			// JUMPS / BRANCHES
+			// ----------------
+			case JMPi :
+				controls.muxJS = 1;
+				controls.muxCS = 2;
+				controls.feFlush = 1;
+				controls.deFlush = 1;
+				break;
+
+//			case JMPRi :
+//				break;
+
+//			case JMPRr :
+//				break;
+
+
+			case BRZi :
+				if (flagZ == 1)
+				{
+					controls.muxJS = 1;
+					controls.muxCS = 2;
+					controls.feFlush = 1;
+					controls.deFlush = 1;
+				}
+				break;
+
+			case BRNZi :
+				if (flagZ == 0)
+				{
+					controls.muxJS = 1;
+					controls.muxCS = 2;
+					controls.feFlush = 1;
+					controls.deFlush = 1;
+				}
+				break;
+
+			default:
+		}
+	}
+
+	// Runs the pipeline and the functional engine side by side. At intervals the
+	// functional engine is brought up to the pipeline's instruction count and
+	// their architectural states compared.
+	private static String checkFunctional(Instruction[] program, long cycles)
+	{
+		Processor processor = new Processor(program);
+		FunctionalEngine functional = new FunctionalEngine(program);
+
+		for (long c=0 ; c<cycles ; c++)
+		{
+			if (processor.isHalted()) break;
+			processor.clock();
+
+			if (c % 97 == 0)
+			{
+				String diff = compareArchitecturalState(processor, functional);
+				if (diff != null) return "cycle " + c + ": " + diff;
+			}
+		}
+
+		String diff = compareArchitecturalState(processor, functional);
+		if (diff != null) return "final: " + diff;
+
+		if (processor.isHalted() != functional.isHalted()) return "halted " + processor.isHalted() + " != " + functional.isHalted();
+
+		return null;
+	}
+
+	// Checks the performance counters and profile against each other, and the
+	// per-opcode retire counts against the instructions the functional engine
+	// executes
+	private static String checkCounters(Instruction[] program, long cycles)
+	{
+		Processor processor = new Processor(program);
+		processor.setProfiling(true);
+		processor.run(cycles);
+		PerfCounters counters = processor.getCounters();
+		Profiler profiler = processor.profiler;
+
+		if (counters.cycles != processor.clockCount) return "cycles " + counters.cycles + " != " + processor.clockCount;
+		if (counters.retired != processor.instructionCount) return "retired " + counters.retired + " != " + processor.instructionCount;
+
+		long profiledRetired = 0;
+		long profiledStalls = 0;
+		for (int pc=0 ; pc<profiler.length ; pc++)
+		{
+			profiledRetired += profiler.retired[pc];
+			profiledStalls += profiler.stallCycles[pc];
+		}
+
+		if (profiler.getTotalCycles() != counters.cycles) return "profiled cycles " + profiler.getTotalCycles() + " != " + counters.cycles;
+		if (profiledStalls != counters.loadStallCycles + counters.dataCacheStallCycles) return "profiled stalls " + profiledStalls + " != " + counters.loadStallCycles + " + " + counters.dataCacheStallCycles;
+		if (profiledRetired > counters.retired) return "profiled retired " + profiledRetired + " > " + counters.retired;
+
+		FunctionalEngine functional = new FunctionalEngine(program);
+		long[] opcodeCounts = new long[PerfCounters.OPCODES];
+
+		for (long i=0 ; i<counters.retired ; i++)
+		{
+			if (functional.isHalted())
+			{
+				// The pipeline retires the halting jmp, or the zero words fetched past
+				// the end, until its last writes drain
+				opcodeCounts[(functional.pc < program.length) ? program[functional.pc].insnType.ordinal() : 0] ++;
+				continue;
+			}
+
+			opcodeCounts[program[functional.pc].insnType.ordinal()] ++;
+			functional.step();
+		}
+
+		long reads = 0;
+		long writes = 0;
+		long branches = 0;
+
+		for (Instruction.InstructionType type : Instruction.InstructionType.values())
+		{
+			long count = counters.opcodeRetired[type.ordinal()];
+			if (count != opcodeCounts[type.ordinal()]) return type + " retired " + count + " != " + opcodeCounts[type.ordinal()];
+
+			if (type == Instruction.InstructionType.LDi || type == Instruction.InstructionType.LDr) reads += count;
+			if (type == Instruction.InstructionType.STi || type == Instruction.InstructionType.STa || type == Instruction.InstructionType.STr) writes += count;
+			if (ControlUnit.isBranch(type.ordinal())) branches += count;
+		}
+
+		if (counters.memoryReads != reads) return "memory reads " + counters.memoryReads + " != " + reads;
+		if (counters.memoryWrites != writes) return "memory writes " + counters.memoryWrites + " != " + writes;
+		if (counters.getBranches() != branches) return "branches " + counters.getBranches() + " != " + branches;
+
+		return null;
+	}
+
+	// Records a trace, then reads it back alongside a second run. The stage
+	// addresses must match cycle by cycle, replaying the recorded writes must
+	// rebuild the final register file and memory, seeking must return the same
+	// records as iterating, and TraceReplay must reconstruct the live state.
+	// The memory is paged, so writes above page 0 are replayed too.
+	private static String checkTrace(Instruction[] program, long cycles)
+	{
+		int memorySize = 4096;
+		File traceFile = null;
+
+		try
+		{
+			traceFile = File.createTempFile("selfcheck", ".trace");
+
+			Processor recorded = createProcessor(program, memorySize);
+			recorded.tracer = new TraceWriter(traceFile, recorded);
+			recorded.run(cycles);
+			recorded.tracer.close();
+
+			TraceReader reader = new TraceReader(traceFile);
+			if (reader.getRecordCount() != recorded.clockCount) return "record count " + reader.getRecordCount() + " != " + recorded.clockCount;
+
+			if (reader.getMemorySize() != memorySize) return "memory size " + reader.getMemorySize() + " != " + memorySize;
+
+			Processor processor = createProcessor(program, memorySize);
+			int[] registerFile = new int[processor.registerFile.length];
+			DataMemory memory = new DataMemory(processor.memory.size);
+			TraceRecord record = new TraceRecord();
+			TraceRecord seeked = new TraceRecord();
+
+			while (reader.hasNext())
+			{
+				reader.next(record);
+
+				if (record.feInsnAdd != (processor.feInsnAdd & 0xFFF) || record.deInsnAdd != (processor.deInsnAdd & 0xFFF)
+					|| record.exInsnAdd != (processor.exInsnAdd & 0xFFF) || record.maInsnAdd != (processor.maInsnAdd & 0xFFF)
+					|| record.wbInsnAdd != (processor.wbInsnAdd & 0xFFF)) return "cycle " + record.cycle + ": stage addresses differ";
+
+				if (record.stall != (processor.controls.deexEn ^ 1)) return "cycle " + record.cycle + ": stall bit differs";
+
+				if (record.regWrEn == 1) registerFile[record.regWrAdd] = record.regWrData;
+				if (record.memWrEn == 1) memory.write(record.memWrAdd, record.memWrData);
+
+				if (record.cycle % 1013 == 0)
+				{
+					reader.read(record.cycle, seeked);
+					if (!seeked.toString().equals(record.toString())) return "cycle " + record.cycle + ": seek read differs";
+				}
+
+				processor.clock();
+			}
+
+			Processor live = createProcessor(program, memorySize);
+			String diff = compareReplay(reader, createProcessor(program, memorySize), live);
+			reader.close();
+			if (diff != null) return diff;
+
+			diff = compareArrays("registerFile", recorded.registerFile, registerFile);
+			if (diff == null) diff = compareMemories(recorded.memory, memory);
+			if (diff != null) return "replayed writes: " + diff;
+
+			// A trace started part way through must replay from the state it
+			// started in
+			long first = Math.min(recorded.clockCount / 2, 1000);
+			Processor resumed = createProcessor(program, memorySize);
+			resumed.run(first);
+			resumed.tracer = new TraceWriter(traceFile, resumed);
+			resumed.run(cycles);
+			resumed.tracer.close();
+
+			live = createProcessor(program, memorySize);
+			live.run(first);
+
+			reader = new TraceReader(traceFile);
+			if (reader.getFirstCycle() != first) return "resumed first cycle " + reader.getFirstCycle() + " != " + first;
+			diff = compareReplay(reader, createProcessor(program, memorySize), live);
+			reader.close();
+			if (diff != null) return "resumed " + diff;
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (traceFile != null) traceFile.delete();
+		}
+
+		return null;
+	}
+
+	// Replayed state must match a live run from the trace's first cycle,
+	// reached both forwards and by jumping back to a keyframe
+	private static String compareReplay(TraceReader reader, Processor display, Processor live)
+	{
+		TraceReplay replay = new TraceReplay(reader, display, 100);
+		long first = reader.getFirstCycle();
+
+		for (long c=first ; c<first + reader.getRecordCount() ; c++)
+		{
+			if ((c - first) % 997 == 0)
+			{
+				replay.seek(first + (c - first) / 2);
+				replay.seek(c);
+
+				if (display.feInsnAdd != (live.feInsnAdd & 0xFFF) || display.exInsnAdd != (live.exInsnAdd & 0xFFF)
+					|| display.wbInsnAdd != (live.wbInsnAdd & 0xFFF)) return "replay cycle " + c + ": stage addresses differ";
+
+				String diff = compareArrays("registerFile", live.registerFile, display.registerFile);
+				if (diff == null) diff = compareMemories(live.memory, display.memory);
+				if (diff != null) return "replay cycle " + c + ": " + diff;
+			}
+
+			live.clock();
+		}
+
+		return null;
+	}
+
+	private static Processor createProcessor(Instruction[] program, int memorySize)
+	{
+		Processor processor = new Processor(program);
+		processor.memorySize = memorySize;
+		processor.reset();
+		return processor;
+	}
+
+	// Steps back through the history to a set of earlier cycles and compares
+	// against snapshots taken on a forward run, then runs on to the end again.
+	// Also checks a history too small for the run refuses to go back too far.
+	private static String checkHistory(Instruction[] program, long cycles)
+	{
+		int interval = 100;
+		long[] targets = { cycles - 1, cycles * 3 / 4 + 17, cycles / 2, cycles / 3 + 5, 1, 0 };
+
+		Processor reference = new Processor(program);
+		reference.setProfiling(true);
+		Snapshot[] snapshots = new Snapshot[targets.length];
+		for (int t=targets.length-1 ; t>=0 ; t--)
+		{
+			while (reference.clockCount < targets[t]) reference.clock();
+			snapshots[t] = new Snapshot(reference);
+			reference.save(snapshots[t], true);
+		}
+		while (reference.clockCount < cycles) reference.clock();
+
+		// Sized before profiling is enabled, so the reset must make room for
+		// the profile in each checkpoint
+		Processor processor = new Processor(program);
+		long maxBytes = (cycles / interval + 2) * (History.getCheckpointBytes(reference) + 8L * interval);
+		processor.history = new History(processor, interval, maxBytes);
+		processor.setProfiling(true);
+		processor.reset();
+		if (processor.history.getMemoryBytes() > maxBytes) return processor.history.getMemoryBytes() + " bytes of history over a budget of " + maxBytes;
+		while (processor.clockCount < cycles) processor.clock();
+
+		Processor restored = new Processor(program);
+		restored.setProfiling(true);
+
+		for (int t=0 ; t<targets.length ; t++)
+		{
+			boolean moved = (t == 0) ? processor.history.stepBack() : processor.history.goTo(targets[t]);
+			if (!moved) return "could not go back to cycle " + targets[t];
+
+			restored.restore(snapshots[t]);
+
+			String diff = compareProcessors(restored, processor);
+			if (diff == null && restored.instructionCount != processor.instructionCount) diff = "instructionCount differs";
+			if (diff == null && restored.counters.retired != processor.counters.retired) diff = "counters.retired differs";
+			if (diff == null) diff = compareProfilers(restored.profiler, processor.profiler);
+			if (diff != null) return "back to cycle " + targets[t] + ": " + diff;
+		}
+
+		// Cycles stepped over again are profiled once
+		processor.history.goTo(cycles);
+		String diff = compareProcessors(reference, processor);
+		if (diff == null) diff = compareProfilers(reference.profiler, processor.profiler);
+		if (diff != null) return "forward again: " + diff;
+
+		if (cycles > 3 * interval)
+		{
+			Processor bounded = new Processor(program);
+			bounded.history = new History(bounded, interval, 3 * (1024 + 8L * interval));
+			while (bounded.clockCount < cycles) bounded.clock();
+
+			if (bounded.history.goTo(0)) return "went back beyond a bounded history";
+			if (bounded.clockCount != cycles) return "refused goTo changed the processor";
+			if (!bounded.history.goTo(bounded.history.getOldestCycle())) return "could not go back to the oldest cycle";
+		}
+
+		return null;
+	}
+
+	// Saves a run part way through with non-default options, then runs the
+	// loaded processor and the original on in lockstep. Also forks a sweep run
+	// from the saved state, which must count only the cycles after it.
+	private static String checkCheckpoint(Instruction[] program, long cycles)
+	{
+		File checkpointFile = null;
+
+		try
+		{
+			checkpointFile = File.createTempFile("selfcheck", ".ckpt");
+
+			Processor original = new Processor(program);
+			original.enableJumpFlush = false;
+			original.enableLoadStall = false;
+			while (original.clockCount < cycles / 2 + 1) original.clock();
+
+			CheckpointFile.save(checkpointFile, original);
+			Processor loaded = CheckpointFile.load(checkpointFile);
+
+			if (loaded.program.length != program.length) return "program length " + loaded.program.length + " != " + program.length;
+			for (int i=0 ; i<program.length ; i++)
+			{
+				if (loaded.program[i].encoding != program[i].encoding || loaded.program[i].srcLine != program[i].srcLine
+					|| !loaded.program[i].srcString.equals(program[i].srcString)) return String.format("program[x%03X] differs", i);
+			}
+
+			if (loaded.enableRegForwarding != original.enableRegForwarding || loaded.enableJumpFlush != original.enableJumpFlush
+				|| loaded.enableLoadStall != original.enableLoadStall || loaded.enableDoubleBuffer != original.enableDoubleBuffer) return "options differ";
+
+			if (loaded.instructionCount != original.instructionCount) return "instructionCount differs";
+			if (loaded.counters.cycles != original.counters.cycles || loaded.counters.retired != original.counters.retired
+				|| !Arrays.equals(loaded.counters.opcodeRetired, original.counters.opcodeRetired)) return "counters differ";
+
+			while (original.clockCount < cycles)
+			{
+				String diff = compareProcessors(original, loaded);
+				if (diff != null) return "cycle " + original.clockCount + ": " + diff;
+
+				original.clock();
+				loaded.clock();
+			}
+
+			// The prefix must be run with the default options for the fork to be correct
+			Processor warm = new Processor(program);
+			while (warm.clockCount < cycles / 2) warm.clock();
+			CheckpointFile.save(checkpointFile, warm);
+
+			Snapshot start = new Snapshot(warm);
+			CheckpointFile.load(checkpointFile).save(start, true);
+
+			Sweep.Config config = new Sweep.Config(true, true, true);
+			Sweep.Result forked = Sweep.run("forked", program, start, config, cycles / 4);
+			if (!forked.correct) return "forked sweep run incorrect";
+			if (!forked.halted && forked.cycles != cycles / 4) return "forked sweep run counted " + forked.cycles + " cycles";
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (checkpointFile != null) checkpointFile.delete();
+		}
+
+		return null;
+	}
+
+	// Runs the translating and interpreting functional engines in chunks of
+	// varying size, so translated regions also exit on their budget, and
+	// compares their state after each chunk
+	private static String checkTranslated(Instruction[] program, long cycles)
+	{
+		FunctionalEngine functional = new FunctionalEngine(program);
+		TranslatingEngine translated = new TranslatingEngine(program);
+
+		long chunk = 1;
+		while (functional.instructionCount < cycles)
+		{
+			boolean functionalHalted = functional.run(chunk);
+			boolean translatedHalted = translated.run(chunk);
+
+			if (functionalHalted != translatedHalted) return "halted " + functionalHalted + " != " + translatedHalted;
+			if (functional.instructionCount != translated.getInstructionCount()) return "instruction count " + functional.instructionCount + " != " + translated.getInstructionCount();
+
+			String diff = compareArrays("registerFile", functional.registerFile, translated.getRegisterFile());
+			if (diff == null) diff = compareMemories(functional.memory, translated.getMemory());
+			if (diff != null) return "instruction " + functional.instructionCount + ": " + diff;
+
+			if (functionalHalted) break;
+			chunk = (chunk * 7 + 3) % 1009;
+		}
+
+		if (translated.translationFailures != 0) return translated.translationFailures + " region(s) failed to translate";
+
+		return null;
+	}
+
+	// Runs lanes with differently seeded data memories in lockstep, in two
+	// chunks, and compares every lane with a functional engine run on its own
+	private static String checkLockstep(Instruction[] program, long cycles)
+	{
+		int lanes = 37;
+		LockstepEngine lockstep = new LockstepEngine(program, lanes);
+		FunctionalEngine[] functional = new FunctionalEngine[lanes];
+		Random random = new Random(lanes);
+
+		for (int l=0 ; l<lanes ; l++)
+		{
+			functional[l] = new FunctionalEngine(program);
+
+			// Lane 0 keeps the zeroed memory the program normally starts with
+			if (l > 0) for (int i=0 ; i<functional[l].dataMemory.length ; i++) functional[l].dataMemory[i] = random.nextInt(256);
+			lockstep.setDataMemory(l, functional[l].dataMemory);
+		}
+
+		for (int chunk=0 ; chunk<2 ; chunk++)
+		{
+			boolean lockstepHalted = lockstep.run(cycles / 2);
+			boolean allHalted = true;
+
+			for (int l=0 ; l<lanes ; l++)
+			{
+				boolean halted = functional[l].run(cycles / 2);
+				allHalted &= halted;
+
+				if (halted != lockstep.halted[l]) return "lane " + l + ": halted " + halted + " != " + lockstep.halted[l];
+				if (functional[l].instructionCount != lockstep.instructionCount[l]) return "lane " + l + ": instruction count " + functional[l].instructionCount + " != " + lockstep.instructionCount[l];
+				if (functional[l].pc != lockstep.pc[l] || functional[l].flagZ != lockstep.flagZ[l] || functional[l].flagC != lockstep.flagC[l]) return "lane " + l + ": pc or flags differ";
+
+				String diff = compareArrays("registerFile", functional[l].registerFile, lockstep.getRegisterFile(l));
+				if (diff == null) diff = compareArrays("dataMemory", functional[l].dataMemory, lockstep.getDataMemory(l));
+				if (diff != null) return "lane " + l + ": " + diff;
+			}
+
+			if (lockstepHalted != allHalted) return "halted " + lockstepHalted + " != " + allHalted;
+		}
+
+		return null;
+	}
+
+	// Runs every prediction scheme, with and without a branch target buffer,
+	// against the functional engine. Each misprediction must cost exactly the
+	// two flushed instructions, and never predicting taken must match the
+	// pipeline without a predictor. Also saves and loads a predicting run,
+	// which must carry on cycle for cycle with the same tables.
+	private static String checkPredictor(Instruction[] program, long cycles)
+	{
+		Processor plain = new Processor(program);
+		plain.run(cycles);
+
+		for (BranchPredictor.Scheme scheme : BranchPredictor.Scheme.values())
+		{
+			for (int btbEntries : new int[] {0, 16})
+			{
+				String name = scheme + "/" + btbEntries + ": ";
+				Processor processor = new Processor(program);
+				processor.predictor = new BranchPredictor(scheme, BranchPredictor.DEFAULT_TABLE_BITS, BranchPredictor.DEFAULT_HISTORY_BITS, btbEntries);
+				FunctionalEngine functional = new FunctionalEngine(program);
+
+				for (long c=0 ; c<cycles ; c++)
+				{
+					if (processor.isHalted()) break;
+					processor.clock();
+
+					if (c % 97 == 0)
+					{
+						String diff = compareArchitecturalState(processor, functional);
+						if (diff != null) return name + "cycle " + c + ": " + diff;
+					}
+				}
+
+				String diff = compareArchitecturalState(processor, functional);
+				if (diff != null) return name + "final: " + diff;
+
+				BranchPredictor predictor = processor.predictor;
+				PerfCounters counters = processor.getCounters();
+				if (counters.flushedInstructions != 2 * predictor.mispredictions) return name + "flushed " + counters.flushedInstructions + " != 2 * " + predictor.mispredictions;
+				if (predictor.mispredictions > predictor.branches) return name + "more mispredictions than branches";
+
+				// Only a taken jump to the next address is predicted correctly
+				if (scheme == BranchPredictor.Scheme.NOT_TAKEN && predictor.mispredictions == plain.getCounters().branchesTaken)
+				{
+					if (processor.instructionCount != plain.instructionCount) return name + "instructionCount " + processor.instructionCount + " != " + plain.instructionCount;
+					if (counters.flushedInstructions != plain.getCounters().flushedInstructions) return name + "flushed instructions differ from no predictor";
+
+					// Accuracy is over jumps and branches, so here their not-taken fraction
+					double notTaken = (counters.getBranches() == 0) ? 1.0 : (double) counters.branchesNotTaken / counters.getBranches();
+					if (Math.abs(predictor.getAccuracy() - notTaken) > 1e-9) return name + "accuracy " + predictor.getAccuracy() + " != " + notTaken;
+				}
+			}
+		}
+
+		File checkpointFile = null;
+
+		try
+		{
+			checkpointFile = File.createTempFile("selfcheck", ".ckpt");
+
+			Processor original = new Processor(program);
+			original.predictor = new BranchPredictor(BranchPredictor.Scheme.GSHARE, 6, 4, 8);
+			while (original.clockCount < cycles / 2 + 1) original.clock();
+
+			CheckpointFile.save(checkpointFile, original);
+			Processor loaded = CheckpointFile.load(checkpointFile);
+			if (!original.predictor.hasSameConfiguration(loaded.predictor)) return "loaded predictor configuration differs";
+
+			while (original.clockCount < cycles)
+			{
+				String diff = compareProcessors(original, loaded);
+				if (diff == null) diff = comparePredictors(original.predictor, loaded.predictor);
+				if (diff != null) return "cycle " + original.clockCount + ": " + diff;
+
+				original.clock();
+				loaded.clock();
+			}
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (checkpointFile != null) checkpointFile.delete();
+		}
+
+		return null;
+	}
+
+	// Runs data caches of several shapes and policies against the functional
+	// engine, checks their stall cycles against their hit and miss counts, and
+	// that a cache that never stalls leaves the pipeline's timing unchanged.
+	// Also saves and loads a run with a cache, which must carry on cycle for
+	// cycle with the same cache contents.
+	private static String checkDataCache(Instruction[] program, long cycles)
+	{
+		Cache[] caches = {
+			new Cache(16, 1, 1, Cache.Replacement.LRU, true, 1, 0),
+			new Cache(32, 1, 4, Cache.Replacement.LRU, true, 1, 10),
+			new Cache(32, 2, 4, Cache.Replacement.LRU, true, 2, 8),
+			new Cache(64, 4, 2, Cache.Replacement.FIFO, true, 1, 5),
+			new Cache(16, 2, 2, Cache.Replacement.RANDOM, false, 1, 3),
+		};
+
+		for (Cache cache : caches)
+		{
+			String name = cache.sizeWords + "/" + cache.ways + "/" + cache.lineWords + " " + cache.replacement + ": ";
+			Processor processor = new Processor(program);
+			processor.dataCache = cache;
+			Processor plain = new Processor(program);
+			FunctionalEngine functional = new FunctionalEngine(program);
+			boolean neverStalls = (cache.hitLatency == 1 && cache.missLatency == 0);
+
+			for (long c=0 ; c<cycles ; c++)
+			{
+				if (processor.isHalted()) break;
+				processor.clock();
+
+				if (neverStalls)
+				{
+					plain.clock();
+					String diff = compareProcessors(plain, processor);
+					if (diff != null) return name + "cycle " + c + ": " + diff;
+				}
+
+				if (c % 97 == 0)
+				{
+					String diff = compareArchitecturalState(processor, functional);
+					if (diff != null) return name + "cycle " + c + ": " + diff;
+				}
+			}
+
+			// Finish any access still waiting, so every stall cycle is accounted for
+			while (processor.signals.ex_dcStall == 1) processor.clock();
+
+			String diff = compareArchitecturalState(processor, functional);
+			if (diff != null) return name + "final: " + diff;
+
+			PerfCounters counters = processor.getCounters();
+			if (cache.reads != counters.memoryReads || cache.writes != counters.memoryWrites) return name + "accesses differ from memory counters";
+
+			long fills = cache.readMisses + (cache.writeBack ? cache.writeMisses : 0);
+			long stalls = (cache.hitLatency - 1) * (cache.reads + cache.writes) + cache.missLatency * (fills + cache.writeBacks);
+			if (counters.dataCacheStallCycles != stalls) return name + "stall cycles " + counters.dataCacheStallCycles + " != " + stalls;
+		}
+
+		File checkpointFile = null;
+
+		try
+		{
+			checkpointFile = File.createTempFile("selfcheck", ".ckpt");
+
+			Processor original = new Processor(program);
+			original.dataCache = new Cache(32, 2, 2, Cache.Replacement.RANDOM, true, 1, 4);
+			while (original.clockCount < cycles / 2 + 1) original.clock();
+
+			CheckpointFile.save(checkpointFile, original);
+			Processor loaded = CheckpointFile.load(checkpointFile);
+			if (!original.dataCache.hasSameConfiguration(loaded.dataCache)) return "loaded cache configuration differs";
+
+			while (original.clockCount < cycles)
+			{
+				String diff = compareProcessors(original, loaded);
+				if (diff == null) diff = compareCaches(original.dataCache, loaded.dataCache);
+				if (diff != null) return "cycle " + original.clockCount + ": " + diff;
+
+				original.clock();
+				loaded.clock();
+			}
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (checkpointFile != null) checkpointFile.delete();
+		}
+
+		return null;
+	}
+
+	// Runs instruction caches of several shapes, with and without prefetch, and
+	// with a data cache and predictor alongside, against the functional engine.
+	// The profile must account for every cycle and no more fetch misses and
+	// stalls than the cache and counters saw, and a cache that never stalls
+	// must leave the timing unchanged. Also saves and loads such a run.
+	private static String checkInstructionCache(Instruction[] program, long cycles)
+	{
+		Cache[] caches = {
+			new Cache(16, 1, 1, Cache.Replacement.LRU, true, 1, 0),
+			new Cache(16, 1, 4, Cache.Replacement.LRU, true, 1, 6),
+			new Cache(32, 2, 4, Cache.Replacement.FIFO, true, 2, 4),
+			new Cache(64, 4, 8, Cache.Replacement.RANDOM, true, 1, 10),
+		};
+
+		for (int i=0 ; i<2*caches.length ; i++)
+		{
+			Cache cache = caches[i / 2].snapshot();
+			boolean prefetch = (i % 2 == 1);
+			String name = cache.sizeWords + "/" + cache.ways + "/" + cache.lineWords + (prefetch ? " prefetch: " : ": ");
+
+			Processor processor = new Processor(program);
+			processor.instructionCache = cache;
+			processor.enableNextLinePrefetch = prefetch;
+			processor.setProfiling(true);
+			if (i >= 4) processor.dataCache = new Cache(32, 2, 2, Cache.Replacement.LRU, true, 1, 3);
+			if (i >= 6) processor.predictor = new BranchPredictor(BranchPredictor.Scheme.BIMODAL);
+
+			Processor plain = new Processor(program);
+			FunctionalEngine functional = new FunctionalEngine(program);
+			boolean neverStalls = (cache.hitLatency == 1 && cache.missLatency == 0);
+
+			for (long c=0 ; c<cycles ; c++)
+			{
+				if (processor.isHalted()) break;
+				processor.clock();
+
+				if (neverStalls)
+				{
+					plain.clock();
+					String diff = compareProcessors(plain, processor);
+					if (diff != null) return name + "cycle " + c + ": " + diff;
+				}
+
+				if (c % 97 == 0)
+				{
+					String diff = compareArchitecturalState(processor, functional);
+					if (diff != null) return name + "cycle " + c + ": " + diff;
+				}
+			}
+
+			String diff = compareArchitecturalState(processor, functional);
+			if (diff != null) return name + "final: " + diff;
+
+			PerfCounters counters = processor.getCounters();
+			Profiler profiler = processor.profiler;
+			if (profiler.getTotalCycles() != counters.cycles) return name + "profiled cycles " + profiler.getTotalCycles() + " != " + counters.cycles;
+
+			long profiledMisses = 0;
+			long profiledStalls = 0;
+			for (int pc=0 ; pc<profiler.length ; pc++)
+			{
+				profiledMisses += profiler.fetchMisses[pc];
+				profiledStalls += profiler.fetchStallCycles[pc];
+			}
+
+			if (profiledMisses > cache.readMisses) return name + "profiled misses " + profiledMisses + " > " + cache.readMisses;
+			if (profiledStalls > counters.fetchStallCycles) return name + "profiled fetch stalls " + profiledStalls + " > " + counters.fetchStallCycles;
+			if (cache.writes != 0) return name + "instruction cache written";
+			if (!prefetch && cache.prefetches != 0) return name + "prefetched without prefetch enabled";
+		}
+
+		File checkpointFile = null;
+
+		try
+		{
+			checkpointFile = File.createTempFile("selfcheck", ".ckpt");
+
+			Processor original = new Processor(program);
+			original.instructionCache = new Cache(16, 2, 2, Cache.Replacement.RANDOM, true, 1, 5);
+			original.enableNextLinePrefetch = true;
+			original.dataCache = new Cache(16, 1, 2, Cache.Replacement.LRU, true, 1, 3);
+			while (original.clockCount < cycles / 2 + 1) original.clock();
+
+			CheckpointFile.save(checkpointFile, original);
+			Processor loaded = CheckpointFile.load(checkpointFile);
+			if (!original.instructionCache.hasSameConfiguration(loaded.instructionCache) || !loaded.enableNextLinePrefetch) return "loaded instruction cache configuration differs";
+
+			while (original.clockCount < cycles)
+			{
+				String diff = compareProcessors(original, loaded);
+				if (diff == null) diff = compareCaches(original.instructionCache, loaded.instructionCache);
+				if (diff == null) diff = compareCaches(original.dataCache, loaded.dataCache);
+				if (diff != null) return "cycle " + original.clockCount + ": " + diff;
+
+				original.clock();
+				loaded.clock();
+			}
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (checkpointFile != null) checkpointFile.delete();
+		}
+
+		return null;
+	}
+
+	// A single core with a MESI cache and no arbitration latency must match a
+	// lone Processor with the same cache cycle for cycle. Three cores running
+	// the program over one memory must give the same result on one thread as
+	// on three, and at most one cache may hold a line Modified or Exclusive.
+	// Cores missing in the same cycle take turns on the bus.
+	private static String checkMultiProcessor(Instruction[] program, long cycles)
+	{
+		Cache cache = new Cache(32, 2, 2, Cache.Replacement.LRU, true, 1, 4);
+
+		MultiProcessor single = new MultiProcessor(new Instruction[][] {program}, DataMemory.PAGE_WORDS, cache, CoherentBus.Protocol.MESI, 0);
+		Processor processor = new Processor(program);
+		processor.dataCache = cache.snapshot();
+
+		// A threaded run batches the cycles a core promises are quiet, which
+		// must have no store or data cache access, and those it promises to
+		// be running, which must not end halted
+		Processor singleCore = single.cores[0];
+		long quietUntil = 0;
+		long runningUntil = 0;
+
+		for (long c=0 ; c<cycles ; c++)
+		{
+			quietUntil = Math.max(quietUntil, c + singleCore.getQuietCycles());
+			runningUntil = Math.max(runningUntil, c + singleCore.getRunningCycles());
+			boolean store = (singleCore.signals.ma_mEn == 1);
+			long accesses = singleCore.dataCache.reads + singleCore.dataCache.writes;
+
+			single.clock();
+			processor.clock();
+
+			if (c < quietUntil && (store || singleCore.dataCache.reads + singleCore.dataCache.writes != accesses)) return "single core, cycle " + c + ": access in a quiet cycle";
+			if (c < runningUntil && singleCore.isHalted()) return "single core, cycle " + c + ": halted in a running cycle";
+
+			if (c % 97 == 0)
+			{
+				String diff = compareProcessors(processor, single.cores[0]);
+				if (diff != null) return "single core, cycle " + c + ": " + diff;
+			}
+		}
+
+		String diff = compareProcessors(processor, single.cores[0]);
+		if (diff != null) return "single core, final: " + diff;
+
+		Instruction[][] programs = {program, program, program};
+		long multiCycles = cycles / 10;
+
+		for (CoherentBus.Protocol protocol : CoherentBus.Protocol.values())
+		{
+			MultiProcessor serial = new MultiProcessor(programs, DataMemory.PAGE_WORDS, cache, protocol, 2);
+			MultiProcessor threaded = new MultiProcessor(programs, DataMemory.PAGE_WORDS, cache, protocol, 2);
+
+			for (long c=0 ; c<multiCycles ; c++)
+			{
+				if (serial.isHalted()) break;
+				serial.clock();
+
+				String error = checkCoherence(serial.bus);
+				if (error != null) return protocol + " cycle " + c + ": " + error;
+			}
+
+			threaded.run(serial.clockCount, 3);
+			if (threaded.clockCount != serial.clockCount) return protocol + " threaded clockCount " + threaded.clockCount + " != " + serial.clockCount;
+
+			for (int core=0 ; core<programs.length ; core++)
+			{
+				diff = compareProcessors(serial.cores[core], threaded.cores[core]);
+				if (diff == null) diff = compareCaches(serial.cores[core].dataCache, threaded.cores[core].dataCache);
+				if (diff != null) return protocol + " core " + core + ": " + diff;
+			}
+
+			if (serial.bus.getTransactions() != threaded.bus.getTransactions() || serial.bus.invalidations != threaded.bus.invalidations
+				|| serial.bus.interventions != threaded.bus.interventions
+				|| serial.bus.arbitrationStallCycles != threaded.bus.arbitrationStallCycles) return protocol + " bus statistics differ";
+
+			// The cores start in step, so their first misses contend for the bus
+			if (serial.bus.getTransactions() > 0 && serial.bus.arbitrationStallCycles == 0) return protocol + " no core waited for the bus";
+		}
+
+		return null;
+	}
+
+	// Runs the pipeline, with a data cache, and the interpreting and translating
+	// functional engines over a 4K-word memory, comparing every page. Part way
+	// through, the pipeline is saved to a checkpoint whose loaded copy must run
+	// on in step, and the end of the run is stepped back to the same cycle.
+	// The pipeline must allocate no page the functional engine has not.
+	private static String checkPagedMemory(Instruction[] program, long cycles)
+	{
+		int memorySize = 4096;
+		long mark = Math.min(cycles / 3, 1000);
+		File checkpointFile = null;
+
+		try
+		{
+			checkpointFile = File.createTempFile("selfcheck", ".ckpt");
+
+			Processor processor = new Processor(program);
+			processor.memorySize = memorySize;
+			processor.dataCache = new Cache(64, 2, 4, Cache.Replacement.LRU, true, 1, 4);
+			processor.history = new History(processor);
+			processor.reset();
+
+			FunctionalEngine functional = new FunctionalEngine(program);
+			functional.memorySize = memorySize;
+			functional.reset();
+			TranslatingEngine translated = new TranslatingEngine(program, memorySize);
+
+			Snapshot snapshot = null;
+			Processor loaded = null;
+
+			for (long c=0 ; c<cycles ; c++)
+			{
+				if (processor.isHalted()) break;
+
+				if (c == mark)
+				{
+					snapshot = new Snapshot(processor);
+					processor.save(snapshot, true);
+					CheckpointFile.save(checkpointFile, processor);
+					loaded = CheckpointFile.load(checkpointFile);
+				}
+
+				processor.clock();
+				if (loaded != null) loaded.clock();
+
+				if (c % 97 == 0)
+				{
+					String diff = compareArchitecturalState(processor, functional);
+					if (diff == null) diff = compareArchitecturalState(processor, translated);
+					if (diff != null) return "cycle " + c + ": " + diff;
+				}
+			}
+
+			String diff = compareArchitecturalState(processor, functional);
+			if (diff == null) diff = compareArchitecturalState(processor, translated);
+			if (diff != null) return "final: " + diff;
+
+			if (processor.memory.getAllocatedPages() > functional.memory.getAllocatedPages())
+			{
+				return processor.memory.getAllocatedPages() + " pages allocated, " + functional.memory.getAllocatedPages() + " selected";
+			}
+
+			if (loaded != null)
+			{
+				diff = compareProcessors(processor, loaded);
+				if (diff == null) diff = compareCaches(processor.dataCache, loaded.dataCache);
+				if (diff != null) return "loaded checkpoint: " + diff;
+
+				if (!processor.history.goTo(mark)) return "could not go back to cycle " + mark;
+
+				Processor restored = new Processor(program);
+				restored.memorySize = memorySize;
+				restored.reset();
+				restored.restore(snapshot);
+
+				diff = compareProcessors(restored, processor);
+				if (diff != null) return "back to cycle " + mark + ": " + diff;
+
+				Sweep.Result result = Sweep.run("selfcheck", program, snapshot, new Sweep.Config(true, true, true), cycles);
+				if (!result.correct) return "sweep from cycle " + mark + " disagrees with the functional engine";
+
+				try
+				{
+					new Processor(program).restore(snapshot);
+					return "snapshot restored into a " + DataMemory.PAGE_WORDS + " word memory";
+				}
+				catch (IllegalArgumentException iAE) {}
+			}
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (checkpointFile != null) checkpointFile.delete();
+		}
+
+		return null;
+	}
+
+	// Runs every preset pipeline model, with and without forwarding, single
+	// and dual-issue, against the functional engine. Every instruction retired
+	// must have been issued, and a single-issue pipeline never pairs. The
+	// 3-stage model, whose results are all ready by the cycle after they are
+	// made, must never stall, and the single-issue classic
+	// model must take Processor's cycles less the load stalls Processor takes
+	// behind instructions that do not use the load. Halting past the end of
+	// the program goes by the addresses Processor's stalls leave in the
+	// stages, so only runs ending on a jmp are compared for cycles.
+	private static String checkStaged(Instruction[] program, long cycles)
+	{
+		for (String name : PipelineModel.PRESET_NAMES)
+		{
+			for (int run=0 ; run<4 ; run++)
+			{
+				int forwarding = run & 1;
+				int width = 1 + (run >> 1);
+
+				StagedProcessor staged = new StagedProcessor(program, PipelineModel.parse(name), width);
+				staged.enableRegForwarding = (forwarding == 1);
+				staged.reset();
+				FunctionalEngine functional = new FunctionalEngine(program);
+				String label = name + ((width > 1) ? " dual-issue" : "") + ((forwarding == 1) ? "" : " without forwarding");
+
+				for (long c=0 ; c<cycles ; c++)
+				{
+					if (staged.isHalted()) break;
+					staged.clock();
+
+					if (c % 97 == 0)
+					{
+						String diff = compareEngines(staged, functional);
+						if (diff != null) return label + ", cycle " + c + ": " + diff;
+					}
+				}
+
+				String diff = compareEngines(staged, functional);
+				if (diff != null) return label + ", final: " + diff;
+
+				if (staged.isHalted() && !functional.isHalted()) return label + ": halted before the functional engine";
+
+				PerfCounters counters = staged.getCounters();
+				if (counters.cycles != staged.clockCount) return label + ": cycles " + counters.cycles + " != " + staged.clockCount;
+				if (counters.retired != staged.instructionCount) return label + ": retired " + counters.retired + " != " + staged.instructionCount;
+
+				long stalls = counters.loadStallCycles + staged.operandStallCycles;
+				if (name.equals("3stage") && stalls != 0) return label + ": " + stalls + " stall cycles";
+
+				long issued = 2 * staged.pairsIssued + staged.singlesIssued;
+				long split = staged.splits[StagedProcessor.PAIR_RAW] + staged.splits[StagedProcessor.PAIR_MEMORY] + staged.splits[StagedProcessor.PAIR_BRANCH];
+				if (staged.instructionCount > issued) return label + ": retired " + staged.instructionCount + " of " + issued + " issued";
+				if (split > staged.singlesIssued) return label + ": " + split + " splits of " + staged.singlesIssued + " single issues";
+				if (width == 1 && staged.pairsIssued + split != 0) return label + ": paired instructions";
+			}
+		}
+
+		Processor processor = new Processor(program);
+		processor.run(cycles);
+		StagedProcessor staged = new StagedProcessor(program, PipelineModel.CLASSIC);
+		staged.run(cycles);
+
+		if (staged.operandStallCycles != 0) return "classic: " + staged.operandStallCycles + " operand stall cycles";
+
+		if (processor.isHalted())
+		{
+			if (!staged.isHalted()) return "classic: Processor halted and staged did not";
+			if (processor.exInsnAdd >= program.length) return null;
+
+			long expected = processor.clockCount - processor.counters.loadStallCycles;
+			long actual = staged.clockCount - staged.counters.loadStallCycles;
+			if (actual != expected) return "classic: cycles less load stalls " + actual + " != " + expected;
+		}
+		else if (staged.instructionCount < processor.instructionCount)
+		{
+			return "classic: " + staged.instructionCount + " instructions in " + cycles + " cycles, Processor " + processor.instructionCount;
+		}
+
+		return null;
+	}
+
+	// Runs the out-of-order core against the functional engine with a narrow
+	// window that is always full, the default, and a wide one with longer
+	// latencies. Committing in order, it must match at every point, and a run
+	// that halts can be no faster than its dataflow limit.
+	private static String checkOutOfOrder(Instruction[] program, long cycles)
+	{
+		for (int config=0 ; config<3 ; config++)
+		{
+			OutOfOrderProcessor ooo = new OutOfOrderProcessor(program);
+			String name = new String[] {"narrow", "default", "wide"}[config];
+
+			if (config == 0)
+			{
+				ooo.width = 1;
+				ooo.robEntries = 4;
+				ooo.stations = 1;
+				ooo.queueEntries = 1;
+				ooo.aluUnits = 1;
+				ooo.loadLatency = 3;
+				ooo.predictor = new BranchPredictor(BranchPredictor.Scheme.NOT_TAKEN);
+			}
+			else if (config == 2)
+			{
+				ooo.width = 4;
+				ooo.robEntries = 64;
+				ooo.stations = 32;
+				ooo.queueEntries = 16;
+				ooo.aluUnits = 4;
+				ooo.aluLatency = 2;
+				ooo.predictor = new BranchPredictor(BranchPredictor.Scheme.GSHARE, BranchPredictor.DEFAULT_TABLE_BITS, BranchPredictor.DEFAULT_HISTORY_BITS, 16);
+			}
+			ooo.reset();
+
+			FunctionalEngine functional = new FunctionalEngine(program);
+
+			for (long c=0 ; c<cycles ; c++)
+			{
+				if (ooo.isHalted()) break;
+				ooo.clock();
+
+				if (c % 89 == 0)
+				{
+					String diff = compareEngines(ooo, functional);
+					if (diff != null) return name + ", cycle " + c + ": " + diff;
+				}
+			}
+
+			String diff = compareEngines(ooo, functional);
+			if (diff != null) return name + ", final: " + diff;
+
+			if (ooo.isHalted() != functional.isHalted()) return name + ": halted " + ooo.isHalted() + ", functional engine " + functional.isHalted();
+
+			PerfCounters counters = ooo.getCounters();
+			if (counters.retired != ooo.instructionCount) return name + ": retired " + counters.retired + " != " + ooo.instructionCount;
+			if (ooo.robPeak > ooo.robEntries) return name + ": " + ooo.robPeak + " reorder buffer entries used";
+			if (ooo.instructionCount > ooo.width * ooo.clockCount) return name + ": " + ooo.instructionCount + " instructions in " + ooo.clockCount + " cycles";
+			if (ooo.isHalted() && ooo.dataflowCycles > ooo.clockCount) return name + ": dataflow limit " + ooo.dataflowCycles + " beyond " + ooo.clockCount + " cycles";
+		}
+
+		return null;
+	}
+
+	// Runs the hand-written datapath and netlists/classic.net in lockstep,
+	// comparing the full processor state every cycle, with the default
+	// options, with none, and with a predictor and both caches. The first
+	// records its wires, which must match the signals they are stored to;
+	// the others must not allocate once running, where the JVM can measure it.
+	private static String checkNetlist(Instruction[] program, long cycles)
+	{
+		Netlist netlist;
+		try
+		{
+			netlist = Netlist.load(new File("netlists/classic.net"));
+		}
+		catch (IOException ioE)
+		{
+			return "could not read netlists/classic.net";
+		}
+
+		for (int config=0 ; config<3 ; config++)
+		{
+			Processor hand = new Processor(program);
+			Processor compiled = new Processor(program);
+			compiled.enableDoubleBuffer = true;
+			compiled.setDatapath(netlist, config == 0);
+
+			for (Processor processor : new Processor[] {hand, compiled})
+			{
+				if (config == 1)
+				{
+					processor.enableRegForwarding = false;
+					processor.enableJumpFlush = false;
+					processor.enableLoadStall = false;
+				}
+				if (config == 2)
+				{
+					processor.predictor = new BranchPredictor(BranchPredictor.Scheme.GSHARE, 6, 4, 8);
+					processor.dataCache = new Cache(32, 2, 2, Cache.Replacement.LRU, true, 1, 4);
+					processor.instructionCache = new Cache(16, 1, 4, Cache.Replacement.LRU, true, 1, 6);
+				}
+			}
+
+			for (long c=0 ; c<cycles ; c++)
+			{
+				hand.clock();
+				compiled.clock();
+
+				String diff = compareProcessors(hand, compiled);
+				if (diff != null) return "config " + config + ", cycle " + c + ": " + diff;
+
+				if (config == 0 && (compiled.getWire("ex_opA") != compiled.signals.ex_opA || compiled.getWire("wb_data") != compiled.signals.wb_data))
+				{
+					return "cycle " + c + ": recorded wires differ from the signals";
+				}
+			}
+
+			ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+			if (config > 0 && threadBean instanceof com.sun.management.ThreadMXBean)
+			{
+				com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean) threadBean;
+				long threadId = Thread.currentThread().getId();
+
+				long before = allocBean.getThreadAllocatedBytes(threadId);
+				for (long c=0 ; c<cycles ; c++) compiled.clock();
+				long allocated = allocBean.getThreadAllocatedBytes(threadId) - before;
+
+				// Allow for the measurement calls themselves
+				if (allocated > 1024) return "config " + config + ": " + allocated + " bytes allocated in " + cycles + " cycles";
+			}
+		}
+
+		return null;
+	}
+
+	// An add held in EX behind a load must still see the register written by
+	// the mov before the load, which retires during the hold. Checked with
+	// the load stall alone and with a data cache holding the load longer.
+	private static String checkHeldOperands()
+	{
+		File asmFile = null;
+
+		try
+		{
+			asmFile = File.createTempFile("selfcheck", ".asm");
+
+			PrintStream out = new PrintStream(asmFile);
+			out.println("\tmov\tr1\tx05");
+			out.println("\tld\tr2\tx10");
+			out.println("\tadd\tr1\tr1");
+			out.println("end:");
+			out.println("\tjmp\tend");
+			out.close();
+
+			Instruction[] program = Assembler.assemble(asmFile, log, false);
+			if (program == null) return "could not assemble";
+
+			for (int cached=0 ; cached<2 ; cached++)
+			{
+				Processor processor = new Processor(program);
+				if (cached == 1) processor.dataCache = new Cache(32, 1, 4, Cache.Replacement.LRU, true, 1, 10);
+				processor.reset();
+
+				for (int c=0 ; c<100 && !processor.isHalted() ; c++) processor.clock();
+
+				if (processor.registerFile[1] != 0x0A) return ((cached == 1) ? "with a data cache, " : "") + "r1 = " + processor.registerFile[1] + ", not 10";
+			}
+		}
+		catch (IOException ioE)
+		{
+			return ioE.toString();
+		}
+		finally
+		{
+			if (asmFile != null) asmFile.delete();
+		}
+
+		return null;
+	}
+
+	// Netlists that must be rejected, each with the start of its message
+	private static String checkNetlistErrors()
+	{
+		String[][] cases =
+		{
+			{"Loop through", "in fe_pc", "a = add b, fe_pc", "b = add a, 1"},
+			{"is driven twice", "in fe_pc", "fe_pc = add fe_pc, 1"},
+			{"is not driven", "in fe_pc", "a = add b, 1"},
+			{"is not driven", "in fe_pc", "out a=fe_pcPlus"},
+			{"No Signals field", "in fe_pc nothing"},
+			{"No Controls field", "control pcEn fe_pc"},
+			{"is stored twice", "in fe_pc", "out fe_pc=fe_pcPlus fe_pc=fe_pcPlus"},
+			{"Unknown component", "in fe_pc", "a = mul fe_pc, 2"},
+			{"Wrong number of inputs", "in fe_pc", "a = mux fe_pc, 1"},
+			{"drives 2 wire(s)", "in fe_pc", "a = alu fe_pc, fe_pc, 1"},
+			{"sext takes numbers", "in fe_pc", "a = sext fe_pc, fe_pc, 12"},
+			{"Bad wire name", "in x1F=fe_pc"}
+		};
+
+		for (String[] lines : cases)
+		{
+			try
+			{
+				Netlist.parse("check", Arrays.asList(lines).subList(1, lines.length));
+				return "accepted netlist expected to fail with \"" + lines[0] + "\"";
+			}
+			catch (IllegalArgumentException iaE)
+			{
+				if (!iaE.getMessage().contains(lines[0])) return "expected \"" + lines[0] + "\", got \"" + iaE.getMessage() + "\"";
+			}
+		}
+
+		return null;
+	}
+
+	// Runs full and incremental evaluation in lockstep, comparing the full
+	// processor state every cycle: with the default options, with none, and
+	// with a predictor and both caches. Halfway, both go back to the state a
+	// quarter of the way in. Incremental evaluation must also have left some
+	// nodes alone.
+	private static String checkIncremental(Instruction[] program, long cycles)
+	{
+		for (int config=0 ; config<3 ; config++)
+		{
+			Processor full = new Processor(program);
+			Processor incremental = new Processor(program);
+			incremental.enableDoubleBuffer = true;
+			incremental.setIncremental(true);
+
+			for (Processor processor : new Processor[] {full, incremental})
+			{
+				if (config == 1)
+				{
+					processor.enableRegForwarding = false;
+					processor.enableJumpFlush = false;
+					processor.enableLoadStall = false;
+				}
+				if (config == 2)
+				{
+					processor.predictor = new BranchPredictor(BranchPredictor.Scheme.BIMODAL, 6, 4, 8);
+					processor.dataCache = new Cache(32, 2, 2, Cache.Replacement.LRU, true, 1, 4);
+					processor.instructionCache = new Cache(16, 1, 4, Cache.Replacement.LRU, true, 1, 6);
+				}
+			}
+
+			Snapshot quarter = null;
+
+			for (long c=0 ; c<cycles ; c++)
+			{
+				if (c == cycles / 4)
+				{
+					quarter = new Snapshot(full);
+					full.save(quarter, true);
+				}
+				if (c == cycles / 2)
+				{
+					full.restore(quarter);
+					incremental.restore(quarter);
+				}
+
+				full.clock();
+				incremental.clock();
+
+				String diff = compareProcessors(full, incremental);
+				if (diff != null) return "config " + config + ", cycle " + c + ": " + diff;
+			}
+
+			long evaluations = 0;
+			for (long count : incremental.nodeEvaluations) evaluations += count;
+			if (cycles > 0 && evaluations >= incremental.evaluationPasses * Processor.NODE_COUNT) return "config " + config + ": every node evaluated every cycle";
+		}
+
+		return null;
+	}
+
+	private static String checkCoherence(CoherentBus bus)
+	{
+		Cache[] caches = bus.caches;
+
+		for (int address=0 ; address<256 ; address++)
+		{
+			int holders = 0;
+			int owners = 0;
+
+			for (int c=0 ; c<caches.length ; c++)
+			{
+				int way = caches[c].lookup(address);
+				if (way < 0) continue;
+
+				holders ++;
+				if (caches[c].dirty[way] == 1 || bus.exclusive[c][way] == 1) owners ++;
+				if (bus.protocol == CoherentBus.Protocol.MSI && bus.exclusive[c][way] == 1) return String.format("x%02X exclusive under MSI", address);
+			}
+
+			if (owners > 1 || (owners == 1 && holders > 1)) return String.format("x%02X held by %d caches, %d owning", address, holders, owners);
+		}
+
+		return null;
+	}
+
+	private static String compareArchitecturalState(Processor processor, Engine engine)
+	{
+		long behind = processor.instructionCount - engine.getInstructionCount();
+		if (behind > 0) engine.run(behind);
+
+		int[] registerFile = new int[processor.registerFile.length];
+		DataMemory memory = new DataMemory(processor.memory.size);
+		processor.getArchitecturalState(registerFile, memory);
+
+		String diff = compareArrays("registerFile", registerFile, engine.getRegisterFile());
+		if (diff != null) return diff;
+
+		return compareMemories(memory, engine.getMemory());
+	}
+
+	// Brings the reference engine up to the other's instruction count and
+	// compares their architectural state
+	private static String compareEngines(Engine engine, Engine reference)
+	{
+		long behind = engine.getInstructionCount() - reference.getInstructionCount();
+		if (behind > 0) reference.run(behind);
+
+		String diff = compareArrays("registerFile", engine.getRegisterFile(), reference.getRegisterFile());
+		if (diff != null) return diff;
+
+		return compareMemories(engine.getMemory(), reference.getMemory());
+	}
+
+	// Returns a description of the first difference between two processors, or null
+	static String compareProcessors(Processor a, Processor b)
+	{
+		if (a.clockCount != b.clockCount) return "clockCount " + a.clockCount + " != " + b.clockCount;
+
+		if (a.feInsnAdd != b.feInsnAdd) return "feInsnAdd differs";
+		if (a.deInsnAdd != b.deInsnAdd) return "deInsnAdd differs";
+		if (a.exInsnAdd != b.exInsnAdd) return "exInsnAdd differs";
+		if (a.maInsnAdd != b.maInsnAdd) return "maInsnAdd differs";
+		if (a.wbInsnAdd != b.wbInsnAdd) return "wbInsnAdd differs";
+
+		String diff = compareFields(a.signals, b.signals);
+		if (diff != null) return "signals." + diff;
+
+		diff = compareFields(a.controls, b.controls);
+		if (diff != null) return "controls." + diff;
+
+		diff = compareArrays("registerFile", a.registerFile, b.registerFile);
+		if (diff != null) return diff;
+
+		return compareMemories(a.memory, b.memory);
+	}
+
+	static String comparePredictors(BranchPredictor a, BranchPredictor b)
+	{
+		if (a.history != b.history) return "predictor history differs";
+		if (a.predictions != b.predictions || a.branches != b.branches || a.mispredictions != b.mispredictions) return "predictor statistics differ";
+
+		String diff = compareArrays("counters", a.counters, b.counters);
+		if (diff == null) diff = compareArrays("btbTag", a.btbTag, b.btbTag);
+		if (diff == null) diff = compareArrays("btbTarget", a.btbTarget, b.btbTarget);
+		if (diff == null) diff = compareArrays("btbType", a.btbType, b.btbType);
+		return diff;
+	}
+
+	static String compareProfilers(Profiler a, Profiler b)
+	{
+		if (a.unattributedCycles != b.unattributedCycles) return "profiler unattributedCycles differs";
+
+		String diff = null;
+		if (!Arrays.equals(a.cycles, b.cycles)) diff = "profiler cycles differ";
+		else if (!Arrays.equals(a.stallCycles, b.stallCycles)) diff = "profiler stallCycles differ";
+		else if (!Arrays.equals(a.flushCycles, b.flushCycles)) diff = "profiler flushCycles differ";
+		else if (!Arrays.equals(a.retired, b.retired)) diff = "profiler retired differs";
+		else if (!Arrays.equals(a.fetchMisses, b.fetchMisses)) diff = "profiler fetchMisses differ";
+		else if (!Arrays.equals(a.fetchStallCycles, b.fetchStallCycles)) diff = "profiler fetchStallCycles differ";
+		return diff;
+	}
+
+	static String compareCaches(Cache a, Cache b)
+	{
+		if (a.time != b.time || a.seed != b.seed) return "cache time or seed differs";
+		if (a.reads != b.reads || a.writes != b.writes || a.readMisses != b.readMisses
+			|| a.writeMisses != b.writeMisses || a.writeBacks != b.writeBacks || a.prefetches != b.prefetches) return "cache statistics differ";
+
+		String diff = compareArrays("tags", a.tags, b.tags);
+		if (diff == null) diff = compareArrays("dirty", a.dirty, b.dirty);
+		if (diff == null && !Arrays.equals(a.stamps, b.stamps)) diff = "cache stamps differ";
+		return diff;
+	}
+
+	static String compareMemories(DataMemory a, DataMemory b)
+	{
+		if (a.size != b.size) return "memory size " + a.size + " != " + b.size;
+
+		int address = a.findDifference(b);
+		if (address < 0) return null;
+
+		return String.format("memory[x%04X] x%02X != x%02X", address, a.read(address), b.read(address));
+	}
+
+	static String compareArrays(String name, int[] a, int[] b)
+	{
+		if (a.length != b.length) return name + " length " + a.length + " != " + b.length;
+
+		for (int i=0 ; i<a.length ; i++)
+		{
+			if (a[i] != b[i]) return String.format("%s[x%02X] x%02X != x%02X", name, i, a[i], b[i]);
+		}
+
+		return null;
+	}
+
+	private static String compareFields(Object a, Object b)
+	{
+		for (Field field : a.getClass().getFields())
+		{
+			try
+			{
+				Object valA = field.get(a);
+				Object valB = field.get(b);
+				if (valA == null ? valB != null : !valA.equals(valB)) return field.getName() + " " + valA + " != " + valB;
+			}
+			catch (IllegalAccessException iaE)
+			{
+				return field.getName() + " not accessible";
+			}
+		}
+
+		return null;
+	}
+}
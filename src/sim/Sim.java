@@ -6,6 +6,7 @@
 package sim;
 
 import sim.gui.*;
+import sim.trace.*;
 
 import java.io.*;
 import java.awt.*;
@@ -15,8 +16,16 @@ public class Sim implements GUIListener, Runnable
 {
 	private PrintStream log = System.out;
 
+	private static long historyBytes = History.DEFAULT_MAX_BYTES;
+	private static int memorySize = DataMemory.PAGE_WORDS;
+	private static PipelineModel model;	// Non-null to show a StagedProcessor of this layout
+	private static int issueWidth = 1;	// Its issue width
+	private static Netlist netlist;		// Non-null to run Processor's datapath from this netlist
+
 	private Instruction[] program;
 	private Processor processor;
+	private StagedProcessor staged;	// Non-null when showing a StagedProcessor, in place of processor
+	private TraceReplay replay;		// Non-null when showing a recorded trace
 
 	private SimFrame simFrame;
 
@@ -37,10 +46,31 @@ public class Sim implements GUIListener, Runnable
 			System.exit(1);
 		}
 
-		processor = new Processor(program);
-		processor.reset();
+		createFrame(asmFile);
+	}
 
-		simFrame = new SimFrame(this, program, processor, this, asmFile);
+	// Shows a trace recorded from the given program, rather than simulating it
+	public Sim(String asmFilename, String traceFilename)
+	{
+		this(asmFilename);
+
+		try
+		{
+			// Shown at the traced run's memory size
+			TraceReader reader = new TraceReader(new File(traceFilename));
+			processor.memorySize = reader.getMemorySize();
+			processor.reset();
+
+			replay = new TraceReplay(reader, processor, TraceReplay.DEFAULT_KEYFRAME_INTERVAL);
+		}
+		catch (IOException ioE)
+		{
+			log.println("ERR: Sim: Could not open trace (" + ioE.getMessage() + ")");
+			System.exit(1);
+		}
+
+		processor.setProfiling(false);
+		processor.history = null;
 		simFrame.update(processor, true);
 	}
 	
@@ -54,11 +84,41 @@ public class Sim implements GUIListener, Runnable
 			System.exit(1);
 		}
 
+		replay = null;
+		createFrame(asmFile);
+	}
+
+	private void createFrame(File asmFile)
+	{
+		if (model != null)
+		{
+			staged = Batch.createStaged(program, memorySize, model, issueWidth);
+			simFrame = new SimFrame(this, program, staged, this, asmFile);
+			updateFrame(true);
+			return;
+		}
+
 		processor = new Processor(program);
+		processor.memorySize = memorySize;
+		if (netlist != null) processor.setDatapath(netlist, true);
+		processor.setProfiling(true);
+		processor.history = new History(processor, History.DEFAULT_INTERVAL, historyBytes);
 		processor.reset();
 
 		simFrame = new SimFrame(this, program, processor, this, asmFile);
-		simFrame.update(processor, true);
+		updateFrame(true);
+	}
+
+	// Engine shown, which the display locks while drawing it
+	private Object getEngine()
+	{
+		return (staged != null) ? staged : processor;
+	}
+
+	private void updateFrame(boolean all)
+	{
+		if (staged != null) simFrame.update(staged);
+		else simFrame.update(processor, all);
 	}
 	
 	public void stepPressed()
@@ -91,27 +151,79 @@ public class Sim implements GUIListener, Runnable
 		reset();
 	}
 
+	public void stepBackPressed()
+	{
+		if (running) return;
+
+		if (replay != null) replay.seek(replay.getCycle() - 1);
+		else if (staged != null) goToStaged(staged.clockCount - 1);
+		else processor.history.stepBack();
+
+		updateFrame(true);
+	}
+
+	public void gotoPressed(long cycle)
+	{
+		if (running) return;
+
+		if (replay != null)
+		{
+			replay.seek(cycle);
+		}
+		else if (staged != null)
+		{
+			goToStaged(cycle);
+		}
+		else if (!processor.history.goTo(cycle))
+		{
+			// Further back than the history reaches, run again from reset
+			processor.reset();
+			while (processor.clockCount < cycle) processor.clock();
+		}
+
+		updateFrame(true);
+	}
+
+	// StagedProcessor keeps no history, so going back runs again from reset
+	private void goToStaged(long cycle)
+	{
+		if (cycle < staged.clockCount) staged.reset();
+		while (staged.clockCount < cycle) staged.clock();
+	}
+
+	// Moves on one cycle, returning false at the end of a replayed trace
+	private boolean advance()
+	{
+		if (replay != null) return replay.seek(replay.getCycle() + 1);
+
+		if (staged != null) staged.clock();
+		else processor.clock();
+		return true;
+	}
+
 	public void step()
 	{
-		processor.clock();
+		advance();
 
 		// Update GUI elements with latest processor states
-		simFrame.update(processor, true);
+		updateFrame(true);
 	}
 
 	public void reset()
 	{
-		processor.reset();
-		simFrame.update(processor, true);
+		if (replay != null) replay.seek(replay.getFirstCycle());
+		else if (staged != null) staged.reset();
+		else processor.reset();
+		updateFrame(true);
 	}
 
 	public void run()
 	{
 		while(running)
 		{
-			synchronized(processor)
+			synchronized(getEngine())
 			{
-				processor.clock();
+				if (!advance()) running = false;
 
 //				try
 //				{
@@ -119,7 +231,7 @@ public class Sim implements GUIListener, Runnable
 //				}
 //				catch (InterruptedException iE) {}
 			}
-			if (update) simFrame.update(processor, false);
+			if (update) updateFrame(false);
 
 			if (!nonStop)
 			{
@@ -128,13 +240,88 @@ public class Sim implements GUIListener, Runnable
 			}
 		}
 
-		simFrame.update(processor, true);
+		updateFrame(true);
 		simFrame.setState(SimFrame.State.NOT_RUNNING);
 	}
 
 
+	// Usage: java sim.Sim [-replay file.trace] [-historyMB N] [-memory N] [-stages model] [-width 1|2] [-netlist file] [file.asm]
 	public static void main(String[] args)
 	{	
-		new Sim("asmFiles/example.asm");
+		String asmFilename = "asmFiles/example.asm";
+		String traceFilename = null;
+		String stagesSpec = null;
+		String netlistFilename = null;
+
+		for (int a=0 ; a<args.length ; a++)
+		{
+			if (args[a].equals("-replay") && a+1 < args.length) traceFilename = args[++a];
+			else if (args[a].equals("-historyMB") && a+1 < args.length) historyBytes = Long.parseLong(args[++a]) * 1024 * 1024;
+			else if (args[a].equals("-memory") && a+1 < args.length) memorySize = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-stages") && a+1 < args.length) stagesSpec = args[++a];
+			else if (args[a].equals("-width") && a+1 < args.length) issueWidth = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-netlist") && a+1 < args.length) netlistFilename = args[++a];
+			else asmFilename = args[a];
+		}
+
+		if (!DataMemory.isValidSize(memorySize))
+		{
+			System.out.println("ERR: Sim: Memory size must be a power of two from " + DataMemory.PAGE_WORDS + " to " + DataMemory.MAX_WORDS + " words");
+			System.exit(1);
+		}
+
+		if (issueWidth != 1 && issueWidth != 2)
+		{
+			System.out.println("ERR: Sim: Issue width must be 1 or 2");
+			System.exit(1);
+		}
+
+		if (stagesSpec != null || issueWidth != 1)
+		{
+			try
+			{
+				model = (stagesSpec != null) ? PipelineModel.parse(stagesSpec) : PipelineModel.CLASSIC;
+			}
+			catch (IllegalArgumentException iaE)
+			{
+				System.out.println("ERR: Sim: " + iaE.getMessage());
+				System.exit(1);
+			}
+
+			// A trace records Processor's stages
+			if (traceFilename != null)
+			{
+				System.out.println("ERR: Sim: -stages and -width cannot show a trace");
+				System.exit(1);
+			}
+		}
+
+		if (netlistFilename != null)
+		{
+			try
+			{
+				netlist = Netlist.load(new File(netlistFilename));
+			}
+			catch (IOException ioE)
+			{
+				System.out.println("ERR: Sim: Could not read netlist " + netlistFilename);
+				System.exit(1);
+			}
+			catch (IllegalArgumentException iaE)
+			{
+				System.out.println("ERR: Sim: " + iaE.getMessage());
+				System.exit(1);
+			}
+
+			// The netlist is Processor's datapath
+			if (model != null)
+			{
+				System.out.println("ERR: Sim: -netlist cannot be used with -stages or -width");
+				System.exit(1);
+			}
+		}
+
+		if (traceFilename != null) new Sim(asmFilename, traceFilename);
+		else new Sim(asmFilename);
 	}
 }
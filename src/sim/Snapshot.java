@@ -0,0 +1,45 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Copy of a Processor's state at a clock edge: the pipeline registers and
+ * combinatorial signals, the controls, the stage addresses and counts, the
+ * profile, the branch predictor tables and cache tags, and optionally the
+ * register file and data memory. Snapshots are filled by Processor.save()
+ * and reused, so taking one regularly does not allocate.
+ */
+public class Snapshot
+{
+	public Processor.Signals signals;
+	public Processor.Controls controls;
+
+	public int[] registerFile;		// Null when saved without memories
+	public DataMemory memory;
+
+	public int feInsnAdd;
+	public int deInsnAdd;
+	public int exInsnAdd;
+	public int maInsnAdd;
+	public int wbInsnAdd;
+
+	public long clockCount;
+	public long instructionCount;
+
+	public PerfCounters counters = new PerfCounters();
+	public Profiler profiler;			// Null when the processor was not profiling
+	public BranchPredictor predictor;	// Null when the processor had none
+	public Cache dataCache;				// Null when the processor had none
+	public Cache instructionCache;
+
+	public Snapshot(Processor processor)
+	{
+		signals = processor.new Signals();
+		controls = processor.new Controls();
+	}
+
+	public boolean hasMemories()
+	{
+		return registerFile != null;
+	}
+}
@@ -0,0 +1,447 @@
+// Microprocessor Simulator
+
+package sim;
+
+/**
+ * Cycle-level pipeline of any depth, laid out by a PipelineModel. Where
+ * Processor models the signals of its five fixed stages, this models only
+ * which instruction each stage holds, and takes its forwarding, interlocks
+ * and flushes from the model's stage metadata, so pipelines of different
+ * depths can be compared on the same programs.
+ *
+ * Fetch is sequential. An instruction waits in the stage its operands are
+ * taken in until each is ready, leaving a bubble behind it, and is executed
+ * as it leaves the last execute stage, which is where the register file and
+ * data memory are updated. The stages after that carry it on only for
+ * timing. Unlike Processor, stalls come only from real dependences: with the
+ * CLASSIC model, cycle counts match Processor's but for the load stalls
+ * Processor takes behind every load.
+ *
+ * With an issue width of 2 the pipeline is in-order dual-issue: each stage
+ * holds a pair of instructions, two consecutive words are fetched each cycle,
+ * and a pair is issued together through duplicated execute lanes, which
+ * takes a register file with four read and two write ports. The pair in the
+ * last decode stage must satisfy the pairing rules: the second instruction
+ * must not read a register the first writes, and there may be at most one
+ * memory unit instruction (load, store or page) and at most one branch. A
+ * branch may use the flags set by the first instruction of its pair, as a
+ * compare and branch are commonly paired. A pair breaking a rule splits: the
+ * first instruction issues alone, and the second follows a cycle later on its
+ * own while the stages before it wait. Instructions of a pair hold together
+ * on an operand, and a taken jump in the first slot flushes the second.
+ *
+ * Instructions are executed by a FunctionalEngine, so the architectural
+ * results are those of the other engines by construction.
+ */
+public class StagedProcessor implements Engine
+{
+	// Reasons a pair in the last decode stage must split, see splitReason
+	public static final int PAIR_OK = 0;
+	public static final int PAIR_RAW = 1;			// Second reads a register the first writes
+	public static final int PAIR_MEMORY = 2;		// Both use the memory unit
+	public static final int PAIR_BRANCH = 3;		// Both are branches
+
+	public final PipelineModel model;
+	public final int width;				// Instructions fetched and issued per cycle, 1 or 2
+
+	// Options
+	public boolean enableRegForwarding = true;
+
+	public int memorySize = DataMemory.PAGE_WORDS;	// Data memory words, taking effect on reset
+
+	// Stage contents by stage, from fetch to writeback, then by issue slot,
+	// the older instruction first. A slot left empty by a stall, split or
+	// flush keeps the address it was last given, as Processor's stages do.
+	public int[][] stageAddress;
+	public int[][] stageValid;
+	public int fetchPC;					// Address fetched next
+
+	// Hazards of the current cycle, from settle()
+	public int holdStage;				// Stage held waiting on an operand, -1 for none
+	public int holdOnLoad;				// 1 if the operand awaited is a loaded word
+	public int forwardMask;				// Stages forwarding an operand, one bit each
+	public int splitReason;				// PAIR_OK, or why the pair in the last decode stage splits
+
+	public long clockCount;
+	public long instructionCount;		// Instructions that have left the last execute stage
+
+	// Counts as Processor's, with the load stalls only those for real
+	// dependences. The forward counts are in forwards instead.
+	public PerfCounters counters = new PerfCounters();
+	public long operandStallCycles;		// Cycles held waiting on any other result
+	public long[] forwards;				// Operands forwarded, by source stage
+
+	// Issue counts, of the cycles the last decode stage moves on
+	public long pairsIssued;			// Both slots issued together
+	public long singlesIssued;			// One instruction issued, from a split or a lone slot
+	public long[] splits = new long[4];	// Splits by reason, indexed by PAIR_RAW to PAIR_BRANCH
+
+	private final DecodedProgram decoded;
+	private final FunctionalEngine functional;
+
+	// Per address, with one more entry for the zero words past the end
+	private final int[] opCode;
+	private final int[] destination;
+	private final int[] sourceA;
+	private final int[] sourceB;
+	private final boolean[] load;
+	private final boolean[] store;
+	private final boolean[] memoryUnit;
+
+	public StagedProcessor(Instruction[] program, PipelineModel model)
+	{
+		this(program, model, 1);
+	}
+
+	public StagedProcessor(Instruction[] program, PipelineModel model, int width)
+	{
+		if (width != 1 && width != 2) throw new IllegalArgumentException("StagedProcessor: Issue width must be 1 or 2, not " + width);
+
+		this.model = model;
+		this.width = width;
+
+		decoded = new DecodedProgram(program);
+		functional = new FunctionalEngine(decoded);
+
+		int length = decoded.length;
+		opCode = new int[length + 1];
+		destination = new int[length + 1];
+		sourceA = new int[length + 1];
+		sourceB = new int[length + 1];
+		load = new boolean[length + 1];
+		store = new boolean[length + 1];
+		memoryUnit = new boolean[length + 1];
+
+		for (int pc=0 ; pc<=length ; pc++)
+		{
+			int op = (pc < length) ? decoded.opCode[pc] : 0;
+			int rAddA = (pc < length) ? decoded.rAddA[pc] : 0;
+			int rAddB = (pc < length) ? decoded.rAddB[pc] : 0;
+
+			opCode[pc] = op;
+			destination[pc] = ControlUnit.getDestination(op, rAddA);
+			sourceA[pc] = ControlUnit.readsA(op) ? rAddA : -1;
+			sourceB[pc] = ControlUnit.readsB(op) ? rAddB : -1;
+			load[pc] = ControlUnit.isLoad(op);
+			store[pc] = ControlUnit.isStore(op);
+			memoryUnit[pc] = load[pc] || store[pc] || ControlUnit.isPage(op);
+		}
+
+		reset();
+	}
+
+	public void reset()
+	{
+		int stages = model.getStageCount();
+
+		// As Processor starts: address 0 onwards in fetch, empty stages behind
+		stageAddress = new int[stages][width];
+		stageValid = new int[stages][width];
+		for (int k=0 ; k<width ; k++)
+		{
+			stageAddress[0][k] = k;
+			stageValid[0][k] = 1;
+		}
+		fetchPC = width;
+
+		functional.memorySize = memorySize;
+		functional.reset();
+
+		clockCount = 0;
+		instructionCount = 0;
+		counters.clear();
+		operandStallCycles = 0;
+		forwards = new long[stages];
+		pairsIssued = 0;
+		singlesIssued = 0;
+		splits = new long[4];
+
+		settle();
+	}
+
+	public void clock()
+	{
+		clockEdge();
+		settle();
+
+		clockCount ++;
+	}
+
+	// Counts the cycle, executes the instructions leaving the last execute
+	// stage and moves every stage not held on by one
+	private void clockEdge()
+	{
+		int decode = model.decodeStage;
+		int resolve = model.resolveStage;
+		int stages = stageAddress.length;
+
+		counters.cycles ++;
+		if (holdStage >= 0)
+		{
+			if (holdOnLoad == 1) counters.loadStallCycles ++;
+			else operandStallCycles ++;
+		}
+
+		if (holdStage < model.operandStage && isOccupied(model.operandStage))
+		{
+			for (int s=0 ; s<stages ; s++) if ((forwardMask & (1 << s)) != 0) forwards[s] ++;
+		}
+
+		boolean split = (holdStage < 0 && splitReason != PAIR_OK);
+		if (holdStage < 0)
+		{
+			int issued = 0;
+			for (int k=0 ; k<width ; k++) issued += stageValid[decode][k];
+
+			if (split)
+			{
+				singlesIssued ++;
+				splits[splitReason] ++;
+			}
+			else if (issued == 2) pairsIssued ++;
+			else if (issued == 1) singlesIssued ++;
+		}
+
+		int takenSlot = -1;
+		int nextPC = 0;
+
+		if (holdStage < resolve)
+		{
+			for (int k=0 ; k<width && takenSlot < 0 ; k++)
+			{
+				if (stageValid[resolve][k] == 0) continue;
+
+				int pc = stageAddress[resolve][k];
+				int entry = Math.min(pc, decoded.length);
+
+				boolean taken = ControlUnit.isTaken(opCode[entry], functional.flagZ);
+				nextPC = execute(pc);
+
+				instructionCount ++;
+				counters.retired ++;
+				counters.opcodeRetired[opCode[entry]] ++;
+
+				if (taken)
+				{
+					counters.branchesTaken ++;
+					takenSlot = k;
+				}
+				else if (ControlUnit.isBranch(opCode[entry])) counters.branchesNotTaken ++;
+
+				if (store[entry]) counters.memoryWrites ++;
+				else if (load[entry]) counters.memoryReads ++;
+			}
+		}
+
+		// Stages behind a hold keep their instructions, the one after it gets a
+		// bubble. A split moves only the first of the pair on, leaving the
+		// second in the first slot of the decode stage and the stages before it.
+		int keep = split ? decode : Math.max(holdStage, 0);
+		for (int s=stages-1 ; s>keep ; s--)
+		{
+			for (int k=0 ; k<width ; k++)
+			{
+				stageAddress[s][k] = stageAddress[s-1][k];
+				stageValid[s][k] = (s-1 == holdStage) ? 0 : stageValid[s-1][k];
+			}
+		}
+
+		if (split)
+		{
+			stageValid[decode+1][1] = 0;
+			stageAddress[decode][0] = stageAddress[decode][1];
+			stageValid[decode][0] = stageValid[decode][1];
+			stageValid[decode][1] = 0;
+		}
+
+		if (takenSlot >= 0)
+		{
+			// The instructions fetched after the jump are now up to the resolve
+			// stage, and after it in its own pair
+			for (int s=1 ; s<=resolve ; s++)
+			{
+				for (int k=0 ; k<width ; k++) stageValid[s][k] = 0;
+			}
+			counters.flushedInstructions += resolve * width;
+
+			for (int k=takenSlot+1 ; k<width ; k++)
+			{
+				if (resolve+1 < stages) stageValid[resolve+1][k] = 0;
+				counters.flushedInstructions ++;
+			}
+
+			fetchPC = nextPC;
+		}
+
+		if ((holdStage < 0 && !split) || takenSlot >= 0)
+		{
+			for (int k=0 ; k<width ; k++)
+			{
+				stageAddress[0][k] = fetchPC;
+				stageValid[0][k] = 1;
+				fetchPC = (fetchPC + 1) & 0xFFF;
+			}
+		}
+	}
+
+	// Works out the hazards of the cycle the stages now describe
+	private void settle()
+	{
+		holdStage = -1;
+		holdOnLoad = 0;
+		forwardMask = 0;
+		splitReason = PAIR_OK;
+
+		int stage = enableRegForwarding ? model.operandStage : model.decodeStage;
+		for (int k=0 ; k<width ; k++)
+		{
+			if (stageValid[stage][k] == 0) continue;
+
+			int entry = Math.min(stageAddress[stage][k], decoded.length);
+			checkOperand(stage, sourceA[entry]);
+			checkOperand(stage, sourceB[entry]);
+		}
+
+		int decode = model.decodeStage;
+		if (width == 2 && stageValid[decode][0] == 1 && stageValid[decode][1] == 1)
+		{
+			int first = Math.min(stageAddress[decode][0], decoded.length);
+			int second = Math.min(stageAddress[decode][1], decoded.length);
+
+			if (destination[first] >= 0 && (sourceA[second] == destination[first] || sourceB[second] == destination[first])) splitReason = PAIR_RAW;
+			else if (memoryUnit[first] && memoryUnit[second]) splitReason = PAIR_MEMORY;
+			else if (ControlUnit.isBranch(opCode[first]) && ControlUnit.isBranch(opCode[second])) splitReason = PAIR_BRANCH;
+		}
+	}
+
+	// Holds the stage if the nearest instruction ahead writing the register
+	// does not have its value ready, or notes it forwarding if it does. The
+	// other instruction of the stage's pair was checked against it on pairing.
+	private void checkOperand(int stage, int register)
+	{
+		if (register < 0) return;
+
+		for (int s=stage+1 ; s<stageAddress.length ; s++)
+		{
+			for (int k=width-1 ; k>=0 ; k--)
+			{
+				if (stageValid[s][k] == 0) continue;
+
+				int entry = Math.min(stageAddress[s][k], decoded.length);
+				if (destination[entry] != register) continue;
+
+				if (!enableRegForwarding)
+				{
+					if (s < model.writebackStage) holdStage = stage;
+				}
+				else if (s > (load[entry] ? model.memoryStage : model.resolveStage))
+				{
+					forwardMask |= 1 << s;
+				}
+				else
+				{
+					holdStage = stage;
+					if (load[entry]) holdOnLoad = 1;
+				}
+
+				return;
+			}
+		}
+	}
+
+	// True if any slot of the stage holds an instruction
+	public boolean isOccupied(int stage)
+	{
+		for (int k=0 ; k<width ; k++) if (stageValid[stage][k] == 1) return true;
+		return false;
+	}
+
+	// Executes the instruction at pc, returning the address of the next. A
+	// jmp to itself repeats, and the zero words past the end change nothing.
+	private int execute(int pc)
+	{
+		if (pc >= decoded.length) return (pc + 1) & 0xFFF;
+
+		functional.pc = pc;
+		functional.run(1);
+		return functional.pc;
+	}
+
+	public void step()
+	{
+		clock();
+	}
+
+	public boolean run(long maxSteps)
+	{
+		for (long s=0 ; s<maxSteps ; s++)
+		{
+			if (isHalted()) return true;
+			clock();
+		}
+
+		return isHalted();
+	}
+
+	// As Processor: the oldest instruction in the last execute stage is a jmp
+	// to its own address with no register or memory writes left in the stages
+	// after it, or every stage is past the end
+	public boolean isHalted()
+	{
+		boolean pastEnd = true;
+		for (int[] addresses : stageAddress)
+		{
+			for (int address : addresses) if (address < decoded.length) pastEnd = false;
+		}
+		if (pastEnd) return true;
+
+		int resolve = model.resolveStage;
+		int slot = (stageValid[resolve][0] == 1) ? 0 : width - 1;
+		if (stageValid[resolve][slot] == 0) return false;
+
+		for (int s=resolve+1 ; s<stageAddress.length ; s++)
+		{
+			for (int k=0 ; k<width ; k++)
+			{
+				if (stageValid[s][k] == 0) continue;
+
+				int entry = Math.min(stageAddress[s][k], decoded.length);
+				if (destination[entry] >= 0 || (store[entry] && s <= model.memoryStage)) return false;
+			}
+		}
+
+		int pc = stageAddress[resolve][slot];
+		return (pc < decoded.length && decoded.type[pc] == Instruction.InstructionType.JMPi.ordinal() && decoded.imm[pc] == pc);
+	}
+
+	public int[] getRegisterFile()
+	{
+		return functional.getRegisterFile();
+	}
+
+	public int[] getDataMemory()
+	{
+		return functional.getDataMemory();
+	}
+
+	public DataMemory getMemory()
+	{
+		return functional.getMemory();
+	}
+
+	public long getCycleCount()
+	{
+		return clockCount;
+	}
+
+	public long getInstructionCount()
+	{
+		return instructionCount;
+	}
+
+	// Copy of the performance counters, unaffected by later clocks
+	public PerfCounters getCounters()
+	{
+		return counters.snapshot();
+	}
+}
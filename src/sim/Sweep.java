@@ -0,0 +1,358 @@
+// Microprocessor Simulator
+
+package sim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Design-space sweep. Runs every combination of a set of programs and a grid
+ * of Processor options concurrently, each run with its own Processor, and
+ * writes one result row per run as CSV or JSON.
+ *
+ * A run is correct when its architectural state matches the functional engine
+ * executing the same program: at the halt if the pipeline halted, otherwise
+ * after the same number of instructions.
+ *
+ * With -from, runs are also forked from a checkpoint file, each restoring the
+ * saved state with its own options, so a warmed-up prefix is simulated once
+ * rather than per run. Counts are then reported from the checkpoint on.
+ *
+ * With -predictor, the grid also covers the given BranchPredictor schemes,
+ * as a comma-separated list that may include none.
+ *
+ * Usage: java sim.Sweep [-cycles N] [-threads N] [-json] [-out file]
+ *                       [-forward on|off|both] [-flush on|off|both] [-stall on|off|both]
+ *                       [-predictor none,not_taken,backward_taken,bimodal,gshare]
+ *                       [-from file.ckpt ...] [file.asm ...]
+ */
+public class Sweep
+{
+	private static final long DEFAULT_CYCLES = 1000000;
+
+	private static PrintStream log = System.err;
+
+	public static class Config
+	{
+		public boolean enableRegForwarding;
+		public boolean enableJumpFlush;
+		public boolean enableLoadStall;
+		public BranchPredictor.Scheme predictor;		// Null for none
+
+		public Config(boolean enableRegForwarding, boolean enableJumpFlush, boolean enableLoadStall)
+		{
+			this(enableRegForwarding, enableJumpFlush, enableLoadStall, null);
+		}
+
+		public Config(boolean enableRegForwarding, boolean enableJumpFlush, boolean enableLoadStall, BranchPredictor.Scheme predictor)
+		{
+			this.enableRegForwarding = enableRegForwarding;
+			this.enableJumpFlush = enableJumpFlush;
+			this.enableLoadStall = enableLoadStall;
+			this.predictor = predictor;
+		}
+
+		public void applyTo(Processor processor)
+		{
+			processor.enableRegForwarding = enableRegForwarding;
+			processor.enableJumpFlush = enableJumpFlush;
+			processor.enableLoadStall = enableLoadStall;
+			processor.predictor = (predictor == null) ? null : new BranchPredictor(predictor);
+		}
+
+		public String getPredictorName()
+		{
+			return (predictor == null) ? "none" : predictor.name().toLowerCase();
+		}
+	}
+
+	public static class Result
+	{
+		public String program;
+		public Config config;
+
+		public boolean halted;
+		public long cycles;
+		public long instructions;
+		public long stallCycles;
+		public long flushedInstructions;
+		public long forwards;
+		public long mispredictions;
+		public boolean correct;
+
+		public double getCPI()
+		{
+			return (instructions == 0) ? 0.0 : (double) cycles / instructions;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		long maxCycles = DEFAULT_CYCLES;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean json = false;
+		String outFilename = null;
+		boolean[] forwardValues = {true, false};
+		boolean[] flushValues = {true, false};
+		boolean[] stallValues = {true, false};
+		BranchPredictor.Scheme[] predictorValues = {null};
+		ArrayList<File> fileList = new ArrayList<File>();
+		ArrayList<File> checkpointList = new ArrayList<File>();
+
+		for (int a=0 ; a<args.length ; a++)
+		{
+			if (args[a].equals("-cycles") && a+1 < args.length) maxCycles = Long.parseLong(args[++a]);
+			else if (args[a].equals("-threads") && a+1 < args.length) threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-json")) json = true;
+			else if (args[a].equals("-out") && a+1 < args.length) outFilename = args[++a];
+			else if (args[a].equals("-forward") && a+1 < args.length) forwardValues = parseValues(args[++a]);
+			else if (args[a].equals("-flush") && a+1 < args.length) flushValues = parseValues(args[++a]);
+			else if (args[a].equals("-stall") && a+1 < args.length) stallValues = parseValues(args[++a]);
+			else if (args[a].equals("-predictor") && a+1 < args.length) predictorValues = parsePredictors(args[++a]);
+			else if (args[a].equals("-from") && a+1 < args.length) checkpointList.add(new File(args[++a]));
+			else if (args[a].startsWith("-")) usage();
+			else fileList.add(new File(args[a]));
+		}
+
+		if (fileList.size() + checkpointList.size() == 0 || forwardValues == null || flushValues == null || stallValues == null || predictorValues == null) usage();
+
+		// Assemble each program once, runs share the Instruction arrays
+		LinkedHashMap<String, Instruction[]> programs = new LinkedHashMap<String, Instruction[]>();
+		for (File file : fileList)
+		{
+			Instruction[] program = Assembler.assemble(file, log, false);
+			if (program == null)
+			{
+				log.println("ERR: Sweep: Could not assemble " + file);
+				System.exit(1);
+			}
+			programs.put(file.getName(), program);
+		}
+
+		// Load each checkpoint once, runs restore their own copy of the state
+		HashMap<String, Snapshot> starts = new HashMap<String, Snapshot>();
+		for (File file : checkpointList)
+		{
+			try
+			{
+				Processor processor = CheckpointFile.load(file);
+				Snapshot start = new Snapshot(processor);
+				processor.save(start, true);
+
+				programs.put(file.getName(), processor.program);
+				starts.put(file.getName(), start);
+			}
+			catch (IOException ioE)
+			{
+				log.println("ERR: Sweep: Could not load " + file + " (" + ioE.getMessage() + ")");
+				System.exit(1);
+			}
+		}
+
+		ArrayList<Config> grid = new ArrayList<Config>();
+		for (boolean forward : forwardValues)
+		{
+			for (boolean flush : flushValues)
+			{
+				for (boolean stall : stallValues)
+				{
+					for (BranchPredictor.Scheme predictor : predictorValues) grid.add(new Config(forward, flush, stall, predictor));
+				}
+			}
+		}
+
+		long startTime = System.nanoTime();
+		List<Result> results = sweep(programs, starts, grid, maxCycles, threads);
+		long wallTime = System.nanoTime() - startTime;
+
+		PrintStream out = System.out;
+		if (outFilename != null)
+		{
+			try
+			{
+				out = new PrintStream(new FileOutputStream(outFilename));
+			}
+			catch (FileNotFoundException fnfE)
+			{
+				log.println("ERR: Sweep: Could not open " + outFilename);
+				System.exit(1);
+			}
+		}
+
+		if (json) writeJSON(out, results);
+		else writeCSV(out, results);
+		out.flush();
+		if (out != System.out) out.close();
+
+		log.printf("Sweep: %d runs on %d threads in %.3f s%n", results.size(), threads, wallTime / 1e9);
+	}
+
+	public static List<Result> sweep(Map<String, Instruction[]> programs, List<Config> grid, long maxCycles, int threads)
+	{
+		return sweep(programs, Collections.<String, Snapshot>emptyMap(), grid, maxCycles, threads);
+	}
+
+	// Runs every program against every configuration on a pool of the given
+	// size, from reset or from the program's entry in starts. Results are
+	// returned in program then grid order.
+	public static List<Result> sweep(Map<String, Instruction[]> programs, final Map<String, Snapshot> starts, List<Config> grid, final long maxCycles, int threads)
+	{
+		ArrayList<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+
+		for (final Map.Entry<String, Instruction[]> entry : programs.entrySet())
+		{
+			for (final Config config : grid)
+			{
+				tasks.add(new Callable<Result>()
+				{
+					public Result call()
+					{
+						return run(entry.getKey(), entry.getValue(), starts.get(entry.getKey()), config, maxCycles);
+					}
+				});
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ArrayList<Result> results = new ArrayList<Result>();
+
+		try
+		{
+			for (Future<Result> future : pool.invokeAll(tasks)) results.add(future.get());
+		}
+		catch (InterruptedException iE)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Sweep: Interrupted", iE);
+		}
+		catch (ExecutionException eE)
+		{
+			throw new IllegalStateException("Sweep: Run failed", eE.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		return results;
+	}
+
+	public static Result run(String name, Instruction[] program, Config config, long maxCycles)
+	{
+		return run(name, program, null, config, maxCycles);
+	}
+
+	// Runs one configuration for up to maxCycles, from reset or, if start is
+	// not null, from the saved state
+	public static Result run(String name, Instruction[] program, Snapshot start, Config config, long maxCycles)
+	{
+		Processor processor = new Processor(program);
+		processor.enableDoubleBuffer = true;
+		config.applyTo(processor);
+
+		if (start != null)
+		{
+			// A paged checkpoint needs memory of its own size
+			processor.memorySize = start.memory.size;
+			processor.reset();
+			processor.restore(start);
+		}
+
+		Result result = new Result();
+		result.program = name;
+		result.config = config;
+
+		PerfCounters before = processor.getCounters();
+		result.halted = processor.run(maxCycles);
+
+		PerfCounters counters = processor.getCounters();
+		result.cycles = counters.cycles - before.cycles;
+		result.instructions = counters.retired - before.retired;
+		result.stallCycles = counters.loadStallCycles - before.loadStallCycles;
+		result.flushedInstructions = counters.flushedInstructions - before.flushedInstructions;
+		result.forwards = counters.getForwards() - before.getForwards();
+		if (processor.predictor != null) result.mispredictions = processor.predictor.mispredictions - ((start == null || start.predictor == null) ? 0 : start.predictor.mispredictions);
+
+		// Reference results from the functional engine, which runs any prefix
+		// before the start again
+		FunctionalEngine reference = new FunctionalEngine(program);
+		reference.memorySize = processor.memory.size;
+		reference.reset();
+		boolean referenceHalted = reference.run(result.halted ? processor.instructionCount + maxCycles : processor.instructionCount);
+
+		int[] registerFile = new int[processor.registerFile.length];
+		DataMemory memory = new DataMemory(processor.memory.size);
+		processor.getArchitecturalState(registerFile, memory);
+
+		result.correct = (result.halted == referenceHalted)
+			&& Arrays.equals(registerFile, reference.registerFile)
+			&& memory.findDifference(reference.memory) < 0;
+
+		return result;
+	}
+
+	public static void writeCSV(PrintStream out, List<Result> results)
+	{
+		out.println("program,forwarding,jumpFlush,loadStall,predictor,halted,cycles,instructions,cpi,stallCycles,flushedInstructions,forwards,mispredictions,correct");
+
+		for (Result r : results)
+		{
+			out.printf(Locale.ROOT, "%s,%b,%b,%b,%s,%b,%d,%d,%.4f,%d,%d,%d,%d,%b%n", r.program,
+				r.config.enableRegForwarding, r.config.enableJumpFlush, r.config.enableLoadStall, r.config.getPredictorName(),
+				r.halted, r.cycles, r.instructions, r.getCPI(), r.stallCycles, r.flushedInstructions, r.forwards, r.mispredictions, r.correct);
+		}
+	}
+
+	public static void writeJSON(PrintStream out, List<Result> results)
+	{
+		out.println("[");
+
+		for (int i=0 ; i<results.size() ; i++)
+		{
+			Result r = results.get(i);
+			out.printf(Locale.ROOT, "  {\"program\": \"%s\", \"forwarding\": %b, \"jumpFlush\": %b, \"loadStall\": %b, \"predictor\": \"%s\", "
+				+ "\"halted\": %b, \"cycles\": %d, \"instructions\": %d, \"cpi\": %.4f, "
+				+ "\"stallCycles\": %d, \"flushedInstructions\": %d, \"forwards\": %d, \"mispredictions\": %d, \"correct\": %b}%s%n",
+				r.program.replace("\\", "\\\\").replace("\"", "\\\""),
+				r.config.enableRegForwarding, r.config.enableJumpFlush, r.config.enableLoadStall, r.config.getPredictorName(),
+				r.halted, r.cycles, r.instructions, r.getCPI(), r.stallCycles, r.flushedInstructions, r.forwards, r.mispredictions, r.correct,
+				(i < results.size()-1) ? "," : "");
+		}
+
+		out.println("]");
+	}
+
+	private static boolean[] parseValues(String str)
+	{
+		if (str.equals("on")) return new boolean[] {true};
+		if (str.equals("off")) return new boolean[] {false};
+		if (str.equals("both")) return new boolean[] {true, false};
+		return null;
+	}
+
+	// Comma-separated scheme names, none for no predictor
+	private static BranchPredictor.Scheme[] parsePredictors(String str)
+	{
+		String[] names = str.split(",");
+		BranchPredictor.Scheme[] schemes = new BranchPredictor.Scheme[names.length];
+
+		for (int i=0 ; i<names.length ; i++)
+		{
+			if (names[i].equals("none")) continue;
+			schemes[i] = BranchPredictor.parseScheme(names[i]);
+			if (schemes[i] == null) return null;
+		}
+
+		return schemes;
+	}
+
+	private static void usage()
+	{
+		log.println("Usage: java sim.Sweep [-cycles N] [-threads N] [-json] [-out file]");
+		log.println("                      [-forward on|off|both] [-flush on|off|both] [-stall on|off|both]");
+		log.println("                      [-predictor none,not_taken,backward_taken,bimodal,gshare]");
+		log.println("                      [-from file.ckpt ...] [file.asm ...]");
+		System.exit(1);
+	}
+}
@@ -13,6 +13,7 @@ import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JPanel;
 import javax.swing.JSpinner;
+import javax.swing.JTextField;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.border.TitledBorder;
 
@@ -20,11 +21,14 @@ public class ControlPanel extends JPanel implements ActionListener
 {
 	private JButton editButton;
 	private JButton stepButton;
+	private JButton stepBackButton;
 	private JButton resetButton;
 	private JButton runButton;
 	private JSpinner stepsSpinner;
 	private JCheckBox runSelect;
 	private JCheckBox updateSelect;
+	private JTextField gotoField;
+	private JButton gotoButton;
 
 	private SpinnerNumberModel numberModel;
 
@@ -50,6 +54,11 @@ public class ControlPanel extends JPanel implements ActionListener
 		editButton.setPreferredSize(buttonSize);
 		add(editButton);
 
+		stepBackButton = new JButton("Back");
+		stepBackButton.addActionListener(this);
+		stepBackButton.setPreferredSize(buttonSize);
+		add(stepBackButton);
+
 		stepButton = new JButton("Step");
 		stepButton.addActionListener(this);
 		stepButton.setPreferredSize(buttonSize);
@@ -79,6 +88,15 @@ public class ControlPanel extends JPanel implements ActionListener
 		stepsSpinner = new JSpinner(numberModel);
 		stepsSpinner.setValue(100);
 		add(stepsSpinner);
+
+		gotoField = new JTextField("0", 8);
+		gotoField.addActionListener(this);
+		add(gotoField);
+
+		gotoButton = new JButton("Go to");
+		gotoButton.addActionListener(this);
+		gotoButton.setPreferredSize(buttonSize);
+		add(gotoButton);
 	}
 
 	public void actionPerformed(ActionEvent aE)
@@ -86,6 +104,7 @@ public class ControlPanel extends JPanel implements ActionListener
 		Object o = aE.getSource();
 
 		if (o == stepButton) listener.stepPressed();
+		else if (o == stepBackButton) listener.stepBackPressed();
 		else if (o == resetButton) listener.resetPressed();
 		else if (o == runButton)
 		{
@@ -97,6 +116,17 @@ public class ControlPanel extends JPanel implements ActionListener
 			if (runSelect.isSelected()) stepsSpinner.setEnabled(false);
 			else stepsSpinner.setEnabled(true);
 		}
+		else if (o == gotoButton || o == gotoField)
+		{
+			try
+			{
+				listener.gotoPressed(Long.parseLong(gotoField.getText().trim()));
+			}
+			catch (NumberFormatException nfE)
+			{
+				gotoField.selectAll();
+			}
+		}
 		else if (o == editButton) {
 			new SourceEditor(this.mSimFrame, this.mFilePath);
 		}
@@ -107,21 +137,27 @@ public class ControlPanel extends JPanel implements ActionListener
 		if (running)
 		{
 			stepButton.setEnabled(false);
+			stepBackButton.setEnabled(false);
 			resetButton.setEnabled(false);
 			stepsSpinner.setEnabled(false);
 			runSelect.setEnabled(false);
 			updateSelect.setEnabled(false);
+			gotoField.setEnabled(false);
+			gotoButton.setEnabled(false);
 
 			runButton.setText("Stop");
 		}
 		else
 		{
 			stepButton.setEnabled(true);
+			stepBackButton.setEnabled(true);
 			resetButton.setEnabled(true);
 			if (runSelect.isSelected()) stepsSpinner.setEnabled(false);
 			else stepsSpinner.setEnabled(true);
 			runSelect.setEnabled(true);
 			updateSelect.setEnabled(true);
+			gotoField.setEnabled(true);
+			gotoButton.setEnabled(true);
 
 			runButton.setText("Run");
 		}
@@ -0,0 +1,147 @@
+// Microprocessor Simulator
+
+package sim.gui;
+
+import sim.*;
+
+import java.awt.*;
+import javax.swing.*;
+import javax.swing.border.*;
+import javax.swing.table.*;
+
+public class CountersPanel extends JPanel
+{
+	private final static String[] SUMMARY_NAMES = {"Cycles", "Retired", "CPI", "Load Stall Cycles", "Cache Stall Cycles", "Fetch Stall Cycles", "Flushed Insns",
+		"Fwd A from MA", "Fwd A from WB", "Fwd B from MA", "Fwd B from WB",
+		"Branches Taken", "Branches Not Taken", "Memory Reads", "Memory Writes"};
+
+	private final static Instruction.InstructionType[] TYPES = Instruction.InstructionType.values();
+
+	private SummaryModel summaryModel;
+	private OpcodeModel opcodeModel;
+
+	private PerfCounters counters;
+
+	public CountersPanel()
+	{
+		setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
+
+		summaryModel = new SummaryModel();
+		add(createTablePanel(new JTable(summaryModel), "Counters", SUMMARY_NAMES.length));
+
+		opcodeModel = new OpcodeModel();
+		add(createTablePanel(new JTable(opcodeModel), "Retired by Opcode", SUMMARY_NAMES.length));
+	}
+
+	private JPanel createTablePanel(JTable table, String title, int rows)
+	{
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.setBorder(new TitledBorder(title));
+
+		JScrollPane scrollPane = new JScrollPane(table);
+		scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+		panel.add(scrollPane, BorderLayout.CENTER);
+
+		table.setDefaultRenderer(table.getColumnClass(0), new DataRenderer());
+
+		Component comp = table.getDefaultRenderer(table.getColumnClass(0)).getTableCellRendererComponent(table, "STRING", false, false, 0, 0);
+		int cellHeight = comp.getPreferredSize().height - 1; // Subtract one to allow for overlap
+		table.setPreferredScrollableViewportSize(new Dimension(250, cellHeight * rows));
+
+		return panel;
+	}
+
+	class DataRenderer extends DefaultTableCellRenderer
+	{
+		public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column)
+		{
+			Component comp = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+			if (column == 0) comp.setFont(GUIUtils.LABEL_FONT);
+			else comp.setFont(GUIUtils.VAR_FONT);
+			return comp;
+		}
+	}
+
+	class SummaryModel extends AbstractTableModel
+	{
+		public int getColumnCount()
+		{
+			return 2;
+		}
+		public int getRowCount()
+		{
+			return SUMMARY_NAMES.length;
+		}
+		public String getColumnName(int col)
+		{
+			return (col == 0) ? "Name" : "Value";
+		}
+		public Object getValueAt(int row, int col)
+		{
+			if (col == 0) return SUMMARY_NAMES[row];
+			if (counters == null) return "?";
+
+			switch (row)
+			{
+				case 0 : return Long.toString(counters.cycles);
+				case 1 : return Long.toString(counters.retired);
+				case 2 : return String.format("%.3f", counters.getCPI());
+				case 3 : return Long.toString(counters.loadStallCycles);
+				case 4 : return Long.toString(counters.dataCacheStallCycles);
+				case 5 : return Long.toString(counters.fetchStallCycles);
+				case 6 : return Long.toString(counters.flushedInstructions);
+				case 7 : return Long.toString(counters.forwardAFromMA);
+				case 8 : return Long.toString(counters.forwardAFromWB);
+				case 9 : return Long.toString(counters.forwardBFromMA);
+				case 10 : return Long.toString(counters.forwardBFromWB);
+				case 11 : return Long.toString(counters.branchesTaken);
+				case 12 : return Long.toString(counters.branchesNotTaken);
+				case 13 : return Long.toString(counters.memoryReads);
+				case 14 : return Long.toString(counters.memoryWrites);
+			}
+
+			return "??";
+		}
+	};
+
+	class OpcodeModel extends AbstractTableModel
+	{
+		public int getColumnCount()
+		{
+			return 3;
+		}
+		public int getRowCount()
+		{
+			return TYPES.length;
+		}
+		public String getColumnName(int col)
+		{
+			switch (col)
+			{
+				case 0: return "Opcode";
+				case 1: return "Retired";
+				case 2: return "Share";
+			}
+
+			return "??";
+		}
+		public Object getValueAt(int row, int col)
+		{
+			if (col == 0) return TYPES[row].name();
+			if (counters == null) return "?";
+
+			long count = counters.opcodeRetired[TYPES[row].ordinal()];
+
+			if (col == 1) return Long.toString(count);
+			if (col == 2) return (counters.retired == 0) ? "-" : String.format("%.1f%%", 100.0 * count / counters.retired);
+			return "??";
+		}
+	};
+
+	public void update(Processor processor)
+	{
+		counters = processor.getCounters();
+		summaryModel.fireTableDataChanged();
+		opcodeModel.fireTableDataChanged();
+	}
+}
@@ -8,21 +8,38 @@ package sim.gui;
 import sim.*;
 
 import java.awt.*;
+import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*;
 
+// Shows one 256-word page of data memory, the mouse wheel moving between
+// pages. Pages never written are drawn empty.
 public class DataMemoryPanel extends JComponent
 {
 	private final static int CELL_SIZE = 9;
 	private final static int CELL_SPACE = 1;
 	private final static int DIM = (CELL_SIZE * 16) + (CELL_SPACE * 17) + 2;
 
+	private DataMemory memory;
+	private int page;
 	private int[] mem;
 	private Color[] colourArray;
 
+	private TitledBorder border;
+
 	public DataMemoryPanel()
 	{
-		setBorder(new TitledBorder("Data Memory"));
+		border = new TitledBorder("Data Memory");
+		setBorder(border);
+
+		addMouseWheelListener(new MouseWheelListener()
+		{
+			public void mouseWheelMoved(MouseWheelEvent e)
+			{
+				if (memory == null) return;
+				showPage(Math.max(0, Math.min(memory.getPageCount() - 1, page + e.getWheelRotation())));
+			}
+		});
 
 		colourArray = new Color[] {new Color(0,	0,		0),		// Black
 											new Color(128,	128,	128),		// Dark Gray
@@ -44,7 +61,26 @@ public class DataMemoryPanel extends JComponent
 
 	public void update(Processor processor)
 	{
-		mem = processor.dataMemory;
+		update(processor.memory);
+	}
+
+	public void update(DataMemory memory)
+	{
+		if (memory != this.memory)
+		{
+			this.memory = memory;
+			page = 0;
+		}
+
+		showPage(page);
+	}
+
+	private void showPage(int page)
+	{
+		this.page = page;
+		mem = memory.getPage(page);
+
+		border.setTitle((memory.getPageCount() == 1) ? "Data Memory" : String.format("Data Memory x%02X00", page));
 		repaint();
 	}
 
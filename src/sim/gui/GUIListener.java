@@ -8,6 +8,8 @@ package sim.gui;
 public interface GUIListener
 {
 	public void stepPressed();
+	public void stepBackPressed();
 	public void runPressed(int steps, boolean nonStop, boolean update);
 	public void resetPressed();
+	public void gotoPressed(long cycle);
 }
@@ -24,8 +24,17 @@ public class PipelineDisplay extends JComponent
 
 	private Image image;
 
+	// Stage boxes drawn for a StagedProcessor, in place of the datapath
+	private final static int STAGE_WIDTH = 190;
+	private final static int STAGE_HEIGHT = 70;
+	private final static int SLOT_HEIGHT = 38;		// Height added for each further issue slot
+	private final static int ISSUE_HEIGHT = 16;		// Issue counts line of a dual-issue pipeline
+	private final static int STAGE_GAP = 12;
+	private final static Color HOLD_COLOUR = new Color(255,140,0);
+
 	private Instruction[] program;
 	private Processor processor;
+	private StagedProcessor staged;
 	private Processor.Signals signals;
 	private Processor.Controls controls;
 
@@ -64,6 +73,20 @@ public class PipelineDisplay extends JComponent
 		fontMetrics = getFontMetrics(textFont);
 	}
 
+	// Draws the stages of the given model as a row of boxes, each showing the
+	// instructions it holds, one per issue slot
+	public PipelineDisplay(Instruction[] program, PipelineModel model, int issueWidth)
+	{
+		this.program = program;
+
+		int stages = model.getStageCount();
+		width = STAGE_GAP + stages * (STAGE_WIDTH + STAGE_GAP);
+		height = STAGE_HEIGHT + (issueWidth - 1) * (SLOT_HEIGHT + ISSUE_HEIGHT) + 3 * STAGE_GAP + 20;
+
+		textFont = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+		fontMetrics = getFontMetrics(textFont);
+	}
+
 	public Dimension getSize()
 	{
 		Insets insets = getInsets();
@@ -91,11 +114,17 @@ public class PipelineDisplay extends JComponent
 		g.fillRect(insets.left, insets.top, width, height);
 
 		// Draw Background Image
-		g.drawImage(image, IMG_MARGIN_LEFT, IMG_MARGIN_TOP, null);
+		if (image != null) g.drawImage(image, IMG_MARGIN_LEFT, IMG_MARGIN_TOP, null);
 
 		g.setColor(Color.GRAY);
 		g.drawRect(insets.left, insets.top, width-1, height-1);
 
+		if (staged != null)
+		{
+			paintStages((Graphics2D) g);
+			return;
+		}
+
 		// If signals is null, finish drawing here
 		if (signals == null) return;
 
@@ -309,6 +338,79 @@ public class PipelineDisplay extends JComponent
 
 	}
 
+	// One box per stage, with an instruction per issue slot struck through when
+	// it is a bubble. The held stage is outlined in orange, and a line runs from
+	// each stage forwarding an operand back to the stage taking it. A
+	// dual-issue pipeline has its issue counts below.
+	private void paintStages(Graphics2D g2D)
+	{
+		g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2D.setFont(textFont);
+
+		synchronized(staged)
+		{
+			PipelineModel model = staged.model;
+			int top = STAGE_GAP;
+			int boxHeight = STAGE_HEIGHT + (staged.width - 1) * SLOT_HEIGHT;
+
+			for (int s=0 ; s<model.getStageCount() ; s++)
+			{
+				int left = STAGE_GAP + s * (STAGE_WIDTH + STAGE_GAP);
+				int centre = left + STAGE_WIDTH / 2;
+
+				g2D.setColor((s == staged.holdStage) ? HOLD_COLOUR : Color.GRAY);
+				g2D.drawRect(left, top, STAGE_WIDTH, boxHeight);
+
+				g2D.setColor(Color.BLACK);
+				g2D.drawString(model.stageNames[s], centre - fontMetrics.stringWidth(model.stageNames[s]) / 2, top + 18);
+
+				for (int k=0 ; k<staged.width ; k++)
+				{
+					int address = staged.stageAddress[s][k];
+					int y = top + 42 + k * SLOT_HEIGHT;
+
+					String insnLine = String.format("[%03X] ", address);
+					String insnMn;
+					if (address >= program.length) {
+						insnLine += "?";
+						insnMn = "?";
+					}
+					else {
+						insnLine += program[address].srcString;
+						insnMn = "(" + program[address].insnType + ")";
+					}
+
+					boolean strike = (staged.stageValid[s][k] == 0);
+					drawCentreString(g2D, insnLine, centre, y, strike);
+					drawCentreString(g2D, insnMn, centre, y + 16, strike);
+				}
+			}
+
+			g2D.setColor(PATH_COLOUR);
+			g2D.setStroke(highlightStroke);
+
+			int bottom = top + boxHeight;
+			int to = STAGE_GAP + model.operandStage * (STAGE_WIDTH + STAGE_GAP) + STAGE_WIDTH / 2;
+
+			for (int s=0 ; s<model.getStageCount() ; s++)
+			{
+				if ((staged.forwardMask & (1 << s)) == 0) continue;
+
+				int from = STAGE_GAP + s * (STAGE_WIDTH + STAGE_GAP) + STAGE_WIDTH / 2;
+				int y = bottom + STAGE_GAP + 4 * (s - model.operandStage);
+				g2D.drawPolyline(new int[] {from, from, to, to}, new int[] {bottom, y, y, bottom}, 4);
+			}
+
+			if (staged.width > 1)
+			{
+				String issue = String.format("Issued: %d pairs, %d single. Splits: %d RAW, %d memory, %d branch",
+					staged.pairsIssued, staged.singlesIssued, staged.splits[StagedProcessor.PAIR_RAW],
+					staged.splits[StagedProcessor.PAIR_MEMORY], staged.splits[StagedProcessor.PAIR_BRANCH]);
+				drawCentreString(g2D, issue, width / 2, height - STAGE_GAP, false);
+			}
+		}
+	}
+
 	private void drawCentreString(Graphics g, String str, int x, int y, boolean strike)
 	{
 		g.setColor(Color.GRAY);
@@ -322,6 +424,12 @@ public class PipelineDisplay extends JComponent
 		}
 	}
 
+	public void update(StagedProcessor staged)
+	{
+		this.staged = staged;
+		repaint();
+	}
+
 	public void update(Processor processor)
 	{
 		this.processor = processor;
@@ -26,8 +26,13 @@ public class ProgCounterPanel extends JComponent
 
 	public void update(Processor processor)
 	{
-		pc = processor.signals.fe_pc;
-		clks = processor.clockCount;
+		update(processor.signals.fe_pc, processor.clockCount);
+	}
+
+	public void update(int pc, long clks)
+	{
+		this.pc = pc;
+		this.clks = clks;
 		repaint();
 	}
 
@@ -25,7 +25,12 @@ public class RegisterFilePanel extends JComponent
 
 	public void update(Processor processor)
 	{
-		regFile = processor.registerFile;
+		update(processor.registerFile);
+	}
+
+	public void update(int[] regFile)
+	{
+		this.regFile = regFile;
 		repaint();
 	}
 
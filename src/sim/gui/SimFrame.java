@@ -21,6 +21,7 @@ import javax.swing.border.EmptyBorder;
 import sim.Instruction;
 import sim.Processor;
 import sim.Sim;
+import sim.StagedProcessor;
 
 public class SimFrame
 {
@@ -33,6 +34,8 @@ public class SimFrame
 	private DataMemoryPanel dataMemPanel;
 	private VariablesPanel signalsPanel;
 	private VariablesPanel controlsPanel;
+	private VariablesPanel wiresPanel;		// Null unless the processor records netlist wires
+	private CountersPanel countersPanel;
 	private SourceViewer sourceViewer;
 	private PipelineDisplay pipelineDisplay;
 //	private InstructionDisplay insnDisplay;
@@ -53,6 +56,18 @@ public class SimFrame
 	}
 
 	public SimFrame(Sim sim, Instruction[] program, Processor processor, GUIListener listener, File asmFile)
+	{
+		this(sim, program, processor, null, listener, asmFile);
+	}
+
+	// Frame for a StagedProcessor: its stages, registers and memory, without
+	// the panels showing Processor's signals and controls
+	public SimFrame(Sim sim, Instruction[] program, StagedProcessor staged, GUIListener listener, File asmFile)
+	{
+		this(sim, program, null, staged, listener, asmFile);
+	}
+
+	private SimFrame(Sim sim, Instruction[] program, Processor processor, StagedProcessor staged, GUIListener listener, File asmFile)
 	{
 		this.listener = listener;
 		
@@ -77,12 +92,8 @@ public class SimFrame
 		regFilePanel = new RegisterFilePanel();
 		dataMemPanel = new DataMemoryPanel();
 		controlPanel = new ControlPanel(this, asmFile.getAbsolutePath(), listener);
-		signalsPanel = new VariablesPanel("sim.Processor$Signals", "Signals");
-		controlsPanel = new VariablesPanel("sim.Processor$Controls", "Controls");
 		sourceViewer = new SourceViewer(asmFile, program);
-		pipelineDisplay = new PipelineDisplay(program);
 //		insnDisplay = new InstructionDisplay(program);
-		procControls = new ProcessorControls(processor);
 
 		JPanel panel;
 
@@ -92,23 +103,45 @@ public class SimFrame
 		panel = new JPanel();
 		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
 		panel.add(pcPanel);
-		panel.add(procControls);
 
 		infoPanel.add(panel);
 		infoPanel.add(regFilePanel);
 		infoPanel.add(dataMemPanel);
 
-		// Variables Panel
-		JPanel varPanel = new JPanel();
-		varPanel.setLayout(new BoxLayout(varPanel, BoxLayout.X_AXIS));
-		varPanel.add(signalsPanel);
-		varPanel.add(controlsPanel);
-
-
 		// Tabbed Pane
 		JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
 		tabbedPane.addTab("Info", infoPanel);
-		tabbedPane.addTab("Internal Signals", varPanel);
+
+		if (processor != null)
+		{
+			signalsPanel = new VariablesPanel("sim.Processor$Signals", "Signals");
+			controlsPanel = new VariablesPanel("sim.Processor$Controls", "Controls");
+			countersPanel = new CountersPanel();
+			pipelineDisplay = new PipelineDisplay(program);
+			procControls = new ProcessorControls(processor);
+
+			panel.add(procControls);
+
+			// Variables Panel
+			JPanel varPanel = new JPanel();
+			varPanel.setLayout(new BoxLayout(varPanel, BoxLayout.X_AXIS));
+			varPanel.add(signalsPanel);
+			varPanel.add(controlsPanel);
+
+			if (processor.wires != null)
+			{
+				wiresPanel = new VariablesPanel(processor.datapath.wireNames, "Wires (" + processor.datapath + ")");
+				varPanel.add(wiresPanel);
+			}
+
+			tabbedPane.addTab("Internal Signals", varPanel);
+			tabbedPane.addTab("Counters", countersPanel);
+		}
+		else
+		{
+			pipelineDisplay = new PipelineDisplay(program, staged.model, staged.width);
+		}
+
 //		tabbedPane.addTab("Display", new JLabel("XXX Pipeline Display Options"));
 //		tabbedPane.addTab("Branch Prediction", new JLabel("XXX BP"));
 
@@ -142,11 +175,21 @@ public class SimFrame
 		{
 			signalsPanel.update(processor.signals);
 			controlsPanel.update(processor.controls);
+			if (wiresPanel != null) wiresPanel.update(processor.wires);
+			countersPanel.update(processor);
 			sourceViewer.update(processor);
 //			insnDisplay.update(processor);
 		}
 	}
 
+	public void update(StagedProcessor staged)
+	{
+		regFilePanel.update(staged.getRegisterFile());
+		dataMemPanel.update(staged.getMemory());
+		pcPanel.update(staged.stageAddress[0][0], staged.clockCount);
+		pipelineDisplay.update(staged);
+	}
+
 	public void setState(State state)
 	{
 		switch (state)
@@ -10,15 +10,19 @@ import sim.*;
 import java.io.*;
 import java.util.*;
 import java.awt.*;
+import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.text.*;
 
 public class SourceViewer extends JPanel
 {
+	private final static int GUTTER_WIDTH = 10;
+
 	private Instruction[] program;
 	private JTextArea textArea;
 	private LineExtents[] lineExtentsArray;
+	private HeatGutter heatGutter;
 
 	private Highlighter highlighter;
 //	private Highlighter.HighlightPainter feHighlightPainter = new DefaultHighlighter.DefaultHighlightPainter(new Color(188,210,255));
@@ -98,6 +102,9 @@ public class SourceViewer extends JPanel
 		JScrollPane scrollPane = new JScrollPane(textArea);
 		scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
 
+		heatGutter = new HeatGutter();
+		scrollPane.setRowHeaderView(heatGutter);
+
 		add(scrollPane, BorderLayout.CENTER);
 	}
 
@@ -105,6 +112,76 @@ public class SourceViewer extends JPanel
 	{
 		// highlighter.removeAllHighlights();
 		// if (processor.signals.ex_en == 1) highlightLine(processor.signals.ex_pc, exHighlightPainter);
+
+		heatGutter.update(processor.profiler);
+	}
+
+	// Strip beside the source, coloured from white to red by the share of the
+	// profiled cycles charged to each instruction's line
+	class HeatGutter extends JComponent
+	{
+		private Profiler profiler;
+		private long maxCycles;
+
+		public HeatGutter()
+		{
+			setToolTipText("");
+		}
+
+		public void update(Profiler profiler)
+		{
+			this.profiler = profiler;
+			maxCycles = (profiler == null) ? 0 : profiler.getMaxCycles();
+			repaint();
+		}
+
+		public Dimension getPreferredSize()
+		{
+			return new Dimension(GUTTER_WIDTH, textArea.getPreferredSize().height);
+		}
+
+		private int getRowHeight()
+		{
+			return textArea.getFontMetrics(textArea.getFont()).getHeight();
+		}
+
+		public void paintComponent(Graphics g)
+		{
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, getWidth(), getHeight());
+
+			if (profiler == null || maxCycles == 0) return;
+
+			int rowHeight = getRowHeight();
+			int top = textArea.getInsets().top;
+
+			for (int pc=0 ; pc<program.length && pc<profiler.length ; pc++)
+			{
+				if (profiler.cycles[pc] == 0) continue;
+
+				// Scale so that the hottest line is full red
+				int heat = (int) (255 * profiler.cycles[pc] / maxCycles);
+				g.setColor(new Color(255, 255 - heat, 255 - heat));
+				g.fillRect(0, top + (program[pc].srcLine - 1) * rowHeight, GUTTER_WIDTH, rowHeight);
+			}
+		}
+
+		public String getToolTipText(MouseEvent mE)
+		{
+			if (profiler == null) return null;
+
+			int srcLine = (mE.getY() - textArea.getInsets().top) / getRowHeight() + 1;
+
+			for (int pc=0 ; pc<program.length && pc<profiler.length ; pc++)
+			{
+				if (program[pc].srcLine != srcLine) continue;
+
+				return String.format("x%03X: %d cycles, %d retired, %d stalls, %d flushes",
+					pc, profiler.cycles[pc], profiler.retired[pc], profiler.stallCycles[pc], profiler.flushCycles[pc]);
+			}
+
+			return null;
+		}
 	}
 
 	private void highlightLine(int pc, Highlighter.HighlightPainter painter)
@@ -24,6 +24,10 @@ public class VariablesPanel extends JPanel
 
 	private Object source;
 
+	// Named values, in place of fields, see update(int[])
+	private String[] valueNames;
+	private int[] values;
+
 	public VariablesPanel(String className, String title)
 	{
 		setLayout(new BorderLayout());
@@ -47,6 +51,24 @@ public class VariablesPanel extends JPanel
 		fieldArray = fieldList.toArray(fieldArray);
 		numFields = fieldArray.length;
 
+		createTable();
+	}
+
+	// Panel of named values, such as the wires of a netlist datapath
+	public VariablesPanel(String[] valueNames, String title)
+	{
+		setLayout(new BorderLayout());
+
+		setBorder(new TitledBorder(title));
+
+		this.valueNames = valueNames;
+		numFields = valueNames.length;
+
+		createTable();
+	}
+
+	private void createTable()
+	{
 		dataModel = new DataModel();
 		signalTable = new JTable(dataModel);
 		JScrollPane scrollPane = new JScrollPane(signalTable);
@@ -63,7 +85,7 @@ public class VariablesPanel extends JPanel
 	{
 		Component comp = signalTable.getDefaultRenderer(signalTable.getColumnClass(0)).getTableCellRendererComponent(signalTable, "STRING", false, false, 0, 0);
 		int cellHeight = comp.getPreferredSize().height - 1; // Subtract one to allow for overlap
-		return cellHeight * fieldArray.length;
+		return cellHeight * numFields;
 	}
 	class DataRenderer extends DefaultTableCellRenderer
 	{
@@ -101,20 +123,29 @@ public class VariablesPanel extends JPanel
 		{	
 			if (col == 0)
 			{
-				return fieldArray[row].getName();
+				return (valueNames != null) ? valueNames[row] : fieldArray[row].getName();
 			}
 			else
 			{
-				if (source == null) return "?";
 				int val = 0;
 
-				try
+				if (valueNames != null)
 				{
-					val = fieldArray[row].getInt(source);
+					if (values == null) return "?";
+					val = values[row];
 				}
-				catch (IllegalAccessException iaE)
+				else
 				{
-					return "-";
+					if (source == null) return "?";
+
+					try
+					{
+						val = fieldArray[row].getInt(source);
+					}
+					catch (IllegalAccessException iaE)
+					{
+						return "-";
+					}
 				}
 
 				if (col == 1) return Integer.toString(val);
@@ -129,4 +160,11 @@ public class VariablesPanel extends JPanel
 		this.source = source;
 		dataModel.fireTableDataChanged();
 	}
+
+	// Values for a panel of named values, in the same order as the names
+	public void update(int[] values)
+	{
+		this.values = values;
+		dataModel.fireTableDataChanged();
+	}
 }
@@ -0,0 +1,403 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+import sim.*;
+import sim.Instruction.InstructionType;
+
+import java.util.*;
+
+/**
+ * Translates regions of an assembled program into JVM classes.
+ *
+ * The program is split into basic blocks at the targets of jmp/brz/brnz and
+ * after each of them, and around each page instruction, which regions leave
+ * to the interpreter. A region is the block at an entry address plus the
+ * blocks reachable from it, up to a size limit. Within a region registers and
+ * flags live in local variables and jumps between blocks are gotos; leaving
+ * the region stores them back and returns the next address.
+ */
+public class BlockTranslator
+{
+	// Keeps generated methods well inside the 16-bit branch offset limit
+	private static final int MAX_REGION_INSNS = 600;
+
+	// Local variable slots
+	private static final int L_REG = 1;
+	private static final int L_MEM = 2;
+	private static final int L_STATE = 3;
+	private static final int L_FLAG_Z = 4;
+	private static final int L_FLAG_C = 5;
+	private static final int L_BUDGET = 6;
+	private static final int L_TMP = 7;
+	private static final int L_EXIT_PC = 8;
+	private static final int L_R0 = 9;
+	private static final int MAX_LOCALS = L_R0 + 16;
+	private static final int MAX_STACK = 4;
+
+	private static final String SUPER_NAME = "sim/jit/TranslatedBlock";
+
+	private Instruction[] program;
+	private DecodedProgram decoded;
+	private boolean[] leader;
+
+	private GeneratedClassLoader loader = new GeneratedClassLoader();
+	private int classCount = 0;
+
+	public int bytesGenerated = 0;
+
+	public BlockTranslator(Instruction[] program, DecodedProgram decoded)
+	{
+		this.program = program;
+		this.decoded = decoded;
+
+		// Find block leaders from the branch targets
+		leader = new boolean[program.length + 1];
+		if (program.length > 0) leader[0] = true;
+
+		for (int i=0 ; i<program.length ; i++)
+		{
+			if (isPage(program[i].insnType))
+			{
+				leader[i] = true;
+				leader[i+1] = true;
+				continue;
+			}
+
+			if (!isBranch(program[i].insnType)) continue;
+
+			int target = program[i].argValArray[0];
+			if (target < program.length) leader[target] = true;
+			leader[i+1] = true;
+		}
+	}
+
+	private static boolean isBranch(InstructionType type)
+	{
+		return (type == InstructionType.JMPi || type == InstructionType.BRZi || type == InstructionType.BRNZi);
+	}
+
+	public static boolean isPage(InstructionType type)
+	{
+		return (type == InstructionType.PAGEi || type == InstructionType.PAGEr);
+	}
+
+	// Translates the region entered at the given address
+	public TranslatedBlock translate(int entry) throws ReflectiveOperationException
+	{
+		// Collect region blocks, breadth first from the entry
+		ArrayList<Integer> blockStarts = new ArrayList<Integer>();
+		HashMap<Integer, Integer> blockLabels = new HashMap<Integer, Integer>();
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		Code code = new Code();
+
+		int size = 0;
+		queue.add(entry);
+
+		while (!queue.isEmpty())
+		{
+			int start = queue.remove();
+			if (start >= program.length || blockLabels.containsKey(start) || isPage(program[start].insnType)) continue;
+
+			int end = blockEnd(start);
+			if (size > 0 && size + (end - start) > MAX_REGION_INSNS) continue;
+			size += end - start;
+
+			blockStarts.add(start);
+			blockLabels.put(start, code.newLabel());
+
+			InstructionType last = program[end-1].insnType;
+			if (isBranch(last)) queue.add(program[end-1].argValArray[0]);
+			if (last != InstructionType.JMPi) queue.add(end);
+		}
+
+		// Registers used anywhere in the region
+		boolean[] used = new boolean[16];
+		boolean[] written = new boolean[16];
+		for (int start : blockStarts)
+		{
+			for (int pc=start ; pc<blockEnd(start) ; pc++) markRegisters(pc, used, written);
+		}
+
+		// Prologue, load flags, budget and registers into locals
+		loadState(code, TranslatedBlock.STATE_FLAG_Z, L_FLAG_Z);
+		loadState(code, TranslatedBlock.STATE_FLAG_C, L_FLAG_C);
+		loadState(code, TranslatedBlock.STATE_BUDGET, L_BUDGET);
+
+		for (int r=0 ; r<16 ; r++)
+		{
+			if (!used[r]) continue;
+			code.aload(L_REG);
+			code.push(r);
+			code.op(Code.IALOAD);
+			code.istore(L_R0 + r);
+		}
+
+		int exitLabel = code.newLabel();
+
+		for (int start : blockStarts) emitBlock(code, start, blockLabels, exitLabel);
+
+		// Epilogue, store back registers, flags and budget
+		code.mark(exitLabel);
+
+		for (int r=0 ; r<16 ; r++)
+		{
+			if (!written[r]) continue;
+			code.aload(L_REG);
+			code.push(r);
+			code.iload(L_R0 + r);
+			code.op(Code.IASTORE);
+		}
+
+		storeState(code, TranslatedBlock.STATE_FLAG_Z, L_FLAG_Z);
+		storeState(code, TranslatedBlock.STATE_FLAG_C, L_FLAG_C);
+		storeState(code, TranslatedBlock.STATE_BUDGET, L_BUDGET);
+
+		code.iload(L_EXIT_PC);
+		code.op(Code.IRETURN);
+
+		// Build and load the class
+		String className = "sim/jit/Block_" + (classCount ++) + "_" + entry;
+		ClassBuilder builder = new ClassBuilder(className, SUPER_NAME);
+		builder.addMethod("execute", "([I[I[I)I", code, MAX_STACK, MAX_LOCALS);
+
+		byte[] classBytes = builder.toByteArray();
+		bytesGenerated += classBytes.length;
+
+		Class<?> blockClass = loader.define(className.replace('/', '.'), classBytes);
+		return (TranslatedBlock) blockClass.getDeclaredConstructor().newInstance();
+	}
+
+	// A block runs from its start up to and including a branch, or up to the next leader
+	private int blockEnd(int start)
+	{
+		int pc = start;
+		while (true)
+		{
+			if (isBranch(program[pc].insnType)) return pc + 1;
+			pc ++;
+			if (pc >= program.length || leader[pc]) return pc;
+		}
+	}
+
+	private void markRegisters(int pc, boolean[] used, boolean[] written)
+	{
+		int a = decoded.rAddA[pc];
+		int b = decoded.rAddB[pc];
+
+		switch (program[pc].insnType)
+		{
+			case ADDr : case SUBr : case ANDr : case ORr : case XORr : case SHLr : case SHRr :
+				used[a] = used[b] = written[a] = true;
+				break;
+
+			case ADDi : case SUBi : case ANDi : case ORi : case XORi : case SHLi : case SHRi :
+				used[a] = written[a] = true;
+				break;
+
+			case COMPr :	used[a] = used[b] = true;	break;
+			case COMPi :	used[a] = true;				break;
+
+			case MOVi : case LDi :
+				used[a] = written[a] = true;
+				break;
+
+			case MOVr : case LDr :
+				used[a] = used[b] = written[a] = true;
+				break;
+
+			case STi : case STa :	used[a] = true;				break;
+			case STr :					used[a] = used[b] = true;	break;
+
+			default:
+		}
+	}
+
+	private void emitBlock(Code code, int start, HashMap<Integer, Integer> blockLabels, int exitLabel)
+	{
+		int end = blockEnd(start);
+		int length = end - start;
+
+		code.mark(blockLabels.get(start));
+
+		// A jmp to itself halts, leave without executing it
+		if (program[start].insnType == InstructionType.JMPi && decoded.imm[start] == start)
+		{
+			exitTo(code, start, exitLabel);
+			return;
+		}
+
+		// Leave before the block if the budget does not cover all of it
+		int bodyLabel = code.newLabel();
+		code.iload(L_BUDGET);
+		code.push(length);
+		code.jump(Code.IF_ICMPGE, bodyLabel);
+		exitTo(code, start, exitLabel);
+		code.mark(bodyLabel);
+
+		code.iload(L_BUDGET);
+		code.push(length);
+		code.op(Code.ISUB);
+		code.istore(L_BUDGET);
+
+		for (int pc=start ; pc<end ; pc++)
+		{
+			int a = L_R0 + decoded.rAddA[pc];
+			int b = L_R0 + decoded.rAddB[pc];
+			int imm8 = decoded.imm[pc] & 0xFF;
+			int target = decoded.imm[pc];
+
+			switch (program[pc].insnType)
+			{
+				case ADDi :		emitAlu(code, a, -1, imm8, Code.IADD, true);	break;
+				case ADDr :		emitAlu(code, a, b, 0, Code.IADD, true);		break;
+				case SUBi :		emitAlu(code, a, -1, imm8, Code.ISUB, true);	break;
+				case SUBr :		emitAlu(code, a, b, 0, Code.ISUB, true);		break;
+				case COMPi :	emitAlu(code, a, -1, imm8, Code.ISUB, false);	break;
+				case COMPr :	emitAlu(code, a, b, 0, Code.ISUB, false);		break;
+				case ANDi :		emitAlu(code, a, -1, imm8, Code.IAND, true);	break;
+				case ANDr :		emitAlu(code, a, b, 0, Code.IAND, true);		break;
+				case ORi :		emitAlu(code, a, -1, imm8, Code.IOR, true);		break;
+				case ORr :		emitAlu(code, a, b, 0, Code.IOR, true);			break;
+				case XORi :		emitAlu(code, a, -1, imm8, Code.IXOR, true);	break;
+				case XORr :		emitAlu(code, a, b, 0, Code.IXOR, true);		break;
+				case SHLi :		emitAlu(code, a, -1, imm8, Code.ISHL, true);	break;
+				case SHLr :		emitAlu(code, a, b, 0, Code.ISHL, true);		break;
+				case SHRi :		emitAlu(code, a, -1, imm8, Code.ISHR, true);	break;
+				case SHRr :		emitAlu(code, a, b, 0, Code.ISHR, true);		break;
+
+				case MOVi :
+					code.push(imm8);
+					code.istore(a);
+					break;
+
+				case MOVr :
+					code.iload(b);
+					code.istore(a);
+					break;
+
+				case LDi :
+					code.aload(L_MEM);
+					code.push(imm8);
+					code.op(Code.IALOAD);
+					code.istore(a);
+					break;
+
+				case LDr :
+					code.aload(L_MEM);
+					code.iload(b);
+					code.op(Code.IALOAD);
+					code.istore(a);
+					break;
+
+				case STi :
+					code.aload(L_MEM);
+					code.iload(a);
+					code.push(imm8);
+					code.op(Code.IASTORE);
+					break;
+
+				case STa :
+					code.aload(L_MEM);
+					code.push(imm8);
+					code.iload(a);
+					code.op(Code.IASTORE);
+					break;
+
+				case STr :
+					code.aload(L_MEM);
+					code.iload(a);
+					code.iload(b);
+					code.op(Code.IASTORE);
+					break;
+
+				case JMPi :
+					goTo(code, target, blockLabels, exitLabel);
+					break;
+
+				case BRZi :
+				case BRNZi :
+					int notTakenLabel = code.newLabel();
+					code.iload(L_FLAG_Z);
+					code.jump((program[pc].insnType == InstructionType.BRZi) ? Code.IFEQ : Code.IFNE, notTakenLabel);
+					goTo(code, target, blockLabels, exitLabel);
+					code.mark(notTakenLabel);
+					goTo(code, pc + 1, blockLabels, exitLabel);
+					break;
+
+				default:
+					throw new IllegalStateException("BlockTranslator: Unsupported instruction (" + program[pc].insnType + ")");
+			}
+		}
+
+		// Fall through into the next block
+		if (!isBranch(program[end-1].insnType)) goTo(code, end, blockLabels, exitLabel);
+	}
+
+	// ALU operation on rA and either rB or an immediate, setting Z and C from
+	// the unmasked result and writing the masked result back unless comparing
+	private void emitAlu(Code code, int a, int b, int imm, int opcode, boolean writeBack)
+	{
+		code.iload(a);
+		if (b >= 0) code.iload(b);
+		else code.push(imm);
+		code.op(opcode);
+		code.istore(L_TMP);
+
+		// Z = ((out & 0xFF) - 1) >>> 31
+		code.iload(L_TMP);
+		code.push(0xFF);
+		code.op(Code.IAND);
+		code.push(1);
+		code.op(Code.ISUB);
+		code.push(31);
+		code.op(Code.IUSHR);
+		code.istore(L_FLAG_Z);
+
+		// C = (out >> 8) & 1
+		code.iload(L_TMP);
+		code.push(8);
+		code.op(Code.ISHR);
+		code.push(1);
+		code.op(Code.IAND);
+		code.istore(L_FLAG_C);
+
+		if (writeBack)
+		{
+			code.iload(L_TMP);
+			code.push(0xFF);
+			code.op(Code.IAND);
+			code.istore(a);
+		}
+	}
+
+	private void goTo(Code code, int pc, HashMap<Integer, Integer> blockLabels, int exitLabel)
+	{
+		Integer label = blockLabels.get(pc);
+		if (label != null) code.jump(Code.GOTO, label);
+		else exitTo(code, pc, exitLabel);
+	}
+
+	private void exitTo(Code code, int pc, int exitLabel)
+	{
+		code.push(pc);
+		code.istore(L_EXIT_PC);
+		code.jump(Code.GOTO, exitLabel);
+	}
+
+	private void loadState(Code code, int index, int local)
+	{
+		code.aload(L_STATE);
+		code.push(index);
+		code.op(Code.IALOAD);
+		code.istore(local);
+	}
+
+	private void storeState(Code code, int index, int local)
+	{
+		code.aload(L_STATE);
+		code.push(index);
+		code.iload(local);
+		code.op(Code.IASTORE);
+	}
+}
@@ -0,0 +1,218 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Minimal class file writer for generated code. Produces a public final class
+ * with a no-argument constructor and any number of methods built with Code.
+ *
+ * Classes are written as version 49 (Java 5) so that no StackMapTable is
+ * needed; the JVM verifies them by type inference.
+ */
+public class ClassBuilder
+{
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private String className;
+	private String superName;
+
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream pool = new DataOutputStream(poolBytes);
+	private int poolCount = 1;
+	private HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+	private ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+	private DataOutputStream methods = new DataOutputStream(methodBytes);
+	private int methodCount = 0;
+
+	// Names are given in internal form, e.g. "sim/jit/TranslatedBlock"
+	public ClassBuilder(String className, String superName)
+	{
+		this.className = className;
+		this.superName = superName;
+
+		// Constructor: super();
+		Code init = new Code();
+		init.aload(0);
+		init.invokeSpecial(methodRef(superName, "<init>", "()V"));
+		init.op(Code.RETURN);
+		addMethod("<init>", "()V", init, 1, 1);
+	}
+
+	public int utf8(String str)
+	{
+		String key = "U" + str;
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+
+		try
+		{
+			pool.writeByte(CONSTANT_UTF8);
+			pool.writeUTF(str);
+		}
+		catch (IOException ioE)
+		{
+			throw new IllegalStateException(ioE);
+		}
+
+		return addEntry(key);
+	}
+
+	// Constant for Code.ldc, for values too large to push
+	public int integer(int value)
+	{
+		String key = "I" + value;
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+
+		try
+		{
+			pool.writeByte(CONSTANT_INTEGER);
+			pool.writeInt(value);
+		}
+		catch (IOException ioE)
+		{
+			throw new IllegalStateException(ioE);
+		}
+
+		return addEntry(key);
+	}
+
+	public int classRef(String name)
+	{
+		String key = "C" + name;
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+
+		int nameIndex = utf8(name);
+		writeEntry(CONSTANT_CLASS, nameIndex);
+		return addEntry(key);
+	}
+
+	public int methodRef(String owner, String name, String descriptor)
+	{
+		return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	public int fieldRef(String owner, String name, String descriptor)
+	{
+		return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor)
+	{
+		String key = tag + owner + "." + name + descriptor;
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+
+		int classIndex = classRef(owner);
+		int nameAndType = nameAndType(name, descriptor);
+		writeEntry(tag, classIndex, nameAndType);
+		return addEntry(key);
+	}
+
+	private int nameAndType(String name, String descriptor)
+	{
+		String key = "N" + name + descriptor;
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+
+		int nameIndex = utf8(name);
+		int descIndex = utf8(descriptor);
+		writeEntry(CONSTANT_NAME_AND_TYPE, nameIndex, descIndex);
+		return addEntry(key);
+	}
+
+	private void writeEntry(int tag, int... indices)
+	{
+		try
+		{
+			pool.writeByte(tag);
+			for (int index : indices) pool.writeShort(index);
+		}
+		catch (IOException ioE)
+		{
+			throw new IllegalStateException(ioE);
+		}
+	}
+
+	private int addEntry(String key)
+	{
+		int index = poolCount ++;
+		if (poolCount > 0xFFFF) throw new IllegalStateException("ClassBuilder: Constant pool full");
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	public void addMethod(String name, String descriptor, Code code, int maxStack, int maxLocals)
+	{
+		byte[] bytecode = code.toByteArray();
+
+		try
+		{
+			methods.writeShort(ACC_PUBLIC);
+			methods.writeShort(utf8(name));
+			methods.writeShort(utf8(descriptor));
+			methods.writeShort(1);						// Attributes count
+
+			methods.writeShort(utf8("Code"));
+			methods.writeInt(12 + bytecode.length);	// Attribute length
+			methods.writeShort(maxStack);
+			methods.writeShort(maxLocals);
+			methods.writeInt(bytecode.length);
+			methods.write(bytecode);
+			methods.writeShort(0);						// Exception table length
+			methods.writeShort(0);						// Attributes count
+		}
+		catch (IOException ioE)
+		{
+			throw new IllegalStateException(ioE);
+		}
+
+		methodCount ++;
+	}
+
+	public byte[] toByteArray()
+	{
+		int thisIndex = classRef(className);
+		int superIndex = classRef(superName);
+
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(classBytes);
+
+		try
+		{
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);								// Minor version
+			out.writeShort(49);							// Major version
+			out.writeShort(poolCount);
+			out.write(poolBytes.toByteArray());
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisIndex);
+			out.writeShort(superIndex);
+			out.writeShort(0);								// Interfaces count
+			out.writeShort(0);								// Fields count
+			out.writeShort(methodCount);
+			out.write(methodBytes.toByteArray());
+			out.writeShort(0);								// Attributes count
+		}
+		catch (IOException ioE)
+		{
+			throw new IllegalStateException(ioE);
+		}
+
+		return classBytes.toByteArray();
+	}
+}
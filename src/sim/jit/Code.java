@@ -0,0 +1,232 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+import java.util.*;
+
+/**
+ * Bytecode buffer for a single method, with forward and backward labels.
+ * Only the int and array instructions the translators need are provided.
+ */
+public class Code
+{
+	// Opcodes
+	public static final int ICONST_0 = 0x03;
+	public static final int BIPUSH = 0x10;
+	public static final int SIPUSH = 0x11;
+	public static final int LDC_W = 0x13;
+	public static final int ILOAD = 0x15;
+	public static final int ALOAD = 0x19;
+	public static final int IALOAD = 0x2E;
+	public static final int ISTORE = 0x36;
+	public static final int IASTORE = 0x4F;
+	public static final int IADD = 0x60;
+	public static final int ISUB = 0x64;
+	public static final int ISHL = 0x78;
+	public static final int ISHR = 0x7A;
+	public static final int IUSHR = 0x7C;
+	public static final int IAND = 0x7E;
+	public static final int IOR = 0x80;
+	public static final int IXOR = 0x82;
+	public static final int IFEQ = 0x99;
+	public static final int IFNE = 0x9A;
+	public static final int IF_ICMPNE = 0xA0;
+	public static final int IF_ICMPGE = 0xA2;
+	public static final int GOTO = 0xA7;
+	public static final int TABLESWITCH = 0xAA;
+	public static final int IRETURN = 0xAC;
+	public static final int RETURN = 0xB1;
+	public static final int GETFIELD = 0xB4;
+	public static final int PUTFIELD = 0xB5;
+	public static final int INVOKEVIRTUAL = 0xB6;
+	public static final int INVOKESPECIAL = 0xB7;
+	public static final int ARRAYLENGTH = 0xBE;
+	public static final int WIDE = 0xC4;
+
+	private byte[] buffer = new byte[256];
+	private int length = 0;
+
+	private ArrayList<Integer> labelPositions = new ArrayList<Integer>();
+
+	// Branch fixups: {position of opcode, label}
+	private ArrayList<int[]> fixups = new ArrayList<int[]>();
+
+	// Switch fixups, with 4-byte offsets: {position of opcode, label, position of offset}
+	private ArrayList<int[]> switchFixups = new ArrayList<int[]>();
+
+	public int length()
+	{
+		return length;
+	}
+
+	public void op(int opcode)
+	{
+		u1(opcode);
+	}
+
+	public void u1(int val)
+	{
+		if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		buffer[length ++] = (byte) val;
+	}
+
+	public void u2(int val)
+	{
+		u1(val >> 8);
+		u1(val);
+	}
+
+	public void u4(int val)
+	{
+		u2(val >> 16);
+		u2(val);
+	}
+
+	// Pushes an int constant, using the shortest encoding
+	public void push(int val)
+	{
+		if (val >= -1 && val <= 5) op(ICONST_0 + val);
+		else if (val >= -128 && val <= 127)
+		{
+			op(BIPUSH);
+			u1(val);
+		}
+		else if (val >= -32768 && val <= 32767)
+		{
+			op(SIPUSH);
+			u2(val);
+		}
+		else throw new IllegalArgumentException("Code.push: Constant out of range (" + val + ")");
+	}
+
+	public void iload(int local)
+	{
+		localOp(ILOAD, 0x1A, local);
+	}
+
+	public void istore(int local)
+	{
+		localOp(ISTORE, 0x3B, local);
+	}
+
+	public void aload(int local)
+	{
+		localOp(ALOAD, 0x2A, local);
+	}
+
+	private void localOp(int opcode, int shortForm, int local)
+	{
+		if (local <= 3) op(shortForm + local);
+		else if (local <= 255)
+		{
+			op(opcode);
+			u1(local);
+		}
+		else
+		{
+			op(WIDE);
+			op(opcode);
+			u2(local);
+		}
+	}
+
+	// Pushes a constant pool entry, see ClassBuilder.integer
+	public void ldc(int constant)
+	{
+		op(LDC_W);
+		u2(constant);
+	}
+
+	public void invokeSpecial(int methodRef)
+	{
+		op(INVOKESPECIAL);
+		u2(methodRef);
+	}
+
+	public void invokeVirtual(int methodRef)
+	{
+		op(INVOKEVIRTUAL);
+		u2(methodRef);
+	}
+
+	public void getField(int fieldRef)
+	{
+		op(GETFIELD);
+		u2(fieldRef);
+	}
+
+	public void putField(int fieldRef)
+	{
+		op(PUTFIELD);
+		u2(fieldRef);
+	}
+
+	// Emits a tableswitch on the int on the stack, jumping to labels[v - low],
+	// or to the default label outside them
+	public void tableSwitch(int low, int defaultLabel, int[] labels)
+	{
+		int opPos = length;
+		op(TABLESWITCH);
+		while (length % 4 != 0) u1(0);
+
+		switchFixups.add(new int[] {opPos, defaultLabel, length});
+		u4(0);
+		u4(low);
+		u4(low + labels.length - 1);
+
+		for (int label : labels)
+		{
+			switchFixups.add(new int[] {opPos, label, length});
+			u4(0);
+		}
+	}
+
+	public int newLabel()
+	{
+		labelPositions.add(-1);
+		return labelPositions.size() - 1;
+	}
+
+	public void mark(int label)
+	{
+		labelPositions.set(label, length);
+	}
+
+	// Emits a branch instruction (goto or if*) to a label
+	public void jump(int opcode, int label)
+	{
+		int opPos = length;
+		op(opcode);
+		fixups.add(new int[] {opPos, label});
+		u2(0);
+	}
+
+	// Resolves labels and returns the finished bytecode
+	public byte[] toByteArray()
+	{
+		for (int[] fixup : fixups)
+		{
+			int target = labelPositions.get(fixup[1]);
+			if (target < 0) throw new IllegalStateException("Code: Unmarked label");
+
+			int offset = target - fixup[0];
+			if (offset < -32768 || offset > 32767) throw new IllegalStateException("Code: Branch offset too large");
+
+			buffer[fixup[0]+1] = (byte) (offset >> 8);
+			buffer[fixup[0]+2] = (byte) offset;
+		}
+
+		for (int[] fixup : switchFixups)
+		{
+			int target = labelPositions.get(fixup[1]);
+			if (target < 0) throw new IllegalStateException("Code: Unmarked label");
+
+			int offset = target - fixup[0];
+			for (int b=0 ; b<4 ; b++) buffer[fixup[2]+b] = (byte) (offset >> (24 - 8*b));
+		}
+
+		if (length > 65535) throw new IllegalStateException("Code: Method too large");
+
+		return Arrays.copyOf(buffer, length);
+	}
+}
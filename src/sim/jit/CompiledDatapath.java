@@ -0,0 +1,18 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+import sim.*;
+
+/**
+ * Base class of a datapath compiled by NetlistCompiler. evaluate reads the
+ * netlist's inputs from the signals and controls, works out every wire and
+ * stores its outputs back to the signals. Given a wire vector, it also
+ * leaves the value of each wire there, indexed as in the netlist.
+ */
+public abstract class CompiledDatapath
+{
+	public abstract void evaluate(Processor.Signals signals, Processor.Controls controls, int[] registerFile, int[] encoding, DataMemory memory);
+
+	public abstract void evaluate(Processor.Signals signals, Processor.Controls controls, int[] registerFile, int[] encoding, DataMemory memory, int[] wires);
+}
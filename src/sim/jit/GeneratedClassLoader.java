@@ -0,0 +1,21 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+/**
+ * Defines generated classes. Its parent is the loader of the simulator
+ * classes, so generated code can extend and call them.
+ */
+public class GeneratedClassLoader extends ClassLoader
+{
+	public GeneratedClassLoader()
+	{
+		super(GeneratedClassLoader.class.getClassLoader());
+	}
+
+	// The name is in binary form, e.g. "sim.jit.Block_0"
+	public Class<?> define(String name, byte[] classBytes)
+	{
+		return defineClass(name, classBytes, 0, classBytes.length);
+	}
+}
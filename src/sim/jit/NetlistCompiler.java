@@ -0,0 +1,312 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+import sim.*;
+
+/**
+ * Compiles a Netlist into a CompiledDatapath class. Wires live in local
+ * variables, and the components follow each other as straight-line code in
+ * the netlist's order, with tableswitches for the muxes and ALU. Nothing is
+ * allocated. The method taking a wire vector copies every wire into it at
+ * the end, which costs about as much again as the logic, so the other
+ * leaves it out.
+ */
+public class NetlistCompiler
+{
+	// Local variable slots
+	private static final int L_SIGNALS = 1;
+	private static final int L_CONTROLS = 2;
+	private static final int L_REG = 3;
+	private static final int L_ENCODING = 4;
+	private static final int L_MEM = 5;
+	private static final int L_WIRES = 6;			// Present but unused without a wire vector
+	private static final int L_WIRE0 = 7;
+	private static final int MAX_STACK = 4;
+
+	private static final String SUPER_NAME = "sim/jit/CompiledDatapath";
+	private static final String SIGNALS_NAME = "sim/Processor$Signals";
+	private static final String CONTROLS_NAME = "sim/Processor$Controls";
+	private static final String ALU_OP_NAME = "sim/Processor$AluOp";
+
+	private static GeneratedClassLoader loader = new GeneratedClassLoader();
+	private static int classCount = 0;
+
+	private ClassBuilder builder;
+	private Code code;
+
+	public static CompiledDatapath compile(Netlist netlist) throws ReflectiveOperationException
+	{
+		return new NetlistCompiler().build(netlist);
+	}
+
+	private CompiledDatapath build(Netlist netlist) throws ReflectiveOperationException
+	{
+		String className;
+		synchronized (NetlistCompiler.class)
+		{
+			className = "sim/jit/Datapath_" + (classCount ++);
+		}
+
+		String descriptor = "(L" + SIGNALS_NAME + ";L" + CONTROLS_NAME + ";[I[ILsim/DataMemory;";
+		builder = new ClassBuilder(className, SUPER_NAME);
+		builder.addMethod("evaluate", descriptor + ")V", emitEvaluate(netlist, false), MAX_STACK, L_WIRE0 + netlist.getWireCount());
+		builder.addMethod("evaluate", descriptor + "[I)V", emitEvaluate(netlist, true), MAX_STACK, L_WIRE0 + netlist.getWireCount());
+
+		Class<?> datapathClass = loader.define(className.replace('/', '.'), builder.toByteArray());
+		return (CompiledDatapath) datapathClass.getDeclaredConstructor().newInstance();
+	}
+
+	private Code emitEvaluate(Netlist netlist, boolean recordWires)
+	{
+		code = new Code();
+
+		for (int b=0 ; b<netlist.inputWires.length ; b++)
+		{
+			code.aload(L_SIGNALS);
+			code.getField(builder.fieldRef(SIGNALS_NAME, netlist.inputFields[b], "I"));
+			code.istore(L_WIRE0 + netlist.inputWires[b]);
+		}
+
+		for (int b=0 ; b<netlist.controlWires.length ; b++)
+		{
+			code.aload(L_CONTROLS);
+			if (netlist.controlFields[b].equals("aluOp"))
+			{
+				code.getField(builder.fieldRef(CONTROLS_NAME, "aluOp", "L" + ALU_OP_NAME + ";"));
+				code.invokeVirtual(builder.methodRef(ALU_OP_NAME, "ordinal", "()I"));
+			}
+			else code.getField(builder.fieldRef(CONTROLS_NAME, netlist.controlFields[b], "I"));
+			code.istore(L_WIRE0 + netlist.controlWires[b]);
+		}
+
+		for (Netlist.Component component : netlist.components) emitComponent(component);
+
+		for (int b=0 ; b<netlist.outputWires.length ; b++)
+		{
+			code.aload(L_SIGNALS);
+			code.iload(L_WIRE0 + netlist.outputWires[b]);
+			code.putField(builder.fieldRef(SIGNALS_NAME, netlist.outputFields[b], "I"));
+		}
+
+		for (int w=0 ; recordWires && w<netlist.getWireCount() ; w++)
+		{
+			code.aload(L_WIRES);
+			push(w);
+			code.iload(L_WIRE0 + w);
+			code.op(Code.IASTORE);
+		}
+
+		code.op(Code.RETURN);
+		return code;
+	}
+
+	private void emitComponent(Netlist.Component component)
+	{
+		int out = L_WIRE0 + component.outputs[0];
+
+		switch (component.type)
+		{
+			case Netlist.ADD :	emitBinary(component, Code.IADD);		break;
+			case Netlist.SUB :	emitBinary(component, Code.ISUB);		break;
+			case Netlist.AND :	emitBinary(component, Code.IAND);		break;
+			case Netlist.OR :		emitBinary(component, Code.IOR);		break;
+			case Netlist.XOR :	emitBinary(component, Code.IXOR);		break;
+			case Netlist.SHL :	emitBinary(component, Code.ISHL);		break;
+			case Netlist.SHR :	emitBinary(component, Code.ISHR);		break;
+
+			case Netlist.EQ :
+			{
+				int notEqual = code.newLabel();
+				int done = code.newLabel();
+
+				load(component, 0);
+				load(component, 1);
+				code.jump(Code.IF_ICMPNE, notEqual);
+				code.push(1);
+				code.jump(Code.GOTO, done);
+				code.mark(notEqual);
+				code.push(0);
+				code.mark(done);
+				code.istore(out);
+				break;
+			}
+
+			case Netlist.BIT :
+				load(component, 0);
+				load(component, 1);
+				code.op(Code.ISHR);
+				code.push(1);
+				code.op(Code.IAND);
+				code.istore(out);
+				break;
+
+			case Netlist.SEXT :
+			{
+				int from = component.inputValues[1];
+				int to = component.inputValues[2];
+				int positive = code.newLabel();
+
+				load(component, 0);
+				code.istore(out);
+				load(component, 0);
+				push(1 << (from - 1));
+				code.op(Code.IAND);
+				code.jump(Code.IFEQ, positive);
+				code.iload(out);
+				push(((1 << to) - 1) & ~((1 << from) - 1));
+				code.op(Code.IOR);
+				code.istore(out);
+				code.mark(positive);
+				break;
+			}
+
+			case Netlist.MUX :
+			{
+				int done = code.newLabel();
+				int none = code.newLabel();
+				int[] labels = new int[component.inputWires.length - 1];
+				for (int i=0 ; i<labels.length ; i++) labels[i] = code.newLabel();
+
+				load(component, 0);
+				code.tableSwitch(0, none, labels);
+
+				for (int i=0 ; i<labels.length ; i++)
+				{
+					code.mark(labels[i]);
+					load(component, i + 1);
+					code.istore(out);
+					code.jump(Code.GOTO, done);
+				}
+
+				code.mark(none);
+				code.push(0);
+				code.istore(out);
+				code.mark(done);
+				break;
+			}
+
+			case Netlist.ALU :		emitAlu(component);		break;
+
+			case Netlist.IMEM :
+			{
+				int past = code.newLabel();
+				int done = code.newLabel();
+
+				load(component, 0);
+				code.aload(L_ENCODING);
+				code.op(Code.ARRAYLENGTH);
+				code.jump(Code.IF_ICMPGE, past);
+				code.aload(L_ENCODING);
+				load(component, 0);
+				code.op(Code.IALOAD);
+				code.jump(Code.GOTO, done);
+				code.mark(past);
+				code.push(0);
+				code.mark(done);
+				code.istore(out);
+				break;
+			}
+
+			case Netlist.DMEM :
+				code.aload(L_MEM);
+				load(component, 0);
+				code.invokeVirtual(builder.methodRef("sim/DataMemory", "read", "(I)I"));
+				code.istore(out);
+				break;
+
+			case Netlist.REGFILE :
+				code.aload(L_REG);
+				load(component, 0);
+				code.op(Code.IALOAD);
+				code.istore(out);
+				break;
+
+			default : throw new IllegalArgumentException("NetlistCompiler: Unknown component type " + component.type);
+		}
+	}
+
+	private void emitBinary(Netlist.Component component, int opcode)
+	{
+		load(component, 0);
+		load(component, 1);
+		code.op(opcode);
+		code.istore(L_WIRE0 + component.outputs[0]);
+	}
+
+	// The AluOps Processor implements, with ADDC, SUBC and ROL giving 0 and
+	// leaving the flags
+	private void emitAlu(Netlist.Component component)
+	{
+		Processor.AluOp[] ops = Processor.AluOp.values();
+		int result = L_WIRE0 + component.outputs[0];
+		int flags = L_WIRE0 + component.outputs[1];
+
+		int done = code.newLabel();
+		int none = code.newLabel();
+		int[] labels = new int[ops.length];
+
+		for (int o=0 ; o<ops.length ; o++)
+		{
+			boolean implemented = (ops[o] != Processor.AluOp.ADDC && ops[o] != Processor.AluOp.SUBC && ops[o] != Processor.AluOp.ROL);
+			labels[o] = implemented ? code.newLabel() : none;
+		}
+
+		load(component, 0);
+		code.tableSwitch(0, none, labels);
+
+		for (int o=0 ; o<ops.length ; o++)
+		{
+			if (labels[o] == none) continue;
+
+			code.mark(labels[o]);
+
+			boolean setFlags = true;
+			switch (ops[o])
+			{
+				case ADD :	emitAluOp(component, Code.IADD);	break;
+				case SUB :	emitAluOp(component, Code.ISUB);	break;
+				case AND :	emitAluOp(component, Code.IAND);	break;
+				case XOR :	emitAluOp(component, Code.IXOR);	break;
+				case OR :	emitAluOp(component, Code.IOR);		break;
+				case SHL :	emitAluOp(component, Code.ISHL);	break;
+				case SHR :	emitAluOp(component, Code.ISHR);	break;
+				case OPA :	load(component, 1); setFlags = false; break;
+				case OPB :	load(component, 2); setFlags = false; break;
+				default : throw new IllegalStateException("NetlistCompiler: No code for " + ops[o]);
+			}
+
+			code.istore(result);
+			code.push(setFlags ? 1 : 0);
+			code.istore(flags);
+			code.jump(Code.GOTO, done);
+		}
+
+		code.mark(none);
+		code.push(0);
+		code.istore(result);
+		code.push(0);
+		code.istore(flags);
+		code.mark(done);
+	}
+
+	private void emitAluOp(Netlist.Component component, int opcode)
+	{
+		load(component, 1);
+		load(component, 2);
+		code.op(opcode);
+	}
+
+	// Pushes a component's input
+	private void load(Netlist.Component component, int input)
+	{
+		if (component.inputWires[input] >= 0) code.iload(L_WIRE0 + component.inputWires[input]);
+		else push(component.inputValues[input]);
+	}
+
+	private void push(int value)
+	{
+		if (value >= -32768 && value <= 32767) code.push(value);
+		else code.ldc(builder.integer(value));
+	}
+}
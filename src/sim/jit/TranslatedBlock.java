@@ -0,0 +1,20 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+/**
+ * Base class of translated code. A translated region runs from its entry
+ * address until it leaves the region, halts or would exceed its budget.
+ *
+ * state holds {flagZ, flagC, budget} on entry and is updated on exit, the
+ * budget being the number of instructions the region may still execute.
+ * Returns the address of the next instruction to execute.
+ */
+public abstract class TranslatedBlock
+{
+	public static final int STATE_FLAG_Z = 0;
+	public static final int STATE_FLAG_C = 1;
+	public static final int STATE_BUDGET = 2;
+
+	public abstract int execute(int[] registerFile, int[] dataMemory, int[] state);
+}
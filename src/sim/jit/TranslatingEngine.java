@@ -0,0 +1,172 @@
+// Microprocessor Simulator
+
+package sim.jit;
+
+import sim.*;
+
+/**
+ * Functional engine that runs translated JVM code. Regions are translated
+ * the first time they are entered and kept in a cache indexed by entry
+ * address. Addresses that cannot be translated, and budgets too small for a
+ * whole block, fall back to the interpreting FunctionalEngine, which also
+ * holds the architectural state.
+ *
+ * Translated code addresses one page of data memory, the one selected on
+ * entry, so page instructions end regions and are always interpreted.
+ */
+public class TranslatingEngine implements Engine
+{
+	private FunctionalEngine interpreter;
+	private BlockTranslator translator;
+
+	private TranslatedBlock[] cache;
+	private boolean[] untranslatable;
+	private int[] state = new int[3];
+
+	// Statistics
+	public int regionsTranslated;
+	public int translationFailures;
+	public long interpretedInstructions;
+
+	public TranslatingEngine(Instruction[] program)
+	{
+		this(program, DataMemory.PAGE_WORDS);
+	}
+
+	public TranslatingEngine(Instruction[] program, int memorySize)
+	{
+		DecodedProgram decoded = new DecodedProgram(program);
+
+		interpreter = new FunctionalEngine(decoded);
+		interpreter.memorySize = memorySize;
+		interpreter.reset();
+		translator = new BlockTranslator(program, decoded);
+
+		cache = new TranslatedBlock[program.length];
+		untranslatable = new boolean[program.length];
+		for (int i=0 ; i<program.length ; i++) untranslatable[i] = BlockTranslator.isPage(program[i].insnType);
+	}
+
+	// Translated code is kept, it does not depend on the architectural state
+	public void reset()
+	{
+		interpreter.reset();
+		interpretedInstructions = 0;
+	}
+
+	public void step()
+	{
+		run(1);
+	}
+
+	public boolean run(long maxSteps)
+	{
+		long done = 0;
+
+		while (done < maxSteps)
+		{
+			if (interpreter.isHalted()) return true;
+
+			int pc = interpreter.pc;
+			TranslatedBlock block = lookup(pc);
+
+			if (block == null)
+			{
+				interpreter.run(1);
+				interpretedInstructions ++;
+				done ++;
+				continue;
+			}
+
+			int budget = (int) Math.min(maxSteps - done, Integer.MAX_VALUE);
+			state[TranslatedBlock.STATE_FLAG_Z] = interpreter.flagZ;
+			state[TranslatedBlock.STATE_FLAG_C] = interpreter.flagC;
+			state[TranslatedBlock.STATE_BUDGET] = budget;
+
+			int nextPC = block.execute(interpreter.registerFile, interpreter.memory.allocatePage(interpreter.page), state);
+
+			int executed = budget - state[TranslatedBlock.STATE_BUDGET];
+			interpreter.pc = nextPC;
+			interpreter.flagZ = state[TranslatedBlock.STATE_FLAG_Z];
+			interpreter.flagC = state[TranslatedBlock.STATE_FLAG_C];
+			interpreter.instructionCount += executed;
+			done += executed;
+
+			// Remaining budget is smaller than the next block, finish by interpreting
+			if (executed == 0 && !interpreter.isHalted())
+			{
+				long before = interpreter.instructionCount;
+				interpreter.run(maxSteps - done);
+				interpretedInstructions += interpreter.instructionCount - before;
+				break;
+			}
+		}
+
+		return isHalted();
+	}
+
+	private TranslatedBlock lookup(int pc)
+	{
+		TranslatedBlock block = cache[pc];
+		if (block != null || untranslatable[pc]) return block;
+
+		try
+		{
+			block = translator.translate(pc);
+			cache[pc] = block;
+			regionsTranslated ++;
+		}
+		catch (ReflectiveOperationException roE)
+		{
+			untranslatable[pc] = true;
+			translationFailures ++;
+		}
+		catch (LinkageError lE)
+		{
+			untranslatable[pc] = true;
+			translationFailures ++;
+		}
+		catch (RuntimeException rE)
+		{
+			untranslatable[pc] = true;
+			translationFailures ++;
+		}
+
+		return block;
+	}
+
+	public boolean isHalted()
+	{
+		return interpreter.isHalted();
+	}
+
+	public int[] getRegisterFile()
+	{
+		return interpreter.registerFile;
+	}
+
+	public int[] getDataMemory()
+	{
+		return interpreter.dataMemory;
+	}
+
+	public DataMemory getMemory()
+	{
+		return interpreter.memory;
+	}
+
+	public long getCycleCount()
+	{
+		return interpreter.instructionCount;
+	}
+
+	public long getInstructionCount()
+	{
+		return interpreter.instructionCount;
+	}
+
+	public int getBytesGenerated()
+	{
+		return translator.bytesGenerated;
+	}
+}
@@ -0,0 +1,362 @@
+// Microprocessor Simulator
+
+package sim.trace;
+
+import sim.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Reads a trace written by TraceWriter. The file is memory mapped, in
+ * segments so traces over 2GB can be read, and records are decoded into a
+ * caller-supplied TraceRecord. Iteration starts at the first cycle and can be
+ * moved to any cycle with seek().
+ *
+ * Records vary in length and derive their stage addresses from the one
+ * before, so opening the trace reads it through once, keeping the position
+ * and stage addresses of every INDEX_INTERVAL-th record. Reaching a cycle
+ * decodes forward from the one indexed before it.
+ *
+ * Usage: java sim.trace.TraceReader file.trace [firstCycle [count]]
+ */
+public class TraceReader implements Closeable
+{
+	public static final int INDEX_INTERVAL = 1024;
+
+	// Bytes per mapped segment, each mapped with room for a record starting at its end
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	// A position in the records, with the stage addresses its record derives from
+	private static class Cursor
+	{
+		long index;
+		long offset;
+		int feInsnAdd = -1;
+		int deInsnAdd = -1;
+		int exInsnAdd = -1;
+		int maInsnAdd = -1;
+		int wbInsnAdd = -1;
+	}
+
+	private RandomAccessFile file;
+	private MappedByteBuffer[] segments;
+
+	private int memorySize;
+	private long firstCycle;
+	private long recordCount;
+
+	// State the trace starts from, zero when from reset
+	private int[] initialRegisterFile;
+	private DataMemory initialMemory;
+
+	// Offset and stage addresses (FE to WB) of every INDEX_INTERVAL-th record
+	private long[] indexOffsets = new long[16];
+	private int[] indexStages = new int[16 * 5];
+
+	private Cursor iteration = new Cursor();
+	private Cursor lookup = new Cursor();
+	private TraceRecord skipped = new TraceRecord();
+
+	public TraceReader(File traceFile) throws IOException
+	{
+		file = new RandomAccessFile(traceFile, "r");
+		FileChannel channel = file.getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining()) if (channel.read(header) < 0) throw new IOException("TraceReader: Truncated header");
+		header.flip();
+
+		if (header.getInt() != TraceWriter.MAGIC) throw new IOException("TraceReader: Not a trace file");
+
+		int version = header.getInt();
+		if (version != TraceWriter.VERSION) throw new IOException("TraceReader: Unsupported version (" + version + ")");
+
+		int recordSize = header.getInt();
+		if (recordSize != TraceWriter.MAX_RECORD_SIZE) throw new IOException("TraceReader: Unexpected record size (" + recordSize + ")");
+
+		memorySize = header.getInt();
+		firstCycle = header.getLong();
+		recordCount = header.getLong();
+		int stateWords = header.getInt();
+
+		if (!DataMemory.isValidSize(memorySize)) throw new IOException("TraceReader: Bad memory size (" + memorySize + ")");
+		initialMemory = new DataMemory(memorySize);
+		initialRegisterFile = new int[16];
+
+		if (stateWords != 0) readState(channel, stateWords);
+		long recordsOffset = TraceWriter.HEADER_SIZE + 4L * stateWords;
+		long recordsSize = Math.max(channel.size() - recordsOffset, 0);
+
+		int numSegments = (int) ((recordsSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		segments = new MappedByteBuffer[numSegments];
+
+		for (int s=0 ; s<numSegments ; s++)
+		{
+			long first = s * SEGMENT_SIZE;
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, recordsOffset + first,
+				Math.min(SEGMENT_SIZE + TraceWriter.MAX_RECORD_SIZE, recordsSize - first));
+			segments[s].order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		buildIndex(recordsSize);
+	}
+
+	// A writer that did not close leaves the count at zero, so the records are
+	// counted as they are indexed, up to the last one written whole
+	private void buildIndex(long recordsSize)
+	{
+		long limit = (recordCount == 0) ? Long.MAX_VALUE : recordCount;
+		Cursor cursor = new Cursor();
+
+		while (true)
+		{
+			if (cursor.index % INDEX_INTERVAL == 0) addIndex(cursor);
+			if (cursor.index == limit || cursor.offset + 2 > recordsSize) break;
+			if (cursor.offset + getRecordSize(cursor.offset) > recordsSize) break;
+
+			step(cursor, skipped);
+		}
+
+		recordCount = cursor.index;
+	}
+
+	private void addIndex(Cursor cursor)
+	{
+		int k = (int) (cursor.index / INDEX_INTERVAL);
+		if (k == indexOffsets.length)
+		{
+			indexOffsets = Arrays.copyOf(indexOffsets, 2 * k);
+			indexStages = Arrays.copyOf(indexStages, 2 * k * 5);
+		}
+
+		indexOffsets[k] = cursor.offset;
+		indexStages[k * 5] = cursor.feInsnAdd;
+		indexStages[k * 5 + 1] = cursor.deInsnAdd;
+		indexStages[k * 5 + 2] = cursor.exInsnAdd;
+		indexStages[k * 5 + 3] = cursor.maInsnAdd;
+		indexStages[k * 5 + 4] = cursor.wbInsnAdd;
+	}
+
+	private void readState(FileChannel channel, int stateWords) throws IOException
+	{
+		ByteBuffer state = ByteBuffer.allocate(4 * stateWords).order(ByteOrder.LITTLE_ENDIAN);
+		while (state.hasRemaining()) if (channel.read(state) < 0) throw new IOException("TraceReader: Truncated state");
+		state.flip();
+
+		try
+		{
+			initialRegisterFile = new int[state.getInt()];
+			for (int r=0 ; r<initialRegisterFile.length ; r++) initialRegisterFile[r] = state.getInt();
+
+			int pages = state.getInt();
+			for (int i=0 ; i<pages ; i++)
+			{
+				int[] page = initialMemory.allocatePage(state.getInt());
+				for (int w=0 ; w<DataMemory.PAGE_WORDS ; w++) page[w] = state.getInt();
+			}
+		}
+		catch (RuntimeException rE)
+		{
+			throw new IOException("TraceReader: Bad state (" + rE + ")");
+		}
+	}
+
+	// Data memory words of the traced run
+	public int getMemorySize()
+	{
+		return memorySize;
+	}
+
+	// Register file at the first cycle, before its clock edge
+	public int[] getInitialRegisterFile()
+	{
+		return initialRegisterFile;
+	}
+
+	// Data memory at the first cycle, before its clock edge
+	public DataMemory getInitialMemory()
+	{
+		return initialMemory;
+	}
+
+	public long getFirstCycle()
+	{
+		return firstCycle;
+	}
+
+	public long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	// Moves iteration to the given cycle, returning false if it is not in the trace
+	public boolean seek(long cycle)
+	{
+		if (cycle < firstCycle || cycle - firstCycle > recordCount) return false;
+		moveTo(iteration, cycle - firstCycle);
+		return true;
+	}
+
+	public boolean hasNext()
+	{
+		return iteration.index < recordCount;
+	}
+
+	public void next(TraceRecord record)
+	{
+		if (iteration.index >= recordCount) throw new IllegalStateException("TraceReader: Read past end of trace");
+		step(iteration, record);
+	}
+
+	// Reads the given cycle without moving the iteration position
+	public boolean read(long cycle, TraceRecord record)
+	{
+		if (cycle < firstCycle || cycle - firstCycle >= recordCount) return false;
+		moveTo(lookup, cycle - firstCycle);
+		step(lookup, record);
+		return true;
+	}
+
+	// Decodes forward from where the cursor is, if that is no further back than
+	// the index entry before the record, otherwise from the entry
+	private void moveTo(Cursor cursor, long index)
+	{
+		if (cursor.index > index || index - cursor.index > index % INDEX_INTERVAL)
+		{
+			int k = (int) (index / INDEX_INTERVAL);
+			cursor.index = (long) k * INDEX_INTERVAL;
+			cursor.offset = indexOffsets[k];
+			cursor.feInsnAdd = indexStages[k * 5];
+			cursor.deInsnAdd = indexStages[k * 5 + 1];
+			cursor.exInsnAdd = indexStages[k * 5 + 2];
+			cursor.maInsnAdd = indexStages[k * 5 + 3];
+			cursor.wbInsnAdd = indexStages[k * 5 + 4];
+		}
+
+		while (cursor.index < index) step(cursor, skipped);
+	}
+
+	private int getRecordSize(long offset)
+	{
+		int flags = segments[(int) (offset / SEGMENT_SIZE)].getShort((int) (offset % SEGMENT_SIZE));
+
+		int size = 2;
+		if ((flags & TraceWriter.STAGES) != 0) size += 10;
+		else if ((flags & (TraceWriter.FE_SAME | TraceWriter.FE_NEXT)) == 0) size += 2;
+		if ((flags & TraceWriter.REG_WRITE) != 0) size += 3;
+		if ((flags & TraceWriter.MEM_WRITE) != 0) size += 3;
+
+		return size;
+	}
+
+	// Decodes the record at the cursor and moves the cursor on to the next,
+	// shifting the stage addresses as Processor does at the clock edge
+	private void step(Cursor cursor, TraceRecord record)
+	{
+		ByteBuffer segment = segments[(int) (cursor.offset / SEGMENT_SIZE)];
+		int o = (int) (cursor.offset % SEGMENT_SIZE);
+
+		int flags = segment.getShort(o);
+		int p = o + 2;
+
+		if ((flags & TraceWriter.STAGES) != 0)
+		{
+			record.feInsnAdd = segment.getShort(p) & 0xFFF;
+			record.deInsnAdd = segment.getShort(p + 2) & 0xFFF;
+			record.exInsnAdd = segment.getShort(p + 4) & 0xFFF;
+			record.maInsnAdd = segment.getShort(p + 6) & 0xFFF;
+			record.wbInsnAdd = segment.getShort(p + 8) & 0xFFF;
+			p += 10;
+		}
+		else
+		{
+			if ((flags & TraceWriter.FE_SAME) != 0) record.feInsnAdd = cursor.feInsnAdd;
+			else if ((flags & TraceWriter.FE_NEXT) != 0) record.feInsnAdd = cursor.feInsnAdd + 1;
+			else
+			{
+				record.feInsnAdd = segment.getShort(p) & 0xFFF;
+				p += 2;
+			}
+
+			record.deInsnAdd = cursor.deInsnAdd;
+			record.exInsnAdd = cursor.exInsnAdd;
+			record.maInsnAdd = cursor.maInsnAdd;
+			record.wbInsnAdd = cursor.wbInsnAdd;
+		}
+
+		record.cycle = firstCycle + cursor.index;
+
+		record.stall = flags & 1;
+		record.feFlush = (flags >> 1) & 1;
+		record.deFlush = (flags >> 2) & 1;
+		record.exBubble = (flags >> 3) & 1;
+		record.deBubble = (flags >> 4) & 1;
+		record.maWrEn = (flags >> 5) & 1;
+
+		record.regWrEn = (flags >> 6) & 1;
+		record.regWrAdd = 0;
+		record.regWrData = 0;
+		if (record.regWrEn == 1)
+		{
+			record.regWrAdd = segment.get(p) & 0xF;
+			record.regWrData = segment.getShort(p + 1) & 0xFFFF;
+			p += 3;
+		}
+
+		record.memWrEn = (flags >> 7) & 1;
+		record.memWrAdd = 0;
+		record.memWrData = 0;
+		if (record.memWrEn == 1)
+		{
+			record.memWrAdd = segment.getShort(p) & 0xFFFF;
+			record.memWrData = segment.get(p + 2) & 0xFF;
+			p += 3;
+		}
+
+		cursor.index ++;
+		cursor.offset += p - o;
+
+		cursor.wbInsnAdd = record.maInsnAdd;
+		cursor.maInsnAdd = record.exInsnAdd;
+		cursor.exInsnAdd = (record.stall == 0) ? record.deInsnAdd : record.exInsnAdd;
+		cursor.deInsnAdd = ((flags & TraceWriter.DE_HELD) == 0) ? record.feInsnAdd : record.deInsnAdd;
+		cursor.feInsnAdd = record.feInsnAdd;
+	}
+
+	public void close() throws IOException
+	{
+		segments = null;
+		file.close();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1 || args.length > 3)
+		{
+			System.err.println("Usage: java sim.trace.TraceReader file.trace [firstCycle [count]]");
+			System.exit(1);
+		}
+
+		TraceReader reader = new TraceReader(new File(args[0]));
+		long first = (args.length > 1) ? Long.parseLong(args[1]) : reader.getFirstCycle();
+		long count = (args.length > 2) ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+
+		if (!reader.seek(first))
+		{
+			System.err.println("ERR: TraceReader: Cycle " + first + " is not in the trace");
+			System.exit(1);
+		}
+
+		TraceRecord record = new TraceRecord();
+		for (long i=0 ; i<count && reader.hasNext() ; i++)
+		{
+			reader.next(record);
+			System.out.println(record);
+		}
+
+		reader.close();
+	}
+}
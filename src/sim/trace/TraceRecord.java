@@ -0,0 +1,50 @@
+// Microprocessor Simulator
+
+package sim.trace;
+
+/**
+ * One cycle of a pipeline trace, decoded. Readers fill a caller-supplied
+ * record so that iterating a trace does not allocate.
+ *
+ * The stage addresses, controls and writes are those of the cycle ending at
+ * the clock edge: the register and memory writes are the ones performed at
+ * that edge.
+ */
+public class TraceRecord
+{
+	public long cycle;
+
+	// Instruction address held by each stage
+	public int feInsnAdd;
+	public int deInsnAdd;
+	public int exInsnAdd;
+	public int maInsnAdd;
+	public int wbInsnAdd;
+
+	public int stall;			// Load-use or data cache stall, DE and EX held
+	public int feFlush;
+	public int deFlush;
+	public int deBubble;		// DE holds a flushed instruction
+	public int exBubble;		// EX holds a flushed instruction
+	public int maWrEn;		// MA holds a register write
+
+	public int regWrEn;
+	public int regWrAdd;
+	public int regWrData;
+
+	public int memWrEn;
+	public int memWrAdd;
+	public int memWrData;
+
+	public String toString()
+	{
+		StringBuilder str = new StringBuilder(String.format("%10d  %03X %03X %03X %03X %03X  %s%s%s%s",
+			cycle, feInsnAdd, deInsnAdd, exInsnAdd, maInsnAdd, wbInsnAdd,
+			(stall == 1) ? "S" : "-", (feFlush == 1) ? "F" : "-", (deFlush == 1) ? "D" : "-", (exBubble == 1) ? "B" : "-"));
+
+		if (regWrEn == 1) str.append(String.format("  r%d=x%02X", regWrAdd, regWrData));
+		if (memWrEn == 1) str.append(String.format("  [x%02X]=x%02X", memWrAdd, memWrData));
+
+		return str.toString();
+	}
+}
@@ -0,0 +1,170 @@
+// Microprocessor Simulator
+
+package sim.trace;
+
+import sim.*;
+
+/**
+ * Replays a recorded trace into a Processor used only for display, without
+ * simulating. The register file and data memory are kept as keyframes at a
+ * fixed cycle interval, built in one pass over the trace when it is opened; a
+ * jump to any cycle copies the nearest earlier keyframe and applies at most
+ * one interval of recorded writes.
+ *
+ * The display processor receives the state the trace holds: the stage
+ * addresses, the flush, stall and write enables, the register file and the
+ * data memory, which must be the size of the traced run's. Datapath values
+ * that are not recorded are left at zero. The first keyframe is the state
+ * the trace starts from, zero for a trace from reset.
+ */
+public class TraceReplay
+{
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 4096;
+
+	private TraceReader reader;
+	private Processor display;
+	private int keyframeInterval;
+
+	private int[][] keyframeRegisters;
+	private DataMemory[] keyframeMemory;
+
+	private TraceRecord record = new TraceRecord();
+	private long cycle = -1;
+
+	public TraceReplay(TraceReader reader, Processor display, int keyframeInterval)
+	{
+		if (display.memory.size != reader.getMemorySize())
+		{
+			throw new IllegalArgumentException("TraceReplay: Trace has " + reader.getMemorySize() + " words of data memory, not " + display.memory.size);
+		}
+
+		this.reader = reader;
+		this.display = display;
+		this.keyframeInterval = keyframeInterval;
+
+		buildKeyframes();
+		seek(reader.getFirstCycle());
+	}
+
+	private void buildKeyframes()
+	{
+		long records = reader.getRecordCount();
+		int numKeyframes = (int) ((records + keyframeInterval - 1) / keyframeInterval);
+
+		keyframeRegisters = new int[numKeyframes][];
+		keyframeMemory = new DataMemory[numKeyframes];
+
+		int[] registerFile = reader.getInitialRegisterFile().clone();
+		DataMemory memory = reader.getInitialMemory().snapshot();
+
+		reader.seek(reader.getFirstCycle());
+
+		for (long i=0 ; i<records ; i++)
+		{
+			if (i % keyframeInterval == 0)
+			{
+				int k = (int) (i / keyframeInterval);
+				keyframeRegisters[k] = registerFile.clone();
+				keyframeMemory[k] = memory.snapshot();
+			}
+
+			reader.next(record);
+			applyWrites(record, registerFile, memory);
+		}
+	}
+
+	private static void applyWrites(TraceRecord record, int[] registerFile, DataMemory memory)
+	{
+		if (record.regWrEn == 1) registerFile[record.regWrAdd] = record.regWrData;
+		if (record.memWrEn == 1) memory.write(record.memWrAdd, record.memWrData);
+	}
+
+	public long getFirstCycle()
+	{
+		return reader.getFirstCycle();
+	}
+
+	public long getLastCycle()
+	{
+		return reader.getFirstCycle() + reader.getRecordCount() - 1;
+	}
+
+	public long getCycle()
+	{
+		return cycle;
+	}
+
+	// Reconstructs the state at the start of the given cycle, before its clock
+	// edge. Returns false, leaving the display unchanged, if the cycle is not in
+	// the trace.
+	public boolean seek(long target)
+	{
+		if (target < getFirstCycle() || target > getLastCycle()) return false;
+
+		long index = target - getFirstCycle();
+		long from;
+
+		// Step forward from the current cycle when that is no further than from
+		// the keyframe
+		long keyframeIndex = (index / keyframeInterval) * keyframeInterval;
+		long current = cycle - getFirstCycle();
+
+		if (cycle >= 0 && current <= index && current >= keyframeIndex)
+		{
+			from = current;
+		}
+		else
+		{
+			int k = (int) (index / keyframeInterval);
+			System.arraycopy(keyframeRegisters[k], 0, display.registerFile, 0, display.registerFile.length);
+			display.memory.copy(keyframeMemory[k]);
+			from = keyframeIndex;
+		}
+
+		reader.seek(getFirstCycle() + from);
+		for (long i=from ; i<index ; i++)
+		{
+			reader.next(record);
+			applyWrites(record, display.registerFile, display.memory);
+		}
+
+		reader.read(target, record);
+		applyStages(record);
+		cycle = target;
+
+		return true;
+	}
+
+	private void applyStages(TraceRecord record)
+	{
+		display.clockCount = record.cycle;
+
+		display.feInsnAdd = record.feInsnAdd;
+		display.deInsnAdd = record.deInsnAdd;
+		display.exInsnAdd = record.exInsnAdd;
+		display.maInsnAdd = record.maInsnAdd;
+		display.wbInsnAdd = record.wbInsnAdd;
+
+		Processor.Signals signals = display.signals;
+		signals.fe_pc = record.feInsnAdd;
+		signals.de_pc = record.deInsnAdd;
+		signals.ex_pc = record.exInsnAdd;
+		signals.de_feFlush = record.deBubble;
+		signals.ex_deFlush = record.exBubble;
+		signals.ex_feFlush = 0;
+		signals.ma_wrEn = record.maWrEn;
+		signals.wb_wrEn = record.regWrEn;
+		signals.wb_wrAdd = record.regWrAdd;
+		signals.wb_data = record.regWrData;
+		signals.ma_mEn = record.memWrEn;
+		signals.ma_mAdd = record.memWrAdd;
+		if (record.memWrEn == 1) signals.ma_aluOut = record.memWrData;
+
+		Processor.Controls controls = display.controls;
+		controls.pcEn = record.stall ^ 1;
+		controls.fedeEn = record.stall ^ 1;
+		controls.deexEn = record.stall ^ 1;
+		controls.feFlush = record.feFlush;
+		controls.deFlush = record.deFlush;
+	}
+}
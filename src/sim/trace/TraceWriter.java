@@ -0,0 +1,228 @@
+// Microprocessor Simulator
+
+package sim.trace;
+
+import sim.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Records a pipeline trace to a file, one variable-length record per cycle.
+ * Only the FE address is written: the later stage addresses follow from the
+ * previous record's, shifted as Processor shifts them, so a record carries
+ * them only when they do not (the first, or after the processor is restored).
+ * The FE address itself is usually the previous one or the next, and is then
+ * a flag. Records are packed into a direct buffer, written through a
+ * FileChannel when full. TraceReader indexes them when it opens the trace.
+ *
+ * A trace that does not start from reset holds the register file and data
+ * memory it started from, so a replay can rebuild every later cycle.
+ *
+ * File layout (little-endian):
+ *   Header (40 bytes): magic, version, largest record size, data memory words,
+ *                      first cycle, record count, state words, reserved
+ *   State, if the first cycle is not 0 (ints): register count, registers,
+ *                      count of data memory pages written to, then for each
+ *                      its page number and words
+ *   Record (2 to 18 bytes):
+ *     short flags: stall 0, feFlush 1, deFlush 2, EX bubble 3, DE bubble 4,
+ *                  MA register write 5, register write 6, memory write 7,
+ *                  DE held 8, FE unchanged 9, FE next 10, stage addresses 11
+ *     short FE address, unless FE unchanged or FE next
+ *     short DE, EX, MA and WB addresses, if stage addresses
+ *     byte  register address, short data, if register write
+ *     short memory address, byte data, if memory write
+ */
+public class TraceWriter implements Closeable
+{
+	public static final int MAGIC = 0x56505354;		// "VPST"
+	public static final int VERSION = 5;
+	public static final int HEADER_SIZE = 40;
+	public static final int MAX_RECORD_SIZE = 18;
+
+	static final int RECORD_COUNT_OFFSET = 24;
+
+	static final int STALL = 1 << 0;
+	static final int FE_FLUSH = 1 << 1;
+	static final int DE_FLUSH = 1 << 2;
+	static final int EX_BUBBLE = 1 << 3;
+	static final int DE_BUBBLE = 1 << 4;
+	static final int MA_WR_EN = 1 << 5;
+	static final int REG_WRITE = 1 << 6;
+	static final int MEM_WRITE = 1 << 7;
+	static final int DE_HELD = 1 << 8;
+	static final int FE_SAME = 1 << 9;
+	static final int FE_NEXT = 1 << 10;
+	static final int STAGES = 1 << 11;
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	private int offset;					// Bytes of records in the buffer, not yet written
+
+	private long recordCount;
+
+	// Stage addresses the next record is expected to hold, -1 before the first
+	private int feInsnAdd = -1;
+	private int deInsnAdd = -1;
+	private int exInsnAdd = -1;
+	private int maInsnAdd = -1;
+	private int wbInsnAdd = -1;
+
+	// Trace of the given processor from its current cycle
+	public TraceWriter(File file, Processor processor) throws IOException
+	{
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.truncate(0);
+
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		int[] registerFile = processor.registerFile;
+		DataMemory memory = processor.memory;
+		int stateWords = 0;
+		if (processor.clockCount != 0) stateWords = 2 + registerFile.length + memory.getAllocatedPages() * (1 + DataMemory.PAGE_WORDS);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4 * stateWords).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(MAX_RECORD_SIZE);
+		header.putInt(memory.size);
+		header.putLong(processor.clockCount);
+		header.putLong(0);					// Record count, filled in on close
+		header.putInt(stateWords);
+		header.putInt(0);
+
+		if (stateWords != 0)
+		{
+			header.putInt(registerFile.length);
+			for (int register : registerFile) header.putInt(register);
+
+			header.putInt(memory.getAllocatedPages());
+			for (int p=0 ; p<memory.getPageCount() ; p++)
+			{
+				int[] page = memory.getPage(p);
+				if (page == null) continue;
+
+				header.putInt(p);
+				for (int word : page) header.putInt(word);
+			}
+		}
+
+		header.flip();
+		while (header.hasRemaining()) channel.write(header);
+	}
+
+	// Called by Processor before the registers are clocked, while controls and
+	// signals still describe the cycle that is ending
+	public void record(Processor processor)
+	{
+		Processor.Controls controls = processor.controls;
+		Processor.Signals signals = processor.signals;
+
+		int o = offset;
+		if (o > BUFFER_SIZE - MAX_RECORD_SIZE)
+		{
+			flush();
+			o = 0;
+		}
+
+		// The enables, being 0 or 1, shift straight into their flags
+		int flags = (controls.deexEn ^ 1) | (controls.feFlush << 1) | (controls.deFlush << 2)
+			| ((signals.ex_deFlush | signals.ex_feFlush) << 3) | (signals.de_feFlush << 4) | (signals.ma_wrEn << 5)
+			| (signals.wb_wrEn << 6) | (signals.ma_mEn << 7) | ((controls.fedeEn ^ 1) << 8);
+
+		int fe = processor.feInsnAdd & 0xFFF;
+		int p = o + 2;
+
+		if ((processor.deInsnAdd & 0xFFF) != deInsnAdd || (processor.exInsnAdd & 0xFFF) != exInsnAdd
+			|| (processor.maInsnAdd & 0xFFF) != maInsnAdd || (processor.wbInsnAdd & 0xFFF) != wbInsnAdd)
+		{
+			deInsnAdd = processor.deInsnAdd & 0xFFF;
+			exInsnAdd = processor.exInsnAdd & 0xFFF;
+			maInsnAdd = processor.maInsnAdd & 0xFFF;
+			wbInsnAdd = processor.wbInsnAdd & 0xFFF;
+
+			flags |= STAGES;
+			buffer.putShort(p, (short) fe);
+			buffer.putShort(p + 2, (short) deInsnAdd);
+			buffer.putShort(p + 4, (short) exInsnAdd);
+			buffer.putShort(p + 6, (short) maInsnAdd);
+			buffer.putShort(p + 8, (short) wbInsnAdd);
+			p += 10;
+		}
+		else if (fe == feInsnAdd) flags |= FE_SAME;
+		else if (fe == feInsnAdd + 1) flags |= FE_NEXT;
+		else
+		{
+			buffer.putShort(p, (short) fe);
+			p += 2;
+		}
+
+		if (signals.wb_wrEn == 1)
+		{
+			buffer.put(p, (byte) signals.wb_wrAdd);
+			buffer.putShort(p + 1, (short) signals.wb_data);
+			p += 3;
+		}
+
+		if (signals.ma_mEn == 1)
+		{
+			buffer.putShort(p, (short) Processor.getStoreAddress(signals));
+			buffer.put(p + 2, (byte) signals.ma_aluOut);
+			p += 3;
+		}
+
+		buffer.putShort(o, (short) flags);
+		offset = p;
+
+		recordCount ++;
+
+		// Shifted as Processor shifts them at this clock edge
+		wbInsnAdd = maInsnAdd;
+		maInsnAdd = exInsnAdd;
+		if (controls.deexEn == 1) exInsnAdd = deInsnAdd;
+		if (controls.fedeEn == 1) deInsnAdd = fe;
+		feInsnAdd = fe;
+	}
+
+	public long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	private void flush()
+	{
+		try
+		{
+			buffer.clear();
+			buffer.limit(offset);
+			offset = 0;
+
+			while (buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+		}
+		catch (IOException ioE)
+		{
+			throw new IllegalStateException("TraceWriter: Could not write trace", ioE);
+		}
+	}
+
+	public void close() throws IOException
+	{
+		if (channel == null) return;
+
+		flush();
+
+		ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		count.putLong(recordCount);
+		count.flip();
+		channel.write(count, RECORD_COUNT_OFFSET);
+
+		channel.close();
+		channel = null;
+	}
+}